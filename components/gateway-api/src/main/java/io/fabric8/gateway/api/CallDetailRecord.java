@@ -24,10 +24,10 @@ public class CallDetailRecord {
 
 	private final long callTimeNanos;
 	private final String error;
-	private final Date callDate;
+	private final long callTimeMillis;
 	public CallDetailRecord(long callTimeNanos, String error) {
 		super();
-		this.callDate = new Date();
+		this.callTimeMillis = System.currentTimeMillis();
 		this.callTimeNanos = callTimeNanos;
 		this.error = error;
 	}
@@ -40,7 +40,14 @@ public class CallDetailRecord {
 		return error;
 	}
 	
+	/**
+	 * Returns the time the record was created, in milliseconds since the epoch
+	 */
+	public long getCallTimeMillis() {
+		return callTimeMillis;
+	}
+	
 	public Date getCallDate() {
-		return callDate;
+		return new Date(callTimeMillis);
 	}
 }
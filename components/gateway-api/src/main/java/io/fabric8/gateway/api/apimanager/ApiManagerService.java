@@ -15,12 +15,12 @@
  */
 package io.fabric8.gateway.api.apimanager;
 
+import io.fabric8.gateway.api.handlers.http.HttpClientPool;
 import io.fabric8.gateway.api.handlers.http.HttpGatewayHandler;
 
 import java.util.Map;
 
 import org.vertx.java.core.Handler;
-import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientResponse;
 import org.vertx.java.core.http.HttpServerRequest;
 
@@ -47,7 +47,8 @@ public interface ApiManagerService {
      * to be registered with the vert.x framework. This handler is called to handle a response
      * from a fabric8 service.
      *
-     * @param httpClient - vert.x HttpClient used to call the fabric8 service
+     * @param lease - the pooled vert.x HttpClient used to call the fabric8 service, to be released
+     *  once the response has been processed
      * @param httpServerRequest - vert.x HttpServerRequest used to create a HttpServiceResponseHandler
      *  when no API Manager is used
      * @param apiManagementResponseHandler -
@@ -57,7 +58,7 @@ public interface ApiManagerService {
      * @See ApiManHttpServiceResponseHandler
      *
      */
-    public Handler<HttpClientResponse>  createServiceResponseHandler(HttpClient httpClient,
+    public Handler<HttpClientResponse>  createServiceResponseHandler(HttpClientPool.Lease lease,
     		Object apiManagementResponseHandler);
 	/**
 	 * Creates an implementation of a Handler of type HttpServerRequest, and returns a reference.
@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.api.handlers.http;
+
+import io.fabric8.gateway.api.CallDetailRecord;
+import io.fabric8.gateway.api.metrics.GatewayMetrics;
+import io.fabric8.gateway.api.metrics.RequestStatistics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+
+/**
+ * Records the metrics of a single request proxied by the gateway: which route and back end service it
+ * was mapped to, the bytes it carried and how long it took until the response to the client ended.
+ * Only the first completion of a request is recorded. A recorder is only used from the event loop
+ * of its request so it needs no synchronization itself.
+ */
+public class HttpCallRecorder {
+    private static final transient Logger LOG = LoggerFactory.getLogger(HttpCallRecorder.class);
+
+    public static final String UNMAPPED_ROUTE = "unmapped";
+
+    private final HttpGateway httpGateway;
+    private final GatewayMetrics metrics;
+    private final long start = System.nanoTime();
+    private RequestStatistics route;
+    private RequestStatistics backend;
+    private long requestBytes;
+    private long responseBytes;
+    private boolean done;
+
+    public HttpCallRecorder(HttpGateway httpGateway) {
+        this.httpGateway = httpGateway;
+        this.metrics = httpGateway.getMetrics();
+        if (metrics != null) {
+            metrics.getTotal().requestStarted();
+        }
+    }
+
+    /**
+     * Records the route (URI prefix) and the back end service the request was mapped to, either may be null
+     */
+    public void mapped(String pathPrefix, String serviceUrl) {
+        if (metrics == null || done || route != null) {
+            return;
+        }
+        route = metrics.getRoute(pathPrefix != null ? pathPrefix : UNMAPPED_ROUTE);
+        route.requestStarted();
+        if (serviceUrl != null) {
+            backend = metrics.getBackend(serviceUrl);
+            backend.requestStarted();
+        }
+    }
+
+    public void requestBytes(int length) {
+        requestBytes += length;
+    }
+
+    public void responseBytes(int length) {
+        responseBytes += length;
+    }
+
+    public void completed(HttpServerResponse response) {
+        completed(response.getStatusCode(), response.getStatusMessage());
+    }
+
+    /**
+     * Records the end of the request, use a status code of zero if the client got no response
+     */
+    public void completed(int statusCode, String statusMessage) {
+        if (done) {
+            return;
+        }
+        done = true;
+        long duration = System.nanoTime() - start;
+        if (metrics != null) {
+            if (route == null) {
+                mapped(null, null);
+            }
+            metrics.getTotal().requestCompleted(statusCode, duration, requestBytes, responseBytes);
+            route.requestCompleted(statusCode, duration, requestBytes, responseBytes);
+            if (backend != null) {
+                backend.requestCompleted(statusCode, duration, requestBytes, responseBytes);
+            }
+        }
+        String error = statusCode == 0 || statusCode >= 400 ? statusMessage : null;
+        httpGateway.addCallDetailRecord(new CallDetailRecord(duration, error));
+    }
+
+    /**
+     * Returns true if the request is for the gateway's metrics rather than for a back end service
+     */
+    public static boolean isMetricsRequest(HttpServerRequest request, HttpGateway httpGateway) {
+        String metricsPath = httpGateway.getMetricsPath();
+        return metricsPath != null && metricsPath.length() > 0 && httpGateway.getMetrics() != null
+                && metricsPath.equals(request.path());
+    }
+
+    /**
+     * Responds with the gateway metrics in the Prometheus text format
+     */
+    public static void respondMetrics(HttpServerRequest request, HttpGateway httpGateway) {
+        HttpServerResponse response = request.response();
+        try {
+            String text = httpGateway.getMetrics().toPrometheusText();
+            response.headers().set("Content-Type", "text/plain; version=0.0.4");
+            response.setStatusCode(200);
+            response.end(text);
+        } catch (Throwable e) {
+            LOG.error("Failed to render the gateway metrics: " + e, e);
+            response.setStatusCode(500);
+            response.end();
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.api.handlers.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.http.HttpClient;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of keep-alive Vert.x {@link HttpClient} instances, one per back end
+ * endpoint (keyed by host:port), so that proxied requests reuse the connections
+ * to a back end service rather than paying for a new connection on every request.
+ * <p/>
+ * Clients which have had no requests in flight for longer than the idle timeout
+ * are closed by a periodic eviction timer once {@link #start()} has been called.
+ * <p/>
+ * Each {@link #acquire(URL)} returns a {@link Lease} which must be released once
+ * the response has been processed; releasing a lease more than once has no effect,
+ * so it can be released from both the exception and the end handlers of a request.
+ */
+public class HttpClientPool {
+    private static final transient Logger LOG = LoggerFactory.getLogger(HttpClientPool.class);
+
+    public static final int DEFAULT_MAX_POOL_SIZE = 64;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    private final Vertx vertx;
+    private final ConcurrentHashMap<String, PooledClient> clients = new ConcurrentHashMap<String, PooledClient>();
+    private final AtomicLong createdClients = new AtomicLong();
+    private final AtomicLong evictedClients = new AtomicLong();
+    private final AtomicLong acquiredClients = new AtomicLong();
+
+    private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
+    private boolean keepAlive = true;
+    private boolean pipelining = false;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private long evictionTimerId = -1;
+
+    static class PooledClient {
+        // the in flight count of a client which is being closed, after which it can no longer be acquired
+        private static final int CLOSED = -1;
+
+        private final String key;
+        private final HttpClient client;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        PooledClient(String key, HttpClient client) {
+            this.key = key;
+            this.client = client;
+        }
+
+        /**
+         * Counts a new request in flight unless the client is being closed
+         */
+        boolean tryAcquire() {
+            while (true) {
+                int value = inFlight.get();
+                if (value == CLOSED) {
+                    return false;
+                }
+                if (inFlight.compareAndSet(value, value + 1)) {
+                    lastUsed = System.currentTimeMillis();
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            lastUsed = System.currentTimeMillis();
+            inFlight.decrementAndGet();
+        }
+
+        /**
+         * Marks the client as closed if it has been idle for longer than the idle timeout, so that
+         * it can not be acquired while it is being closed
+         */
+        boolean tryEvict(long now, long idleTimeout) {
+            return now - lastUsed > idleTimeout && inFlight.compareAndSet(0, CLOSED);
+        }
+
+        int getInFlight() {
+            return Math.max(inFlight.get(), 0);
+        }
+
+        @Override
+        public String toString() {
+            return key + " (inFlight=" + getInFlight() + ")";
+        }
+    }
+
+    /**
+     * A client acquired from the pool for one request
+     */
+    public static class Lease {
+        private final PooledClient pooledClient;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Lease(PooledClient pooledClient) {
+            this.pooledClient = pooledClient;
+        }
+
+        public HttpClient getClient() {
+            return pooledClient.client;
+        }
+
+        /**
+         * Hands the client back to the pool; only the first call has any effect
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                pooledClient.release();
+            }
+        }
+
+        public boolean isReleased() {
+            return released.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Lease{" + pooledClient.key + (isReleased() ? ", released" : "") + '}';
+        }
+    }
+
+    public HttpClientPool(Vertx vertx) {
+        this.vertx = vertx;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClientPool{" +
+                "maxPoolSize=" + maxPoolSize +
+                ", keepAlive=" + keepAlive +
+                ", pipelining=" + pipelining +
+                ", connectTimeout=" + connectTimeout +
+                ", idleTimeout=" + idleTimeout +
+                '}';
+    }
+
+    /**
+     * Starts the periodic eviction of idle clients
+     */
+    public synchronized void start() {
+        if (evictionTimerId < 0 && idleTimeout > 0) {
+            long period = Math.max(1000, idleTimeout / 2);
+            evictionTimerId = vertx.setPeriodic(period, new Handler<Long>() {
+                @Override
+                public void handle(Long timerId) {
+                    evictIdleClients();
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops the eviction timer and closes all the pooled clients
+     */
+    public synchronized void close() {
+        if (evictionTimerId >= 0) {
+            vertx.cancelTimer(evictionTimerId);
+            evictionTimerId = -1;
+        }
+        for (PooledClient pooledClient : new ArrayList<PooledClient>(clients.values())) {
+            if (clients.remove(pooledClient.key, pooledClient)) {
+                pooledClient.inFlight.set(PooledClient.CLOSED);
+                closeQuietly(pooledClient);
+            }
+        }
+    }
+
+    /**
+     * Returns a lease on the pooled client for the host and port of the given URL, creating the
+     * client if required. Every lease must be released once the response has been fully processed
+     * so that the client does not get evicted while a request is in flight.
+     */
+    public Lease acquire(URL url) {
+        String host = url.getHost();
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        String key = toKey(host, port);
+        while (true) {
+            PooledClient pooledClient = clients.get(key);
+            if (pooledClient == null) {
+                PooledClient created = new PooledClient(key, createClient(host, port));
+                pooledClient = clients.putIfAbsent(key, created);
+                if (pooledClient == null) {
+                    pooledClient = created;
+                    createdClients.incrementAndGet();
+                    LOG.debug("Created pooled HTTP client for {}", key);
+                } else {
+                    // another thread beat us to it
+                    closeQuietly(created);
+                }
+            }
+            if (pooledClient.tryAcquire()) {
+                acquiredClients.incrementAndGet();
+                return new Lease(pooledClient);
+            }
+            // the client is being evicted so make sure it is gone and create a new one
+            clients.remove(key, pooledClient);
+        }
+    }
+
+    /**
+     * Closes and removes any clients which have been idle for longer than the idle timeout
+     */
+    public void evictIdleClients() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, PooledClient> entry : clients.entrySet()) {
+            PooledClient pooledClient = entry.getValue();
+            if (pooledClient.tryEvict(now, idleTimeout)) {
+                clients.remove(entry.getKey(), pooledClient);
+                LOG.debug("Evicting idle pooled HTTP client for {}", entry.getKey());
+                evictedClients.incrementAndGet();
+                closeQuietly(pooledClient);
+            }
+        }
+    }
+
+    protected HttpClient createClient(String host, int port) {
+        HttpClient client = vertx.createHttpClient();
+        client.setHost(host);
+        client.setPort(port);
+        client.setKeepAlive(keepAlive);
+        client.setPipelining(pipelining);
+        client.setMaxPoolSize(maxPoolSize);
+        client.setConnectTimeout(connectTimeout);
+        return client;
+    }
+
+    protected static String toKey(String host, int port) {
+        return host + ":" + port;
+    }
+
+    private void closeQuietly(PooledClient pooledClient) {
+        try {
+            pooledClient.client.close();
+        } catch (Exception e) {
+            LOG.debug("Failed to close HTTP client for " + pooledClient.key + ". " + e, e);
+        }
+    }
+
+    // Statistics
+    //-------------------------------------------------------------------------
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public long getCreatedClients() {
+        return createdClients.get();
+    }
+
+    public long getEvictedClients() {
+        return evictedClients.get();
+    }
+
+    public long getAcquiredClients() {
+        return acquiredClients.get();
+    }
+
+    public int getRequestsInFlight() {
+        int answer = 0;
+        for (PooledClient pooledClient : clients.values()) {
+            answer += pooledClient.getInFlight();
+        }
+        return answer;
+    }
+
+    /**
+     * Returns a description of each pooled client along with its in flight request count
+     */
+    public List<String> getClientDescriptions() {
+        List<String> answer = new ArrayList<String>();
+        for (PooledClient pooledClient : clients.values()) {
+            answer.add(pooledClient.toString());
+        }
+        return answer;
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of connections each pooled client keeps to its back end endpoint
+     */
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    public void setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a client with no requests in flight is closed;
+     * a value of zero or less disables eviction.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+}
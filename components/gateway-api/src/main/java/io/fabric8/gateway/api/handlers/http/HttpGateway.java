@@ -19,6 +19,7 @@ import io.fabric8.gateway.api.CallDetailRecord;
 import io.fabric8.gateway.api.apimanager.ApiManager;
 import io.fabric8.gateway.api.handlers.http.HttpMappingRule;
 import io.fabric8.gateway.api.handlers.http.IMappedServices;
+import io.fabric8.gateway.api.metrics.GatewayMetrics;
 
 import java.net.InetSocketAddress;
 import java.util.Map;
@@ -42,7 +43,8 @@ public interface HttpGateway {
     void removeMappingRuleConfiguration(HttpMappingRule mappingRule);
 
     /**
-     * Returns the currently mapped services indexed by URI prefix on this HTTP gateway
+     * Returns the currently mapped services indexed by URI prefix on this HTTP gateway; which should be
+     * a {@link HttpMappingIndex} that is only rebuilt when the mapping rules change
      */
     Map<String, IMappedServices> getMappedServices();
 
@@ -71,4 +73,19 @@ public interface HttpGateway {
      */
     public void addCallDetailRecord(CallDetailRecord cdr);
 
+    /**
+     * Returns the pool of keep-alive HTTP clients used to proxy requests to the back end services
+     */
+    public HttpClientPool getHttpClientPool();
+
+    /**
+     * Returns the request metrics of the gateway, or null if they are not collected
+     */
+    public GatewayMetrics getMetrics();
+
+    /**
+     * Returns the path the metrics are served from in the Prometheus text format, or null if they are not served
+     */
+    public String getMetricsPath();
+
 }
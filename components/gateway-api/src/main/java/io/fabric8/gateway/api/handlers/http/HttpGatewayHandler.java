@@ -15,7 +15,6 @@
  */
 package io.fabric8.gateway.api.handlers.http;
 
-import io.fabric8.gateway.api.CallDetailRecord;
 import io.fabric8.gateway.api.handlers.http.HttpGatewayServiceClient;
 
 import org.slf4j.Logger;
@@ -50,15 +49,39 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
     		return;
     	}
     	
-    	final long callStart = System.nanoTime();
-    	final HttpClientRequest serviceRequest = httpGatewayClient.execute(request, null);
+    	if (HttpCallRecorder.isMetricsRequest(request, httpGateway)) {
+    		HttpCallRecorder.respondMetrics(request, httpGateway);
+    		return;
+    	}
     	
+    	// the call is recorded once the response to the client has ended
+    	final HttpCallRecorder recorder = new HttpCallRecorder(httpGateway);
+    	final HttpClientRequest serviceRequest = httpGatewayClient.execute(request, null, recorder);
+    	if (serviceRequest == null) {
+    		// the client has already been sent an error response
+    		return;
+    	}
+    	
+    	// the response may never end, such as when the client goes away or the request fails
+    	request.response().closeHandler(new VoidHandler() {
+    		public void handle() {
+    			recorder.completed(0, "Connection closed");
+    		}
+    	});
+    	request.exceptionHandler(new Handler<Throwable>() {
+    		public void handle(Throwable e) {
+    			LOG.warn("Failed to proxy request " + request.uri() + ". " + e);
+    			recorder.completed(0, e.toString());
+    		}
+    	});
+
     	//Sending the request to the service
 		request.dataHandler(new Handler<Buffer>() {
             public void handle(Buffer data) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Proxying request body:" + data);
                 }
+                recorder.requestBytes(data.length());
                 serviceRequest.write(data);
             }
         });
@@ -70,8 +93,5 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
                 serviceRequest.end();
             }
         });
-		CallDetailRecord cdr = new CallDetailRecord(System.nanoTime() - callStart, request.response().getStatusMessage());
-        httpGateway.addCallDetailRecord(cdr);
-    	
     }
 }
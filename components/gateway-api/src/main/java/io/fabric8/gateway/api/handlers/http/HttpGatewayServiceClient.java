@@ -27,13 +27,13 @@ import org.vertx.java.core.http.HttpServerResponse;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.net.MalformedURLException;
 import java.net.URL;
 
 /**
  * The HttpGatewayServiceClient used Vert.x to create a Vert.x client to relay the client
  * request to the actual back-end service. The request and the response handling are
- * non-blocking. Note that the handling of the response is 
+ * non-blocking. The Vert.x clients are taken from the gateway's {@link HttpClientPool} so
+ * connections to a back end service are kept alive and reused across requests. Note that the handling of the response is 
  * different in case APIManagement is used as the APIManager may need need to execute
  * some policies that depend on result of the service call. APIMan runs policies *before* and
  * *after* the service executes.
@@ -43,63 +43,176 @@ public class HttpGatewayServiceClient {
 
     private final Vertx vertx;
     private final HttpGateway httpGateway;
+    private final HttpClientPool clientPool;
    
     public HttpGatewayServiceClient(Vertx vertx, HttpGateway httpGateway) {
         this.vertx = vertx;
         this.httpGateway = httpGateway;
+        this.clientPool = httpGateway.getHttpClientPool();
     }
 
 	public HttpClientRequest execute(final HttpServerRequest request, final Object apiManagerResponseHandler) {
+		return execute(request, apiManagerResponseHandler, null);
+	}
 
+	/**
+	 * Proxies the request to the back end service it maps to, reporting its metrics to the recorder if one is given.
+	 *
+	 * @return the request to the back end service, or null if the client has already been sent an error response
+	 */
+	public HttpClientRequest execute(final HttpServerRequest request, final Object apiManagerResponseHandler, final HttpCallRecorder recorder) {
+
+        ServiceCallTracker tracker = null;
+        HttpClientPool.Lease lease = null;
         try {
         	IMappedServices mappedServices = HttpMapping.getMapping(request, httpGateway.getMappedServices());
         	ProxyMappingDetails proxyMappingDetails = mappedServices.getProxyMappingDetails();
-        	HttpClient client = null;
         	if (proxyMappingDetails!=null && proxyMappingDetails.getProxyServiceUrl()!=null) {
-        		client = createClient(new URL(proxyMappingDetails.getProxyServiceUrl()));
+        		tracker = new ServiceCallTracker(mappedServices, proxyMappingDetails.getProxyServiceUrl());
+        		if (recorder != null) {
+        			recorder.mapped(proxyMappingDetails.getPathPrefix(), proxyMappingDetails.getProxyServiceUrl());
+        		}
+        		lease = clientPool.acquire(new URL(proxyMappingDetails.getProxyServiceUrl()));
         	}
-            if (client != null) {
+            if (lease != null) {
                 
                 LOG.info("Proxying request " + request.uri() + " to service path: " + proxyMappingDetails.getServicePath() + " on service: " + proxyMappingDetails.getProxyServiceUrl() + " reverseServiceUrl: " + proxyMappingDetails.getReverseServiceUrl());
-                final HttpClient finalClient = client;
+                final HttpClientPool.Lease finalLease = lease;
+                final HttpClient finalClient = lease.getClient();
                 
                 Handler<HttpClientResponse> serviceResponseHandler = null;
                 
                 if (httpGateway.getApiManager().isApiManagerEnabled()) {
-                	serviceResponseHandler = httpGateway.getApiManager().getService().createServiceResponseHandler(finalClient, apiManagerResponseHandler);
+                	serviceResponseHandler = httpGateway.getApiManager().getService().createServiceResponseHandler(finalLease, apiManagerResponseHandler);
         		} else {
-        			serviceResponseHandler = new HttpServiceResponseHandler(finalClient, request);
+        			serviceResponseHandler = new HttpServiceResponseHandler(finalLease, request, recorder);
         		}
                 
                 if (mappedServices != null) {
                     serviceResponseHandler = mappedServices.wrapResponseHandlerInPolicies(request, serviceResponseHandler, proxyMappingDetails);
                 }
+                final ServiceCallTracker finalTracker = tracker;
+                serviceResponseHandler = tracker.wrap(serviceResponseHandler);
                 
-                final HttpClientRequest serviceRequest = client.request(request.method(), proxyMappingDetails.getServicePath(), serviceResponseHandler);
+                final HttpClientRequest serviceRequest = finalClient.request(request.method(), proxyMappingDetails.getServicePath(), serviceResponseHandler);
                 serviceRequest.headers().set(request.headers());
                 serviceRequest.setChunked(true);
+                serviceRequest.exceptionHandler(new Handler<Throwable>() {
+                    @Override
+                    public void handle(Throwable e) {
+                        LOG.warn("Failed to proxy request " + request.uri() + " to " + finalClient.getHost() + ":" + finalClient.getPort() + ". " + e);
+                        finalTracker.completed(false);
+                        finalLease.release();
+                        HttpServerResponse response = request.response();
+                        if (finalTracker.startResponse()) {
+                            // nothing has been sent to the client yet so it can be told the service failed
+                            response.setStatusCode(502);
+                            response.setStatusMessage("Bad Gateway");
+                            response.end();
+                            if (recorder != null) {
+                                recorder.completed(502, e.toString());
+                            }
+                        } else {
+                            // the service failed part way through its response, so drop the client's connection
+                            response.close();
+                            if (recorder != null) {
+                                recorder.completed(0, e.toString());
+                            }
+                        }
+                    }
+                });
                 
                 return serviceRequest;
 
             } else {
                 //  lets return a 404
+                if (tracker != null) {
+                    tracker.cancelled();
+                }
                 LOG.info("Could not find matching proxy path for " + request.uri() + " from paths: " + httpGateway.getMappedServices().keySet());
                 HttpServerResponse httpServerResponse = request.response();
                 httpServerResponse.setStatusCode(404);
                 httpServerResponse.setStatusMessage("Could not find matching proxy path for " + request.uri() + " from paths: " + httpGateway.getMappedServices().keySet());
                 httpServerResponse.end();
+                if (recorder != null) {
+                    recorder.completed(httpServerResponse);
+                }
             }
         } catch (Throwable e) {
             LOG.error("Caught: " + e, e);
+            if (tracker != null) {
+                tracker.cancelled();
+            }
+            if (lease != null) {
+                lease.release();
+            }
             request.response().setStatusCode(404);
             StringWriter buffer = new StringWriter();
             e.printStackTrace(new PrintWriter(buffer));
             request.response().setStatusMessage("Error: " + e + "\nStack Trace: " + buffer);
             request.response().end();
+            if (recorder != null) {
+                recorder.completed(request.response());
+            }
         }
         return null;
     }
 
+    /**
+     * Reports how long the chosen service took to respond, or that it failed, back to the
+     * {@link IMappedServices} so that a load aware load balancer can avoid busy or slow services.
+     * Only the first outcome of a request is reported.  It also remembers whether the response
+     * to the client has been started, either by the service responding or with an error.
+     */
+    static class ServiceCallTracker {
+        private final IMappedServices mappedServices;
+        private final String serviceUrl;
+        private final long start = System.nanoTime();
+        private boolean done;
+        private boolean responseStarted;
+
+        ServiceCallTracker(IMappedServices mappedServices, String serviceUrl) {
+            this.mappedServices = mappedServices;
+            this.serviceUrl = serviceUrl;
+        }
+
+        Handler<HttpClientResponse> wrap(final Handler<HttpClientResponse> responseHandler) {
+            return new Handler<HttpClientResponse>() {
+                @Override
+                public void handle(HttpClientResponse clientResponse) {
+                    completed(clientResponse.statusCode() < 500);
+                    responseStarted = true;
+                    responseHandler.handle(clientResponse);
+                }
+            };
+        }
+
+        void completed(boolean success) {
+            if (!done) {
+                done = true;
+                mappedServices.serviceCompleted(serviceUrl, System.nanoTime() - start, success);
+            }
+        }
+
+        /**
+         * Returns true if the response to the client had not been started yet, marking it as started
+         */
+        boolean startResponse() {
+            if (responseStarted) {
+                return false;
+            }
+            responseStarted = true;
+            return true;
+        }
+
+        void cancelled() {
+            if (!done) {
+                done = true;
+                mappedServices.serviceCancelled(serviceUrl);
+            }
+        }
+    }
+
     protected boolean isApimanagerRestRequest(HttpServerRequest request) {
         if (httpGateway == null || !httpGateway.isEnableIndex()) {
             return false;
@@ -108,13 +221,4 @@ public class HttpGatewayServiceClient {
         return uri == null || uri.length() == 0 || request.path().startsWith("/rest/apimanager/");
     }
 
-    protected HttpClient createClient(URL url) throws MalformedURLException {
-        // lets create a client
-        HttpClient client = vertx.createHttpClient();
-        client.setHost(url.getHost());
-        client.setPort(url.getPort());
-        return client;
-
-    }
-
 }
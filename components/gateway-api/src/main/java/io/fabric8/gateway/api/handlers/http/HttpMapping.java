@@ -22,6 +22,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -79,10 +80,6 @@ public class HttpMapping {
     public static IMappedServices getMapping(final HttpServerRequest request, Map<String, IMappedServices> mappingRules) {
     	 
     	String uri = request.uri();
-        String uri2 = null;
-        if (!uri.endsWith("/")) {
-            uri2 = uri + "/";
-        }
         if (LOG.isDebugEnabled()) {
             LOG.debug("Proxying request: " + uri);
         }
@@ -94,44 +91,46 @@ public class HttpMapping {
         
     	IMappedServices mappedServices = null;
          URL clientURL = null;
-         Set<Map.Entry<String, IMappedServices>> entries = mappingRules.entrySet();
-         for (Map.Entry<String, IMappedServices> entry : entries) {
-             String path = entry.getKey();
+         // the matching URI prefixes are returned longest first; gateways should hand out an index built
+         // once whenever their rules change, as any other map has to be indexed on every request
+         List<String> paths = HttpMappingIndex.of(mappingRules).findPrefixes(uri);
+         for (String path : paths) {
              String pathPrefix = path;
-             if (uri.startsWith(pathPrefix) || (uri2 != null && uri2.startsWith(pathPrefix))) {
-            	 mappedServices = entry.getValue();
-                 int pathPrefixLength = pathPrefix.length();
-                 if (pathPrefixLength < uri.length()) {
-                     remaining = uri.substring(pathPrefixLength+1);
-                 } else {
-                     remaining = null;
-                 }
+             mappedServices = mappingRules.get(pathPrefix);
+             // prefixes only match on segment boundaries, so the prefix is followed by a slash,
+             // which is skipped whether or not the prefix ends with one, or by the query string
+             int pathPrefixLength = pathPrefix.endsWith("/") ? pathPrefix.length() - 1 : pathPrefix.length();
+             if (pathPrefixLength < uri.length()) {
+                 remaining = uri.charAt(pathPrefixLength) == '/' ? uri.substring(pathPrefixLength + 1) : uri.substring(pathPrefixLength);
+             } else {
+                 remaining = null;
+             }
 
-                 // now lets pick a service for this path
-                 proxyServiceUrl = mappedServices.chooseService(request);
-                 if (proxyServiceUrl != null) {
-                     // lets create a client for this request...
-                     try {
-                         clientURL = new URL(proxyServiceUrl);
-                         prefix = clientURL.getPath();
-                         reverseServiceUrl = request.absoluteURI().resolve(pathPrefix).toString();
-                         if (reverseServiceUrl.endsWith("/")) {
-                             reverseServiceUrl = reverseServiceUrl.substring(0, reverseServiceUrl.length() - 1);
-                         }
-                         
-                         String servicePath = prefix != null ? prefix : "";
-                         // we should usually end the prefix path with a slash for web apps at least
-                         if (servicePath.length() > 0 && !servicePath.endsWith("/")) {
-                             servicePath += "/";
-                         }
-                         if (remaining != null) {
-                             servicePath += remaining;
-                         }
-                         mappedServices.setProxyMappingDetails(new ProxyMappingDetails(proxyServiceUrl, reverseServiceUrl, servicePath));
-                         break;
-                     } catch (MalformedURLException e) {
-                         LOG.warn("Failed to parse URL: " + proxyServiceUrl + ". " + e, e);
+             // now lets pick a service for this path
+             proxyServiceUrl = mappedServices.chooseService(request);
+             if (proxyServiceUrl != null) {
+                 // lets create a client for this request...
+                 try {
+                     clientURL = new URL(proxyServiceUrl);
+                     prefix = clientURL.getPath();
+                     reverseServiceUrl = request.absoluteURI().resolve(pathPrefix).toString();
+                     if (reverseServiceUrl.endsWith("/")) {
+                         reverseServiceUrl = reverseServiceUrl.substring(0, reverseServiceUrl.length() - 1);
+                     }
+                     
+                     String servicePath = prefix != null ? prefix : "";
+                     // we should usually end the prefix path with a slash for web apps at least
+                     if (servicePath.length() > 0 && !servicePath.endsWith("/")) {
+                         servicePath += "/";
+                     }
+                     if (remaining != null) {
+                         servicePath += remaining;
                      }
+                     mappedServices.setProxyMappingDetails(new ProxyMappingDetails(proxyServiceUrl, reverseServiceUrl, servicePath, pathPrefix));
+                     break;
+                 } catch (MalformedURLException e) {
+                     LOG.warn("Failed to parse URL: " + proxyServiceUrl + ". " + e, e);
+                     mappedServices.serviceCancelled(proxyServiceUrl);
                  }
              }
          }
@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.api.handlers.http;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the URI prefix to {@link IMappedServices} mappings which indexes
+ * the prefixes by path segment, so that finding the prefixes matching a request URI costs
+ * one lookup per URI segment rather than a scan of every mapping rule.
+ * <p/>
+ * A prefix only matches a URI on segment boundaries; so <code>/foo</code> matches
+ * <code>/foo/bar</code> but not <code>/foobar</code>.
+ */
+public class HttpMappingIndex extends AbstractMap<String, IMappedServices> {
+    private final Map<String, IMappedServices> mappedServices;
+    private final Node root = new Node();
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<String, Node>();
+        private final List<String> prefixes = new ArrayList<String>(1);
+    }
+
+    public HttpMappingIndex(Map<String, IMappedServices> mappedServices) {
+        this.mappedServices = Collections.unmodifiableMap(new HashMap<String, IMappedServices>(mappedServices));
+        for (String prefix : this.mappedServices.keySet()) {
+            Node node = root;
+            for (String segment : segments(prefix)) {
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+            node.prefixes.add(prefix);
+        }
+    }
+
+    /**
+     * Returns the mapping prefixes which match the given request URI, longest first
+     */
+    public List<String> findPrefixes(String uri) {
+        List<Node> matched = new ArrayList<Node>();
+        matched.add(root);
+        if (uri != null) {
+            int end = uri.indexOf('?');
+            if (end < 0) {
+                end = uri.length();
+            }
+            Node node = root;
+            int start = 0;
+            while (node != null && start < end) {
+                int slash = uri.indexOf('/', start);
+                if (slash < 0 || slash > end) {
+                    slash = end;
+                }
+                if (slash > start) {
+                    node = node.children.get(uri.substring(start, slash));
+                    if (node != null) {
+                        matched.add(node);
+                    }
+                }
+                start = slash + 1;
+            }
+        }
+        List<String> answer = new ArrayList<String>();
+        for (int i = matched.size() - 1; i >= 0; i--) {
+            answer.addAll(matched.get(i).prefixes);
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the given mappings if they are already an index, otherwise indexes them
+     */
+    public static HttpMappingIndex of(Map<String, IMappedServices> mappedServices) {
+        if (mappedServices instanceof HttpMappingIndex) {
+            return (HttpMappingIndex) mappedServices;
+        }
+        return new HttpMappingIndex(mappedServices);
+    }
+
+    @Override
+    public IMappedServices get(Object key) {
+        return mappedServices.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return mappedServices.containsKey(key);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return mappedServices.keySet();
+    }
+
+    @Override
+    public int size() {
+        return mappedServices.size();
+    }
+
+    @Override
+    public Set<Entry<String, IMappedServices>> entrySet() {
+        return mappedServices.entrySet();
+    }
+
+    protected static List<String> segments(String path) {
+        List<String> answer = new ArrayList<String>();
+        int start = 0;
+        int length = path.length();
+        while (start < length) {
+            int slash = path.indexOf('/', start);
+            if (slash < 0) {
+                slash = length;
+            }
+            if (slash > start) {
+                answer.add(path.substring(start, slash));
+            }
+            start = slash + 1;
+        }
+        return answer;
+    }
+}
@@ -20,7 +20,6 @@ import org.slf4j.LoggerFactory;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.VoidHandler;
 import org.vertx.java.core.buffer.Buffer;
-import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientResponse;
 import org.vertx.java.core.http.HttpServerRequest;
 
@@ -28,14 +27,20 @@ public class HttpServiceResponseHandler implements Handler<HttpClientResponse>{
 
 	private static final transient Logger LOG = LoggerFactory.getLogger(HttpServiceResponseHandler.class);
 
-	final HttpClient httpClient;
+	final HttpClientPool.Lease lease;
 	final HttpServerRequest request;
+	final HttpCallRecorder recorder;
 	
-	public HttpServiceResponseHandler(HttpClient httpClient,
-			HttpServerRequest request) {
+	public HttpServiceResponseHandler(HttpClientPool.Lease lease, HttpServerRequest request) {
+		this(lease, request, null);
+	}
+
+	public HttpServiceResponseHandler(HttpClientPool.Lease lease, HttpServerRequest request,
+			HttpCallRecorder recorder) {
 		super();
-		this.httpClient = httpClient;
+		this.lease = lease;
 		this.request = request;
+		this.recorder = recorder;
 	}
 	
 	@Override
@@ -48,13 +53,33 @@ public class HttpServiceResponseHandler implements Handler<HttpClientResponse>{
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Proxying response body:" + data);
                 }
+                if (recorder != null) {
+                    recorder.responseBytes(data.length());
+                }
                 request.response().write(data);
             }
         });
         clientResponse.endHandler(new VoidHandler() {
             public void handle() {
-                request.response().end();
-                httpClient.close();
+                try {
+                    request.response().end();
+                } finally {
+                    if (recorder != null) {
+                        recorder.completed(request.response());
+                    }
+                    // hand the keep-alive client back to the pool rather than closing its connections
+                    lease.release();
+                }
+            }
+        });
+        clientResponse.exceptionHandler(new Handler<Throwable>() {
+            public void handle(Throwable e) {
+                LOG.warn("Failed to proxy the response to " + request.uri() + ". " + e);
+                if (recorder != null) {
+                    recorder.completed(0, e.toString());
+                }
+                lease.release();
+                request.response().close();
             }
         });
 	}
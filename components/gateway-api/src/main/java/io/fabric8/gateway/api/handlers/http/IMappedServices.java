@@ -28,6 +28,21 @@ public interface IMappedServices {
 
 	public abstract String chooseService(HttpServerRequest request);
 
+	/**
+	 * Reports the outcome of a request to a service URL returned from {@link #chooseService(HttpServerRequest)}
+	 * so that a load aware load balancer can avoid busy or slow services
+	 *
+	 * @param durationNanos how long the service took to respond in nanoseconds
+	 * @param success false if the request failed or the service returned a server error
+	 */
+	public abstract void serviceCompleted(String serviceUrl, long durationNanos, boolean success);
+
+	/**
+	 * Reports that a request to a service URL returned from {@link #chooseService(HttpServerRequest)}
+	 * was abandoned before it was sent
+	 */
+	public abstract void serviceCancelled(String serviceUrl);
+
 	/**
 	 * Provides a hook so we can wrap a client response handler in a policy such
 	 * as to reverse the URIs {@link io.fabric8.gateway.handlers.http.policy.ReverseUriPolicy} or
@@ -0,0 +1,199 @@
+/*
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.api.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The request metrics of a gateway in total, per route (the matched URI prefix) and per back end
+ * service. Everything is lock free so it can be updated from all the event loops; the metrics can be
+ * read over JMX or scraped in the Prometheus text format from {@link #toPrometheusText()}.
+ * <p/>
+ * The totals, routes and back ends are exposed as separate metric families, such as
+ * <code>gateway_requests_total</code>, <code>gateway_route_requests_total</code> and
+ * <code>gateway_backend_requests_total</code>, so that summing a family never counts a request twice.
+ */
+public class GatewayMetrics {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+    static final String OTHER = "other";
+
+    private final RequestStatistics total = new RequestStatistics("total");
+    private final ConcurrentMap<String, RequestStatistics> routes = new ConcurrentHashMap<String, RequestStatistics>();
+    private final ConcurrentMap<String, RequestStatistics> backends = new ConcurrentHashMap<String, RequestStatistics>();
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    public RequestStatistics getTotal() {
+        return total;
+    }
+
+    public RequestStatistics getRoute(String route) {
+        return getOrCreate(routes, route);
+    }
+
+    public RequestStatistics getBackend(String serviceUrl) {
+        return getOrCreate(backends, serviceUrl);
+    }
+
+    public Collection<RequestStatistics> getRoutes() {
+        return routes.values();
+    }
+
+    public Collection<RequestStatistics> getBackends() {
+        return backends.values();
+    }
+
+    private RequestStatistics getOrCreate(ConcurrentMap<String, RequestStatistics> map, String name) {
+        RequestStatistics answer = map.get(name);
+        if (answer == null) {
+            // back end services come and go so fold any excess into a single entry rather than growing forever
+            if (map.size() >= maxEntries) {
+                name = OTHER;
+                answer = map.get(name);
+                if (answer != null) {
+                    return answer;
+                }
+            }
+            answer = new RequestStatistics(name);
+            RequestStatistics existing = map.putIfAbsent(name, answer);
+            if (existing != null) {
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    public void reset() {
+        total.reset();
+        for (RequestStatistics statistics : routes.values()) {
+            statistics.reset();
+        }
+        for (RequestStatistics statistics : backends.values()) {
+            statistics.reset();
+        }
+    }
+
+    public static List<String> describe(Collection<RequestStatistics> statistics) {
+        List<String> answer = new ArrayList<String>(statistics.size());
+        for (RequestStatistics statistic : statistics) {
+            answer.add(statistic.toString());
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text exposition format, where all the samples of a metric
+     * follow its <code># TYPE</code> line
+     */
+    public String toPrometheusText() {
+        StringBuilder buffer = new StringBuilder();
+        List<RequestStatistics> totals = new ArrayList<RequestStatistics>();
+        totals.add(total);
+        appendFamilies(buffer, "gateway_", "", null, totals);
+        appendFamilies(buffer, "gateway_route_", "by route", "route", new ArrayList<RequestStatistics>(routes.values()));
+        appendFamilies(buffer, "gateway_backend_", "by back end service", "backend", new ArrayList<RequestStatistics>(backends.values()));
+        return buffer.toString();
+    }
+
+    /**
+     * Appends the metric families of the given statistics, each of them labelled with its name
+     * unless no label is given
+     */
+    private static void appendFamilies(StringBuilder buffer, String prefix, String description, String label, List<RequestStatistics> statistics) {
+        // the statistics are a snapshot so that every metric lists the same ones
+        int size = statistics.size();
+        List<String> labels = new ArrayList<String>(size);
+        for (RequestStatistics statistic : statistics) {
+            labels.add(label != null ? label + "=\"" + escape(statistic.getName()) + "\"" : "");
+        }
+        String suffix = description.length() > 0 ? " " + description : "";
+
+        String metric = prefix + "requests_total";
+        appendHeader(buffer, metric, "counter", "Requests completed by status code" + suffix);
+        for (int i = 0; i < size; i++) {
+            String separator = labels.get(i).length() > 0 ? "," : "";
+            for (Map.Entry<Integer, Long> entry : statistics.get(i).getStatusCodeCounts().entrySet()) {
+                String code = entry.getKey() == 0 ? "none" : entry.getKey().toString();
+                appendSample(buffer, metric, labels.get(i) + separator + "code=\"" + code + "\"", entry.getValue());
+            }
+        }
+        metric = prefix + "requests_in_flight";
+        appendHeader(buffer, metric, "gauge", "Requests currently being proxied" + suffix);
+        for (int i = 0; i < size; i++) {
+            appendSample(buffer, metric, labels.get(i), statistics.get(i).getInFlight());
+        }
+        metric = prefix + "request_bytes_total";
+        appendHeader(buffer, metric, "counter", "Request body bytes received from clients" + suffix);
+        for (int i = 0; i < size; i++) {
+            appendSample(buffer, metric, labels.get(i), statistics.get(i).getBytesIn());
+        }
+        metric = prefix + "response_bytes_total";
+        appendHeader(buffer, metric, "counter", "Response body bytes returned to clients" + suffix);
+        for (int i = 0; i < size; i++) {
+            appendSample(buffer, metric, labels.get(i), statistics.get(i).getBytesOut());
+        }
+        metric = prefix + "request_duration_seconds";
+        appendHeader(buffer, metric, "summary", "Time from receiving a request to ending its response" + suffix);
+        for (int i = 0; i < size; i++) {
+            appendLatency(buffer, metric, labels.get(i), statistics.get(i).getLatency());
+        }
+    }
+
+    private static void appendHeader(StringBuilder buffer, String metric, String type, String help) {
+        buffer.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        buffer.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static void appendLatency(StringBuilder buffer, String metric, String labels, LatencyHistogram latency) {
+        String separator = labels.length() > 0 ? "," : "";
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            appendSample(buffer, metric,
+                    labels + separator + "quantile=\"" + QUANTILES[i] + "\"", latency.getValueAtPercentile(PERCENTILES[i]) / 1000);
+        }
+        appendSample(buffer, metric + "_count", labels, latency.getCount());
+        appendSample(buffer, metric + "_sum", labels, latency.getMean() * latency.getCount() / 1000);
+    }
+
+    private static void appendSample(StringBuilder buffer, String metric, String labels, Object value) {
+        buffer.append(metric);
+        if (labels.length() > 0) {
+            buffer.append('{').append(labels).append('}');
+        }
+        buffer.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets how many routes and how many back end services are tracked individually
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.api.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The request counters and latency histogram of the whole gateway, a route or a back end service.
+ */
+public class RequestStatistics {
+
+    private final String name;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    // indexed by the first digit of the status code, 0 counts requests which got no response
+    private final AtomicLongArray statusClasses = new AtomicLongArray(6);
+    // only the few status codes which are actually returned get a counter
+    private final ConcurrentMap<Integer, AtomicLong> statusCodes = new ConcurrentHashMap<Integer, AtomicLong>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public RequestStatistics(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (requests=" + getRequests() +
+                ", inFlight=" + getInFlight() +
+                ", 2xx=" + getStatusCount(2) +
+                ", 4xx=" + getStatusCount(4) +
+                ", 5xx=" + getStatusCount(5) +
+                ", p50=" + latency.getValueAtPercentile(50) + "ms" +
+                ", p99=" + latency.getValueAtPercentile(99) + "ms" +
+                ", max=" + latency.getMax() + "ms" +
+                ", bytesIn=" + getBytesIn() +
+                ", bytesOut=" + getBytesOut() + ")";
+    }
+
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records a request which has finished, the status code is zero if no response could be returned
+     */
+    public void requestCompleted(int statusCode, long durationNanos, long requestBytes, long responseBytes) {
+        inFlight.decrementAndGet();
+        int statusClass = statusCode / 100;
+        if (statusClass < 1 || statusClass > 5) {
+            statusClass = 0;
+            statusCode = 0;
+        }
+        statusClasses.incrementAndGet(statusClass);
+        AtomicLong count = statusCodes.get(statusCode);
+        if (count == null) {
+            count = new AtomicLong();
+            AtomicLong existing = statusCodes.putIfAbsent(statusCode, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+        bytesIn.addAndGet(requestBytes);
+        bytesOut.addAndGet(responseBytes);
+        latency.record(durationNanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getRequests() {
+        return latency.getCount();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the number of responses of the given status class, e.g. 5 for 5xx responses
+     */
+    public long getStatusCount(int statusClass) {
+        return statusClasses.get(statusClass);
+    }
+
+    /**
+     * Returns the number of responses with the given status code, 0 for requests which got no response
+     */
+    public long getStatusCodeCount(int statusCode) {
+        AtomicLong count = statusCodes.get(statusCode);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Returns the number of responses of each status code which has been returned, in order of the codes
+     */
+    public Map<Integer, Long> getStatusCodeCounts() {
+        Map<Integer, Long> answer = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, AtomicLong> entry : statusCodes.entrySet()) {
+            long count = entry.getValue().get();
+            if (count > 0) {
+                answer.put(entry.getKey(), count);
+            }
+        }
+        return answer;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Resets the counters, the requests which are in flight are still tracked
+     */
+    public void reset() {
+        bytesIn.set(0);
+        bytesOut.set(0);
+        for (int i = 0; i < statusClasses.length(); i++) {
+            statusClasses.set(i, 0);
+        }
+        for (AtomicLong count : statusCodes.values()) {
+            count.set(0);
+        }
+        latency.reset();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.api.handlers.http;
+
+import org.junit.Test;
+import org.vertx.java.core.http.HttpClient;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HttpClientPoolTest {
+
+    /**
+     * A pool of fake clients which remembers which of them have been closed
+     */
+    static class TestPool extends HttpClientPool {
+        final Set<HttpClient> closed = Collections.newSetFromMap(new ConcurrentHashMap<HttpClient, Boolean>());
+
+        TestPool() {
+            super(null);
+        }
+
+        @Override
+        protected HttpClient createClient(final String host, final int port) {
+            return (HttpClient) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{HttpClient.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("close")) {
+                        closed.add((HttpClient) proxy);
+                        return null;
+                    } else if (name.equals("getHost")) {
+                        return host;
+                    } else if (name.equals("getPort")) {
+                        return port;
+                    } else if (name.equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    } else if (name.equals("equals")) {
+                        return proxy == args[0];
+                    } else if (name.equals("toString")) {
+                        return "HttpClient{" + host + ":" + port + "}";
+                    }
+                    return method.getReturnType().isInstance(proxy) ? proxy : null;
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testClientsArePooledPerEndpoint() throws Exception {
+        TestPool pool = new TestPool();
+        HttpClientPool.Lease a = pool.acquire(new URL("http://localhost:8080/foo"));
+        HttpClientPool.Lease b = pool.acquire(new URL("http://localhost:8080/bar"));
+        HttpClientPool.Lease c = pool.acquire(new URL("http://localhost:8181/foo"));
+
+        assertSame(a.getClient(), b.getClient());
+        assertNotSame(a.getClient(), c.getClient());
+        assertEquals(2, pool.getClientCount());
+        assertEquals(3, pool.getRequestsInFlight());
+    }
+
+    @Test
+    public void testLeaseIsOnlyReleasedOnce() throws Exception {
+        TestPool pool = new TestPool();
+        HttpClientPool.Lease a = pool.acquire(new URL("http://localhost:8080/foo"));
+        HttpClientPool.Lease b = pool.acquire(new URL("http://localhost:8080/foo"));
+
+        // as the exception handler and the end handler both release
+        a.release();
+        a.release();
+        assertTrue(a.isReleased());
+        assertEquals(1, pool.getRequestsInFlight());
+
+        pool.setIdleTimeout(-1);
+        pool.evictIdleClients();
+        assertEquals(1, pool.getClientCount());
+        assertFalse(pool.closed.contains(b.getClient()));
+
+        b.release();
+        assertEquals(0, pool.getRequestsInFlight());
+    }
+
+    @Test
+    public void testIdleClientsAreEvicted() throws Exception {
+        TestPool pool = new TestPool();
+        HttpClientPool.Lease a = pool.acquire(new URL("http://localhost:8080/foo"));
+        a.release();
+
+        pool.setIdleTimeout(60000);
+        pool.evictIdleClients();
+        assertEquals(1, pool.getClientCount());
+
+        pool.setIdleTimeout(-1);
+        pool.evictIdleClients();
+        assertEquals(0, pool.getClientCount());
+        assertEquals(1, pool.getEvictedClients());
+        assertTrue(pool.closed.contains(a.getClient()));
+
+        HttpClientPool.Lease b = pool.acquire(new URL("http://localhost:8080/foo"));
+        assertNotSame(a.getClient(), b.getClient());
+        assertFalse(pool.closed.contains(b.getClient()));
+        assertEquals(2, pool.getCreatedClients());
+    }
+
+    @Test
+    public void testEvictionNeverClosesAnAcquiredClient() throws Exception {
+        final TestPool pool = new TestPool();
+        // every client without requests in flight can be evicted at once
+        pool.setIdleTimeout(-1);
+        final URL url = new URL("http://localhost:8080/foo");
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong requests = new AtomicLong();
+
+        Thread evictor = new Thread("evictor") {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    pool.evictIdleClients();
+                }
+            }
+        };
+        evictor.start();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread("client " + i) {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 20000; j++) {
+                        HttpClientPool.Lease lease = pool.acquire(url);
+                        if (pool.closed.contains(lease.getClient())) {
+                            failures.incrementAndGet();
+                        }
+                        Thread.yield();
+                        if (pool.closed.contains(lease.getClient())) {
+                            failures.incrementAndGet();
+                        }
+                        lease.release();
+                        requests.incrementAndGet();
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        running.set(false);
+        evictor.join();
+
+        assertEquals(80000, requests.get());
+        assertEquals(0, failures.get());
+        assertEquals(0, pool.getRequestsInFlight());
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.api.handlers.http;
+
+import io.fabric8.gateway.api.CallDetailRecord;
+import io.fabric8.gateway.api.ServiceDetails;
+import io.fabric8.gateway.api.apimanager.ApiManager;
+import io.fabric8.gateway.api.metrics.GatewayMetrics;
+import io.fabric8.gateway.api.metrics.RequestStatistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.http.HttpServer;
+import org.vertx.java.core.http.HttpServerRequest;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpGatewayHandlerTest {
+
+    private ClassLoader classLoader;
+    private Vertx vertx;
+    private TestGateway gateway;
+
+    @Before
+    public void startVertx() {
+        classLoader = Thread.currentThread().getContextClassLoader();
+        vertx = VertxFactory.newVertx();
+        gateway = new TestGateway(new HttpClientPool(vertx));
+    }
+
+    @After
+    public void stopVertx() {
+        gateway.pool.close();
+        vertx.stop();
+        // vertx clears the context class loader of the threads it runs on, which surefire needs to report failures
+        Thread.currentThread().setContextClassLoader(classLoader);
+    }
+
+    @Test
+    public void unreachableBackendRespondsWithBadGateway() throws Exception {
+        TestMappedServices service = new TestMappedServices("http://localhost:" + unusedPort() + "/");
+        gateway.mappedServices.put("/foo", service);
+        int port = listen(new HttpGatewayHandler(vertx, gateway));
+
+        HttpURLConnection connection = open("http://localhost:" + port + "/foo/bar");
+        long start = System.currentTimeMillis();
+        assertEquals(502, connection.getResponseCode());
+        // the client is answered as soon as the connect fails rather than when it times out
+        assertTrue(System.currentTimeMillis() - start < 4000);
+
+        assertEquals(Collections.singletonList(false), service.outcomes);
+        assertEquals(0, gateway.pool.getRequestsInFlight());
+        RequestStatistics route = gateway.getMetrics().getRoute("/foo");
+        // the call is recorded once the response has been ended, which may be after the client has read it
+        waitForRequests(route, 1);
+        assertEquals(1, route.getStatusCount(5));
+        assertEquals(1, route.getStatusCodeCount(502));
+    }
+
+    protected void waitForRequests(RequestStatistics statistics, long requests) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (statistics.getRequests() < requests && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+    }
+
+    protected HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+
+    protected int listen(Handler<HttpServerRequest> handler) throws Exception {
+        int port = unusedPort();
+        final CountDownLatch listening = new CountDownLatch(1);
+        HttpServer server = vertx.createHttpServer().requestHandler(handler);
+        server.listen(port, "localhost", new Handler<AsyncResult<HttpServer>>() {
+            @Override
+            public void handle(AsyncResult<HttpServer> event) {
+                listening.countDown();
+            }
+        });
+        assertTrue(listening.await(5, TimeUnit.SECONDS));
+        return port;
+    }
+
+    protected int unusedPort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    static class TestGateway implements HttpGateway {
+        final Map<String, IMappedServices> mappedServices = new ConcurrentHashMap<String, IMappedServices>();
+        final List<CallDetailRecord> callDetailRecords = new CopyOnWriteArrayList<CallDetailRecord>();
+        final GatewayMetrics metrics = new GatewayMetrics();
+        final HttpClientPool pool;
+
+        TestGateway(HttpClientPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void addMappingRuleConfiguration(HttpMappingRule mappingRule) {
+        }
+
+        @Override
+        public void removeMappingRuleConfiguration(HttpMappingRule mappingRule) {
+        }
+
+        @Override
+        public Map<String, IMappedServices> getMappedServices() {
+            return new HttpMappingIndex(mappedServices);
+        }
+
+        @Override
+        public String getGatewayUrl() {
+            return null;
+        }
+
+        @Override
+        public boolean isEnableIndex() {
+            return false;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public ApiManager getApiManager() {
+            return new ApiManager();
+        }
+
+        @Override
+        public void addCallDetailRecord(CallDetailRecord cdr) {
+            callDetailRecords.add(cdr);
+        }
+
+        @Override
+        public HttpClientPool getHttpClientPool() {
+            return pool;
+        }
+
+        @Override
+        public GatewayMetrics getMetrics() {
+            return metrics;
+        }
+
+        @Override
+        public String getMetricsPath() {
+            return null;
+        }
+    }
+
+    static class TestMappedServices implements IMappedServices {
+        final List<Boolean> outcomes = new CopyOnWriteArrayList<Boolean>();
+        final String serviceUrl;
+        volatile ProxyMappingDetails proxyMappingDetails;
+
+        TestMappedServices(String serviceUrl) {
+            this.serviceUrl = serviceUrl;
+        }
+
+        @Override
+        public String chooseService(HttpServerRequest request) {
+            return serviceUrl;
+        }
+
+        @Override
+        public void serviceCompleted(String serviceUrl, long durationNanos, boolean success) {
+            outcomes.add(success);
+        }
+
+        @Override
+        public void serviceCancelled(String serviceUrl) {
+        }
+
+        @Override
+        public Handler<HttpClientResponse> wrapResponseHandlerInPolicies(HttpServerRequest request, Handler<HttpClientResponse> responseHandler, ProxyMappingDetails proxyMappingDetails) {
+            return responseHandler;
+        }
+
+        @Override
+        public String rewriteUrl(String proxiedUrl) {
+            return proxiedUrl;
+        }
+
+        @Override
+        public String getContainer() {
+            return null;
+        }
+
+        @Override
+        public String getVersion() {
+            return null;
+        }
+
+        @Override
+        public String getId() {
+            return null;
+        }
+
+        @Override
+        public boolean isReverseHeaders() {
+            return false;
+        }
+
+        @Override
+        public ServiceDetails getServiceDetails() {
+            return null;
+        }
+
+        @Override
+        public Set<String> getServiceUrls() {
+            return Collections.singleton(serviceUrl);
+        }
+
+        @Override
+        public ProxyMappingDetails getProxyMappingDetails() {
+            return proxyMappingDetails;
+        }
+
+        @Override
+        public void setProxyMappingDetails(ProxyMappingDetails proxyMappingDetails) {
+            this.proxyMappingDetails = proxyMappingDetails;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.api.handlers.http;
+
+import org.junit.Test;
+import org.vertx.java.core.http.HttpServerRequest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class HttpMappingTest {
+
+    @Test
+    public void testPrefixesAreFoundLongestFirstOnSegmentBoundaries() {
+        HttpMappingIndex index = index("/", "/foo", "/foo/bar/", "/foobar");
+
+        assertEquals(Arrays.asList("/foo/bar/", "/foo", "/"), index.findPrefixes("/foo/bar/baz?x=/foobar"));
+        assertEquals(Arrays.asList("/foo", "/"), index.findPrefixes("/foo?x"));
+        assertEquals(Arrays.asList("/foobar", "/"), index.findPrefixes("/foobar"));
+        assertEquals(Collections.singletonList("/"), index.findPrefixes("/fo"));
+    }
+
+    @Test
+    public void testIndexIsOnlyBuiltForOtherMaps() {
+        HttpMappingIndex index = index("/foo");
+        assertSame(index, HttpMappingIndex.of(index));
+        assertEquals(index, HttpMappingIndex.of(new HashMap<String, IMappedServices>(index)));
+    }
+
+    @Test
+    public void testServicePathOfTrailingSlashPrefix() {
+        assertEquals("/svc/bar?x=1", servicePath("/foo/", "/foo/bar?x=1"));
+        assertEquals("/svc/?x=1", servicePath("/foo/", "/foo?x=1"));
+        assertEquals("/svc/?x=1", servicePath("/foo/", "/foo/?x=1"));
+        assertEquals("/svc/", servicePath("/foo/", "/foo"));
+    }
+
+    @Test
+    public void testServicePathOfPrefixWithoutTrailingSlash() {
+        assertEquals("/svc/bar?x=1", servicePath("/foo", "/foo/bar?x=1"));
+        assertEquals("/svc/?x=1", servicePath("/foo", "/foo?x=1"));
+        assertEquals("/svc/", servicePath("/foo", "/foo/"));
+        assertEquals("/svc/foo/bar", servicePath("/", "/foo/bar"));
+    }
+
+    @Test
+    public void testUnmappedRequest() {
+        Map<String, IMappedServices> mappings = new HashMap<String, IMappedServices>();
+        mappings.put("/foo", new HttpGatewayHandlerTest.TestMappedServices("http://localhost:8080/svc"));
+        assertNull(HttpMapping.getMapping(request("/bar"), new HttpMappingIndex(mappings)));
+    }
+
+    protected String servicePath(String prefix, String uri) {
+        Map<String, IMappedServices> mappings = new HashMap<String, IMappedServices>();
+        mappings.put(prefix, new HttpGatewayHandlerTest.TestMappedServices("http://localhost:8080/svc"));
+        IMappedServices mappedServices = HttpMapping.getMapping(request(uri), new HttpMappingIndex(mappings));
+        assertEquals(prefix, mappedServices.getProxyMappingDetails().getPathPrefix());
+        return mappedServices.getProxyMappingDetails().getServicePath();
+    }
+
+    protected HttpMappingIndex index(String... prefixes) {
+        Map<String, IMappedServices> mappings = new HashMap<String, IMappedServices>();
+        for (String prefix : prefixes) {
+            mappings.put(prefix, new HttpGatewayHandlerTest.TestMappedServices("http://localhost:8080" + prefix));
+        }
+        return new HttpMappingIndex(mappings);
+    }
+
+    /**
+     * Returns a request which only knows its URI, which is all the mapping looks at
+     */
+    protected HttpServerRequest request(final String uri) {
+        return (HttpServerRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{HttpServerRequest.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("uri")) {
+                    return uri;
+                }
+                if (method.getName().equals("absoluteURI")) {
+                    return new URI("http://localhost:9000" + uri);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.api.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GatewayMetricsTest {
+
+    @Test
+    public void samplesFollowTheirTypeLine() throws Exception {
+        GatewayMetrics metrics = new GatewayMetrics();
+        record(metrics.getTotal(), 200);
+        record(metrics.getRoute("/foo"), 200);
+        record(metrics.getRoute("/bar"), 503);
+        record(metrics.getBackend("http://localhost:8181/"), 200);
+
+        String text = metrics.toPrometheusText();
+        List<String> families = new ArrayList<String>();
+        String family = null;
+        for (String line : text.split("\n")) {
+            if (line.startsWith("# TYPE ")) {
+                family = line.split(" ")[2];
+                assertTrue("Metric " + family + " is declared twice", !families.contains(family));
+                families.add(family);
+            } else if (!line.startsWith("#")) {
+                String metric = line.split("[{ ]")[0];
+                assertTrue("Sample " + line + " does not belong to " + family,
+                        metric.equals(family) || metric.equals(family + "_count") || metric.equals(family + "_sum"));
+            }
+        }
+        assertEquals(15, families.size());
+        assertTrue(text, text.contains("gateway_requests_total{code=\"200\"} 1"));
+        assertTrue(text, text.contains("gateway_route_requests_total{route=\"/bar\",code=\"503\"} 1"));
+        assertTrue(text, text.contains("gateway_backend_requests_in_flight{backend=\"http://localhost:8181/\"} 0"));
+        // the totals are kept apart from the routes and back ends so summing a family counts each request once
+        assertTrue(text, !text.contains("gateway_requests_total{route"));
+        assertTrue(text, !text.contains("gateway_requests_in_flight{backend"));
+    }
+
+    @Test
+    public void completedRequestsAreNoLongerInFlight() throws Exception {
+        RequestStatistics statistics = new GatewayMetrics().getRoute("/foo");
+        statistics.requestStarted();
+        statistics.requestStarted();
+        assertEquals(2, statistics.getInFlight());
+
+        statistics.requestCompleted(0, TimeUnit.MILLISECONDS.toNanos(5), 0, 0);
+        statistics.requestCompleted(200, TimeUnit.MILLISECONDS.toNanos(5), 10, 20);
+        assertEquals(0, statistics.getInFlight());
+        assertEquals(1, statistics.getStatusCount(0));
+        assertEquals(1, statistics.getStatusCount(2));
+    }
+
+    @Test
+    public void statusCodesAreCountedIndividually() throws Exception {
+        GatewayMetrics metrics = new GatewayMetrics();
+        RequestStatistics route = metrics.getRoute("/foo");
+        assertSame(route, metrics.getRoute("/foo"));
+        record(route, 200);
+        record(route, 502);
+        record(route, 503);
+        record(route, 503);
+        record(route, 0);
+        assertEquals(5, route.getRequests());
+        assertEquals(3, route.getStatusCount(5));
+        assertEquals(1, route.getStatusCodeCount(502));
+        assertEquals(2, route.getStatusCodeCount(503));
+        assertEquals(1, route.getStatusCodeCount(0));
+        assertEquals(0, route.getStatusCodeCount(404));
+        assertEquals(50, route.getBytesIn());
+        assertEquals(100, route.getBytesOut());
+
+        String text = metrics.toPrometheusText();
+        assertTrue(text, text.contains("gateway_route_requests_total{route=\"/foo\",code=\"502\"} 1"));
+        assertTrue(text, text.contains("gateway_route_requests_total{route=\"/foo\",code=\"503\"} 2"));
+        assertTrue(text, text.contains("gateway_route_requests_total{route=\"/foo\",code=\"none\"} 1"));
+        assertTrue(text, text.contains("gateway_route_response_bytes_total{route=\"/foo\"} 100"));
+
+        route.reset();
+        assertEquals(0, route.getStatusCodeCount(503));
+        assertTrue(route.getStatusCodeCounts().isEmpty());
+    }
+
+    @Test
+    public void backendsAreBounded() throws Exception {
+        GatewayMetrics metrics = new GatewayMetrics();
+        metrics.setMaxEntries(2);
+        metrics.getBackend("http://a");
+        metrics.getBackend("http://b");
+        RequestStatistics other = metrics.getBackend("http://c");
+        assertEquals(GatewayMetrics.OTHER, other.getName());
+        assertSame(other, metrics.getBackend("http://d"));
+        assertEquals(3, metrics.getBackends().size());
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() throws Exception {
+        int previous = -1;
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue("buckets should be monotonic at " + value, index == previous || index == previous + 1);
+            assertTrue("value " + value + " above its bucket bound", value <= LatencyHistogram.bucketUpperBound(index));
+            previous = index;
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000.0, histogram.getMax(), 0.0);
+        assertEquals(500.5, histogram.getMean(), 0.01);
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 * 0.04);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 * 0.04);
+        assertEquals(1000.0, histogram.getValueAtPercentile(100), 0.0);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getValueAtPercentile(99), 0.0);
+    }
+
+    protected void record(RequestStatistics statistics, int statusCode) {
+        statistics.requestStarted();
+        statistics.requestCompleted(statusCode, TimeUnit.MILLISECONDS.toNanos(5), 10, 20);
+    }
+}
@@ -28,9 +28,10 @@ import io.apiman.gateway.engine.beans.ServiceResponse;
 import io.apiman.gateway.engine.io.IApimanBuffer;
 import io.apiman.gateway.engine.io.ISignalWriteStream;
 import io.apiman.gateway.vertx.io.VertxApimanBuffer;
-import io.fabric8.gateway.api.CallDetailRecord;
 import io.fabric8.gateway.api.apimanager.ApiManagerService;
 import io.fabric8.gateway.api.apimanager.ServiceMapping;
+import io.fabric8.gateway.api.handlers.http.HttpCallRecorder;
+import io.fabric8.gateway.api.handlers.http.HttpClientPool;
 import io.fabric8.gateway.api.handlers.http.HttpGateway;
 import io.fabric8.gateway.api.handlers.http.HttpMapping;
 import io.fabric8.gateway.api.handlers.http.IMappedServices;
@@ -44,7 +45,7 @@ import org.slf4j.LoggerFactory;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.buffer.Buffer;
-import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.http.HttpClientResponse;
 import org.vertx.java.core.http.HttpServerRequest;
 import org.vertx.java.core.http.HttpServerResponse;
 
@@ -71,15 +72,19 @@ public class ApiManHttpGatewayHandler implements Handler<HttpServerRequest> {
      */
     @Override
     public void handle(final HttpServerRequest request) {
-    	final long callStart = System.nanoTime();
+    	//0. If this is a request is show the mapping or the metrics then respond right away
+    	if (HttpMapping.isMappingIndexRequest(request, httpGateway)) {
+    		HttpMapping.respond(request, httpGateway);
+    		return;
+    	}
+    	if (HttpCallRecorder.isMetricsRequest(request, httpGateway)) {
+    		HttpCallRecorder.respondMetrics(request, httpGateway);
+    		return;
+    	}
 
+    	final HttpCallRecorder recorder = new HttpCallRecorder(httpGateway);
     	final HttpServerResponse response = request.response();
     	try {
-	    	//0. If this is a request is show the mapping then respond right away
-	    	if (HttpMapping.isMappingIndexRequest(request, httpGateway)) {
-	    		HttpMapping.respond(request, httpGateway);
-	    		return;
-	    	}
 
 			//1. Create APIMan ServiceRequest
 			ServiceRequest srequest = new ServiceRequest();
@@ -99,6 +104,10 @@ public class ApiManHttpGatewayHandler implements Handler<HttpServerRequest> {
 	        if (mappedServices!=null) {
 		    	ProxyMappingDetails proxyMappingDetails = mappedServices.getProxyMappingDetails();
 		    	LOG.info("Proxy Mapping Details " + proxyMappingDetails.getServicePath());
+		    	// the back end service is chosen later by the connector so only the route is recorded
+		    	recorder.mapped(proxyMappingDetails.getPathPrefix(), null);
+		    	// the service is only used to look up the API; the request itself is routed by the HttpGatewayServiceClient
+		    	mappedServices.serviceCancelled(proxyMappingDetails.getProxyServiceUrl());
 		    	
 		        ServiceMapping apiManagerServiceInfo = apiManager.getApiManagerServiceMapping(proxyMappingDetails.getServicePath());
 		        if (apiManagerServiceInfo==null) throw new Exception("Service Not Found in API Manager.");
@@ -123,6 +132,7 @@ public class ApiManHttpGatewayHandler implements Handler<HttpServerRequest> {
 						response.setStatusCode(500);
 						response.setStatusMessage("Gateway Internal Error: " + iAsyncEngineResult.getError().getMessage());
 						response.end();
+						recorder.completed(response);
 						LOG.error("Gateway Internal Error " + iAsyncEngineResult.getError().getMessage());
 					} else {
 						IEngineResult engineResult = iAsyncEngineResult.getResult();
@@ -131,8 +141,16 @@ public class ApiManHttpGatewayHandler implements Handler<HttpServerRequest> {
 							//will mark the engineResult as failed.
 							ServiceResponse serviceResponse = engineResult.getServiceResponse();
 							if (serviceResponse!=null) {
-								final HttpClient finalClient = (HttpClient) serviceResponse.getAttribute("finalClient");
-								finalClient.close();
+								// drain the back end response so its keep-alive connection can be reused
+								HttpClientResponse clientResponse = (HttpClientResponse) serviceResponse.getAttribute(ApiManService.ATTR_CLIENT_RESPONSE);
+								if (clientResponse!=null) {
+									clientResponse.dataHandler(null);
+									clientResponse.resume();
+								}
+								HttpClientPool.Lease lease = (HttpClientPool.Lease) serviceResponse.getAttribute(ApiManService.ATTR_CLIENT_LEASE);
+								if (lease!=null) {
+									lease.release();
+								}
 							}
 							PolicyFailure policyFailure = engineResult.getPolicyFailure();
 							response.putHeader("X-Policy-Failure-Type", String.valueOf(policyFailure.getType()));
@@ -147,6 +165,7 @@ public class ApiManHttpGatewayHandler implements Handler<HttpServerRequest> {
 					        response.setStatusCode(errorCode);
 							response.setStatusMessage(policyFailure.getMessage());
 							response.end();
+							recorder.completed(response);
 							//response.close();
 						} else if (engineResult.isResponse()) {
 							//All is happy and we can respond back to the client.
@@ -162,7 +181,9 @@ public class ApiManHttpGatewayHandler implements Handler<HttpServerRequest> {
 					            public void handle(IApimanBuffer chunk) {
 
 					              // Important: retrieve native buffer format directly if possible, much more efficient.
-					            	response.write((Buffer) chunk.getNativeBuffer());
+					            	Buffer buffer = (Buffer) chunk.getNativeBuffer();
+					            	recorder.responseBytes(buffer.length());
+					            	response.write(buffer);
 					            }
 					          });
 
@@ -172,9 +193,8 @@ public class ApiManHttpGatewayHandler implements Handler<HttpServerRequest> {
 					            @Override
 					            public void handle(Void flag) {
 					            	LOG.debug("ResponseCode from downstream " + response.getStatusCode());
-									CallDetailRecord cdr = new CallDetailRecord(System.nanoTime() - callStart, response.getStatusMessage());
-									httpGateway.addCallDetailRecord(cdr);
 									response.end();
+									recorder.completed(response);
 					            	//response.close();
 					            	LOG.debug("Complete success, and response end.");
 					            }
@@ -191,6 +211,7 @@ public class ApiManHttpGatewayHandler implements Handler<HttpServerRequest> {
 				    request.dataHandler(new Handler<Buffer>() {
 			            @Override
                         public void handle(Buffer data) {
+			            	recorder.requestBytes(data.length());
 			            	IApimanBuffer apimanBuffer = new VertxApimanBuffer(data);
 			        		writeStream.write(apimanBuffer);
 			            }
@@ -204,6 +225,7 @@ public class ApiManHttpGatewayHandler implements Handler<HttpServerRequest> {
 			response.setStatusCode(404);
 			response.setStatusMessage("User error " + e.getMessage());
 			response.end();
+			recorder.completed(response);
 			LOG.error("User error " + e.getMessage());
 		}
     }
@@ -22,6 +22,7 @@ import io.apiman.gateway.engine.async.IAsyncResult;
 import io.apiman.gateway.engine.beans.ServiceResponse;
 import io.apiman.gateway.engine.io.IApimanBuffer;
 import io.apiman.gateway.vertx.io.VertxApimanBuffer;
+import io.fabric8.gateway.api.handlers.http.HttpClientPool;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -29,7 +30,6 @@ import java.util.Map;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.VoidHandler;
 import org.vertx.java.core.buffer.Buffer;
-import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientResponse;
 /**
  * Response Handler when a call to Overlord APIMan returns. This handler is called
@@ -37,19 +37,19 @@ import org.vertx.java.core.http.HttpClientResponse;
  */
 public class ApiManHttpServiceResponseHandler implements Handler<HttpClientResponse>{
 
-	final HttpClient httpClient;
+	final HttpClientPool.Lease lease;
 	final IAsyncHandler<IAsyncResult<IServiceConnectionResponse>> apiManServiceResponseHandler;
 
 	/**
 	 * Constructor which requires passing in references to
 	 *
-	 * @param httpClient - a Vert.x HttpClient instance.
+	 * @param lease - the lease on the pooled Vert.x HttpClient used to call the service.
 	 * @param responseHandler - an instance of the Overlord APIMan org.overlord.apiman.rt.engine.async.IAsyncHandler.
 	 */
-	public ApiManHttpServiceResponseHandler(HttpClient httpClient,
+	public ApiManHttpServiceResponseHandler(HttpClientPool.Lease lease,
 			IAsyncHandler<IAsyncResult<IServiceConnectionResponse>> responseHandler) {
 		super();
-		this.httpClient = httpClient;
+		this.lease = lease;
 		this.apiManServiceResponseHandler = responseHandler;
 	}
 	/**
@@ -66,7 +66,8 @@ public class ApiManHttpServiceResponseHandler implements Handler<HttpClientRespo
     	serviceResponse.setCode(clientResponse.statusCode());
     	serviceResponse.setMessage(clientResponse.statusMessage());
     	serviceResponse.setAttribute(ApiManService.ATTR_CLIENT_RESPONSE, clientResponse);
-    	serviceResponse.setAttribute(ApiManService.ATTR_HTTP_CLIENT, httpClient);
+    	serviceResponse.setAttribute(ApiManService.ATTR_HTTP_CLIENT, lease.getClient());
+    	serviceResponse.setAttribute(ApiManService.ATTR_CLIENT_LEASE, lease);
     	Map<String,String> headerMap = new HashMap<String,String>();
     	for (String key : clientResponse.headers().names()) {
     		headerMap.put(key, clientResponse.headers().get(key));
@@ -110,7 +111,7 @@ public class ApiManHttpServiceResponseHandler implements Handler<HttpClientRespo
 					@Override
 					protected void handle() {
 						streamFinished = true;
-						// TODO Auto-generated method stub
+						lease.release();
 						endHandler.handle(null);
 					}
 		        });
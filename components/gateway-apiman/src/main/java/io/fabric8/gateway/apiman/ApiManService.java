@@ -20,6 +20,7 @@ import io.apiman.gateway.engine.async.IAsyncHandler;
 import io.apiman.gateway.engine.async.IAsyncResult;
 import io.fabric8.gateway.api.apimanager.ApiManagerService;
 import io.fabric8.gateway.api.apimanager.ServiceMapping;
+import io.fabric8.gateway.api.handlers.http.HttpClientPool;
 import io.fabric8.gateway.api.handlers.http.HttpGateway;
 
 import java.util.Map;
@@ -31,7 +32,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
-import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientResponse;
 import org.vertx.java.core.http.HttpServer;
 import org.vertx.java.core.http.HttpServerRequest;
@@ -52,6 +52,7 @@ public class ApiManService implements ApiManagerService {
 	private HttpServer engineRestServer;
 	public final static String ATTR_HTTP_CLIENT = "httpClient";
 	public final static String ATTR_CLIENT_RESPONSE = "clientResponse";
+	public final static String ATTR_CLIENT_LEASE = "clientLease";
 
 	@Override
     public void init(Map<String,Object> config) {
@@ -84,13 +85,13 @@ public class ApiManService implements ApiManagerService {
 		return engine;
 	}
 	/**
-	 * @see HttpGateway#createClientResponseHandler(HttpClient, HttpServerRequest, Object)
+	 * @see ApiManagerService#createServiceResponseHandler(HttpClientPool.Lease, Object)
 	 */
 	@SuppressWarnings("unchecked")
 	@Override
 	public Handler<HttpClientResponse> createServiceResponseHandler(
-			final HttpClient httpClient, final Object apiManagementResponseHandler) {
-			return new ApiManHttpServiceResponseHandler(httpClient, (IAsyncHandler<IAsyncResult<IServiceConnectionResponse>>) apiManagementResponseHandler);
+			final HttpClientPool.Lease lease, final Object apiManagementResponseHandler) {
+			return new ApiManHttpServiceResponseHandler(lease, (IAsyncHandler<IAsyncResult<IServiceConnectionResponse>>) apiManagementResponseHandler);
 	}
     /**
      * @see ApiManagerService#createHttpGatewayHandler()
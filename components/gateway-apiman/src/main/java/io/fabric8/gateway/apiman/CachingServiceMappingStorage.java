@@ -0,0 +1,313 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.gateway.apiman;
+
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.fabric8.gateway.api.apimanager.ServiceMapping;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-through cache in front of another service mapping storage.  Lookups are
+ * served from memory; a path is only read from the delegate the first time it is
+ * seen.  Once an entry expires the stale mapping keeps being served while a single
+ * background thread refreshes it, so the routing path does not wait on the backing
+ * store for known paths.  Unknown paths are cached as well (for a shorter time) so
+ * that requests for unmapped paths do not hit the backing store every time.
+ *
+ * Writes go through to the delegate and update the cache once the delegate has
+ * completed them.  A mapping read from the delegate on a cache miss is only cached
+ * if no write completed while it was being read, as it may be older than the write.
+ *
+ * Once the cache is full the oldest path is evicted unless it has been read since it
+ * was last passed over, in which case it is moved to the back (the CLOCK or second
+ * chance policy), so each insert only looks at a few entries. Lookups never lock;
+ * only the inserts and removals take the lock guarding the order of the paths.
+ */
+public class CachingServiceMappingStorage implements ServiceMappingStorage {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(CachingServiceMappingStorage.class);
+
+    public static final long DEFAULT_TTL = 60000L;
+    public static final long DEFAULT_NEGATIVE_TTL = 5000L;
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final ServiceMappingStorage delegate;
+    private final long ttl;
+    private final long negativeTtl;
+    private final int maxEntries;
+    private final ConcurrentMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    // the cached paths from the oldest to the newest, changes to the paths in the cache are made holding its lock
+    private final LinkedHashMap<String, Boolean> order = new LinkedHashMap<>();
+    private final ThreadPoolExecutor refresher;
+
+    // counts the completed writes, so that a miss can tell whether its mapping may be stale
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    /**
+     * Constructor using the default time to live and size.
+     * @param delegate
+     */
+    public CachingServiceMappingStorage(ServiceMappingStorage delegate) {
+        this(delegate, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Constructor.
+     * @param delegate the storage holding the actual mappings
+     * @param ttl how long (in millis) a found mapping is served before it is refreshed
+     * @param negativeTtl how long (in millis) a missing mapping is remembered
+     * @param maxEntries the maximum number of paths kept in memory
+     */
+    public CachingServiceMappingStorage(ServiceMappingStorage delegate, long ttl, long negativeTtl, int maxEntries) {
+        this.delegate = delegate;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.refresher = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(this.maxEntries), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "gateway-service-mapping-refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.refresher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @see io.fabric8.gateway.apiman.ServiceMappingStorage#put(java.lang.String, io.fabric8.gateway.api.apimanager.ServiceMapping, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void put(final String path, final ServiceMapping mapping, final IAsyncResultHandler<Void> handler) {
+        delegate.put(path, mapping, new IAsyncResultHandler<Void>() {
+            @Override
+            public void handle(IAsyncResult<Void> result) {
+                writes.incrementAndGet();
+                if (result.isSuccess()) {
+                    store(path, mapping);
+                } else {
+                    discard(path);
+                }
+                handler.handle(result);
+            }
+        });
+    }
+
+    /**
+     * @see io.fabric8.gateway.apiman.ServiceMappingStorage#get(java.lang.String)
+     */
+    @Override
+    public ServiceMapping get(String path) {
+        CacheEntry entry = cache.get(path);
+        if (entry != null) {
+            hits.incrementAndGet();
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            if (entry.isExpired(System.currentTimeMillis())) {
+                refresh(path, entry);
+            }
+            return entry.mapping;
+        }
+        misses.incrementAndGet();
+        long version = writes.get();
+        ServiceMapping mapping = delegate.get(path);
+        if (writes.get() == version) {
+            // never replace an entry stored by a concurrent put or miss
+            storeIfAbsent(path, mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * @see io.fabric8.gateway.apiman.ServiceMappingStorage#remove(java.lang.String, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void remove(final String path, final IAsyncResultHandler<Void> handler) {
+        delegate.remove(path, new IAsyncResultHandler<Void>() {
+            @Override
+            public void handle(IAsyncResult<Void> result) {
+                // Whatever the outcome, the cached mapping can no longer be trusted.
+                writes.incrementAndGet();
+                discard(path);
+                handler.handle(result);
+            }
+        });
+    }
+
+    /**
+     * Drops all cached mappings.
+     */
+    public void invalidateAll() {
+        writes.incrementAndGet();
+        synchronized (order) {
+            cache.clear();
+            order.clear();
+        }
+    }
+
+    /**
+     * Stops the background refresh thread.
+     */
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private void store(String path, ServiceMapping mapping) {
+        synchronized (order) {
+            if (cache.put(path, newEntry(mapping)) == null) {
+                order.put(path, Boolean.TRUE);
+                evict();
+            }
+        }
+    }
+
+    private void storeIfAbsent(String path, ServiceMapping mapping) {
+        synchronized (order) {
+            if (cache.putIfAbsent(path, newEntry(mapping)) == null) {
+                order.put(path, Boolean.TRUE);
+                evict();
+            }
+        }
+    }
+
+    private void discard(String path) {
+        synchronized (order) {
+            cache.remove(path);
+            order.remove(path);
+        }
+    }
+
+    private CacheEntry newEntry(ServiceMapping mapping) {
+        return new CacheEntry(mapping, System.currentTimeMillis() + (mapping != null ? ttl : negativeTtl));
+    }
+
+    /**
+     * Evicts the oldest entries until the cache is back within its size, giving the ones which
+     * have been read since they were last passed over a second chance unless they have expired.
+     * Must be called holding the lock on the order.
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        while (cache.size() > maxEntries && !order.isEmpty()) {
+            String path = order.keySet().iterator().next();
+            order.remove(path);
+            CacheEntry entry = cache.get(path);
+            if (entry != null && entry.referenced && !entry.isExpired(now)) {
+                entry.referenced = false;
+                order.put(path, Boolean.TRUE);
+            } else {
+                cache.remove(path);
+            }
+        }
+    }
+
+    private void refresh(final String path, final CacheEntry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ServiceMapping mapping = delegate.get(path);
+                        refreshes.incrementAndGet();
+                        // Only replace the entry we refreshed; a put or remove may have happened meanwhile
+                        cache.replace(path, entry, newEntry(mapping));
+                    } catch (RuntimeException e) {
+                        refreshFailures.incrementAndGet();
+                        LOG.warn("Failed to refresh the service mapping for path " + path
+                                + ", continuing with the cached mapping: " + e.getMessage());
+                        // Back off before trying the backing store again
+                        cache.replace(path, entry, new CacheEntry(entry.mapping,
+                                System.currentTimeMillis() + negativeTtl));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    public long getRefreshFailures() {
+        return refreshFailures.get();
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    private static final class CacheEntry {
+        private final ServiceMapping mapping;
+        private final long expires;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        // set when the entry is read, cleared when eviction passes over it
+        private volatile boolean referenced;
+
+        CacheEntry(ServiceMapping mapping, long expires) {
+            this.mapping = mapping;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expires;
+        }
+    }
+}
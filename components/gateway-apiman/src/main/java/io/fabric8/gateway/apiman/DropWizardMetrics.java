@@ -18,27 +18,67 @@ package io.fabric8.gateway.apiman;
 import io.apiman.gateway.engine.IComponentRegistry;
 import io.apiman.gateway.engine.IMetrics;
 import io.apiman.gateway.engine.metrics.RequestMetric;
+import io.fabric8.utils.Systems;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.LoggerFactory;
+
 import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Slf4jReporter;
+import com.codahale.metrics.Timer;
 
 /**
  * A drop-wizard implementation of the apiman metrics interface.
  *
+ * The meters and timers of a service are resolved once and cached, so recording
+ * a request does not build metric names or look them up in the registry. At most
+ * APIMAN_METRICS_MAX_SERVICES services get their own metrics; requests for any
+ * further services are recorded under the "_other_" service. Timers report
+ * latency percentiles over JMX and, when APIMAN_METRICS_LOG_INTERVAL is set to a
+ * number of seconds, periodically to the log.
+ *
  * @author eric.wittmann@redhat.com
  */
 public class DropWizardMetrics implements IMetrics {
 
+    public static final int DEFAULT_MAX_SERVICES = 1000;
+    public static final String OVERFLOW_SERVICE = "_other_"; //$NON-NLS-1$
+
     private final MetricRegistry registry = new MetricRegistry();
+    private final ConcurrentMap<ServiceKey, ServiceMetrics> services = new ConcurrentHashMap<>();
+    private final int maxServices;
+    private final ServiceMetrics overflow;
 
     /**
      * Constructor.
      */
     public DropWizardMetrics() {
-        final JmxReporter reporter = JmxReporter.forRegistry(registry).build();
+        this(Integer.parseInt(Systems.getEnvVarOrSystemProperty("APIMAN_METRICS_MAX_SERVICES", String.valueOf(DEFAULT_MAX_SERVICES))),
+                Long.parseLong(Systems.getEnvVarOrSystemProperty("APIMAN_METRICS_LOG_INTERVAL", "0")));
+    }
+
+    /**
+     * Constructor.
+     * @param maxServices the number of services tracked individually
+     * @param logInterval how often (in seconds) to log the metrics, 0 to disable
+     */
+    public DropWizardMetrics(int maxServices, long logInterval) {
+        this.maxServices = maxServices;
+        this.overflow = new ServiceMetrics(registry, OVERFLOW_SERVICE);
+        final JmxReporter reporter = JmxReporter.forRegistry(registry)
+                .convertDurationsTo(TimeUnit.MILLISECONDS).build();
         reporter.start();
+        if (logInterval > 0) {
+            Slf4jReporter.forRegistry(registry)
+                    .outputTo(LoggerFactory.getLogger(DropWizardMetrics.class))
+                    .convertDurationsTo(TimeUnit.MILLISECONDS)
+                    .build().start(logInterval, TimeUnit.SECONDS);
+        }
     }
 
     /**
@@ -46,24 +86,45 @@ public class DropWizardMetrics implements IMetrics {
      */
     @Override
     public void record(RequestMetric metric) {
-        registry.meter(name("ServiceRequest", metric)).mark();
-        registry.timer(name("ServiceRequestDuration", metric)).update(metric.getRequestDuration(), TimeUnit.MILLISECONDS);
-        registry.timer(name("ServiceDuration", metric)).update(metric.getServiceDuration(), TimeUnit.MILLISECONDS);
+        ServiceMetrics serviceMetrics = resolve(metric);
+        serviceMetrics.requests.mark();
+        serviceMetrics.requestDuration.update(metric.getRequestDuration(), TimeUnit.MILLISECONDS);
+        serviceMetrics.serviceDuration.update(metric.getServiceDuration(), TimeUnit.MILLISECONDS);
         if (metric.isError()) {
-            registry.meter(name("ServiceRequestError", metric)).mark();
+            serviceMetrics.errors.mark();
         } else if (metric.getFailureCode() > 0) {
-            registry.meter(name("ServiceRequestFailure", metric)).mark();
+            serviceMetrics.failures.mark();
         } else {
-            registry.meter(name("ServiceRequestSuccess", metric)).mark();
+            serviceMetrics.successes.mark();
         }
     }
 
     /**
-     * @param metricType
+     * Returns the metrics of the service the request was made to, creating them on
+     * first use or falling back to the overflow metrics once the cap is reached.
      * @param metric
      */
-    private String name(String metricType, RequestMetric metric) {
-        return MetricRegistry.name(metricType, metric.getServiceOrgId(), metric.getServiceId(), metric.getServiceVersion());
+    private ServiceMetrics resolve(RequestMetric metric) {
+        ServiceKey key = new ServiceKey(metric.getServiceOrgId(), metric.getServiceId(), metric.getServiceVersion());
+        ServiceMetrics answer = services.get(key);
+        if (answer == null) {
+            if (services.size() >= maxServices) {
+                return overflow;
+            }
+            answer = new ServiceMetrics(registry, key.orgId, key.serviceId, key.version);
+            ServiceMetrics existing = services.putIfAbsent(key, answer);
+            if (existing != null) {
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the registry holding the metrics of every service.
+     */
+    MetricRegistry getRegistry() {
+        return registry;
     }
 
     /**
@@ -74,4 +135,63 @@ public class DropWizardMetrics implements IMetrics {
         // Not required by this implementation.
     }
 
+    /**
+     * The metrics of a single service version.
+     */
+    private static final class ServiceMetrics {
+        private final Meter requests;
+        private final Timer requestDuration;
+        private final Timer serviceDuration;
+        private final Meter errors;
+        private final Meter failures;
+        private final Meter successes;
+
+        ServiceMetrics(MetricRegistry registry, String... names) {
+            requests = registry.meter(MetricRegistry.name("ServiceRequest", names)); //$NON-NLS-1$
+            requestDuration = registry.timer(MetricRegistry.name("ServiceRequestDuration", names)); //$NON-NLS-1$
+            serviceDuration = registry.timer(MetricRegistry.name("ServiceDuration", names)); //$NON-NLS-1$
+            errors = registry.meter(MetricRegistry.name("ServiceRequestError", names)); //$NON-NLS-1$
+            failures = registry.meter(MetricRegistry.name("ServiceRequestFailure", names)); //$NON-NLS-1$
+            successes = registry.meter(MetricRegistry.name("ServiceRequestSuccess", names)); //$NON-NLS-1$
+        }
+    }
+
+    private static final class ServiceKey {
+        private final String orgId;
+        private final String serviceId;
+        private final String version;
+        private final int hash;
+
+        ServiceKey(String orgId, String serviceId, String version) {
+            this.orgId = orgId;
+            this.serviceId = serviceId;
+            this.version = version;
+            int h = orgId != null ? orgId.hashCode() : 0;
+            h = 31 * h + (serviceId != null ? serviceId.hashCode() : 0);
+            this.hash = 31 * h + (version != null ? version.hashCode() : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ServiceKey)) {
+                return false;
+            }
+            ServiceKey that = (ServiceKey) o;
+            return hash == that.hash && equal(orgId, that.orgId) && equal(serviceId, that.serviceId)
+                    && equal(version, that.version);
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
 }
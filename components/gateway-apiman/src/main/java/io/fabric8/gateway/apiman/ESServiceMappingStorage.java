@@ -119,8 +119,8 @@ public class ESServiceMappingStorage implements ServiceMappingStorage {
             }
             return null;
         } catch (Exception e) {
-            // TODO log this error
-            return null;
+            // Let the caller tell a failed lookup apart from a missing mapping
+            throw new IllegalStateException("Error reading service mapping for path: " + path, e); //$NON-NLS-1$
         }
     }
 
@@ -105,7 +105,12 @@ public class EngineFactory extends DefaultEngineFactory {
     @Override
     protected IRegistry createRegistry() {
         ESRegistry registry = new ESRegistry(esConfig);
-        ServiceMappingStorage mappingStorage = new ESServiceMappingStorage(esConfig);
+        // Route lookups happen on the request path, so keep the mappings in memory
+        ServiceMappingStorage mappingStorage = new CachingServiceMappingStorage(
+                new ESServiceMappingStorage(esConfig),
+                Long.parseLong(Systems.getEnvVarOrSystemProperty("SERVICE_MAPPING_CACHE_TTL", String.valueOf(CachingServiceMappingStorage.DEFAULT_TTL))),
+                Long.parseLong(Systems.getEnvVarOrSystemProperty("SERVICE_MAPPING_CACHE_NEGATIVE_TTL", String.valueOf(CachingServiceMappingStorage.DEFAULT_NEGATIVE_TTL))),
+                Integer.parseInt(Systems.getEnvVarOrSystemProperty("SERVICE_MAPPING_CACHE_SIZE", String.valueOf(CachingServiceMappingStorage.DEFAULT_MAX_ENTRIES))));
         return new DelegatingRegistryWithMapping(registry, mappingStorage);
     }
 
@@ -28,32 +28,74 @@ import io.apiman.gateway.engine.beans.exceptions.PublishingException;
 import io.apiman.gateway.engine.beans.exceptions.RegistrationException;
 import io.apiman.gateway.engine.i18n.Messages;
 
+import io.fabric8.utils.Systems;
+
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 /**
  * A File-Backed implementation of the registry. This implementation persists the
  * registry info to a data/apiman/registry.json file on the file system.
+ * 
+ * Changes are not written to the snapshot directly; each change is appended as a
+ * single JSON line to data/apiman/registry.journal by a background writer thread.
+ * Once the journal holds enough changes a new snapshot is written to a temporary
+ * file, atomically renamed over registry.json and the journal is truncated. On
+ * startup the snapshot is loaded and the journal replayed on top of it. Without a
+ * snapshot the registry is bootstrapped and a left over journal is discarded.
+ * 
+ * {@link #load(String)} registers a shutdown hook which calls {@link #close()}, so
+ * changes still queued for the writer thread are on disk when the gateway stops.
+ * 
+ * Lookups read an immutable snapshot of the registry state. Changes are made on
+ * copies of the affected maps under the registry lock and then published in one
+ * volatile write, so per-request contract lookups never wait for administrative
+ * changes.
  *
  */
 public class FileBackedRegistry implements IRegistry {
 
 	private static final transient Logger LOG = LoggerFactory.getLogger(FileBackedRegistry.class);
+	public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
 	private static File registryFile = null;
-	private Map<String, Service> services = new HashMap<String, Service>();
-	private Map<String, String[]> serviceBindPaths = new HashMap<String, String[]>();
-	private Map<String, Application> applications = new HashMap<String, Application>();
-	private Map<String, ServiceContract> contracts = new HashMap<String, ServiceContract>();
+	private static File journalFile = null;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final ExecutorService writer;
+	// null unless the registry was created for a specific data directory
+	private final File dataDir;
+	private Thread shutdownHook;
+	private boolean closed;
+	private boolean fsync = Boolean.parseBoolean(Systems.getEnvVarOrSystemProperty("APIMAN_REGISTRY_FSYNC", "false"));
+	private int compactionThreshold = Integer.parseInt(Systems.getEnvVarOrSystemProperty("APIMAN_REGISTRY_COMPACTION_THRESHOLD",
+			String.valueOf(DEFAULT_COMPACTION_THRESHOLD)));
+	private int journalSize;
+	// only used from the writer thread
+	private FileOutputStream journalOut;
+	// replaced as a whole on every change so lookups never need the registry lock
+	private volatile RegistryState state = new RegistryState();
 	
 	public static File getRegistryFile() throws IOException {
 		if (registryFile==null) {
@@ -86,6 +128,44 @@ public class FileBackedRegistry implements IRegistry {
 		}
 		return registryFile;
 	}
+	
+	public static File getJournalFile() throws IOException {
+		if (journalFile==null) {
+			File registry = getRegistryFile();
+			journalFile = new File(registry.getParentFile(), "registry.journal");
+		}
+		return journalFile;
+	}
+	
+	public FileBackedRegistry() {
+		this(null);
+	}
+	
+	/**
+	 * Creates a registry which keeps its files in the given directory rather
+	 * than in data/apiman.
+	 */
+	FileBackedRegistry(File dataDir) {
+		this.dataDir = dataDir;
+		writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "apiman-registry-writer");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+	
+	private File snapshotFile() throws IOException {
+		return dataDir != null ? new File(dataDir, "registry.json") : getRegistryFile();
+	}
+	
+	private File logFile() throws IOException {
+		return dataDir != null ? new File(dataDir, "registry.journal") : getJournalFile();
+	}
+	
 	/**
 	 * Loads up the engine registry data that was persisted previously. If no
 	 * registry.json file is found it uses bootstrap data which are shipped
@@ -103,41 +183,250 @@ public class FileBackedRegistry implements IRegistry {
 	public void load(String port) throws IOException {
 		
 		String json = null;
-		if (getRegistryFile().exists()) {
-			json = IOUtils.toString(getRegistryFile().toURI(), "UTF-8");
+		File file = snapshotFile();
+		if (file.exists()) {
+			json = IOUtils.toString(file.toURI(), "UTF-8");
 		}
 		//if there is no data, then bootstrap with default data
-		if (json == null || json.length() == 0) {
-			LOG.info(registryFile.getAbsolutePath() + " has no content which can happen on first use."
+		boolean bootstrap = json == null || json.length() == 0;
+		if (bootstrap) {
+			LOG.info(file.getAbsolutePath() + " has no content which can happen on first use."
 					+ " Running ApiMan bootstrap process");
-			getRegistryFile().createNewFile();
+			file.createNewFile();
 			InputStream is = getClass().getResourceAsStream("RegistryInfo.json");
 			json = IOUtils.toString(is);
 			if (port != null) json = json.replaceAll("\\$\\{port\\}", port);
 		}
 		ApiManRegistryInfo registryInfo = ApiManRegistryInfo.fromJSON(json);
-		for (Service service : registryInfo.getServices()) {
-			services.put(getServiceKey(service), service);
+		synchronized (this) {
+			RegistryUpdate update = new RegistryUpdate(state);
+			for (Service service : registryInfo.getServices()) {
+				putService(update, service);
+			}
+			for (Application application : registryInfo.getApplications()) {
+				putApplication(update, application);
+			}
+			int replayed = 0;
+			if (!bootstrap) {
+				replayed = replayJournal(update);
+			} else if (logFile().length() > 0) {
+				// the journal only holds changes made on top of a snapshot
+				LOG.warn("Discarding " + logFile().getAbsolutePath() + " as there is no registry snapshot to apply it to");
+			}
+			state = update.commit();
+			journalSize = Math.max(replayed, 0);
+			// the journal is truncated once the bootstrap data has a snapshot, and
+			// new changes must not be appended after a damaged entry
+			if (bootstrap || replayed < 0 || journalSize >= compactionThreshold) {
+				save();
+			}
+			if (shutdownHook == null) {
+				shutdownHook = new Thread("apiman-registry-shutdown") {
+					@Override
+					public void run() {
+						try {
+							FileBackedRegistry.this.close();
+						} catch (InterruptedException e) {
+							LOG.warn("Interrupted while writing the APIMan registry on shutdown");
+						}
+					}
+				};
+				Runtime.getRuntime().addShutdownHook(shutdownHook);
+			}
+		}
+	}
+	
+	/**
+	 * Re-applies the changes logged since the last snapshot. Replay is lenient:
+	 * the journal may already be contained in the snapshot if the gateway stopped
+	 * between writing the snapshot and truncating the journal.
+	 * 
+	 * @return the number of changes replayed, or -1 if the journal ends with
+	 * an unreadable entry
+	 */
+	private int replayJournal(RegistryUpdate update) throws IOException {
+		File file = logFile();
+		if (!file.exists() || file.length() == 0) {
+			return 0;
+		}
+		int count = 0;
+		boolean damaged = false;
+		long start = System.currentTimeMillis();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() == 0) continue;
+				RegistryChange change;
+				try {
+					change = mapper.readValue(line, RegistryChange.class);
+				} catch (IOException e) {
+					// a partially written last line if the gateway died while appending
+					LOG.warn("Ignoring unreadable entry " + (count + 1) + " in " + file.getAbsolutePath() + ": " + e.getMessage());
+					damaged = true;
+					break;
+				}
+				apply(update, change);
+				count++;
+			}
+		}
+		LOG.info("Replayed " + count + " registry changes from " + file.getAbsolutePath()
+				+ " in " + (System.currentTimeMillis() - start) + " ms");
+		return damaged ? -1 : count;
+	}
+	
+	private void apply(RegistryUpdate update, RegistryChange change) {
+		if (RegistryChange.PUBLISH_SERVICE.equals(change.getType())) {
+			putService(update, change.getService());
+		} else if (RegistryChange.RETIRE_SERVICE.equals(change.getType())) {
+			removeService(update, getServiceKey(change.getService()));
+		} else if (RegistryChange.REGISTER_APPLICATION.equals(change.getType())) {
+			putApplication(update, change.getApplication());
+		} else if (RegistryChange.UNREGISTER_APPLICATION.equals(change.getType())) {
+			removeApplication(update, getApplicationKey(change.getApplication()));
+		} else {
+			LOG.warn("Ignoring unknown registry change " + change.getType());
+		}
+	}
+	
+	/**
+	 * Schedules a full snapshot of the registry; the journal is truncated once
+	 * the snapshot is on disk.
+	 */
+	public synchronized void save() {
+		journalSize = 0;
+		// the maps of a published state are never modified, so no copy is needed
+		final Collection<Service> serviceSnapshot = state.services.values();
+		final Collection<Application> applicationSnapshot = state.applications.values();
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeSnapshot(serviceSnapshot, applicationSnapshot);
+				} catch (IOException e) {
+					LOG.error("Failed to write the APIMan registry snapshot: " + e.getMessage(), e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Waits until all changes made so far have been written.
+	 */
+	public void flush() throws InterruptedException {
+		final Object done = new Object();
+		final boolean[] written = new boolean[1];
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (done) {
+					written[0] = true;
+					done.notifyAll();
+				}
+			}
+		});
+		synchronized (done) {
+			while (!written[0]) {
+				done.wait();
+			}
 		}
-		for (Application application : registryInfo.getApplications()) {
-			applications.put(getApplicationKey(application), application);
-			for (Contract contract : application.getContracts()) {
-				String svcKey = getServiceKey(contract.getServiceOrgId(), contract.getServiceId(), contract.getServiceVersion());
-				ServiceContract sc = new ServiceContract(contract.getApiKey(), services.get(svcKey), application, contract.getPolicies());
-				contracts.put(contract.getApiKey(), sc);
+	}
+	
+	/**
+	 * Writes a final snapshot and stops the writer thread. Closing an already
+	 * closed registry does nothing.
+	 */
+	public void close() throws InterruptedException {
+		synchronized (this) {
+			if (closed) {
+				return;
 			}
-			
+			closed = true;
+			save();
+			writer.shutdown();
+			if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+				try {
+					Runtime.getRuntime().removeShutdownHook(shutdownHook);
+				} catch (IllegalStateException e) {
+					// already shutting down
+				}
+			}
+		}
+		if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+			LOG.warn("Timed out writing the APIMan registry snapshot");
 		}
 	}
 	
-	public void save() {
-		try {
-			ApiManRegistryInfo registryInfo = new ApiManRegistryInfo(services.values(), applications.values());
-			String json = registryInfo.toJSON();
-			FileUtils.writeStringToFile(getRegistryFile(), json);
-		} catch (IOException e) {
-			//log
+	/**
+	 * Logs a change, called while holding the registry lock so the journal
+	 * order matches the order the changes were made in.
+	 */
+	private void log(final RegistryChange change) {
+		if (closed) {
+			LOG.warn("Not persisting " + change.getType() + " as the APIMan registry is closed");
+			return;
 		}
+		if (++journalSize >= compactionThreshold) {
+			save();
+			return;
+		}
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeJournal(change);
+				} catch (IOException e) {
+					LOG.error("Failed to append " + change.getType() + " to the APIMan registry journal: " + e.getMessage(), e);
+				}
+			}
+		});
+	}
+	
+	private void writeJournal(RegistryChange change) throws IOException {
+		if (journalOut == null) {
+			journalOut = new FileOutputStream(logFile(), true);
+		}
+		byte[] line = (mapper.writeValueAsString(change) + "\n").getBytes("UTF-8");
+		journalOut.write(line);
+		if (fsync) {
+			journalOut.getChannel().force(false);
+		}
+	}
+	
+	private void writeSnapshot(Collection<Service> services, Collection<Application> applications) throws IOException {
+		File file = snapshotFile();
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		String json = new ApiManRegistryInfo(services, applications).toJSON();
+		try (FileOutputStream out = new FileOutputStream(tmp)) {
+			out.write(json.getBytes("UTF-8"));
+			if (fsync) {
+				out.getChannel().force(true);
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		// everything logged so far is now part of the snapshot
+		if (journalOut != null) {
+			journalOut.close();
+		}
+		journalOut = new FileOutputStream(logFile(), false);
+		if (fsync) {
+			journalOut.getChannel().force(true);
+		}
+	}
+	
+	public boolean isFsync() {
+		return fsync;
+	}
+	
+	public void setFsync(boolean fsync) {
+		this.fsync = fsync;
+	}
+	
+	public int getCompactionThreshold() {
+		return compactionThreshold;
+	}
+	
+	public void setCompactionThreshold(int compactionThreshold) {
+		this.compactionThreshold = compactionThreshold;
 	}
 
 	/**
@@ -147,22 +436,20 @@ public class FileBackedRegistry implements IRegistry {
 	public synchronized void publishService(Service service, IAsyncResultHandler<Void> handler) {
 	    Exception error = null;
         String serviceKey = getServiceKey(service);
-        if (services.containsKey(serviceKey)) {
+        RegistryState current = state;
+        if (current.services.containsKey(serviceKey)) {
             error = new PublishingException(Messages.i18n.format("InMemoryRegistry.ServiceAlreadyPublished")); //$NON-NLS-1$
         } else {
             try {
-            	String path = getServiceBindPath(service);
-            	String[] serviceInfo = new String[3];
-            	serviceInfo[0] = service.getOrganizationId();
-            	serviceInfo[1] = service.getServiceId();
-            	serviceInfo[2] = service.getVersion();
-            	serviceBindPaths.put(path, serviceInfo);
-                services.put(serviceKey, service);
+            	getServiceBindPath(service);
+            	RegistryUpdate update = new RegistryUpdate(current);
+            	putService(update, service);
+            	state = update.commit();
+            	log(new RegistryChange(RegistryChange.PUBLISH_SERVICE, service, null));
             } catch (Exception e) {
                 error = new PublishingException(e.getMessage(),e);
             }
         }
-        save();
         if (error == null) {
             handler.handle(AsyncResultImpl.create((Void) null));
         } else {
@@ -170,6 +457,47 @@ public class FileBackedRegistry implements IRegistry {
         }
     }
     
+    private void putService(RegistryUpdate update, Service service) {
+        try {
+            String path = getServiceBindPath(service);
+            String[] serviceInfo = new String[3];
+            serviceInfo[0] = service.getOrganizationId();
+            serviceInfo[1] = service.getServiceId();
+            serviceInfo[2] = service.getVersion();
+            update.serviceBindPaths().put(path, serviceInfo);
+        } catch (MalformedURLException e) {
+            LOG.warn("Cannot bind service " + getServiceKey(service) + ": " + e.getMessage());
+        }
+        update.services().put(getServiceKey(service), service);
+    }
+    
+    private void removeService(RegistryUpdate update, String serviceKey) {
+        Service service = update.services().remove(serviceKey);
+        if (service != null) {
+            try {
+                update.serviceBindPaths().remove(getServiceBindPath(service));
+            } catch (Exception e) {};
+        }
+    }
+    
+    private void putApplication(RegistryUpdate update, Application application) {
+        update.applications().put(getApplicationKey(application), application);
+        for (Contract contract : application.getContracts()) {
+            String svcKey = getServiceKey(contract.getServiceOrgId(), contract.getServiceId(), contract.getServiceVersion());
+            ServiceContract sc = new ServiceContract(contract.getApiKey(), update.services().get(svcKey), application, contract.getPolicies());
+            update.contracts().put(contract.getApiKey(), sc);
+        }
+    }
+    
+    private void removeApplication(RegistryUpdate update, String applicationKey) {
+        Application removed = update.applications().remove(applicationKey);
+        if (removed != null) {
+            for (Contract contract : removed.getContracts()) {
+                update.contracts().remove(contract.getApiKey());
+            }
+        }
+    }
+    
     private String getServiceBindPath(Service service) throws MalformedURLException {
     	String path = new URL(service.getEndpoint()).getPath();
     	return getServiceBindPath(path);
@@ -188,17 +516,15 @@ public class FileBackedRegistry implements IRegistry {
     public synchronized void retireService(Service service, IAsyncResultHandler<Void> handler) {
         try {
             String serviceKey = getServiceKey(service);
-            if (services.containsKey(serviceKey)) {
-            	try {
-    	        	Service service1 = services.get(serviceKey);
-    	        	String path = getServiceBindPath(service1);
-    	        	serviceBindPaths.remove(path);
-            	} catch (Exception e) {};
-                services.remove(serviceKey);
+            RegistryState current = state;
+            if (current.services.containsKey(serviceKey)) {
+                RegistryUpdate update = new RegistryUpdate(current);
+                removeService(update, serviceKey);
+                state = update.commit();
+                log(new RegistryChange(RegistryChange.RETIRE_SERVICE, service, null));
             } else {
                 throw new PublishingException(Messages.i18n.format("InMemoryRegistry.ServiceNotFound")); //$NON-NLS-1$
             }
-            save();
             handler.handle(AsyncResultImpl.create((Void) null));
         } catch (Throwable t) {
             handler.handle(AsyncResultImpl.create(t, Void.class));
@@ -212,22 +538,14 @@ public class FileBackedRegistry implements IRegistry {
     public void getService(String organizationId, String serviceId, String serviceVersion,
             IAsyncResultHandler<Service> handler) {
 		String serviceKey = getServiceKey(organizationId, serviceId, serviceVersion);
-		if (services.containsKey(serviceKey)) {
-            handler.handle(AsyncResultImpl.create(services.get(serviceKey)));
-		} else {
-            handler.handle(AsyncResultImpl.create((Service) null));
-		}
+		handler.handle(AsyncResultImpl.create(state.services.get(serviceKey)));
 	}
 	
 	public String[] getService(String path) {
 		path = getServiceBindPath(path);
 		if (path.contains("?")) path = path.substring(0, path.indexOf("?")-1);
 		if (path.contains("#")) path = path.substring(0, path.indexOf("#")-1);
-		if (serviceBindPaths.containsKey(path)) {
-			return serviceBindPaths.get(path);
-		} else {
-			return null;
-		}
+		return state.serviceBindPaths.get(path);
 	}
 
 	/**
@@ -236,30 +554,28 @@ public class FileBackedRegistry implements IRegistry {
 	@Override
 	public synchronized void registerApplication(Application application, IAsyncResultHandler<Void> handler) {
 	    try {
+            RegistryState current = state;
             // Validate the application first - we need to be able to resolve all the contracts.
             for (Contract contract : application.getContracts()) {
-                if (contracts.containsKey(contract.getApiKey())) {
+                if (current.contracts.containsKey(contract.getApiKey())) {
                     throw new RegistrationException(Messages.i18n.format("InMemoryRegistry.ContractAlreadyPublished", //$NON-NLS-1$
                             contract.getApiKey()));
                 }
                 String svcKey = getServiceKey(contract.getServiceOrgId(), contract.getServiceId(), contract.getServiceVersion());
-                if (!services.containsKey(svcKey)) {
+                if (!current.services.containsKey(svcKey)) {
                     throw new RegistrationException(Messages.i18n.format("InMemoryRegistry.ServiceNotFoundInOrg", //$NON-NLS-1$
                             contract.getServiceId(), contract.getServiceOrgId()));
                 }
             }
             
             String applicationKey = getApplicationKey(application);
-            if (applications.containsKey(applicationKey)) {
+            if (current.applications.containsKey(applicationKey)) {
                 throw new RegistrationException(Messages.i18n.format("InMemoryRegistry.AppAlreadyRegistered")); //$NON-NLS-1$
             }
-            applications.put(applicationKey, application);
-            for (Contract contract : application.getContracts()) {
-                String svcKey = getServiceKey(contract.getServiceOrgId(), contract.getServiceId(), contract.getServiceVersion());
-                ServiceContract sc = new ServiceContract(contract.getApiKey(), services.get(svcKey), application, contract.getPolicies());
-                contracts.put(contract.getApiKey(), sc);
-            }
-            save();
+            RegistryUpdate update = new RegistryUpdate(current);
+            putApplication(update, application);
+            state = update.commit();
+            log(new RegistryChange(RegistryChange.REGISTER_APPLICATION, null, application));
             handler.handle(AsyncResultImpl.create((Void) null));
 	    } catch (Throwable t) {
             handler.handle(AsyncResultImpl.create(t, Void.class));
@@ -273,17 +589,15 @@ public class FileBackedRegistry implements IRegistry {
 	public synchronized void unregisterApplication(Application application, IAsyncResultHandler<Void> handler) {
 	    try {
             String applicationKey = getApplicationKey(application);
-            if (applications.containsKey(applicationKey)) {
-                Application removed = applications.remove(applicationKey);
-                for (Contract contract : removed.getContracts()) {
-                    if (contracts.containsKey(contract.getApiKey())) {
-                        contracts.remove(contract.getApiKey());
-                    }
-                }
+            RegistryState current = state;
+            if (current.applications.containsKey(applicationKey)) {
+                RegistryUpdate update = new RegistryUpdate(current);
+                removeApplication(update, applicationKey);
+                state = update.commit();
+                log(new RegistryChange(RegistryChange.UNREGISTER_APPLICATION, null, application));
             } else {
                 throw new RegistrationException(Messages.i18n.format("InMemoryRegistry.AppNotFound")); //$NON-NLS-1$
             }
-            save();
             handler.handle(AsyncResultImpl.create((Void) null));
 	    } catch (Throwable t) {
             handler.handle(AsyncResultImpl.create(t, Void.class));
@@ -296,7 +610,7 @@ public class FileBackedRegistry implements IRegistry {
 	@Override
 	public void getContract(ServiceRequest request, IAsyncResultHandler<ServiceContract> handler) {
 	    try {
-            ServiceContract contract = contracts.get(request.getApiKey());
+            ServiceContract contract = state.contracts.get(request.getApiKey());
             if (contract == null) {
                 throw new InvalidContractException(Messages.i18n.format("InMemoryRegistry.NoContractForAPIKey", request.getApiKey())); //$NON-NLS-1$
             }
@@ -337,4 +651,121 @@ public class FileBackedRegistry implements IRegistry {
     private String getApplicationKey(Application app) {
         return app.getOrganizationId() + "|" + app.getApplicationId() + "|" + app.getVersion(); //$NON-NLS-1$ //$NON-NLS-2$
     }
+
+    /**
+     * An immutable view of the registry, replaced as a whole on every change.
+     */
+    private static final class RegistryState {
+        private final Map<String, Service> services;
+        private final Map<String, String[]> serviceBindPaths;
+        private final Map<String, Application> applications;
+        private final Map<String, ServiceContract> contracts;
+
+        RegistryState() {
+            this(new HashMap<String, Service>(), new HashMap<String, String[]>(),
+                    new HashMap<String, Application>(), new HashMap<String, ServiceContract>());
+        }
+
+        RegistryState(Map<String, Service> services, Map<String, String[]> serviceBindPaths,
+                Map<String, Application> applications, Map<String, ServiceContract> contracts) {
+            this.services = services;
+            this.serviceBindPaths = serviceBindPaths;
+            this.applications = applications;
+            this.contracts = contracts;
+        }
+    }
+
+    /**
+     * Collects changes against a registry state, copying each map the first time
+     * it is modified so the published state is left untouched.
+     */
+    private static final class RegistryUpdate {
+        private final RegistryState base;
+        private Map<String, Service> services;
+        private Map<String, String[]> serviceBindPaths;
+        private Map<String, Application> applications;
+        private Map<String, ServiceContract> contracts;
+
+        RegistryUpdate(RegistryState base) {
+            this.base = base;
+        }
+
+        Map<String, Service> services() {
+            if (services == null) {
+                services = new HashMap<String, Service>(base.services);
+            }
+            return services;
+        }
+
+        Map<String, String[]> serviceBindPaths() {
+            if (serviceBindPaths == null) {
+                serviceBindPaths = new HashMap<String, String[]>(base.serviceBindPaths);
+            }
+            return serviceBindPaths;
+        }
+
+        Map<String, Application> applications() {
+            if (applications == null) {
+                applications = new HashMap<String, Application>(base.applications);
+            }
+            return applications;
+        }
+
+        Map<String, ServiceContract> contracts() {
+            if (contracts == null) {
+                contracts = new HashMap<String, ServiceContract>(base.contracts);
+            }
+            return contracts;
+        }
+
+        RegistryState commit() {
+            return new RegistryState(
+                    services != null ? services : base.services,
+                    serviceBindPaths != null ? serviceBindPaths : base.serviceBindPaths,
+                    applications != null ? applications : base.applications,
+                    contracts != null ? contracts : base.contracts);
+        }
+    }
+
+    /**
+     * A single line in the registry journal.
+     */
+    public static class RegistryChange {
+        public static final String PUBLISH_SERVICE = "publishService"; //$NON-NLS-1$
+        public static final String RETIRE_SERVICE = "retireService"; //$NON-NLS-1$
+        public static final String REGISTER_APPLICATION = "registerApplication"; //$NON-NLS-1$
+        public static final String UNREGISTER_APPLICATION = "unregisterApplication"; //$NON-NLS-1$
+
+        private String type;
+        private Service service;
+        private Application application;
+
+        public RegistryChange() {
+        }
+
+        public RegistryChange(String type, Service service, Application application) {
+            this.type = type;
+            this.service = service;
+            this.application = application;
+        }
+
+        public String getType() {
+            return type;
+        }
+        public void setType(String type) {
+            this.type = type;
+        }
+        public Service getService() {
+            return service;
+        }
+        public void setService(Service service) {
+            this.service = service;
+        }
+        public Application getApplication() {
+            return application;
+        }
+        public void setApplication(Application application) {
+            this.application = application;
+        }
+    }
 }
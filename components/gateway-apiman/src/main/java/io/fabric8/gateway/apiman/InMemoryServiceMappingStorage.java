@@ -19,8 +19,8 @@ import io.apiman.gateway.engine.async.AsyncResultImpl;
 import io.apiman.gateway.engine.async.IAsyncResultHandler;
 import io.fabric8.gateway.api.apimanager.ServiceMapping;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An in-memory (Map<>) implementation of a service mapping storage.
@@ -29,7 +29,8 @@ import java.util.Map;
  */
 public class InMemoryServiceMappingStorage implements ServiceMappingStorage {
 
-    private Map<String, ServiceMapping> mappings = new HashMap<String, ServiceMapping>();
+    // read on every request while services are published concurrently
+    private Map<String, ServiceMapping> mappings = new ConcurrentHashMap<String, ServiceMapping>();
 
     /**
      * Constructor.
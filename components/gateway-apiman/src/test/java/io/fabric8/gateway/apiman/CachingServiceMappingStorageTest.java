@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.gateway.apiman;
+
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.fabric8.gateway.api.apimanager.ServiceMapping;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link CachingServiceMappingStorage}.
+ */
+public class CachingServiceMappingStorageTest {
+
+    private static final IAsyncResultHandler<Void> IGNORE = new IAsyncResultHandler<Void>() {
+        @Override
+        public void handle(IAsyncResult<Void> result) {
+        }
+    };
+
+    private final TestStorage delegate = new TestStorage();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private CachingServiceMappingStorage storage;
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        if (storage != null) {
+            storage.shutdown();
+        }
+    }
+
+    @Test
+    public void testMissIsReadOnceThenCached() {
+        storage = new CachingServiceMappingStorage(delegate);
+        delegate.mappings.put("/foo", mapping("/foo", "1.0"));
+
+        Assert.assertEquals("1.0", storage.get("/foo").getVersion());
+        Assert.assertEquals("1.0", storage.get("/foo").getVersion());
+        Assert.assertEquals(1, delegate.gets.get());
+        Assert.assertEquals(1, storage.getMisses());
+        Assert.assertEquals(1, storage.getHits());
+    }
+
+    @Test
+    public void testUnknownPathIsCached() {
+        storage = new CachingServiceMappingStorage(delegate);
+
+        Assert.assertNull(storage.get("/missing"));
+        Assert.assertNull(storage.get("/missing"));
+        Assert.assertEquals(1, delegate.gets.get());
+    }
+
+    @Test
+    public void testPutAndRemoveUpdateTheCache() {
+        storage = new CachingServiceMappingStorage(delegate);
+        Assert.assertNull(storage.get("/foo"));
+
+        storage.put("/foo", mapping("/foo", "1.0"), IGNORE);
+        Assert.assertEquals("1.0", storage.get("/foo").getVersion());
+
+        storage.remove("/foo", IGNORE);
+        Assert.assertNull(storage.get("/foo"));
+        Assert.assertEquals(2, delegate.gets.get());
+    }
+
+    @Test
+    public void testFailedPutDropsTheCachedMapping() {
+        storage = new CachingServiceMappingStorage(delegate);
+        delegate.mappings.put("/foo", mapping("/foo", "1.0"));
+        Assert.assertEquals("1.0", storage.get("/foo").getVersion());
+
+        delegate.failPuts = true;
+        storage.put("/foo", mapping("/foo", "2.0"), IGNORE);
+        Assert.assertEquals("1.0", storage.get("/foo").getVersion());
+        Assert.assertEquals(2, delegate.gets.get());
+    }
+
+    @Test
+    public void testMissDoesNotOverwriteConcurrentPut() throws Exception {
+        storage = new CachingServiceMappingStorage(delegate);
+        delegate.mappings.put("/foo", mapping("/foo", "1.0"));
+
+        Future<ServiceMapping> miss = missWhileBlocked("/foo");
+        // the put completes while the miss still holds the old mapping
+        storage.put("/foo", mapping("/foo", "2.0"), IGNORE);
+        delegate.release.countDown();
+
+        Assert.assertEquals("1.0", miss.get(5, TimeUnit.SECONDS).getVersion());
+        Assert.assertEquals("2.0", storage.get("/foo").getVersion());
+    }
+
+    @Test
+    public void testMissDoesNotResurrectConcurrentRemove() throws Exception {
+        storage = new CachingServiceMappingStorage(delegate);
+        delegate.mappings.put("/foo", mapping("/foo", "1.0"));
+
+        Future<ServiceMapping> miss = missWhileBlocked("/foo");
+        storage.remove("/foo", IGNORE);
+        delegate.release.countDown();
+
+        Assert.assertEquals("1.0", miss.get(5, TimeUnit.SECONDS).getVersion());
+        Assert.assertNull(storage.get("/foo"));
+    }
+
+    @Test
+    public void testExpiredMappingIsServedWhileRefreshed() throws Exception {
+        storage = new CachingServiceMappingStorage(delegate, 50, 50, 100);
+        delegate.mappings.put("/foo", mapping("/foo", "1.0"));
+        Assert.assertEquals("1.0", storage.get("/foo").getVersion());
+
+        delegate.mappings.put("/foo", mapping("/foo", "2.0"));
+        Thread.sleep(100);
+        Assert.assertEquals("1.0", storage.get("/foo").getVersion());
+        for (int i = 0; i < 50 && storage.getRefreshes() == 0; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(1, storage.getRefreshes());
+        Assert.assertEquals("2.0", storage.get("/foo").getVersion());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        storage = new CachingServiceMappingStorage(delegate, 60000, 60000, 10);
+        for (int i = 0; i < 100; i++) {
+            storage.get("/path" + i);
+        }
+        Assert.assertTrue("size " + storage.getSize(), storage.getSize() <= 10);
+    }
+
+    @Test
+    public void testFullCacheEvictsTheOldestUnreadPath() {
+        storage = new CachingServiceMappingStorage(delegate, 60000, 60000, 3);
+        for (String path : new String[] {"/a", "/b", "/c"}) {
+            delegate.mappings.put(path, mapping(path, "1.0"));
+            storage.get(path);
+        }
+        Assert.assertEquals(3, storage.getSize());
+        // reading /a gives it a second chance, so adding /d evicts /b instead
+        storage.get("/a");
+        storage.get("/d");
+        Assert.assertEquals(3, storage.getSize());
+        Assert.assertEquals(4, delegate.gets.get());
+
+        storage.get("/a");
+        storage.get("/c");
+        storage.get("/d");
+        Assert.assertEquals(4, delegate.gets.get());
+        storage.get("/b");
+        Assert.assertEquals(5, delegate.gets.get());
+        Assert.assertEquals(3, storage.getSize());
+    }
+
+    @Test
+    public void testEvictionKeepsUpWithManyPaths() {
+        storage = new CachingServiceMappingStorage(delegate, 60000, 60000, 1000);
+        for (int i = 0; i < 100000; i++) {
+            storage.get("/path" + i);
+            if (i % 10 == 0) {
+                // a few paths which keep being read stay cached
+                storage.get("/hot");
+            }
+        }
+        Assert.assertEquals(1000, storage.getSize());
+        int gets = delegate.gets.get();
+        storage.get("/hot");
+        Assert.assertEquals(gets, delegate.gets.get());
+    }
+
+    /**
+     * Starts a cache miss which blocks in the delegate until {@link TestStorage#release} is counted down
+     */
+    private Future<ServiceMapping> missWhileBlocked(final String path) throws Exception {
+        delegate.blocked = new CountDownLatch(1);
+        delegate.release = new CountDownLatch(1);
+        delegate.blockNextGet = true;
+        Future<ServiceMapping> answer = executor.submit(new Callable<ServiceMapping>() {
+            @Override
+            public ServiceMapping call() throws Exception {
+                return storage.get(path);
+            }
+        });
+        Assert.assertTrue(delegate.blocked.await(5, TimeUnit.SECONDS));
+        return answer;
+    }
+
+    private static ServiceMapping mapping(String path, String version) {
+        return new ServiceMapping(path, "org", "service", version);
+    }
+
+    private static class TestStorage implements ServiceMappingStorage {
+        final Map<String, ServiceMapping> mappings = new ConcurrentHashMap<>();
+        final AtomicInteger gets = new AtomicInteger();
+        volatile boolean failPuts;
+        volatile CountDownLatch blocked;
+        volatile CountDownLatch release;
+        volatile boolean blockNextGet;
+
+        @Override
+        public void put(String path, ServiceMapping mapping, IAsyncResultHandler<Void> handler) {
+            if (failPuts) {
+                handler.handle(AsyncResultImpl.<Void>create(new RuntimeException("Put failed")));
+                return;
+            }
+            mappings.put(path, mapping);
+            handler.handle(AsyncResultImpl.create((Void) null));
+        }
+
+        @Override
+        public ServiceMapping get(String path) {
+            gets.incrementAndGet();
+            ServiceMapping answer = mappings.get(path);
+            if (blockNextGet) {
+                blockNextGet = false;
+                blocked.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return answer;
+        }
+
+        @Override
+        public void remove(String path, IAsyncResultHandler<Void> handler) {
+            mappings.remove(path);
+            handler.handle(AsyncResultImpl.create((Void) null));
+        }
+    }
+}
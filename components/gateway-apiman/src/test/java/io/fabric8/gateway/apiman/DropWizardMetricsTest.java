@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.gateway.apiman;
+
+import io.apiman.gateway.engine.metrics.RequestMetric;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Tests the {@link DropWizardMetrics}.
+ */
+public class DropWizardMetricsTest {
+
+    @Test
+    public void testRequestsAreRecordedPerService() {
+        DropWizardMetrics metrics = new DropWizardMetrics(10, 0);
+        metrics.record(metric("org", "foo", "1.0", false, 0));
+        metrics.record(metric("org", "foo", "1.0", false, 403));
+        metrics.record(metric("org", "foo", "1.0", true, 0));
+        metrics.record(metric("org", "bar", "1.0", false, 0));
+
+        MetricRegistry registry = metrics.getRegistry();
+        Assert.assertEquals(3, registry.meter("ServiceRequest.org.foo.1.0").getCount());
+        Assert.assertEquals(1, registry.meter("ServiceRequestSuccess.org.foo.1.0").getCount());
+        Assert.assertEquals(1, registry.meter("ServiceRequestFailure.org.foo.1.0").getCount());
+        Assert.assertEquals(1, registry.meter("ServiceRequestError.org.foo.1.0").getCount());
+        Assert.assertEquals(3, registry.timer("ServiceRequestDuration.org.foo.1.0").getCount());
+        Assert.assertEquals(1, registry.meter("ServiceRequest.org.bar.1.0").getCount());
+    }
+
+    @Test
+    public void testServicesBeyondTheCapShareTheOverflowMetrics() {
+        DropWizardMetrics metrics = new DropWizardMetrics(3, 0);
+        MetricRegistry registry = metrics.getRegistry();
+        // the overflow service has its metrics from the start
+        int metricsPerService = registry.getMetrics().size();
+
+        for (int i = 0; i < 100; i++) {
+            metrics.record(metric("org", "service" + i, "1.0", false, 0));
+        }
+        // services which already have their own metrics keep using them
+        metrics.record(metric("org", "service0", "1.0", false, 0));
+
+        Assert.assertEquals(4 * metricsPerService, registry.getMetrics().size());
+        Assert.assertEquals(2, registry.meter("ServiceRequest.org.service0.1.0").getCount());
+        Assert.assertEquals(1, registry.meter("ServiceRequest.org.service2.1.0").getCount());
+        Assert.assertEquals(97, registry.meter(MetricRegistry.name("ServiceRequest", DropWizardMetrics.OVERFLOW_SERVICE)).getCount());
+        Assert.assertEquals(97, registry.timer(MetricRegistry.name("ServiceDuration", DropWizardMetrics.OVERFLOW_SERVICE)).getCount());
+        Assert.assertFalse(registry.getNames().contains("ServiceRequest.org.service3.1.0"));
+    }
+
+    private static RequestMetric metric(String orgId, String serviceId, String version, boolean error, int failureCode) {
+        RequestMetric metric = new RequestMetric();
+        metric.setServiceOrgId(orgId);
+        metric.setServiceId(serviceId);
+        metric.setServiceVersion(version);
+        metric.setRequestDuration(5);
+        metric.setServiceDuration(3);
+        metric.setError(error);
+        metric.setFailureCode(failureCode);
+        return metric;
+    }
+}
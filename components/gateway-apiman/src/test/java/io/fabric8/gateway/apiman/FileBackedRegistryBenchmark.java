@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.gateway.apiman;
+
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.beans.Application;
+import io.apiman.gateway.engine.beans.Contract;
+import io.apiman.gateway.engine.beans.Service;
+import io.apiman.gateway.engine.beans.ServiceContract;
+import io.apiman.gateway.engine.beans.ServiceRequest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures API key contract lookups in the {@link FileBackedRegistry}, both on a quiet
+ * registry and while services are being published and retired concurrently.
+ *
+ * Run it with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=io.fabric8.gateway.apiman.FileBackedRegistryBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileBackedRegistryBenchmark {
+
+    private static final IAsyncResultHandler<Void> IGNORE = new IAsyncResultHandler<Void>() {
+        @Override
+        public void handle(IAsyncResult<Void> result) {
+        }
+    };
+
+    @Param({"1000", "10000"})
+    int applications;
+
+    FileBackedRegistry registry;
+    File appBase;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        appBase = Files.createTempDirectory("registry-benchmark").toFile();
+        System.setProperty("APP_BASE", appBase.getAbsolutePath());
+        registry = new FileBackedRegistry();
+        registry.load("8999");
+        registry.publishService(service("benchmark"), IGNORE);
+        for (int i = 0; i < applications; i++) {
+            registry.registerApplication(application(i), IGNORE);
+        }
+        registry.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        registry.close();
+        for (File file : new File(appBase, "data/apiman").listFiles()) {
+            file.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Lookup implements IAsyncResultHandler<ServiceContract> {
+        final ServiceRequest request = new ServiceRequest();
+        ServiceContract contract;
+
+        @Override
+        public void handle(IAsyncResult<ServiceContract> result) {
+            contract = result.getResult();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Publisher {
+        int counter;
+    }
+
+    @Benchmark
+    public void getContract(Lookup lookup, Blackhole blackhole) {
+        lookupContract(lookup, blackhole);
+    }
+
+    @Benchmark
+    @Group("publishing")
+    @GroupThreads(3)
+    public void getContractWhilePublishing(Lookup lookup, Blackhole blackhole) {
+        lookupContract(lookup, blackhole);
+    }
+
+    @Benchmark
+    @Group("publishing")
+    @GroupThreads(1)
+    public void publishAndRetire(Publisher publisher) {
+        Service service = service("churn-" + (publisher.counter++ % 100));
+        registry.publishService(service, IGNORE);
+        registry.retireService(service, IGNORE);
+    }
+
+    private void lookupContract(Lookup lookup, Blackhole blackhole) {
+        lookup.request.setApiKey("key-" + ThreadLocalRandom.current().nextInt(applications));
+        registry.getContract(lookup.request, lookup);
+        blackhole.consume(lookup.contract);
+    }
+
+    private static Service service(String serviceId) {
+        Service service = new Service();
+        service.setOrganizationId("benchmark");
+        service.setServiceId(serviceId);
+        service.setVersion("1.0");
+        service.setEndpoint("http://localhost:8080/" + serviceId + "/");
+        return service;
+    }
+
+    private static Application application(int i) {
+        Contract contract = new Contract();
+        contract.setApiKey("key-" + i);
+        contract.setServiceOrgId("benchmark");
+        contract.setServiceId("benchmark");
+        contract.setServiceVersion("1.0");
+        Application application = new Application();
+        application.setOrganizationId("benchmark");
+        application.setApplicationId("app-" + i);
+        application.setVersion("1.0");
+        application.getContracts().add(contract);
+        return application;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FileBackedRegistryBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
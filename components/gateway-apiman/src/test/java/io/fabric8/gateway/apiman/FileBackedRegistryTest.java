@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.gateway.apiman;
+
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.beans.Application;
+import io.apiman.gateway.engine.beans.Contract;
+import io.apiman.gateway.engine.beans.Service;
+import io.apiman.gateway.engine.beans.ServiceContract;
+import io.apiman.gateway.engine.beans.ServiceRequest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how the {@link FileBackedRegistry} journals, replays and compacts its changes.
+ */
+public class FileBackedRegistryTest {
+
+    private static final IAsyncResultHandler<Void> IGNORE = new IAsyncResultHandler<Void>() {
+        @Override
+        public void handle(IAsyncResult<Void> result) {
+        }
+    };
+
+    private final List<FileBackedRegistry> registries = new ArrayList<>();
+    private File dataDir;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("registry-test").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (FileBackedRegistry registry : registries) {
+            registry.close();
+        }
+        for (File file : dataDir.listFiles()) {
+            file.delete();
+        }
+        dataDir.delete();
+    }
+
+    @Test
+    public void testJournalIsReplayedOnLoad() throws Exception {
+        FileBackedRegistry registry = load();
+        registry.publishService(service("foo"), IGNORE);
+        registry.registerApplication(application("foo", "key-foo"), IGNORE);
+        registry.flush();
+        Assert.assertTrue(journal().length() > 0);
+        Assert.assertFalse(snapshot().contains("key-foo"));
+
+        // a new registry on the same files, as after the gateway was killed
+        FileBackedRegistry restarted = load();
+        Assert.assertNotNull(getService(restarted, "foo"));
+        Assert.assertEquals("foo", getContract(restarted, "key-foo").getService().getServiceId());
+        Assert.assertNotNull(getContract(restarted, "apiman-config-key"));
+    }
+
+    @Test
+    public void testRetiredServiceStaysRetiredAfterReplay() throws Exception {
+        FileBackedRegistry registry = load();
+        registry.publishService(service("foo"), IGNORE);
+        registry.publishService(service("bar"), IGNORE);
+        registry.retireService(service("foo"), IGNORE);
+        registry.flush();
+
+        FileBackedRegistry restarted = load();
+        Assert.assertNull(getService(restarted, "foo"));
+        Assert.assertNotNull(getService(restarted, "bar"));
+    }
+
+    @Test
+    public void testTruncatedLastEntryIsIgnored() throws Exception {
+        FileBackedRegistry registry = load();
+        registry.publishService(service("foo"), IGNORE);
+        registry.flush();
+        try (FileOutputStream out = new FileOutputStream(journal(), true)) {
+            out.write("{\"type\":\"publishService\",\"serv".getBytes("UTF-8"));
+        }
+
+        FileBackedRegistry restarted = load();
+        Assert.assertNotNull(getService(restarted, "foo"));
+        // the damaged journal is folded into a new snapshot before anything is appended
+        restarted.publishService(service("bar"), IGNORE);
+        restarted.flush();
+        Assert.assertTrue(snapshot().contains("\"foo\""));
+
+        FileBackedRegistry again = load();
+        Assert.assertNotNull(getService(again, "foo"));
+        Assert.assertNotNull(getService(again, "bar"));
+    }
+
+    @Test
+    public void testJournalIsCompacted() throws Exception {
+        FileBackedRegistry registry = new FileBackedRegistry(dataDir);
+        registries.add(registry);
+        registry.setCompactionThreshold(3);
+        registry.load("8999");
+        registry.publishService(service("foo"), IGNORE);
+        registry.publishService(service("bar"), IGNORE);
+        registry.flush();
+        Assert.assertTrue(journal().length() > 0);
+
+        registry.publishService(service("baz"), IGNORE);
+        registry.flush();
+        Assert.assertEquals(0, journal().length());
+        String snapshot = snapshot();
+        Assert.assertTrue(snapshot.contains("\"foo\"") && snapshot.contains("\"bar\"") && snapshot.contains("\"baz\""));
+
+        registry.publishService(service("qux"), IGNORE);
+        registry.flush();
+        FileBackedRegistry restarted = load();
+        for (String serviceId : new String[] { "foo", "bar", "baz", "qux" }) {
+            Assert.assertNotNull(serviceId, getService(restarted, serviceId));
+        }
+    }
+
+    @Test
+    public void testCloseWritesSnapshot() throws Exception {
+        FileBackedRegistry registry = load();
+        registry.publishService(service("foo"), IGNORE);
+        registry.close();
+        registry.close();
+
+        Assert.assertEquals(0, journal().length());
+        Assert.assertTrue(snapshot().contains("\"foo\""));
+    }
+
+    @Test
+    public void testJournalWithoutSnapshotIsDiscarded() throws Exception {
+        FileBackedRegistry registry = load();
+        registry.publishService(service("foo"), IGNORE);
+        registry.flush();
+        Assert.assertTrue(snapshot().length() > 0);
+        Assert.assertTrue(journal().length() > 0);
+        Assert.assertTrue(new File(dataDir, "registry.json").delete());
+
+        FileBackedRegistry restarted = load();
+        restarted.flush();
+        Assert.assertNull(getService(restarted, "foo"));
+        Assert.assertNotNull(getContract(restarted, "apiman-config-key"));
+        Assert.assertEquals(0, journal().length());
+    }
+
+    private FileBackedRegistry load() throws Exception {
+        FileBackedRegistry registry = new FileBackedRegistry(dataDir);
+        registries.add(registry);
+        registry.load("8999");
+        return registry;
+    }
+
+    private File journal() {
+        return new File(dataDir, "registry.journal");
+    }
+
+    private String snapshot() throws IOException {
+        return new String(Files.readAllBytes(new File(dataDir, "registry.json").toPath()), "UTF-8");
+    }
+
+    private static Service getService(FileBackedRegistry registry, String serviceId) {
+        final Service[] answer = new Service[1];
+        registry.getService("test", serviceId, "1.0", new IAsyncResultHandler<Service>() {
+            @Override
+            public void handle(IAsyncResult<Service> result) {
+                answer[0] = result.getResult();
+            }
+        });
+        return answer[0];
+    }
+
+    private static ServiceContract getContract(FileBackedRegistry registry, String apiKey) {
+        final ServiceContract[] answer = new ServiceContract[1];
+        ServiceRequest request = new ServiceRequest();
+        request.setApiKey(apiKey);
+        registry.getContract(request, new IAsyncResultHandler<ServiceContract>() {
+            @Override
+            public void handle(IAsyncResult<ServiceContract> result) {
+                answer[0] = result.getResult();
+            }
+        });
+        return answer[0];
+    }
+
+    private static Service service(String serviceId) {
+        Service service = new Service();
+        service.setOrganizationId("test");
+        service.setServiceId(serviceId);
+        service.setVersion("1.0");
+        service.setEndpoint("http://localhost:8080/" + serviceId + "/");
+        return service;
+    }
+
+    private static Application application(String serviceId, String apiKey) {
+        Contract contract = new Contract();
+        contract.setApiKey(apiKey);
+        contract.setServiceOrgId("test");
+        contract.setServiceId(serviceId);
+        contract.setServiceVersion("1.0");
+        Application application = new Application();
+        application.setOrganizationId("test");
+        application.setApplicationId("app-" + serviceId);
+        application.setVersion("1.0");
+        application.getContracts().add(contract);
+        return application;
+    }
+}
@@ -15,16 +15,23 @@
  */
 package io.fabric8.gateway;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import io.fabric8.gateway.api.ServiceDetails;
+import io.fabric8.gateway.loadbalancer.LoadBalancedService;
 
 import java.util.Collections;
 import java.util.List;
 
 /**
+ * The details of a service as registered in the registry.
+ * <p/>
+ * Two DTOs with the same details are equal, as the registry caches deserialize the
+ * services again whenever they change; so a service can be looked up in a list of
+ * services, as the {@link io.fabric8.gateway.loadbalancer.StickyLoadBalancer} does.
  */
-public class ServiceDTO implements ServiceDetails {
+public class ServiceDTO implements ServiceDetails, LoadBalancedService {
     @JsonProperty
     private String id;
 
@@ -55,6 +62,43 @@ public class ServiceDTO implements ServiceDetails {
                 '}';
     }
 
+    /**
+     * Returns the ID, version and container of the service, or its endpoints if it is not
+     * running in a container
+     */
+    @Override
+    @JsonIgnore
+    public String getLoadBalancerId() {
+        return id + "/" + version + "@" + (container != null ? container : services);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ServiceDTO)) {
+            return false;
+        }
+        ServiceDTO that = (ServiceDTO) o;
+        return equal(id, that.id) && equal(container, that.container) && equal(version, that.version)
+                && equal(bundleName, that.bundleName) && equal(bundleVersion, that.bundleVersion)
+                && equal(services, that.services);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id != null ? id.hashCode() : 0;
+        result = 31 * result + (container != null ? container.hashCode() : 0);
+        result = 31 * result + (version != null ? version.hashCode() : 0);
+        result = 31 * result + (services != null ? services.hashCode() : 0);
+        return result;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     public String getId() {
         return id;
     }
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Maintains a mapping of services which is then use by the proxy to update in process
@@ -28,6 +29,7 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ServiceMap {
     private ConcurrentHashMap<String, Map<String, ServiceDetails>> map = new ConcurrentHashMap<String, Map<String, ServiceDetails>>();
+    private final AtomicLong version = new AtomicLong();
 
     /**
      * Returns a list of all the current services for the given path
@@ -51,6 +53,7 @@ public class ServiceMap {
         // ignore services with empty services
         if (!service.getServices().isEmpty()) {
             getPathMap(path).put(service.getId(), service);
+            version.incrementAndGet();
         }
     }
 
@@ -59,10 +62,19 @@ public class ServiceMap {
      */
     public void serviceRemoved(String path, ServiceDetails service) {
         getPathMap(path).remove(service.getId());
+        version.incrementAndGet();
 
         // lets update any in progress proxy handlers using this service
     }
 
+    /**
+     * Returns a counter which is incremented whenever a service is updated or removed
+     * so that callers can cache views of the services until they change
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
     protected Map<String, ServiceDetails> getPathMap(String path) {
         Map<String, ServiceDetails> initial = new ConcurrentHashMap<String, ServiceDetails>();
         Map<String, ServiceDetails> answer = map.putIfAbsent(path, initial);
@@ -0,0 +1,110 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting;
+
+import io.fabric8.gateway.support.BoundedConcurrentCache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how fast new connections are accepted for each key, such as a client address or a
+ * virtual host, with a token bucket per key.
+ * <p/>
+ * Each bucket is kept as the time at which it would be full again (the generic cell rate
+ * algorithm), so checking and taking a token is a single compare and set on an AtomicLong and
+ * can be done from any event loop without locking.  The buckets of the least recently used keys
+ * are dropped once there are more than the maximum number of keys, and any bucket which has been
+ * idle long enough to have filled up again is forgotten.
+ */
+public class ConnectionRateLimiter {
+    public static final int DEFAULT_MAXIMUM_KEYS = 10000;
+
+    private final double rate;
+    private final int burst;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final BoundedConcurrentCache<String, AtomicLong> buckets;
+
+    /**
+     * @param rate the number of connections per second each key may open on average
+     * @param burst the number of connections each key may open at once after being idle
+     * @param maximumKeys the maximum number of keys to keep track of
+     */
+    public ConnectionRateLimiter(double rate, int burst, int maximumKeys) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("The connection rate must be positive but was " + rate);
+        }
+        this.rate = rate;
+        this.burst = Math.max(burst, 1);
+        this.intervalNanos = Math.max((long) (TimeUnit.SECONDS.toNanos(1) / rate), 1);
+        this.toleranceNanos = intervalNanos * (this.burst - 1);
+        // a bucket which has not been used for longer than it takes to fill up is as good as a new one
+        long refillTime = TimeUnit.NANOSECONDS.toMillis(intervalNanos * this.burst) + 1;
+        this.buckets = new BoundedConcurrentCache<String, AtomicLong>(maximumKeys, refillTime);
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionRateLimiter{" +
+                "rate=" + rate +
+                ", burst=" + burst +
+                '}';
+    }
+
+    /**
+     * Takes a token from the bucket of the given key, returning false if it is empty
+     */
+    public boolean tryAcquire(String key) {
+        return tryAcquire(key, System.nanoTime());
+    }
+
+    boolean tryAcquire(String key, long now) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new AtomicLong(now);
+            AtomicLong existing = buckets.putIfAbsent(key, bucket);
+            if (existing != null) {
+                bucket = existing;
+            }
+        }
+        while (true) {
+            long full = bucket.get();
+            long start = full - now < 0 ? now : full;
+            if (start - now > toleranceNanos) {
+                return false;
+            }
+            if (bucket.compareAndSet(full, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Returns the number of keys currently being tracked
+     */
+    public int getSize() {
+        return buckets.size();
+    }
+}
@@ -16,16 +16,19 @@
 package io.fabric8.gateway.handlers.detecting;
 
 import io.fabric8.utils.ShutdownTracker;
-import io.fabric8.utils.Strings;
 import io.fabric8.gateway.ServiceMap;
 import io.fabric8.gateway.SocketWrapper;
 import io.fabric8.gateway.api.ServiceDetails;
+import io.fabric8.gateway.handlers.detecting.protocol.CompositeBuffer;
 import io.fabric8.gateway.handlers.detecting.protocol.ssl.SslConfig;
 import io.fabric8.gateway.handlers.detecting.protocol.ssl.SslSocketWrapper;
+import io.fabric8.gateway.handlers.detecting.protocol.ssl.SslTaskExecutor;
 import io.fabric8.gateway.handlers.loadbalancer.ClientRequestFacadeFactory;
 import io.fabric8.gateway.handlers.loadbalancer.ConnectionParameters;
 import io.fabric8.gateway.loadbalancer.ClientRequestFacade;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
+import io.fabric8.gateway.loadbalancer.LoadBalancers;
+import io.fabric8.gateway.loadbalancer.OutlierDetectingLoadBalancer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +48,9 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -63,21 +69,53 @@ public class DetectingGateway implements DetectingGatewayMBean {
     String defaultVirtualHost;
     ArrayList<Protocol> protocols;
     int maxProtocolIdentificationLength;
+    // the protocols a connection could be using, indexed by its first byte.
+    Protocol[][] protocolsByFirstByte;
     ClientRequestFacadeFactory clientRequestFacadeFactory = new ClientRequestFacadeFactory("PROTOCOL_SESSION_ID, PROTOCOL_CLIENT_ID, REMOTE_ADDRESS");
     final AtomicReference<InetSocketAddress> httpGateway = new AtomicReference<InetSocketAddress>();
     SslConfig sslConfig;
     long connectionTimeout = 5000;
+    int connectTimeout = 5000;
+    boolean tcpNoDelay = true;
+    boolean tcpKeepAlive = true;
+    int sendBufferSize = -1;
+    int receiveBufferSize = -1;
+    boolean outlierDetection;
+    int sslTaskThreads = Runtime.getRuntime().availableProcessors();
+    int sslTaskQueueSize = 1024;
+    SslTaskExecutor sslTaskExecutor;
+    double clientConnectionRate;
+    int clientConnectionBurst = 10;
+    double virtualHostConnectionRate;
+    int virtualHostConnectionBurst = 100;
+    int maxConnectionsPerService;
+    ConnectionRateLimiter clientRateLimiter;
+    ConnectionRateLimiter virtualHostRateLimiter;
 
     final AtomicLong receivedConnectionAttempts = new AtomicLong();
     final AtomicLong successfulConnectionAttempts = new AtomicLong();
     final AtomicLong failedConnectionAttempts = new AtomicLong();
-    HashSet<SocketWrapper> socketsConnecting = new HashSet<SocketWrapper>();
-    HashSet<ConnectedSocketInfo> socketsConnected = new HashSet<ConnectedSocketInfo>();
+    final AtomicLong bytesFromClients = new AtomicLong();
+    final AtomicLong bytesToClients = new AtomicLong();
+    final AtomicLong rejectedClientConnections = new AtomicLong();
+    final AtomicLong rejectedVirtualHostConnections = new AtomicLong();
+    final AtomicLong rejectedServiceConnections = new AtomicLong();
+    // the number of connections to each service, keyed by the service ID
+    final ConcurrentHashMap<String, AtomicInteger> serviceConnections = new ConcurrentHashMap<String, AtomicInteger>();
+    // accessed from the event loops, timers and JMX so these need to be concurrent
+    final Set<SocketWrapper> socketsConnecting = Collections.newSetFromMap(new ConcurrentHashMap<SocketWrapper, Boolean>());
+    final Set<ConnectedSocketInfo> socketsConnected = Collections.newSetFromMap(new ConcurrentHashMap<ConnectedSocketInfo, Boolean>());
     private ShutdownTracker shutdownTacker = new ShutdownTracker();
 
     private int port;
     private String host;
+    private int instances = 1;
     private NetServer server;
+    private final List<NetServer> servers = new ArrayList<NetServer>();
+    private final List<DetectingGatewayNetSocketHandler> handlers = new CopyOnWriteArrayList<DetectingGatewayNetSocketHandler>();
+    // a client for each event loop, so routed connections stay on the event loop that accepted them
+    private final ConcurrentHashMap<Object, NetClient> netClients = new ConcurrentHashMap<Object, NetClient>();
+    private volatile RoutingTable routingTable;
 
     private FutureHandler<AsyncResult<NetServer>> listenFuture = new FutureHandler<AsyncResult<NetServer>>() {
         @Override
@@ -100,22 +138,115 @@ public class DetectingGateway implements DetectingGatewayMBean {
 
 
     public void init() {
-        server = vertx.createNetServer().connectHandler(new DetectingGatewayNetSocketHandler(this));
-        if (host != null) {
-            server = server.listen(port, host, listenFuture);
-        } else {
-            server = server.listen(port, listenFuture);
+        if (outlierDetection && serviceLoadBalancer != null && !(serviceLoadBalancer instanceof OutlierDetectingLoadBalancer)) {
+            // stop routing connections to services which are refusing them
+            serviceLoadBalancer = new OutlierDetectingLoadBalancer(serviceLoadBalancer);
         }
+        sslTaskExecutor = new SslTaskExecutor(vertx, sslTaskThreads, sslTaskQueueSize);
+        if (clientConnectionRate > 0) {
+            clientRateLimiter = new ConnectionRateLimiter(clientConnectionRate, clientConnectionBurst, ConnectionRateLimiter.DEFAULT_MAXIMUM_KEYS);
+        }
+        if (virtualHostConnectionRate > 0) {
+            virtualHostRateLimiter = new ConnectionRateLimiter(virtualHostConnectionRate, virtualHostConnectionBurst, ConnectionRateLimiter.DEFAULT_MAXIMUM_KEYS);
+        }
+        if (instances > 1 && vertx.currentContext() != null) {
+            LOG.warn("The gateway is started on an event loop, so its " + instances + " instances will all share that event loop");
+        }
+        for (int i = 0; i < instances; i++) {
+            createServer();
+        }
+        server = servers.get(0);
+        SharedPortListener.listen(servers, port, host, listenFuture);
+    }
+
+    /**
+     * Creates a server for an instance.  As a server created outside of an event loop gets the next
+     * event loop, and vert.x spreads the connections over the servers sharing a port, each instance
+     * handles its share of the connections on its own event loop.
+     */
+    private NetServer createServer() {
+        DetectingGatewayNetSocketHandler handler = new DetectingGatewayNetSocketHandler(this);
+        NetServer answer = vertx.createNetServer().connectHandler(handler);
+        answer.setTCPNoDelay(tcpNoDelay);
+        answer.setTCPKeepAlive(tcpKeepAlive);
+        if (sendBufferSize > 0) {
+            answer.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            answer.setReceiveBufferSize(receiveBufferSize);
+        }
+        servers.add(answer);
+        handlers.add(handler);
+        return answer;
     }
 
     public void destroy() {
-        server.close();
+        for (NetServer netServer : servers) {
+            netServer.close();
+        }
+        servers.clear();
+        handlers.clear();
         for (SocketWrapper socket : new ArrayList<>(socketsConnecting)) {
             handleConnectFailure(socket, null);
         }
         for (ConnectedSocketInfo socket : new ArrayList<>(socketsConnected)) {
             handleShutdown(socket);
         }
+        for (NetClient netClient : netClients.values()) {
+            netClient.close();
+        }
+        netClients.clear();
+        if (sslTaskExecutor != null) {
+            sslTaskExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Creates the client used to connect to the back end services. One is created lazily on each
+     * event loop the servers run on so that it shares that event loop, and is then reused by all
+     * the connections routed from it.
+     */
+    protected NetClient createNetClient() {
+        NetClient client = vertx.createNetClient();
+        client.setConnectTimeout(connectTimeout);
+        client.setTCPNoDelay(tcpNoDelay);
+        client.setTCPKeepAlive(tcpKeepAlive);
+        if (sendBufferSize > 0) {
+            client.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            client.setReceiveBufferSize(receiveBufferSize);
+        }
+        return client;
+    }
+
+    private NetClient getNetClient() {
+        Object key = vertx.currentContext();
+        if (key == null) {
+            key = this;
+        }
+        NetClient answer = netClients.get(key);
+        if (answer == null) {
+            answer = createNetClient();
+            NetClient existing = netClients.putIfAbsent(key, answer);
+            if (existing != null) {
+                answer.close();
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the routing table for the current version of the service map, rebuilding it if the services have changed
+     */
+    protected RoutingTable getRoutingTable() {
+        RoutingTable answer = routingTable;
+        if (answer == null || answer.getVersion() != serviceMap.getVersion()) {
+            answer = new RoutingTable(serviceMap);
+            routingTable = answer;
+        }
+        return answer;
     }
 
     public String getHost() {
@@ -150,6 +281,15 @@ public class DetectingGateway implements DetectingGatewayMBean {
         this.serviceLoadBalancer = serviceLoadBalancer;
     }
 
+    /**
+     * Sets the connection values which, in order of preference, make up the key the load balancer
+     * uses to send a client to the same service; such as "PROTOCOL_CLIENT_ID, REMOTE_ADDRESS" to
+     * shard MQTT and STOMP clients by their client id with a {@link io.fabric8.gateway.loadbalancer.ConsistentHashLoadBalancer}
+     */
+    public void setClientRequestKeys(String keys) {
+        this.clientRequestFacadeFactory = new ClientRequestFacadeFactory(keys);
+    }
+
     public String getDefaultVirtualHost() {
         return defaultVirtualHost;
     }
@@ -171,6 +311,19 @@ public class DetectingGateway implements DetectingGatewayMBean {
             }
         }
         maxProtocolIdentificationLength = max;
+
+        Protocol[][] byFirstByte = new Protocol[256][];
+        ArrayList<Protocol> candidates = new ArrayList<Protocol>();
+        for (int i = 0; i < byFirstByte.length; i++) {
+            candidates.clear();
+            for (Protocol protocol : protocols) {
+                if (protocol.canStartWith((byte) i)) {
+                    candidates.add(protocol);
+                }
+            }
+            byFirstByte[i] = candidates.toArray(new Protocol[candidates.size()]);
+        }
+        protocolsByFirstByte = byFirstByte;
     }
 
     public Collection<String> getProtocolNames() {
@@ -181,7 +334,7 @@ public class DetectingGateway implements DetectingGatewayMBean {
         return rc;
     }
 
-    SSLContext sslContext;
+    volatile SSLContext sslContext;
     SslSocketWrapper.ClientAuth clientAuth = SslSocketWrapper.ClientAuth.WANT;
 
     public void setShutdownTacker(ShutdownTracker shutdownTacker) {
@@ -192,19 +345,65 @@ public class DetectingGateway implements DetectingGatewayMBean {
     static class ConnectedSocketInfo {
 
         private final ConnectionParameters params;
+        private final ServiceDetails service;
         private final URI url;
         private final SocketWrapper from;
         private final NetSocket to;
+        private final long connectedAt = System.currentTimeMillis();
+        private final int initialBytes;
+        private volatile Pump fromPump;
+        private volatile Pump toPump;
 
-        public ConnectedSocketInfo(ConnectionParameters params, URI url, SocketWrapper from, NetSocket to) {
+        public ConnectedSocketInfo(ConnectionParameters params, ServiceDetails service, URI url, SocketWrapper from, NetSocket to, int initialBytes) {
             this.params = params;
+            this.service = service;
             this.url = url;
             this.from = from;
             this.to = to;
+            this.initialBytes = initialBytes;
+        }
+
+        /**
+         * Returns the number of bytes received from the client and forwarded to the service
+         */
+        public long getBytesFromClient() {
+            Pump pump = fromPump;
+            return initialBytes + (pump != null ? pump.bytesPumped() : 0);
+        }
+
+        /**
+         * Returns the number of bytes received from the service and forwarded to the client
+         */
+        public long getBytesToClient() {
+            Pump pump = toPump;
+            return pump != null ? pump.bytesPumped() : 0;
+        }
+
+        public long getDuration() {
+            return System.currentTimeMillis() - connectedAt;
+        }
+
+        @Override
+        public String toString() {
+            return from.remoteAddress() + " -> " + url +
+                    " (protocol=" + params.protocol +
+                    ", bytesFromClient=" + getBytesFromClient() +
+                    ", bytesToClient=" + getBytesToClient() +
+                    ", duration=" + getDuration() + "ms)";
         }
     }
 
     public void handle(final SocketWrapper socket) {
+        // SSL connections come back through here once unwrapped, they were already let in
+        if (clientRateLimiter != null && !(socket instanceof SslSocketWrapper)) {
+            String address = getClientAddress(socket);
+            if (!clientRateLimiter.tryAcquire(address)) {
+                rejectedClientConnections.incrementAndGet();
+                LOG.info(String.format("Rejecting gateway client '%s' as it is opening connections too fast", socket.remoteAddress()));
+                socket.close();
+                return;
+            }
+        }
         shutdownTacker.retain();
         receivedConnectionAttempts.incrementAndGet();
         socketsConnecting.add(socket);
@@ -233,13 +432,22 @@ public class DetectingGateway implements DetectingGatewayMBean {
             }
         });
         readStream.dataHandler(new Handler<Buffer>() {
-            Buffer received = new Buffer();
+            final CompositeBuffer received = new CompositeBuffer();
+            ArrayList<Protocol> candidates;
 
             @Override
             public void handle(Buffer event) {
-                received.appendBuffer(event);
-                for (final Protocol protocol : protocols) {
-                    if (protocol.matches(received)) {
+                received.append(event);
+                if (received.length() == 0) {
+                    return;
+                }
+                if (candidates == null) {
+                    candidates = new ArrayList<Protocol>(Arrays.asList(protocolsByFirstByte[received.getByte(0) & 0xFF]));
+                }
+                // the protocols only look at the first few bytes
+                Buffer header = received.getBuffer(0, Math.min(received.length(), maxProtocolIdentificationLength));
+                for (final Protocol protocol : candidates) {
+                    if (protocol.matches(header)) {
                         if ("ssl".equals(protocol.getProtocolName())) {
 
                             LOG.info(String.format("SSL Connection from '%s'", socket.remoteAddress()));
@@ -249,23 +457,18 @@ public class DetectingGateway implements DetectingGatewayMBean {
                                 disabledCypherSuites = sslConfig.getDisabledCypherSuites();
                                 enabledCipherSuites = sslConfig.getEnabledCipherSuites();
                             }
-                            if (sslContext == null) {
-                                try {
-                                    if (sslConfig != null) {
-                                        sslContext = SSLContext.getInstance(sslConfig.getProtocol());
-                                        sslContext.init(sslConfig.getKeyManagers(), sslConfig.getTrustManagers(), null);
-                                    } else {
-                                        sslContext = SSLContext.getDefault();
-                                    }
-                                } catch (Exception e) {
-                                    handleConnectFailure(socket, "Could initialize SSL: " + e);
-                                    return;
-                                }
+                            SSLContext sslContext;
+                            try {
+                                sslContext = getSslContext();
+                            } catch (Exception e) {
+                                handleConnectFailure(socket, "Could initialize SSL: " + e);
+                                return;
                             }
 
                             // lets wrap it up in a SslSocketWrapper.
                             SslSocketWrapper sslSocketWrapper = new SslSocketWrapper(socket);
-                            sslSocketWrapper.putBackHeader(received);
+                            sslSocketWrapper.setTaskExecutor(sslTaskExecutor);
+                            sslSocketWrapper.putBackHeader(received.getBuffer(0, received.length()));
                             sslSocketWrapper.initServer(sslContext, clientAuth, disabledCypherSuites, enabledCipherSuites);
                             DetectingGateway.this.handle(sslSocketWrapper);
                             return;
@@ -279,7 +482,7 @@ public class DetectingGateway implements DetectingGatewayMBean {
                                             socket.remoteAddress(), url.getHost(), url.getPort()));
                                     ConnectionParameters params = new ConnectionParameters();
                                     params.protocol = "http";
-                                    createClient(params, socket, url, received);
+                                    createClient(params, socket, null, url, received);
                                     return;
                                 } catch (URISyntaxException e) {
                                     handleConnectFailure(socket, "Could not build valid connect URI: "+e);
@@ -305,13 +508,43 @@ public class DetectingGateway implements DetectingGatewayMBean {
                         }
                     }
                 }
-                if (received.length() >= maxProtocolIdentificationLength) {
+                // Rule out the protocols which have seen enough data to know it's not theirs.
+                Iterator<Protocol> iter = candidates.iterator();
+                while (iter.hasNext()) {
+                    if (received.length() >= iter.next().getMaxIdentificationLength()) {
+                        iter.remove();
+                    }
+                }
+                if (candidates.isEmpty()) {
                     handleConnectFailure(socket, "Connection did not use one of the enabled protocols " + getProtocolNames());
                 }
             }
         });
     }
 
+    /**
+     * Returns the SSL context shared by all the instances, so they also share its session cache
+     */
+    private SSLContext getSslContext() throws Exception {
+        SSLContext answer = sslContext;
+        if (answer == null) {
+            synchronized (this) {
+                answer = sslContext;
+                if (answer == null) {
+                    if (sslConfig != null) {
+                        answer = SSLContext.getInstance(sslConfig.getProtocol());
+                        answer.init(sslConfig.getKeyManagers(), sslConfig.getTrustManagers(), null);
+                        sslConfig.configureSessionContext(answer);
+                    } else {
+                        answer = SSLContext.getDefault();
+                    }
+                    sslContext = answer;
+                }
+            }
+        }
+        return answer;
+    }
+
     private void handleConnectFailure(SocketWrapper socket, String reason) {
         if( socketsConnecting.remove(socket) ) {
             if( reason!=null ) {
@@ -323,55 +556,73 @@ public class DetectingGateway implements DetectingGatewayMBean {
         }
     }
 
-    public void route(final SocketWrapper socket, ConnectionParameters params, final Buffer received) {
+    public void route(final SocketWrapper socket, ConnectionParameters params, final CompositeBuffer received) {
         NetClient client = null;
 
         if( params.protocolVirtualHost==null ) {
             params.protocolVirtualHost = defaultVirtualHost;
         }
-        HashSet<String> schemes = new HashSet<String>(Arrays.asList(params.protocolSchemes));
         if(params.protocolVirtualHost!=null) {
-            List<ServiceDetails> services = serviceMap.getServices(params.protocolVirtualHost);
+            RoutingTable table = getRoutingTable();
+            List<ServiceDetails> services = table.getServices(params.protocolVirtualHost);
 
             // Lets try again with the defaultVirtualHost
             if( services.isEmpty() && !params.protocolVirtualHost.equals(defaultVirtualHost) ) {
                 params.protocolVirtualHost = defaultVirtualHost;
-                services = serviceMap.getServices(params.protocolVirtualHost);
+                services = table.getServices(params.protocolVirtualHost);
             }
 
             LOG.debug(String.format("%d services match the virtual host", services.size()));
+            // falling back to an unset default virtual host leaves nothing to limit or route to
+            if (virtualHostRateLimiter != null && !services.isEmpty() && params.protocolVirtualHost != null
+                    && !virtualHostRateLimiter.tryAcquire(params.protocolVirtualHost)) {
+                rejectedVirtualHostConnections.incrementAndGet();
+                handleConnectFailure(socket, String.format("Rejecting gateway client '%s' as virtual host '%s' is receiving connections too fast", socket.remoteAddress(), params.protocolVirtualHost));
+                return;
+            }
+            if (!services.isEmpty() && maxConnectionsPerService > 0) {
+                services = getServicesBelowConnectionLimit(services);
+                if (services.isEmpty()) {
+                    rejectedServiceConnections.incrementAndGet();
+                    handleConnectFailure(socket, String.format("Rejecting gateway client '%s' as all the services for virtual host '%s' have %d connections", socket.remoteAddress(), params.protocolVirtualHost, maxConnectionsPerService));
+                    return;
+                }
+            }
             if (!services.isEmpty()) {
                 ClientRequestFacade clientRequestFacade = clientRequestFacadeFactory.create(socket, params);
                 ServiceDetails serviceDetails = serviceLoadBalancer.choose(services, clientRequestFacade);
+                if (serviceDetails != null && !acquireServiceConnection(serviceDetails)) {
+                    // another event loop took the last connection to the chosen service
+                    LoadBalancers.requestEnded(serviceLoadBalancer, serviceDetails);
+                    rejectedServiceConnections.incrementAndGet();
+                    handleConnectFailure(socket, String.format("Rejecting gateway client '%s' as service '%s' has %d connections", socket.remoteAddress(), serviceDetails.getId(), maxConnectionsPerService));
+                    return;
+                }
                 if (serviceDetails != null) {
-                    List<String> urlStrings = serviceDetails.getServices();
-                    LOG.debug("Selected service exposes the following URLS: {}", urlStrings);
-                    for (String urlString : urlStrings) {
-                        if (Strings.notEmpty(urlString)) {
-                            // lets create a client for this request...
-                            try {
-                                URI uri = new URI(urlString);
-                                //URL url = new URL(urlString);
-                                String urlProtocol = uri.getScheme();
-                                if (schemes.contains(urlProtocol)) {
-                                    if( !socket.remoteAddress().toString().equals(clientRequestFacade.getClientRequestKey())  ) {
-                                        LOG.info(String.format("Connecting client from '%s' (with key '%s') requesting virtual host '%s' to '%s:%d' using the %s protocol",
-                                            socket.remoteAddress(), clientRequestFacade.getClientRequestKey(), params.protocolVirtualHost, uri.getHost(), uri.getPort(), params.protocol
-                                          ));
-                                    } else {
-                                        LOG.info(String.format("Connecting client from '%s' requesting virtual host '%s' to '%s:%d' using the %s protocol",
-                                            socket.remoteAddress(), params.protocolVirtualHost, uri.getHost(), uri.getPort(), params.protocol
-                                          ));
-                                    }
-
-                                    client = createClient(params, socket, uri, received);
-                                    break;
+                    List<URI> uris = table.getEndpoints(serviceDetails);
+                    LOG.debug("Selected service exposes the following URLS: {}", uris);
+                    for (URI uri : uris) {
+                        if (containsScheme(params.protocolSchemes, uri.getScheme())) {
+                            if (LOG.isInfoEnabled()) {
+                                if( !socket.remoteAddress().toString().equals(clientRequestFacade.getClientRequestKey())  ) {
+                                    LOG.info(String.format("Connecting client from '%s' (with key '%s') requesting virtual host '%s' to '%s:%d' using the %s protocol",
+                                        socket.remoteAddress(), clientRequestFacade.getClientRequestKey(), params.protocolVirtualHost, uri.getHost(), uri.getPort(), params.protocol
+                                      ));
+                                } else {
+                                    LOG.info(String.format("Connecting client from '%s' requesting virtual host '%s' to '%s:%d' using the %s protocol",
+                                        socket.remoteAddress(), params.protocolVirtualHost, uri.getHost(), uri.getPort(), params.protocol
+                                      ));
                                 }
-                            } catch (URISyntaxException e) {
-                                LOG.warn("Failed to parse URI: " + urlString + ". " + e, e);
                             }
+
+                            client = createClient(params, socket, serviceDetails, uri, received);
+                            break;
                         }
                     }
+                    if (client == null) {
+                        releaseServiceConnection(serviceDetails);
+                        LoadBalancers.requestEnded(serviceLoadBalancer, serviceDetails);
+                    }
                 }
             }
         }
@@ -382,22 +633,103 @@ public class DetectingGateway implements DetectingGatewayMBean {
         }
     }
 
+    private static String getClientAddress(SocketWrapper socket) {
+        InetSocketAddress address = socket.remoteAddress();
+        if (address == null) {
+            return "unknown";
+        }
+        return address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+    }
+
+    private static String getServiceKey(ServiceDetails service) {
+        return service.getId() != null ? service.getId() : String.valueOf(service);
+    }
+
+    private List<ServiceDetails> getServicesBelowConnectionLimit(List<ServiceDetails> services) {
+        List<ServiceDetails> answer = new ArrayList<ServiceDetails>(services.size());
+        for (ServiceDetails service : services) {
+            AtomicInteger count = serviceConnections.get(getServiceKey(service));
+            if (count == null || count.get() < maxConnectionsPerService) {
+                answer.add(service);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Counts a new connection to the given service, returning false if it already has the maximum number
+     */
+    private boolean acquireServiceConnection(ServiceDetails service) {
+        if (maxConnectionsPerService <= 0) {
+            return true;
+        }
+        String key = getServiceKey(service);
+        AtomicInteger count = serviceConnections.get(key);
+        if (count == null) {
+            count = new AtomicInteger();
+            AtomicInteger existing = serviceConnections.putIfAbsent(key, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        while (true) {
+            int current = count.get();
+            if (current >= maxConnectionsPerService) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void releaseServiceConnection(ServiceDetails service) {
+        if (service == null) {
+            return;
+        }
+        AtomicInteger count = serviceConnections.get(getServiceKey(service));
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    private static boolean containsScheme(String[] schemes, String scheme) {
+        if (schemes != null && scheme != null) {
+            for (String value : schemes) {
+                if (scheme.equals(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
-     * Creates a new client for the given URL and handler
+     * Connects the client of the current event loop to the given URL on behalf of the given socket
      */
-    private NetClient createClient(final ConnectionParameters params, final SocketWrapper socketFromClient, final URI url, final Buffer received) {
-        NetClient netClient = vertx.createNetClient();
-        return netClient.connect(url.getPort(), url.getHost(), new Handler<AsyncResult<NetSocket>>() {
+    private NetClient createClient(final ConnectionParameters params, final SocketWrapper socketFromClient, final ServiceDetails serviceDetails, final URI url, final CompositeBuffer received) {
+        final long connectStart = System.nanoTime();
+        return getNetClient().connect(url.getPort(), url.getHost(), new Handler<AsyncResult<NetSocket>>() {
             public void handle(final AsyncResult<NetSocket> asyncSocket) {
+                long connectNanos = System.nanoTime() - connectStart;
 
                 if( !asyncSocket.succeeded() ) {
+                    releaseServiceConnection(serviceDetails);
+                    LoadBalancers.requestCompleted(serviceLoadBalancer, serviceDetails, connectNanos, false);
                     handleConnectFailure(socketFromClient, String.format("Could not connect to '%s'", url));
                 } else {
                     final NetSocket socketToServer = asyncSocket.result();
 
+                    if( !socketsConnecting.remove(socketFromClient) ) {
+                        // the client timed out or went away while we were connecting
+                        releaseServiceConnection(serviceDetails);
+                        LoadBalancers.requestCompleted(serviceLoadBalancer, serviceDetails, connectNanos, true);
+                        socketToServer.close();
+                        return;
+                    }
                     successfulConnectionAttempts.incrementAndGet();
-                    socketsConnecting.remove(socketFromClient);
-                    final ConnectedSocketInfo connectedInfo = new ConnectedSocketInfo(params, url, socketFromClient, socketToServer);
+                    LoadBalancers.responseReceived(serviceLoadBalancer, serviceDetails, connectNanos, true);
+                    final ConnectedSocketInfo connectedInfo = new ConnectedSocketInfo(params, serviceDetails, url, socketFromClient, socketToServer, received.length());
                     socketsConnected.add(connectedInfo);
 
                     Handler<Void> endHandler = new Handler<Void>() {
@@ -417,9 +749,9 @@ public class DetectingGateway implements DetectingGatewayMBean {
                     socketToServer.endHandler(endHandler);
                     socketToServer.exceptionHandler(exceptionHandler);
 
-                    socketToServer.write(received);
-                    Pump.createPump(socketToServer, socketFromClient.writeStream()).start();
-                    Pump.createPump(socketFromClient.readStream(), socketToServer).start();
+                    received.writeTo(socketToServer);
+                    connectedInfo.toPump = Pump.createPump(socketToServer, socketFromClient.writeStream()).start();
+                    connectedInfo.fromPump = Pump.createPump(socketFromClient.readStream(), socketToServer).start();
                 }
             }
         });
@@ -427,8 +759,13 @@ public class DetectingGateway implements DetectingGatewayMBean {
 
     private void handleShutdown(ConnectedSocketInfo connectedInfo) {
         if( socketsConnected.remove(connectedInfo) ) {
+            bytesFromClients.addAndGet(connectedInfo.getBytesFromClient());
+            bytesToClients.addAndGet(connectedInfo.getBytesToClient());
             connectedInfo.from.close();
             connectedInfo.to.close();
+            // a connection counts as a request in flight for as long as it is open
+            releaseServiceConnection(connectedInfo.service);
+            LoadBalancers.requestEnded(serviceLoadBalancer, connectedInfo.service);
             shutdownTacker.release();
         }
     }
@@ -479,6 +816,44 @@ public class DetectingGateway implements DetectingGatewayMBean {
         return rc.toArray(new String[rc.size()]);
     }
 
+    public String[] getConnectedClientDetails() {
+        ArrayList<String> rc = new ArrayList<>();
+        for (ConnectedSocketInfo info : socketsConnected) {
+            rc.add(info.toString());
+        }
+        return rc.toArray(new String[rc.size()]);
+    }
+
+    public int getConnectingClientCount() {
+        return socketsConnecting.size();
+    }
+
+    public int getConnectedClientCount() {
+        return socketsConnected.size();
+    }
+
+    /**
+     * Returns the total bytes forwarded from clients to services, including the currently connected clients
+     */
+    public long getBytesFromClients() {
+        long answer = bytesFromClients.get();
+        for (ConnectedSocketInfo info : socketsConnected) {
+            answer += info.getBytesFromClient();
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the total bytes forwarded from services to clients, including the currently connected clients
+     */
+    public long getBytesToClients() {
+        long answer = bytesToClients.get();
+        for (ConnectedSocketInfo info : socketsConnected) {
+            answer += info.getBytesToClient();
+        }
+        return answer;
+    }
+
     public long getConnectionTimeout() {
         return connectionTimeout;
     }
@@ -487,11 +862,242 @@ public class DetectingGateway implements DetectingGatewayMBean {
         this.connectionTimeout = connectionTimeout;
     }
 
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the timeout in milliseconds for connecting to a back end service
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public void setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets the TCP send buffer size of the client and server sockets; zero or less uses the OS default
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets the TCP receive buffer size of the client and server sockets; zero or less uses the OS default
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
     public int getPort() {
         return port;
     }
 
+    public int getInstances() {
+        return instances;
+    }
+
+    /**
+     * Sets the number of servers sharing the port, each on its own event loop; use one per core to
+     * spread the connections over all of them.  Defaults to one
+     */
+    public void setInstances(int instances) {
+        this.instances = Math.max(instances, 1);
+    }
+
+    public long[] getInstanceConnectionCounts() {
+        long[] answer = new long[handlers.size()];
+        for (int i = 0; i < answer.length; i++) {
+            answer[i] = handlers.get(i).getAcceptedConnections();
+        }
+        return answer;
+    }
+
     public void setPort(int port) {
         this.port = port;
     }
+
+    public boolean isOutlierDetection() {
+        return outlierDetection;
+    }
+
+    /**
+     * Sets whether services which keep failing to accept connections are temporarily ejected
+     * from load balancing; disabled by default
+     */
+    public void setOutlierDetection(boolean outlierDetection) {
+        this.outlierDetection = outlierDetection;
+    }
+
+    public int getSslTaskThreads() {
+        return sslTaskThreads;
+    }
+
+    /**
+     * Sets the number of threads used to run the crypto of SSL handshakes off the event loops;
+     * zero or less runs it on the event loop.  Defaults to the number of processors
+     */
+    public void setSslTaskThreads(int sslTaskThreads) {
+        this.sslTaskThreads = sslTaskThreads;
+    }
+
+    public int getSslTaskQueueSize() {
+        return sslTaskQueueSize;
+    }
+
+    /**
+     * Sets how many SSL handshakes may wait for a task thread before further handshakes
+     * run their crypto on the event loop again
+     */
+    public void setSslTaskQueueSize(int sslTaskQueueSize) {
+        this.sslTaskQueueSize = sslTaskQueueSize;
+    }
+
+    public long getSslHandshakes() {
+        return sslTaskExecutor != null ? sslTaskExecutor.getHandshakes() : 0;
+    }
+
+    public double getSslHandshakeAverageTime() {
+        return sslTaskExecutor != null ? sslTaskExecutor.getAverageHandshakeTime() : 0;
+    }
+
+    public double getSslHandshakeMaxTime() {
+        return sslTaskExecutor != null ? sslTaskExecutor.getMaxHandshakeTime() : 0;
+    }
+
+    public int getSslTaskQueueDepth() {
+        return sslTaskExecutor != null ? sslTaskExecutor.getQueueDepth() : 0;
+    }
+
+    public int getSslTaskActiveCount() {
+        return sslTaskExecutor != null ? sslTaskExecutor.getActiveCount() : 0;
+    }
+
+    public long getSslSessionCacheHits() {
+        return sslTaskExecutor != null ? sslTaskExecutor.getSessionCacheHits() : 0;
+    }
+
+    public long getSslSessionCacheMisses() {
+        return sslTaskExecutor != null ? sslTaskExecutor.getSessionCacheMisses() : 0;
+    }
+
+    public int getSslSessionCacheSize() {
+        return sslConfig != null ? sslConfig.getSessionCacheSize() : -1;
+    }
+
+    public int getSslSessionTimeout() {
+        return sslConfig != null ? sslConfig.getSessionTimeout() : -1;
+    }
+
+    public long getSslTasksRunOnEventLoop() {
+        return sslTaskExecutor != null ? sslTaskExecutor.getInlineTasks() : 0;
+    }
+
+    public double getClientConnectionRate() {
+        return clientConnectionRate;
+    }
+
+    /**
+     * Sets how many new connections per second each client address may open on average;
+     * zero or less, the default, does not limit them
+     */
+    public void setClientConnectionRate(double clientConnectionRate) {
+        this.clientConnectionRate = clientConnectionRate;
+    }
+
+    public int getClientConnectionBurst() {
+        return clientConnectionBurst;
+    }
+
+    /**
+     * Sets how many connections a client address may open at once before its connection rate applies
+     */
+    public void setClientConnectionBurst(int clientConnectionBurst) {
+        this.clientConnectionBurst = clientConnectionBurst;
+    }
+
+    public double getVirtualHostConnectionRate() {
+        return virtualHostConnectionRate;
+    }
+
+    /**
+     * Sets how many new connections per second may be routed to each virtual host on average;
+     * zero or less, the default, does not limit them
+     */
+    public void setVirtualHostConnectionRate(double virtualHostConnectionRate) {
+        this.virtualHostConnectionRate = virtualHostConnectionRate;
+    }
+
+    public int getVirtualHostConnectionBurst() {
+        return virtualHostConnectionBurst;
+    }
+
+    /**
+     * Sets how many connections may be routed to a virtual host at once before its connection rate applies
+     */
+    public void setVirtualHostConnectionBurst(int virtualHostConnectionBurst) {
+        this.virtualHostConnectionBurst = virtualHostConnectionBurst;
+    }
+
+    public int getMaxConnectionsPerService() {
+        return maxConnectionsPerService;
+    }
+
+    /**
+     * Sets the maximum number of connections the gateway keeps open to each service; services at
+     * the limit are skipped by the load balancer.  Zero or less, the default, does not limit them
+     */
+    public void setMaxConnectionsPerService(int maxConnectionsPerService) {
+        this.maxConnectionsPerService = maxConnectionsPerService;
+    }
+
+    public long getRejectedClientConnections() {
+        return rejectedClientConnections.get();
+    }
+
+    public long getRejectedVirtualHostConnections() {
+        return rejectedVirtualHostConnections.get();
+    }
+
+    public long getRejectedServiceConnections() {
+        return rejectedServiceConnections.get();
+    }
+
+    /**
+     * Returns how many connections counted against the per service limit are open to the given service
+     */
+    public int getServiceConnectionCount(String serviceId) {
+        AtomicInteger count = serviceConnections.get(serviceId);
+        return count != null ? count.get() : 0;
+    }
+
+    public String[] getEjectedServices() {
+        if (serviceLoadBalancer instanceof OutlierDetectingLoadBalancer) {
+            List<String> services = ((OutlierDetectingLoadBalancer) serviceLoadBalancer).getEjectedServices();
+            return services.toArray(new String[services.size()]);
+        }
+        return new String[0];
+    }
 }
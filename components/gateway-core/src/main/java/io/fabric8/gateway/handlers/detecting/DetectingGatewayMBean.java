@@ -32,7 +32,38 @@ public interface DetectingGatewayMBean {
     public long getFailedConnectionAttempts();
     public String[] getConnectingClients();
     public String[] getConnectedClients();
+    public String[] getConnectedClientDetails();
+    public int getConnectingClientCount();
+    public int getConnectedClientCount();
+    public long getBytesFromClients();
+    public long getBytesToClients();
     public long getConnectionTimeout();
     public void setConnectionTimeout(long connectionTimeout);
+    public int getConnectTimeout();
+    public boolean isTcpNoDelay();
+    public boolean isTcpKeepAlive();
+    public boolean isOutlierDetection();
+    public String[] getEjectedServices();
+    public int getSslTaskThreads();
+    public long getSslHandshakes();
+    public double getSslHandshakeAverageTime();
+    public double getSslHandshakeMaxTime();
+    public int getSslTaskQueueDepth();
+    public int getSslTaskActiveCount();
+    public long getSslTasksRunOnEventLoop();
+    public long getSslSessionCacheHits();
+    public long getSslSessionCacheMisses();
+    public int getSslSessionCacheSize();
+    public int getSslSessionTimeout();
+    public double getClientConnectionRate();
+    public int getClientConnectionBurst();
+    public double getVirtualHostConnectionRate();
+    public int getVirtualHostConnectionBurst();
+    public int getMaxConnectionsPerService();
+    public long getRejectedClientConnections();
+    public long getRejectedVirtualHostConnections();
+    public long getRejectedServiceConnections();
+    public int getInstances();
+    public long[] getInstanceConnectionCounts();
 
 }
@@ -19,10 +19,13 @@ import io.fabric8.gateway.SocketWrapper;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.net.NetSocket;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  */
 public class DetectingGatewayNetSocketHandler implements Handler<NetSocket> {
     private final DetectingGateway gateway;
+    private final AtomicLong acceptedConnections = new AtomicLong();
 
     public DetectingGatewayNetSocketHandler(DetectingGateway gateway) {
         this.gateway = gateway;
@@ -30,7 +33,15 @@ public class DetectingGatewayNetSocketHandler implements Handler<NetSocket> {
 
     @Override
     public void handle(final NetSocket socket) {
+        acceptedConnections.incrementAndGet();
         gateway.handle(SocketWrapper.wrap(socket));
     }
 
+    /**
+     * Returns the number of connections accepted by the server using this handler
+     */
+    public long getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
 }
@@ -16,6 +16,7 @@
 package io.fabric8.gateway.handlers.detecting;
 
 import io.fabric8.gateway.SocketWrapper;
+import io.fabric8.gateway.handlers.detecting.protocol.CompositeBuffer;
 import io.fabric8.gateway.handlers.loadbalancer.ConnectionParameters;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
@@ -29,6 +30,17 @@ public interface Protocol {
     public String getProtocolName();
     public int getMaxIdentificationLength();
     public boolean matches(Buffer buffer);
-    public void snoopConnectionParameters(final SocketWrapper socket, Buffer received, Handler<ConnectionParameters> handler);
+
+    /**
+     * Returns false if a connection which starts with the given byte can not be using this protocol.
+     * Used to narrow down the protocols that need to be matched against a new connection.
+     */
+    public boolean canStartWith(byte firstByte);
+
+    /**
+     * Works out where the connection should be routed to.  Data which arrives while
+     * snooping must be appended to the received buffer so it is forwarded as well.
+     */
+    public void snoopConnectionParameters(final SocketWrapper socket, CompositeBuffer received, Handler<ConnectionParameters> handler);
 
 }
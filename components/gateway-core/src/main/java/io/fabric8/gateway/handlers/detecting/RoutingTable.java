@@ -0,0 +1,102 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting;
+
+import io.fabric8.gateway.ServiceMap;
+import io.fabric8.gateway.api.ServiceDetails;
+import io.fabric8.utils.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the {@link ServiceMap} taken at a given version which holds
+ * the services for each virtual host along with the pre-parsed endpoint URIs of each service,
+ * so that routing a new connection does not need to copy service lists or parse URLs.
+ */
+public class RoutingTable {
+    private static final transient Logger LOG = LoggerFactory.getLogger(RoutingTable.class);
+
+    private final long version;
+    private final Map<String, List<ServiceDetails>> services = new HashMap<String, List<ServiceDetails>>();
+    private final Map<ServiceDetails, List<URI>> endpoints = new IdentityHashMap<ServiceDetails, List<URI>>();
+
+    public RoutingTable(ServiceMap serviceMap) {
+        // read the version first so that any concurrent change makes this table stale
+        this.version = serviceMap.getVersion();
+        for (String virtualHost : serviceMap.getPaths()) {
+            List<ServiceDetails> list = serviceMap.getServices(virtualHost);
+            if (list.isEmpty()) {
+                continue;
+            }
+            services.put(virtualHost, Collections.unmodifiableList(list));
+            for (ServiceDetails serviceDetails : list) {
+                if (!endpoints.containsKey(serviceDetails)) {
+                    endpoints.put(serviceDetails, parseEndpoints(serviceDetails));
+                }
+            }
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the services for the given virtual host or an empty list if there are none
+     */
+    public List<ServiceDetails> getServices(String virtualHost) {
+        List<ServiceDetails> answer = services.get(virtualHost);
+        if (answer == null) {
+            answer = Collections.emptyList();
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the parsed endpoint URIs of the given service
+     */
+    public List<URI> getEndpoints(ServiceDetails serviceDetails) {
+        List<URI> answer = endpoints.get(serviceDetails);
+        if (answer == null) {
+            answer = parseEndpoints(serviceDetails);
+        }
+        return answer;
+    }
+
+    protected static List<URI> parseEndpoints(ServiceDetails serviceDetails) {
+        List<String> urlStrings = serviceDetails.getServices();
+        List<URI> answer = new ArrayList<URI>(urlStrings.size());
+        for (String urlString : urlStrings) {
+            if (Strings.notEmpty(urlString)) {
+                try {
+                    answer.add(new URI(urlString));
+                } catch (URISyntaxException e) {
+                    LOG.warn("Failed to parse URI: " + urlString + ". " + e, e);
+                }
+            }
+        }
+        return Collections.unmodifiableList(answer);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.net.NetServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts several servers listening on the same port without blocking.  Vert.x spreads the
+ * connections over the servers sharing a port, and a server runs on the event loop it was
+ * created on, so the servers should all be created before they are started.
+ * <p/>
+ * The first server binds the port, which may be picked by the OS, and the others are only
+ * started from its listen handler once the port is known.
+ */
+public class SharedPortListener {
+
+    /**
+     * Starts the servers, calling the handler with the first server once they are all listening
+     * or with the first failure
+     */
+    public static void listen(List<NetServer> servers, int port, final String host, final Handler<AsyncResult<NetServer>> handler) {
+        // a copy, as the caller may clear its list while the servers are still being started
+        final List<NetServer> instances = new ArrayList<NetServer>(servers);
+        listen(instances.get(0), port, host, new Handler<AsyncResult<NetServer>>() {
+            @Override
+            public void handle(final AsyncResult<NetServer> first) {
+                if (first.failed() || instances.size() == 1) {
+                    handler.handle(first);
+                    return;
+                }
+                final AtomicInteger pending = new AtomicInteger(instances.size() - 1);
+                final AtomicBoolean failed = new AtomicBoolean();
+                Handler<AsyncResult<NetServer>> instanceHandler = new Handler<AsyncResult<NetServer>>() {
+                    @Override
+                    public void handle(AsyncResult<NetServer> result) {
+                        if (result.failed()) {
+                            if (failed.compareAndSet(false, true)) {
+                                handler.handle(result);
+                            }
+                        } else if (pending.decrementAndGet() == 0 && !failed.get()) {
+                            handler.handle(first);
+                        }
+                    }
+                };
+                int boundPort = first.result().port();
+                for (NetServer server : instances.subList(1, instances.size())) {
+                    listen(server, boundPort, host, instanceHandler);
+                }
+            }
+        });
+    }
+
+    private static void listen(NetServer server, int port, String host, Handler<AsyncResult<NetServer>> handler) {
+        if (host != null) {
+            server.listen(port, host, handler);
+        } else {
+            server.listen(port, handler);
+        }
+    }
+}
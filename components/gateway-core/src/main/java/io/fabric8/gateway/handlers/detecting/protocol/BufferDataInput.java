@@ -0,0 +1,196 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting.protocol;
+
+import org.vertx.java.core.buffer.Buffer;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A DataInput which reads directly from a vertx buffer, so that
+ * a received frame can be parsed without first copying it into a byte array.
+ */
+public class BufferDataInput implements DataInput {
+
+    private final Buffer buffer;
+    private final int end;
+    private int pos;
+
+    public BufferDataInput(Buffer buffer) {
+        this(buffer, 0, buffer.length());
+    }
+
+    public BufferDataInput(Buffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.pos = start;
+        this.end = end;
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    public int remaining() {
+        return end - pos;
+    }
+
+    private int advance(int length) throws EOFException {
+        if (length < 0 || end - pos < length) {
+            throw new EOFException("Attempt to read past the end of the buffer");
+        }
+        int rc = pos;
+        pos += length;
+        return rc;
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        int start = advance(len);
+        for (int i = 0; i < len; i++) {
+            b[off + i] = buffer.getByte(start + i);
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        int skipped = Math.max(0, Math.min(n, remaining()));
+        pos += skipped;
+        return skipped;
+    }
+
+    /**
+     * Like {@link #skipBytes(int)}, but fails if there are not enough bytes left.
+     */
+    public void skipFully(int n) throws IOException {
+        advance(n);
+    }
+
+    /**
+     * Returns an input over the next length bytes, and skips past them.
+     */
+    public BufferDataInput slice(int length) throws IOException {
+        int start = advance(length);
+        return new BufferDataInput(buffer, start, start + length);
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return buffer.getByte(advance(1));
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return (short) readUnsignedShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        int start = advance(2);
+        return ((buffer.getByte(start) & 0xFF) << 8) | (buffer.getByte(start + 1) & 0xFF);
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return (char) readUnsignedShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return buffer.getInt(advance(4));
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return buffer.getLong(advance(8));
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads the bytes up to the next <code>\n</code>, <code>\r</code> or <code>\r\n</code>
+     * as latin-1 characters, like {@link DataInputStream#readLine()} does.
+     */
+    @Override
+    public String readLine() throws IOException {
+        if (pos >= end) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        while (pos < end) {
+            int c = buffer.getByte(pos++) & 0xFF;
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                if (pos < end && buffer.getByte(pos) == '\n') {
+                    pos++;
+                }
+                break;
+            }
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    /**
+     * Reads a string written with {@link java.io.DataOutput#writeUTF(String)} only if it
+     * is equal to the given ascii value.  Otherwise it is skipped without being decoded.
+     */
+    public boolean readUTFEquals(String ascii) throws IOException {
+        int length = readUnsignedShort();
+        int start = advance(length);
+        if (length != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.getByte(start + i) != (byte) ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
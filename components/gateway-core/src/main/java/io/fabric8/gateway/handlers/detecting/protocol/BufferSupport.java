@@ -130,6 +130,34 @@ public class BufferSupport {
         getNettyByteBuf(self).capacity(length);
     }
 
+    /**
+     * Copies the contents of the buffer into the remaining space of the
+     * destination without going through an intermediate byte array.
+     */
+    static public void copyTo(Buffer self, ByteBuffer dst) {
+        int length = self.length();
+        int limit = dst.limit();
+        dst.limit(dst.position() + length);
+        getNettyByteBuf(self).getBytes(0, dst);
+        dst.limit(limit);
+    }
+
+    /**
+     * Exposes a region of the buffer as a ByteBuffer.  For the heap backed
+     * buffers vertx creates this is a view onto the same storage, not a copy.
+     */
+    static public ByteBuffer toByteBuffer(Buffer self, int start, int end) {
+        return getNettyByteBuf(self).nioBuffer(start, end - start);
+    }
+
+    /**
+     * Returns a view onto a region of the buffer which shares its storage
+     * instead of copying it like {@link Buffer#getBuffer(int, int)} does.
+     */
+    static public Buffer slice(Buffer self, int start, int end) {
+        return new Buffer(getNettyByteBuf(self).slice(start, end - start));
+    }
+
     static final public Buffer[] split(Buffer self, byte separator) {
         ArrayList<Buffer> rc = new ArrayList<Buffer>();
         int pos = 0;
@@ -0,0 +1,191 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting.protocol;
+
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.streams.WriteStream;
+
+import java.util.ArrayList;
+
+/**
+ * A read only view over a sequence of vertx buffers.  Appending a buffer
+ * just references it, so data received in several chunks can be scanned
+ * without first being copied into one contiguous buffer.  Bytes are only
+ * copied when a range that spans chunks is extracted with {@link #getBuffer(int, int)}.
+ *
+ * The chunks must not be modified once they have been appended.
+ */
+public class CompositeBuffer {
+
+    private final ArrayList<Buffer> chunks = new ArrayList<Buffer>();
+    private int length;
+
+    // The chunk last accessed, so that sequential access does not have to search for it.
+    private int cursorChunk;
+    private int cursorStart;
+
+    public void append(Buffer chunk) {
+        if (chunk.length() > 0) {
+            chunks.add(chunk);
+            length += chunk.length();
+        }
+    }
+
+    /**
+     * Appends the chunks of another composite buffer, again without copying them.
+     */
+    public void append(CompositeBuffer other) {
+        for (Buffer chunk : other.chunks) {
+            append(chunk);
+        }
+    }
+
+    /**
+     * Writes the chunks to the stream one by one instead of joining them first.
+     */
+    public void writeTo(WriteStream<?> stream) {
+        for (Buffer chunk : chunks) {
+            stream.write(chunk);
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void clear() {
+        chunks.clear();
+        length = 0;
+        cursorChunk = 0;
+        cursorStart = 0;
+    }
+
+    /**
+     * Drops the leading chunks that only hold bytes before the given position.
+     *
+     * @return the number of bytes dropped, positions into this buffer have to be
+     * shifted down by that amount.
+     */
+    public int discard(int position) {
+        int dropped = 0;
+        int count = 0;
+        while (count < chunks.size() && dropped + chunks.get(count).length() <= position) {
+            dropped += chunks.get(count).length();
+            count++;
+        }
+        if (count > 0) {
+            chunks.subList(0, count).clear();
+            length -= dropped;
+            cursorChunk = 0;
+            cursorStart = 0;
+        }
+        return dropped;
+    }
+
+    public byte getByte(int pos) {
+        int chunk = seek(pos);
+        return chunks.get(chunk).getByte(pos - cursorStart);
+    }
+
+    /**
+     * Reads a big endian int like {@link Buffer#getInt(int)} does.
+     */
+    public int getInt(int pos) {
+        if (pos + 4 > length) {
+            throw new IndexOutOfBoundsException("pos: " + pos + ", length: " + length);
+        }
+        return ((getByte(pos) & 0xFF) << 24) |
+               ((getByte(pos + 1) & 0xFF) << 16) |
+               ((getByte(pos + 2) & 0xFF) << 8) |
+               (getByte(pos + 3) & 0xFF);
+    }
+
+    public int indexOf(int start, int end, byte value) {
+        end = Math.min(end, length);
+        if (start >= end) {
+            return -1;
+        }
+        int chunk = seek(start);
+        int chunkStart = cursorStart;
+        while (chunkStart < end) {
+            Buffer b = chunks.get(chunk);
+            int limit = Math.min(b.length(), end - chunkStart);
+            for (int i = Math.max(0, start - chunkStart); i < limit; i++) {
+                if (b.getByte(i) == value) {
+                    return chunkStart + i;
+                }
+            }
+            chunkStart += b.length();
+            chunk++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the bytes between start (inclusive) and end (exclusive).  When
+     * the range lies in a single chunk the result is a view onto that chunk,
+     * otherwise the range is copied into a new buffer.
+     */
+    public Buffer getBuffer(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+        }
+        if (start == end) {
+            return new Buffer(0);
+        }
+        int chunk = seek(start);
+        int chunkStart = cursorStart;
+        Buffer b = chunks.get(chunk);
+        if (end - chunkStart <= b.length()) {
+            return BufferSupport.slice(b, start - chunkStart, end - chunkStart);
+        }
+        Buffer rc = new Buffer(end - start);
+        while (chunkStart < end) {
+            b = chunks.get(chunk);
+            int from = Math.max(0, start - chunkStart);
+            int to = Math.min(b.length(), end - chunkStart);
+            rc.appendBytes(b.getBytes(from, to));
+            chunkStart += b.length();
+            chunk++;
+        }
+        return rc;
+    }
+
+    /**
+     * Positions the cursor on the chunk holding the given position and returns its index.
+     */
+    private int seek(int pos) {
+        if (pos < 0 || pos >= length) {
+            throw new IndexOutOfBoundsException("pos: " + pos + ", length: " + length);
+        }
+        if (pos < cursorStart) {
+            cursorChunk = 0;
+            cursorStart = 0;
+        }
+        int chunkLength = chunks.get(cursorChunk).length();
+        while (pos >= cursorStart + chunkLength) {
+            cursorStart += chunkLength;
+            cursorChunk++;
+            chunkLength = chunks.get(cursorChunk).length();
+        }
+        return cursorChunk;
+    }
+
+    @Override
+    public String toString() {
+        return "CompositeBuffer{chunks=" + chunks.size() + ", length=" + length + '}';
+    }
+}
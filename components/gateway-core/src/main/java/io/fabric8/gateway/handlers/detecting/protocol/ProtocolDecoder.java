@@ -19,15 +19,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.streams.ReadStream;
 
 import java.io.IOException;
 import java.net.ProtocolException;
 
-import static io.fabric8.gateway.handlers.detecting.protocol.BufferSupport.indexOf;
-
 /**
  * An abstract base class used to implement a Vertx handler which
  * decode a buffer stream to a protocol specific frame objects.
+ *
+ * The received buffers are kept in a {@link CompositeBuffer} so they are
+ * not copied as they arrive, and frames are handed out as views onto them
+ * when they do not span buffers.  The buffer of everything received from
+ * the stream, which is forwarded once the connection is routed, is also a
+ * {@link CompositeBuffer} that only references the chunks.
  */
 public abstract class ProtocolDecoder<T> implements Handler<Buffer> {
 
@@ -37,7 +42,8 @@ public abstract class ProtocolDecoder<T> implements Handler<Buffer> {
     private Handler<T> codecHander;
     private Handler<String> errorHandler;
 
-    protected Buffer buff = null;
+    protected final CompositeBuffer buff = new CompositeBuffer();
+    private CompositeBuffer received;
     protected long bytesDecoded;
     protected int readStart;
     protected Action<T> nextDecodeAction;
@@ -59,14 +65,33 @@ public abstract class ProtocolDecoder<T> implements Handler<Buffer> {
         return this;
     }
 
+    /**
+     * Decodes the data already received from the stream, followed by the data
+     * that arrives on it later.  The later data is also appended to the received
+     * buffer so that it holds everything read from the stream so far.
+     */
+    public void snoop(ReadStream<?> stream, CompositeBuffer received) {
+        stream.dataHandler(this);
+        if( error==null ) {
+            buff.append(received);
+            decode();
+        }
+        this.received = received;
+    }
+
     @Override
     public void handle(Buffer event) {
+        if( received!=null ) {
+            received.append(event);
+        }
+        if( error==null ) {
+            buff.append(event);
+            decode();
+        }
+    }
+
+    private void decode() {
         if( error==null ) {
-            if( buff == null ) {
-                buff = event;
-            } else {
-                buff.appendBuffer(event);
-            }
             try {
                 T rc = read();
                 while( rc !=null ) {
@@ -83,7 +108,8 @@ public abstract class ProtocolDecoder<T> implements Handler<Buffer> {
 
     public T read() throws IOException {
         T command = null;
-        if (buff !=null && readEnd < buff.length() ) {
+        // readEnd marks how far the current action needs the data to go.
+        if (readStart < buff.length() && readEnd <= buff.length() ) {
             if( nextDecodeAction == null ) {
                 nextDecodeAction = initialDecodeAction();
             }
@@ -91,16 +117,14 @@ public abstract class ProtocolDecoder<T> implements Handler<Buffer> {
 
             // did we fully read the buffer?
             if( readStart == buff.length() ) {
-                buff = null;
-                readEnd -= readStart;
-                readStart = 0;
-            }
-            // Are we wasting too much space?
-            else if( readStart > 1024*4 ) {
-                // lets compact the buffer...
-                buff = buff.getBuffer(readStart, buff.length());
+                buff.clear();
                 readEnd -= readStart;
                 readStart = 0;
+            } else {
+                // let go of the buffers that have been fully read.
+                int dropped = buff.discard(readStart);
+                readEnd -= dropped;
+                readStart -= dropped;
             }
 
             assert readStart <= readEnd;
@@ -117,7 +141,7 @@ public abstract class ProtocolDecoder<T> implements Handler<Buffer> {
     }
 
     protected Buffer readUntil(byte octet, int max, String msg) throws ProtocolException {
-        int pos = indexOf(buff, readEnd, buff.length(), octet);
+        int pos = buff.indexOf(readEnd, buff.length(), octet);
         if (pos >= 0) {
             int offset = readStart;
             readEnd = pos + 1;
@@ -129,7 +153,8 @@ public abstract class ProtocolDecoder<T> implements Handler<Buffer> {
             }
             return buff.getBuffer(offset, readEnd);
         } else {
-            readEnd += buff.length();
+            // continue the search from here once more data arrives.
+            readEnd = buff.length();
             if (max >= 0 && (readEnd - readStart) > max) {
                 throw new ProtocolException(msg);
             }
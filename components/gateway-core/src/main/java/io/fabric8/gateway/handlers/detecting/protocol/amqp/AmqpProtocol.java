@@ -17,6 +17,7 @@ package io.fabric8.gateway.handlers.detecting.protocol.amqp;
 
 import io.fabric8.gateway.SocketWrapper;
 import io.fabric8.gateway.handlers.detecting.Protocol;
+import io.fabric8.gateway.handlers.detecting.protocol.CompositeBuffer;
 import io.fabric8.gateway.handlers.loadbalancer.ConnectionParameters;
 import org.apache.qpid.proton.engine.*;
 import org.apache.qpid.proton.engine.impl.EngineFactoryImpl;
@@ -64,7 +65,12 @@ public class AmqpProtocol implements Protocol {
     }
 
     @Override
-    public void snoopConnectionParameters(final SocketWrapper socket, final Buffer received, final Handler<ConnectionParameters> handler) {
+    public boolean canStartWith(byte firstByte) {
+        return firstByte == PROTOCOL_MAGIC.getByte(0);
+    }
+
+    @Override
+    public void snoopConnectionParameters(final SocketWrapper socket, final CompositeBuffer received, final Handler<ConnectionParameters> handler) {
 
         // We can't yet snoop the virtual host info from a AMQP connection..
         final AmqpProtocolDecoder h = new AmqpProtocolDecoder(this);
@@ -72,7 +78,7 @@ public class AmqpProtocol implements Protocol {
 
     }
 
-    public void experimentalSnoopConnectionParameters(final NetSocket socket, final Buffer received, final Handler<ConnectionParameters> handler) {
+    public void experimentalSnoopConnectionParameters(final NetSocket socket, final CompositeBuffer received, final Handler<ConnectionParameters> handler) {
 
         final AmqpProtocolDecoder h = new AmqpProtocolDecoder(this);
         final ConnectionParameters parameters = new ConnectionParameters();
@@ -178,8 +184,7 @@ public class AmqpProtocol implements Protocol {
             }
         });
 
-        socket.dataHandler(h);
-        h.handle(received);
+        h.snoop(socket, received);
     }
 
     static private String getHostname(Sasl sasl) {
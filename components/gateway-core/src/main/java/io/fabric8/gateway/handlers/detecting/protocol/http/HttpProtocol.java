@@ -18,6 +18,7 @@ package io.fabric8.gateway.handlers.detecting.protocol.http;
 import io.fabric8.gateway.handlers.detecting.Protocol;
 import io.fabric8.gateway.SocketWrapper;
 import io.fabric8.gateway.handlers.detecting.protocol.Ascii;
+import io.fabric8.gateway.handlers.detecting.protocol.CompositeBuffer;
 import io.fabric8.gateway.handlers.loadbalancer.ConnectionParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -72,7 +73,23 @@ public class HttpProtocol implements Protocol {
     }
 
     @Override
-    public void snoopConnectionParameters(final SocketWrapper socket, Buffer received, final Handler<ConnectionParameters> handler) {
+    public boolean canStartWith(byte firstByte) {
+        switch (firstByte) {
+            case 'G': // GET
+            case 'H': // HEAD
+            case 'P': // POST, PUT
+            case 'D': // DELETE
+            case 'O': // OPTIONS
+            case 'T': // TRACE
+            case 'C': // CONNECT
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void snoopConnectionParameters(final SocketWrapper socket, CompositeBuffer received, final Handler<ConnectionParameters> handler) {
         handler.handle(new ConnectionParameters());
     }
 
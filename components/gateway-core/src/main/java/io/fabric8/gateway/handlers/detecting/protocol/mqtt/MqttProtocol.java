@@ -18,6 +18,7 @@ package io.fabric8.gateway.handlers.detecting.protocol.mqtt;
 import io.fabric8.gateway.SocketWrapper;
 import io.fabric8.gateway.handlers.detecting.Protocol;
 import io.fabric8.gateway.handlers.detecting.protocol.BufferSupport;
+import io.fabric8.gateway.handlers.detecting.protocol.CompositeBuffer;
 import io.fabric8.gateway.handlers.loadbalancer.ConnectionParameters;
 import org.fusesource.hawtbuf.UTF8Buffer;
 import org.fusesource.mqtt.codec.CONNECT;
@@ -69,6 +70,11 @@ public class MqttProtocol implements Protocol {
         }
     }
 
+    @Override
+    public boolean canStartWith(byte firstByte) {
+        return firstByte == HEAD_MAGIC.getByte(0);
+    }
+
     static void append(Buffer self, MQTTFrame value) {
         MQTTFrame frame = (MQTTFrame) value;
         self.appendByte(frame.header());
@@ -92,7 +98,7 @@ public class MqttProtocol implements Protocol {
     }
 
     @Override
-    public void snoopConnectionParameters(final SocketWrapper socket, final Buffer received, final Handler<ConnectionParameters> handler) {
+    public void snoopConnectionParameters(final SocketWrapper socket, final CompositeBuffer received, final Handler<ConnectionParameters> handler) {
 
         final MqttProtocolDecoder h = new MqttProtocolDecoder(this);
         h.errorHandler(new Handler<String>() {
@@ -130,9 +136,11 @@ public class MqttProtocol implements Protocol {
 
                                 // re-write the received buffer /w  the updated connect frame
                                 Buffer tail = received.getBuffer((int) h.getBytesDecoded(), received.length());
-                                BufferSupport.setLength(received, 0);
-                                append(received, connect.encode());
-                                received.appendBuffer(tail);
+                                Buffer frame = new Buffer();
+                                append(frame, connect.encode());
+                                received.clear();
+                                received.append(frame);
+                                received.append(tail);
                             }
                         }
                         handler.handle(parameters);
@@ -146,8 +154,7 @@ public class MqttProtocol implements Protocol {
                 }
             }
         });
-        socket.readStream().dataHandler(h);
-        h.handle(received);
+        h.snoop(socket.readStream(), received);
     }
 
 }
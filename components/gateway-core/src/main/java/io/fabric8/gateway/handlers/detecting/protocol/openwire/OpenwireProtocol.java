@@ -16,7 +16,7 @@
 package io.fabric8.gateway.handlers.detecting.protocol.openwire;
 
 import io.fabric8.gateway.handlers.detecting.Protocol;
-import io.fabric8.gateway.handlers.detecting.protocol.openwire.command.Command;
+import io.fabric8.gateway.handlers.detecting.protocol.CompositeBuffer;
 import io.fabric8.gateway.handlers.detecting.protocol.openwire.command.WireFormatInfo;
 import io.fabric8.gateway.handlers.loadbalancer.ConnectionParameters;
 import io.fabric8.gateway.SocketWrapper;
@@ -61,7 +61,14 @@ public class OpenwireProtocol implements Protocol {
     }
 
     @Override
-    public void snoopConnectionParameters(final SocketWrapper socket, Buffer received, final Handler<ConnectionParameters> handler) {
+    public boolean canStartWith(byte firstByte) {
+        // The first frame is a WireFormatInfo and starts with its size as a big
+        // endian int.  That frame is far smaller than 16MB so its first byte is 0.
+        return firstByte == 0;
+    }
+
+    @Override
+    public void snoopConnectionParameters(final SocketWrapper socket, CompositeBuffer received, final Handler<ConnectionParameters> handler) {
 
         OpenwireProtocolDecoder h = new OpenwireProtocolDecoder(this);
         h.errorHandler(new Handler<String>() {
@@ -71,26 +78,19 @@ public class OpenwireProtocol implements Protocol {
                 socket.close();
             }
         });
-        h.codecHandler(new Handler<Command>() {
+        h.codecHandler(new Handler<WireFormatInfo>() {
             @Override
-            public void handle(Command event) {
-                if( event instanceof WireFormatInfo){
-                    WireFormatInfo info = (WireFormatInfo) event;
-                    ConnectionParameters parameters = new ConnectionParameters();
-                    try {
-                        parameters.protocolVirtualHost = info.getHost();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    handler.handle(parameters);
-                } else {
-                    LOG.info("Expected a WireFormatInfo frame");
-                    socket.close();
+            public void handle(WireFormatInfo info) {
+                ConnectionParameters parameters = new ConnectionParameters();
+                try {
+                    parameters.protocolVirtualHost = info.getHost();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
+                handler.handle(parameters);
             }
         });
-        socket.readStream().dataHandler(h);
-        h.handle(received);
+        h.snoop(socket.readStream(), received);
     }
 
 }
@@ -15,9 +15,10 @@
  */
 package io.fabric8.gateway.handlers.detecting.protocol.openwire;
 
+import io.fabric8.gateway.handlers.detecting.protocol.BufferDataInput;
 import io.fabric8.gateway.handlers.detecting.protocol.ProtocolDecoder;
-import io.fabric8.gateway.handlers.detecting.protocol.openwire.codec.OpenWireFormat;
-import io.fabric8.gateway.handlers.detecting.protocol.openwire.command.Command;
+import io.fabric8.gateway.handlers.detecting.protocol.openwire.command.WireFormatInfo;
+import io.fabric8.gateway.handlers.detecting.protocol.openwire.support.MarshallingSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vertx.java.core.buffer.Buffer;
@@ -27,12 +28,18 @@ import java.net.ProtocolException;
 
 /**
  * Implements protocol decoding for the Openwire protocol.
+ *
+ * Only the WireFormatInfo a client opens the connection with is of
+ * interest to the gateway, so rather than unmarshalling the frame with
+ * the full OpenWireFormat it is read straight out of the received buffer,
+ * picking out the properties the gateway needs and skipping the rest.
  */
-class OpenwireProtocolDecoder extends ProtocolDecoder<Command> {
+class OpenwireProtocolDecoder extends ProtocolDecoder<WireFormatInfo> {
 
     private static final transient Logger LOG = LoggerFactory.getLogger(OpenwireProtocolDecoder.class);
 
-    OpenWireFormat format = new OpenWireFormat(1);
+    private static final int MAX_PROPERTY_SIZE = 1024 * 4;
+    private static final int MAX_NESTING = 16;
 
     private final OpenwireProtocol protocol;
     public boolean trim = false;
@@ -42,31 +49,28 @@ class OpenwireProtocolDecoder extends ProtocolDecoder<Command> {
     }
 
     @Override
-    protected Action<Command> initialDecodeAction() {
+    protected Action<WireFormatInfo> initialDecodeAction() {
         return read_action;
     }
 
-    final Action<Command> read_action = new Action<Command>() {
-        public Command apply() throws IOException {
-            Buffer header = peekBytes(4);
-            if( header==null ) {
+    final Action<WireFormatInfo> read_action = new Action<WireFormatInfo>() {
+        public WireFormatInfo apply() throws IOException {
+            if( buff.length() - readStart < 4 ) {
+              readEnd = readStart + 4;
               return null;
             } else {
-              final int length = header.getInt(0);
+              final int length = buff.getInt(readStart);
               if( length > protocol.maxFrameSize ) {
                   throw new ProtocolException("Max frame size exceeded.");
               }
-              nextDecodeAction = new Action<Command>() {
-                public Command apply() throws IOException {
+              nextDecodeAction = new Action<WireFormatInfo>() {
+                public WireFormatInfo apply() throws IOException {
                   Buffer frame = readBytes(4+length) ;
                   if( frame==null ) {
                     return null;
                   } else {
-                    // TODO: avoid this conversion.
-                    org.fusesource.hawtbuf.Buffer buffer = new org.fusesource.hawtbuf.Buffer(frame.getBytes());
-                    Command command = (Command) format.unmarshal(buffer);
                     nextDecodeAction = read_action;
-                    return command;
+                    return readWireFormatInfo(new BufferDataInput(frame, 4, frame.length()));
                   }
                 }
               };
@@ -75,4 +79,107 @@ class OpenwireProtocolDecoder extends ProtocolDecoder<Command> {
         }
     };
 
+    /**
+     * Reads a loosely encoded WireFormatInfo, which is what clients start the connection with.
+     */
+    static WireFormatInfo readWireFormatInfo(BufferDataInput in) throws IOException {
+        byte type = in.readByte();
+        if( type != WireFormatInfo.DATA_STRUCTURE_TYPE ) {
+            throw new ProtocolException("Expected a WireFormatInfo frame but got a command of type " + type);
+        }
+        WireFormatInfo info = new WireFormatInfo();
+        byte[] magic = new byte[8];
+        in.readFully(magic);
+        info.setMagic(magic);
+        info.setVersion(in.readInt());
+        if( in.readBoolean() ) {
+            String host = readHost(in.slice(in.readInt()));
+            if( host!=null ) {
+                info.setProperty("Host", host);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Scans the marshalled properties map for the Host entry without decoding any of the other entries.
+     */
+    private static String readHost(BufferDataInput in) throws IOException {
+        int size = in.readInt();
+        if( size > MAX_PROPERTY_SIZE ) {
+            throw new ProtocolException("Primitive map is larger than the allowed size: " + size);
+        }
+        String host = null;
+        for( int i=0; i < size; i++ ) {
+            if( in.readUTFEquals("Host") ) {
+                byte valueType = in.readByte();
+                switch( valueType ) {
+                    case MarshallingSupport.STRING_TYPE:
+                        host = in.readUTF();
+                        break;
+                    case MarshallingSupport.BIG_STRING_TYPE:
+                        host = MarshallingSupport.readUTF8(in);
+                        break;
+                    default:
+                        skipPrimitive(in, valueType, 0);
+                }
+            } else {
+                skipPrimitive(in, in.readByte(), 0);
+            }
+        }
+        return host;
+    }
+
+    private static void skipPrimitive(BufferDataInput in, byte type, int depth) throws IOException {
+        if( depth > MAX_NESTING ) {
+            throw new ProtocolException("WireFormatInfo properties are nested too deeply");
+        }
+        switch( type ) {
+            case MarshallingSupport.NULL:
+                break;
+            case MarshallingSupport.BYTE_TYPE:
+            case MarshallingSupport.BOOLEAN_TYPE:
+                in.skipFully(1);
+                break;
+            case MarshallingSupport.CHAR_TYPE:
+            case MarshallingSupport.SHORT_TYPE:
+                in.skipFully(2);
+                break;
+            case MarshallingSupport.INTEGER_TYPE:
+            case MarshallingSupport.FLOAT_TYPE:
+                in.skipFully(4);
+                break;
+            case MarshallingSupport.LONG_TYPE:
+            case MarshallingSupport.DOUBLE_TYPE:
+                in.skipFully(8);
+                break;
+            case MarshallingSupport.STRING_TYPE:
+                in.skipFully(in.readUnsignedShort());
+                break;
+            case MarshallingSupport.BYTE_ARRAY_TYPE:
+            case MarshallingSupport.BIG_STRING_TYPE:
+                int length = in.readInt();
+                // a negative length is how a null big string is written.
+                if( length > 0 ) {
+                    in.skipFully(length);
+                }
+                break;
+            case MarshallingSupport.MAP_TYPE:
+                int entries = in.readInt();
+                for( int i=0; i < entries; i++ ) {
+                    in.skipFully(in.readUnsignedShort());
+                    skipPrimitive(in, in.readByte(), depth + 1);
+                }
+                break;
+            case MarshallingSupport.LIST_TYPE:
+                int elements = in.readInt();
+                for( int i=0; i < elements; i++ ) {
+                    skipPrimitive(in, in.readByte(), depth + 1);
+                }
+                break;
+            default:
+                throw new ProtocolException("Unknown primitive type: " + type);
+        }
+    }
+
 }
@@ -53,6 +53,9 @@ public class SslConfig {
     String disabledCypherSuites;
     String enabledCipherSuites;
 
+    int sessionCacheSize = -1;
+    int sessionTimeout = -1;
+
     public SslConfig() {
     }
 
@@ -167,6 +170,22 @@ public class SslConfig {
       return keyManagers;
     }
 
+    /**
+     * Applies the session cache settings to the server side sessions of the context so
+     * that reconnecting clients can resume their session with an abbreviated handshake.
+     */
+    public void configureSessionContext(SSLContext context) {
+        SSLSessionContext sessions = context.getServerSessionContext();
+        if( sessions!=null ) {
+            if( sessionCacheSize >= 0 ) {
+                sessions.setSessionCacheSize(sessionCacheSize);
+            }
+            if( sessionTimeout >= 0 ) {
+                sessions.setSessionTimeout(sessionTimeout);
+            }
+        }
+    }
+
     public String getProtocol() {
         return protocol;
     }
@@ -305,4 +324,28 @@ public class SslConfig {
         this.enabledCipherSuites = enabledCipherSuites;
     }
 
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of server sessions kept for resumption, zero means no limit.
+     * Negative values keep the JVM default.
+     */
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Sets how many seconds a server session can be resumed for, zero means no limit.
+     * Negative values keep the JVM default.
+     */
+    public void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
 }
@@ -17,6 +17,7 @@ package io.fabric8.gateway.handlers.detecting.protocol.ssl;
 
 import io.fabric8.gateway.SocketWrapper;
 import io.fabric8.gateway.handlers.detecting.Protocol;
+import io.fabric8.gateway.handlers.detecting.protocol.CompositeBuffer;
 import io.fabric8.gateway.handlers.loadbalancer.ConnectionParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,6 +76,12 @@ public class SslProtocol implements Protocol {
         }
     }
 
+    @Override
+    public boolean canStartWith(byte firstByte) {
+        // A handshake record, or a SSLv2 record header.
+        return firstByte == 0x16 || (firstByte & 0xC0) == 0x80;
+    }
+
     private boolean isSSLVerions(byte ver) {
         switch (ver) {  // Minor version
             case 0: // SSLv3
@@ -88,7 +95,7 @@ public class SslProtocol implements Protocol {
     }
 
     @Override
-    public void snoopConnectionParameters(final SocketWrapper socket, Buffer received, final Handler<ConnectionParameters> handler) {
+    public void snoopConnectionParameters(final SocketWrapper socket, CompositeBuffer received, final Handler<ConnectionParameters> handler) {
         handler.handle(new ConnectionParameters());
     }
 
@@ -16,6 +16,7 @@
 package io.fabric8.gateway.handlers.detecting.protocol.ssl;
 
 import io.fabric8.gateway.SocketWrapper;
+import io.fabric8.gateway.handlers.detecting.protocol.BufferSupport;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.streams.ReadStream;
@@ -25,10 +26,17 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
 
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.FINISHED;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
 
 /**
@@ -47,12 +55,31 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
     private Handler<Throwable> plainExceptionHandler;
     private boolean failed = false;
 
+    private SslTaskExecutor taskExecutor;
+    // set while the delegated handshake tasks run on the task executor.
+    private boolean taskPending = false;
+    private long handshakeStart;
+    // the ids of the sessions the client offered to resume, see handshakeFinished().
+    private List<byte[]> resumableSessionIds;
+
+    private final Handler<Void> taskCompleted = new Handler<Void>() {
+        @Override
+        public void handle(Void aVoid) {
+            taskPending = false;
+            handshake();
+        }
+    };
+
     //////////////////////////////////////////////////////////////////////////
     //
     // ReadStream<SslSocketWrapper> interface impl.
     //
     //////////////////////////////////////////////////////////////////////////
-    private Buffer encryptedReadBuffer;
+    // Encrypted bytes received from the network.  Allocated once per connection
+    // and kept in read mode (flipped): position..limit is the pending data.
+    private ByteBuffer encryptedReadBuffer;
+    // Reused as the unwrap target, drained after every unwrap call.
+    private ByteBuffer plainReadScratch;
     private boolean encryptedReadBufferUnderflow;
     private boolean encryptedReadEOF = false;
     private Buffer plainReadBuffer;
@@ -64,7 +91,47 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
         if( engine!=null ) {
             throw new IllegalStateException("putBackHeader must be called before init");
         }
-        encryptedReadBuffer = buffer;
+        appendEncryptedRead(buffer);
+    }
+
+    private boolean hasEncryptedReadData() {
+        return encryptedReadBuffer!=null && encryptedReadBuffer.hasRemaining();
+    }
+
+    private void appendEncryptedRead(Buffer buffer) {
+        int len = buffer.length();
+        if( len == 0 ) {
+            return;
+        }
+        if( encryptedReadBuffer == null ) {
+            encryptedReadBuffer = ByteBuffer.allocate(encryptedReadCapacity(len));
+            encryptedReadBuffer.limit(0);
+        }
+        // move any partial record to the front so the new data follows it.
+        encryptedReadBuffer.compact();
+        if( encryptedReadBuffer.remaining() < len ) {
+            ByteBuffer grown = ByteBuffer.allocate(encryptedReadCapacity(encryptedReadBuffer.position() + len));
+            encryptedReadBuffer.flip();
+            grown.put(encryptedReadBuffer);
+            encryptedReadBuffer = grown;
+        }
+        BufferSupport.copyTo(buffer, encryptedReadBuffer);
+        encryptedReadBuffer.flip();
+    }
+
+    // at least a whole packet, and doubling so that a run of large chunks does not regrow it every time.
+    private int encryptedReadCapacity(int required) {
+        int size = engine==null ? 0 : engine.getSession().getPacketBufferSize();
+        int doubled = encryptedReadBuffer==null ? 0 : encryptedReadBuffer.capacity() * 2;
+        return Math.max(required, Math.max(size, doubled));
+    }
+
+    private ByteBuffer plainReadScratch(boolean grow) {
+        int size = engine.getSession().getApplicationBufferSize();
+        if( plainReadScratch == null || (grow && plainReadScratch.capacity() < size) ) {
+            plainReadScratch = ByteBuffer.allocate(size);
+        }
+        return plainReadScratch;
     }
 
     private void pumpReads() {
@@ -76,20 +143,32 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
         while( pump ) {
             pump = false;
 
-            if( readPaused > 0 || failed ) {
+            if( readPaused > 0 || failed || taskPending ) {
                 return;
             }
 
-            if( encryptedReadBuffer!=null && plainReadBuffer==null && !encryptedReadBufferUnderflow ) {
-                ByteBuffer input = ByteBuffer.wrap(encryptedReadBuffer.getBytes());
-                ByteBuffer output = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+            if( hasEncryptedReadData() && plainReadBuffer==null && !encryptedReadBufferUnderflow ) {
+                ByteBuffer input = encryptedReadBuffer;
+                ByteBuffer output = plainReadScratch(false);
+
+                if( resumableSessionIds==null && taskExecutor!=null ) {
+                    byte[] offered = clientHelloSessionId(input);
+                    if( offered!=null ) {
+                        resumableSessionIds = Collections.singletonList(offered);
+                    }
+                }
 
+                boolean finished = false;
                 try {
                     boolean done = false;
                     while( !done ) {
                         done = true;
 
                         SSLEngineResult result = engine.unwrap(input, output);
+                        if( result.getHandshakeStatus()==FINISHED ) {
+                            handshakeFinished();
+                            finished = true;
+                        }
                         switch( result.getStatus() ) {
                             case CLOSED:
                                 engine.closeInbound();
@@ -107,7 +186,13 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
                                 }
                                 break;
                             case BUFFER_OVERFLOW:
-                                throw new SSLException("BUFFER_OVERFLOW");
+                                // output is drained after every unwrap, so the session
+                                // must have grown its application buffer size.
+                                if( output.capacity() >= engine.getSession().getApplicationBufferSize() ) {
+                                    throw new SSLException("BUFFER_OVERFLOW");
+                                }
+                                output = plainReadScratch(true);
+                                done = false;
                         }
 
                         // Lets fill the plain buffer..
@@ -127,18 +212,16 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
                     onFailure(e);
                     return;
                 } finally {
-                    int len = input.remaining();
-                    if( len > 0 ) {
-                        // we need to compact the encryptedReadBuffer
-                        if( input.position()!=0  ) {
-                            encryptedReadBuffer = new Buffer(len);
-                            encryptedReadBuffer.appendBytes(input.array(), input.arrayOffset()+ input.position(), len);
-                        }
-                    } else {
-                        // everything was consumed.
-                        encryptedReadBuffer = null;
+                    // leftovers get compacted in place when more data arrives.
+                    if( !input.hasRemaining() ) {
+                        input.clear();
+                        input.limit(0);
                     }
                 }
+                if( finished ) {
+                    // the handshake ended on our peer's message, so send what was written meanwhile.
+                    pumpWrites(false);
+                }
             }
 
             // Send the plain buffer to the the data handler...
@@ -152,7 +235,7 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
                 }
             }
 
-            if( encryptedReadBuffer==null && plainReadBuffer==null && encryptedReadEOF ) {
+            if( !hasEncryptedReadData() && plainReadBuffer==null && encryptedReadEOF ) {
                 encryptedReadEOF = false;
                 Handler<Void> handler = plainEndHandler;
                 if( handler !=null ) {
@@ -221,6 +304,10 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
 
     private boolean writeOverflow;
     private Buffer plainWriteBuffer;
+    // how much of plainWriteBuffer has already been wrapped.
+    private int plainWriteOffset;
+    // Reused as the wrap target, drained after every wrap call.
+    private ByteBuffer encryptedWriteScratch;
     private Buffer encryptedWriteBuffer;
 
     @Override
@@ -238,6 +325,7 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
     public SslSocketWrapper write(Buffer buffer) {
         if( plainWriteBuffer==null ) {
             plainWriteBuffer = buffer;
+            plainWriteOffset = 0;
         } else {
             plainWriteBuffer.appendBuffer(buffer);
         }
@@ -262,24 +350,35 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
         pumpWrites(true);
     }
 
+    private ByteBuffer encryptedWriteScratch(boolean grow) {
+        int size = engine.getSession().getPacketBufferSize();
+        if( encryptedWriteScratch == null || (grow && encryptedWriteScratch.capacity() < size) ) {
+            encryptedWriteScratch = ByteBuffer.allocate(size);
+        }
+        return encryptedWriteScratch;
+    }
+
     private void pumpWrites(boolean allowHandshake) {
         boolean pump = true;
         while (pump) {
             pump= false;
 
-            if( failed ) {
+            if( failed || taskPending ) {
                 return;
             }
 
             if( plainWriteBuffer!=null ) {
-                ByteBuffer input = ByteBuffer.wrap(plainWriteBuffer.getBytes());
-                ByteBuffer output = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                ByteBuffer input = BufferSupport.toByteBuffer(plainWriteBuffer, plainWriteOffset, plainWriteBuffer.length());
+                ByteBuffer output = encryptedWriteScratch(false);
 
                 try {
                     boolean done = false;
                     while( !done ) {
                         done = true;
                         SSLEngineResult result = engine.wrap(input, output);
+                        if( result.getHandshakeStatus()==FINISHED ) {
+                            handshakeFinished();
+                        }
                         switch( result.getStatus() ) {
                             case OK:
                                 switch(engine.getHandshakeStatus()) {
@@ -295,6 +394,12 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
                             case BUFFER_UNDERFLOW:
                                 break;
                             case BUFFER_OVERFLOW:
+                                // output is drained after every wrap, so the session
+                                // must have grown its packet buffer size.
+                                if( output.capacity() >= engine.getSession().getPacketBufferSize() ) {
+                                    throw new SSLException("BUFFER_OVERFLOW");
+                                }
+                                output = encryptedWriteScratch(true);
                                 done = false;
                         }
 
@@ -316,14 +421,12 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
                 } finally {
                     int len = input.remaining();
                     if( len > 0 ) {
-                        // we need to compact the plainWriteBuffer
-                        if( input.position()!=0  ) {
-                            plainWriteBuffer = new Buffer(len);
-                            plainWriteBuffer.appendBytes(input.array(), input.arrayOffset()+ input.position(), len);
-                        }
+                        // just remember where to resume instead of copying the rest.
+                        plainWriteOffset = plainWriteBuffer.length() - len;
                     } else {
                         // everything was consumed.
                         plainWriteBuffer = null;
+                        plainWriteOffset = 0;
                     }
                 }
             }
@@ -395,10 +498,24 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
         pause();
     }
 
+    /**
+     * Sets the executor used to run the handshake's delegated tasks off the event loop, must
+     * be called before the wrapper is initialized.  The tasks run inline when it is not set.
+     */
+    public void setTaskExecutor(SslTaskExecutor taskExecutor) {
+        if( engine!=null ) {
+            throw new IllegalStateException("setTaskExecutor must be called before init");
+        }
+        this.taskExecutor = taskExecutor;
+    }
+
     public void initClient(SSLContext sslContext, String host, int port, String disabledCypherSuites, String enabledCipherSuites) {
         assert engine == null;
         engine = sslContext.createSSLEngine(host, port);
         engine.setUseClientMode(true);
+        if( taskExecutor!=null ) {
+            resumableSessionIds = cachedSessionIds(sslContext.getClientSessionContext(), host, port);
+        }
         initCipherSuites(disabledCypherSuites, enabledCipherSuites);
         init();
     }
@@ -443,14 +560,11 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
     }
 
     private void init() {
+        handshakeStart = System.nanoTime();
         this.next.readStream().dataHandler(new Handler<Buffer>() {
             @Override
             public void handle(Buffer buffer) {
-                if( encryptedReadBuffer == null ) {
-                    encryptedReadBuffer = buffer;
-                } else {
-                    encryptedReadBuffer.appendBuffer(buffer);
-                }
+                appendEncryptedRead(buffer);
                 encryptedReadBufferUnderflow = false;
                 pumpReads();
             }
@@ -478,7 +592,7 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
     }
 
     public void handshake() {
-        if( failed )
+        if( failed || taskPending )
             return;
         try {
             while( true ) {
@@ -489,21 +603,31 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
                         return;
 
                     case NEED_TASK:
-                        final Runnable task = engine.getDelegatedTask();
-                        if( task!=null ) {
-                            task.run();
+                        if( taskExecutor!=null ) {
+                            if( taskExecutor.execute(engine, taskCompleted) ) {
+                                // taskCompleted resumes the handshake once the tasks are done.
+                                taskPending = true;
+                                return;
+                            }
+                        } else {
+                            final Runnable task = engine.getDelegatedTask();
+                            if( task!=null ) {
+                                task.run();
+                            }
                         }
                         break;
 
                     case NEED_WRAP:
                         if( plainWriteBuffer==null ) {
                             plainWriteBuffer = new Buffer();
+                            plainWriteOffset = 0;
                         }
                         pumpWrites(false);
                         break;
 
                     case NEED_UNWRAP:
-                        if( encryptedReadBuffer!=null ) {
+                        // wait for more data if only a partial record is buffered.
+                        if( hasEncryptedReadData() && !encryptedReadBufferUnderflow ) {
                             pumpReads(false);
                             break;
                         } else {
@@ -524,6 +648,71 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
         }
     }
 
+    private void handshakeFinished() {
+        // only the initial handshake is measured, not renegotiations.
+        if( handshakeStart!=0 ) {
+            long duration = System.nanoTime() - handshakeStart;
+            handshakeStart = 0;
+            if( taskExecutor!=null ) {
+                // a session is only resumed under the id the client offered, a full handshake
+                // negotiates a new one.  TLS 1.3 resumes without session ids, so those count as misses.
+                boolean resumed = false;
+                if( resumableSessionIds!=null ) {
+                    byte[] id = engine.getSession().getId();
+                    for (byte[] resumable : resumableSessionIds) {
+                        resumed |= resumable.length > 0 && Arrays.equals(resumable, id);
+                    }
+                }
+                taskExecutor.handshakeCompleted(duration, resumed);
+            }
+        }
+    }
+
+    // the ids of the sessions the client has cached for the server, one of which it will offer.
+    static private List<byte[]> cachedSessionIds(SSLSessionContext sessions, String host, int port) {
+        ArrayList<byte[]> rc = new ArrayList<byte[]>();
+        if( sessions!=null && host!=null ) {
+            for (Enumeration<byte[]> ids = sessions.getIds(); ids.hasMoreElements(); ) {
+                SSLSession session = sessions.getSession(ids.nextElement());
+                if( session!=null && session.getPeerPort()==port && host.equalsIgnoreCase(session.getPeerHost()) ) {
+                    rc.add(session.getId());
+                }
+            }
+        }
+        return rc;
+    }
+
+    // the session id offered by the client hello record at the start of the buffer, empty if
+    // there is none or null if the rest of the record has not been received yet.
+    static private byte[] clientHelloSessionId(ByteBuffer buffer) {
+        int start = buffer.position();
+        if( buffer.remaining() < 5 ) {
+            return null;
+        }
+        if( buffer.get(start)!=0x16 ) {
+            // not a handshake record, an SSLv2 hello does not offer a session to resume.
+            return new byte[0];
+        }
+        int end = start + 5 + (buffer.getShort(start + 3) & 0xFFFF);
+        if( buffer.limit() < end ) {
+            return null;
+        }
+        // the record and hello headers, the client version and random come before the id.
+        int offset = start + 43;
+        if( offset >= end || buffer.get(start + 5)!=1 ) {
+            return new byte[0];
+        }
+        int length = buffer.get(offset) & 0xFF;
+        if( offset + 1 + length > end ) {
+            return new byte[0];
+        }
+        byte[] id = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset + 1);
+        source.get(id);
+        return id;
+    }
+
     private void onFailure(Throwable error) {
         failed = true;
         Handler<Throwable> handler = plainExceptionHandler;
@@ -0,0 +1,203 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting.protocol.ssl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+
+import javax.net.ssl.SSLEngine;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the delegated tasks of an {@link SSLEngine} handshake (the RSA/ECDHE crypto) on a bounded
+ * worker pool so that new TLS clients do not stall every other connection on the event loop.
+ * Once the tasks are done the handshake is resumed on the event loop the connection belongs to.
+ * <p/>
+ * The tasks are run inline, like they used to be, when the pool has no threads or its queue is
+ * full, so a reconnect storm slows handshakes down rather than failing them.
+ */
+public class SslTaskExecutor {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(SslTaskExecutor.class);
+
+    private final Vertx vertx;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong offloadedTasks = new AtomicLong();
+    private final AtomicLong inlineTasks = new AtomicLong();
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong handshakeTime = new AtomicLong();
+    private final AtomicLong maxHandshakeTime = new AtomicLong();
+    private final AtomicLong sessionCacheHits = new AtomicLong();
+    private final AtomicLong sessionCacheMisses = new AtomicLong();
+
+    public SslTaskExecutor(Vertx vertx, int threads, int queueSize) {
+        this.vertx = vertx;
+        if (threads > 0) {
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "gateway-ssl-handshake-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs the pending delegated tasks of the engine.
+     *
+     * @return true if the tasks were handed to the worker pool, in which case the completion handler
+     * is called back on the current event loop once they are done, or false if they were run inline
+     */
+    public boolean execute(final SSLEngine engine, final Handler<Void> completion) {
+        final Context context = executor != null ? vertx.currentContext() : null;
+        if (context != null) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runTasks(engine);
+                        } finally {
+                            context.runOnContext(completion);
+                        }
+                    }
+                });
+                offloadedTasks.incrementAndGet();
+                return true;
+            } catch (RejectedExecutionException e) {
+                LOG.debug("SSL handshake task queue is full, running the tasks on the event loop");
+            }
+        }
+        inlineTasks.incrementAndGet();
+        runTasks(engine);
+        return false;
+    }
+
+    private void runTasks(SSLEngine engine) {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // the engine reports the failure on the next wrap/unwrap
+                LOG.debug("SSL handshake task failed: " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Records the time it took a connection to complete its initial handshake and whether
+     * it resumed a cached session instead of doing a full handshake
+     */
+    public void handshakeCompleted(long durationNanos, boolean resumed) {
+        handshakes.incrementAndGet();
+        if (resumed) {
+            sessionCacheHits.incrementAndGet();
+        } else {
+            sessionCacheMisses.incrementAndGet();
+        }
+        handshakeTime.addAndGet(durationNanos);
+        long max;
+        while (durationNanos > (max = maxHandshakeTime.get())) {
+            if (maxHandshakeTime.compareAndSet(max, durationNanos)) {
+                break;
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public int getThreads() {
+        return executor != null ? executor.getMaximumPoolSize() : 0;
+    }
+
+    /**
+     * Returns the number of handshakes waiting for a worker thread
+     */
+    public int getQueueDepth() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    /**
+     * Returns the number of handshakes currently running their tasks on a worker thread
+     */
+    public int getActiveCount() {
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    public long getOffloadedTasks() {
+        return offloadedTasks.get();
+    }
+
+    public long getInlineTasks() {
+        return inlineTasks.get();
+    }
+
+    public long getHandshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * Returns the number of handshakes which resumed a cached session
+     */
+    public long getSessionCacheHits() {
+        return sessionCacheHits.get();
+    }
+
+    /**
+     * Returns the number of handshakes which had to negotiate a new session
+     */
+    public long getSessionCacheMisses() {
+        return sessionCacheMisses.get();
+    }
+
+    /**
+     * Returns the average time in milliseconds from accepting a TLS connection to completing its handshake
+     */
+    public double getAverageHandshakeTime() {
+        long count = handshakes.get();
+        return count == 0 ? 0 : handshakeTime.get() / (count * 1000000.0);
+    }
+
+    /**
+     * Returns the longest time in milliseconds a TLS connection took to complete its handshake
+     */
+    public double getMaxHandshakeTime() {
+        return maxHandshakeTime.get() / 1000000.0;
+    }
+}
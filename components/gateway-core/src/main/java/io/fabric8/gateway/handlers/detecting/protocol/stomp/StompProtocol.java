@@ -16,6 +16,7 @@
 package io.fabric8.gateway.handlers.detecting.protocol.stomp;
 
 import io.fabric8.gateway.handlers.detecting.Protocol;
+import io.fabric8.gateway.handlers.detecting.protocol.CompositeBuffer;
 import io.fabric8.gateway.SocketWrapper;
 import io.fabric8.gateway.handlers.loadbalancer.ConnectionParameters;
 import org.slf4j.Logger;
@@ -60,7 +61,12 @@ public class StompProtocol implements Protocol {
     }
 
     @Override
-    public void snoopConnectionParameters(final SocketWrapper socket, Buffer received, final Handler<ConnectionParameters> handler) {
+    public boolean canStartWith(byte firstByte) {
+        return firstByte == CONNECT.toBuffer().getByte(0) || firstByte == STOMP.toBuffer().getByte(0);
+    }
+
+    @Override
+    public void snoopConnectionParameters(final SocketWrapper socket, CompositeBuffer received, final Handler<ConnectionParameters> handler) {
 
         StompProtocolDecoder h = new StompProtocolDecoder(this);
         h.errorHandler(new Handler<String>() {
@@ -85,8 +91,7 @@ public class StompProtocol implements Protocol {
                 }
             }
         });
-        socket.readStream().dataHandler(h);
-        h.handle(received);
+        h.snoop(socket.readStream(), received);
     }
 
 }
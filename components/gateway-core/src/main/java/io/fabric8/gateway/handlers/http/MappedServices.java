@@ -20,6 +20,7 @@ import io.fabric8.gateway.api.handlers.http.IMappedServices;
 import io.fabric8.gateway.api.handlers.http.ProxyMappingDetails;
 import io.fabric8.gateway.handlers.http.policy.ReverseUriPolicy;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
+import io.fabric8.gateway.loadbalancer.LoadBalancers;
 
 import java.util.ArrayList;
 import java.util.Set;
@@ -61,6 +62,16 @@ public class MappedServices implements IMappedServices {
         return loadBalancer.choose(new ArrayList<String>(serviceUrls), new HttpClientRequestFacade(request));
     }
 
+    @Override
+    public void serviceCompleted(String serviceUrl, long durationNanos, boolean success) {
+        LoadBalancers.requestCompleted(loadBalancer, serviceUrl, durationNanos, success);
+    }
+
+    @Override
+    public void serviceCancelled(String serviceUrl) {
+        LoadBalancers.requestEnded(loadBalancer, serviceUrl);
+    }
+
     /**
      * Provides a hook so we can wrap a client response handler in a policy such
      * as to reverse the URIs {@link io.fabric8.gateway.handlers.http.policy.ReverseUriPolicy} or
@@ -98,6 +109,10 @@ public class MappedServices implements IMappedServices {
         return reverseHeaders;
     }
 
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
     public ServiceDetails getServiceDetails() {
         return serviceDetails;
     }
@@ -16,16 +16,24 @@
 package io.fabric8.gateway.handlers.tcp;
 
 import io.fabric8.gateway.ServiceMap;
+import io.fabric8.gateway.handlers.detecting.FutureHandler;
+import io.fabric8.gateway.handlers.detecting.SharedPortListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.net.NetServer;
 import org.vertx.java.core.net.NetSocket;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  */
-public class TcpGateway {
+public class TcpGateway implements TcpGatewayMBean {
     private static final transient Logger LOG = LoggerFactory.getLogger(TcpGateway.class);
 
     private final Vertx vertx;
@@ -34,7 +42,10 @@ public class TcpGateway {
     private final String protocol;
     private final Handler<NetSocket> handler;
     private String host;
-    private NetServer server;
+    private int instances = 1;
+    private final List<NetServer> servers = new ArrayList<NetServer>();
+    private final List<InstanceHandler> instanceHandlers = new CopyOnWriteArrayList<InstanceHandler>();
+    private final FutureHandler<AsyncResult<NetServer>> listenFuture = new FutureHandler<AsyncResult<NetServer>>();
 
     public TcpGateway(Vertx vertx, ServiceMap serviceMap, int port, String protocol, Handler<NetSocket> handler) {
         this.vertx = vertx;
@@ -54,25 +65,54 @@ public class TcpGateway {
     }
 
     public void init() {
-        server = vertx.createNetServer().connectHandler(handler);
         if (host != null) {
-            LOG.info("Listening on port " + port + " and host " + host + " for protocol: " + protocol);
-            server = server.listen(port, host);
+            LOG.info("Listening on port " + port + " and host " + host + " for protocol: " + protocol + " with " + instances + " instance(s)");
         } else {
-            LOG.info("Listening on port " + port + " for protocol: " + protocol);
-            server = server.listen(port);
+            LOG.info("Listening on port " + port + " for protocol: " + protocol + " with " + instances + " instance(s)");
+        }
+        if (instances > 1 && vertx.currentContext() != null) {
+            LOG.warn("The gateway is started on an event loop, so its " + instances + " instances will all share that event loop");
+        }
+        // created up front so each server gets its own event loop, vert.x spreads the connections over them
+        for (int i = 0; i < instances; i++) {
+            InstanceHandler instanceHandler = new InstanceHandler(handler);
+            instanceHandlers.add(instanceHandler);
+            servers.add(vertx.createNetServer().connectHandler(instanceHandler));
         }
+        SharedPortListener.listen(servers, port, host, listenFuture);
+    }
 
+    /**
+     * Returns the port the gateway is listening on, waiting for all its instances to be bound
+     */
+    public int getBoundPort() throws Exception {
+        return FutureHandler.result(listenFuture).port();
     }
 
     public void destroy() {
-        server.close();
+        for (NetServer server : servers) {
+            server.close();
+        }
+        servers.clear();
+        instanceHandlers.clear();
     }
 
     public int getPort() {
         return port;
     }
 
+    public int getInstances() {
+        return instances;
+    }
+
+    /**
+     * Sets the number of servers sharing the port, each on its own event loop.  The handler is
+     * shared by all of them so must be thread safe.  Defaults to one
+     */
+    public void setInstances(int instances) {
+        this.instances = Math.max(instances, 1);
+    }
+
     public String getHost() {
         return host;
     }
@@ -92,4 +132,38 @@ public class TcpGateway {
     public String getProtocol() {
         return protocol;
     }
+
+    public long getReceivedConnections() {
+        long answer = 0;
+        for (InstanceHandler instanceHandler : instanceHandlers) {
+            answer += instanceHandler.acceptedConnections.get();
+        }
+        return answer;
+    }
+
+    public long[] getInstanceConnectionCounts() {
+        long[] answer = new long[instanceHandlers.size()];
+        for (int i = 0; i < answer.length; i++) {
+            answer[i] = instanceHandlers.get(i).acceptedConnections.get();
+        }
+        return answer;
+    }
+
+    /**
+     * Counts the connections accepted by an instance before passing them to the shared handler
+     */
+    private static class InstanceHandler implements Handler<NetSocket> {
+        private final Handler<NetSocket> handler;
+        private final AtomicLong acceptedConnections = new AtomicLong();
+
+        InstanceHandler(Handler<NetSocket> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void handle(NetSocket socket) {
+            acceptedConnections.incrementAndGet();
+            handler.handle(socket);
+        }
+    }
 }
@@ -18,10 +18,13 @@ package io.fabric8.gateway;
 import io.fabric8.gateway.api.CallDetailRecord;
 import io.fabric8.gateway.api.apimanager.ApiManager;
 import io.fabric8.gateway.api.apimanager.ApiManagerService;
+import io.fabric8.gateway.api.handlers.http.HttpClientPool;
 import io.fabric8.gateway.api.handlers.http.HttpGateway;
 import io.fabric8.gateway.api.handlers.http.HttpGatewayHandler;
+import io.fabric8.gateway.api.handlers.http.HttpMappingIndex;
 import io.fabric8.gateway.api.handlers.http.HttpMappingRule;
 import io.fabric8.gateway.api.handlers.http.IMappedServices;
+import io.fabric8.gateway.api.metrics.GatewayMetrics;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
 import io.fabric8.gateway.handlers.detecting.DetectingGateway;
 import io.fabric8.gateway.handlers.detecting.DetectingGatewayWebSocketHandler;
@@ -64,11 +67,16 @@ import javax.management.openmbean.CompositeData;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.*;
 
@@ -224,6 +232,8 @@ public class ExtendedBurnIn {
 
         DetectingGatewayWebSocketHandler websocketHandler = new DetectingGatewayWebSocketHandler();
         	
+        final HttpMappingIndex mappingIndex = new HttpMappingIndex(mappedServices);
+        final HttpClientPool httpClientPool = new HttpClientPool(vertx);
         final HttpGateway httpGateway = new HttpGateway(){
         	
             @Override
@@ -236,7 +246,7 @@ public class ExtendedBurnIn {
 
             @Override
             public Map<String, IMappedServices> getMappedServices() {
-                return mappedServices;
+                return mappingIndex;
             }
 
             @Override
@@ -269,6 +279,21 @@ public class ExtendedBurnIn {
 				return "http:/" + getLocalAddress();
 			}
 
+			@Override
+			public HttpClientPool getHttpClientPool() {
+				return httpClientPool;
+			}
+
+			@Override
+			public GatewayMetrics getMetrics() {
+				return null;
+			}
+
+			@Override
+			public String getMetricsPath() {
+				return null;
+			}
+
         };
         websocketHandler.setPathPrefix("");
         
@@ -294,6 +319,10 @@ public class ExtendedBurnIn {
     }
 
     public DetectingGateway startDetectingGateway() {
+        return startDetectingGateway(1);
+    }
+
+    public DetectingGateway startDetectingGateway(int instances) {
 
         String loadBalancerType = LoadBalancers.STICKY_LOAD_BALANCER;
         int stickyLoadBalancerCacheSize = LoadBalancers.STICKY_LOAD_BALANCER_DEFAULT_CACHE_SIZE;
@@ -318,6 +347,7 @@ public class ExtendedBurnIn {
         gateway.setServiceLoadBalancer(serviceLoadBalancer);
         gateway.setDefaultVirtualHost("broker1");
         gateway.setConnectionTimeout(5000);
+        gateway.setInstances(instances);
         if( httpGatewayServer!=null ) {
             gateway.setHttpGateway(new InetSocketAddress("localhost", httpGatewayServer.getPort()));
         }
@@ -430,4 +460,117 @@ public class ExtendedBurnIn {
 
     }
 
+    /**
+     * Runs the same STOMP load against the gateway with 1, 2, 4 ... instances up to the number
+     * of cores, to show the connection rate and throughput growing with the instances.
+     */
+    @Test
+    public void connectionRateScalesWithInstances() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        // the brokers only accept 100 connections each
+        int clients = Math.min(4 * cores, 64);
+        long duration = 20 * 1000;
+
+        double singleRate = 0;
+        double lastRate = 0;
+        for (int instances = 1; instances <= cores; instances *= 2) {
+            DetectingGateway gateway = startDetectingGateway(instances);
+            long[] result = runStompLoad(gateway.getBoundPort(), clients, duration);
+            double rate = result[0] * 1000.0 / duration;
+            double throughput = result[1] * 1000.0 / duration / 1024;
+            if (instances == 1) {
+                singleRate = rate;
+            }
+            lastRate = rate;
+            LOG.info(String.format("%d instance(s): %.0f connections/sec, %.0f KB/sec, %.2fx the single instance, connections per instance: %s",
+                    instances, rate, throughput, rate / singleRate, Arrays.toString(gateway.getInstanceConnectionCounts())));
+
+            // every instance should be taking its share of the connections
+            for (long count : gateway.getInstanceConnectionCounts()) {
+                assertTrue(count > 0);
+            }
+            assertEquals(0, gateway.getFailedConnectionAttempts());
+            stopGateways();
+        }
+        if (cores > 1) {
+            assertTrue(lastRate > singleRate);
+        }
+    }
+
+    /**
+     * Has each client keep opening a STOMP connection, sending a few messages with receipts and
+     * closing it again for the given time.
+     *
+     * @return the number of connections made and the number of message bytes sent
+     */
+    private long[] runStompLoad(final int port, int clients, long duration) throws InterruptedException {
+        final AtomicLong connections = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        // failed assertions would only end the client thread, so they are checked once all have finished
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        final long end = System.currentTimeMillis() + duration;
+        final byte[] body = new byte[1024];
+        Arrays.fill(body, (byte) 'x');
+
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int client = 0; client < clients; client++) {
+            Thread thread = new Thread("STOMP Client: " + client) {
+                @Override
+                public void run() {
+                    while (System.currentTimeMillis() < end) {
+                        try {
+                            Socket socket = new Socket("localhost", port);
+                            try {
+                                socket.setTcpNoDelay(true);
+                                OutputStream os = socket.getOutputStream();
+                                InputStream is = socket.getInputStream();
+                                os.write("CONNECT\naccept-version:1.1\nhost:broker1\n\n\u0000".getBytes("UTF-8"));
+                                assertEquals("CONNECTED", readFrame(is));
+                                for (int i = 0; i < 10; i++) {
+                                    os.write(("SEND\ndestination:/topic/load\nreceipt:" + i + "\ncontent-length:" + body.length + "\n\n").getBytes("UTF-8"));
+                                    os.write(body);
+                                    os.write(0);
+                                    assertEquals("RECEIPT", readFrame(is));
+                                    bytes.addAndGet(body.length);
+                                }
+                                connections.incrementAndGet();
+                            } finally {
+                                socket.close();
+                            }
+                        } catch (IOException e) {
+                            LOG.warn("Load client failed: " + e);
+                        } catch (Throwable e) {
+                            failures.add(e);
+                            return;
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("[]", failures.toString());
+        return new long[]{connections.get(), bytes.get()};
+    }
+
+    /**
+     * Reads a STOMP frame without a body, returning its command
+     */
+    private static String readFrame(InputStream is) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int c;
+        while ((c = is.read()) != 0) {
+            if (c < 0) {
+                throw new IOException("The connection was closed");
+            }
+            frame.write(c);
+        }
+        String text = new String(frame.toByteArray(), "UTF-8").trim();
+        int eol = text.indexOf('\n');
+        return eol < 0 ? text : text.substring(0, eol);
+    }
+
 }
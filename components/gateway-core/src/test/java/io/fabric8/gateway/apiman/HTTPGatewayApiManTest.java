@@ -26,10 +26,13 @@ import io.fabric8.gateway.ServiceDTO;
 import io.fabric8.gateway.api.CallDetailRecord;
 import io.fabric8.gateway.api.apimanager.ApiManager;
 import io.fabric8.gateway.api.apimanager.ApiManagerService;
+import io.fabric8.gateway.api.handlers.http.HttpClientPool;
 import io.fabric8.gateway.api.handlers.http.HttpGateway;
 import io.fabric8.gateway.api.handlers.http.HttpGatewayHandler;
+import io.fabric8.gateway.api.handlers.http.HttpMappingIndex;
 import io.fabric8.gateway.api.handlers.http.HttpMappingRule;
 import io.fabric8.gateway.api.handlers.http.IMappedServices;
+import io.fabric8.gateway.api.metrics.GatewayMetrics;
 import io.fabric8.gateway.handlers.detecting.DetectingGatewayWebSocketHandler;
 import io.fabric8.gateway.handlers.detecting.FutureHandler;
 import io.fabric8.gateway.handlers.http.HttpGatewayServer;
@@ -154,6 +157,8 @@ public class HTTPGatewayApiManTest {
         final ApiManager apiManager = new ApiManager();
 
         DetectingGatewayWebSocketHandler websocketHandler = new DetectingGatewayWebSocketHandler();
+        final HttpMappingIndex mappingIndex = new HttpMappingIndex(mappedServices);
+        final HttpClientPool httpClientPool = new HttpClientPool(vertx);
         final HttpGateway httpGateway = new HttpGateway(){
 
         	@Override
@@ -166,7 +171,7 @@ public class HTTPGatewayApiManTest {
 
             @Override
             public Map<String, IMappedServices> getMappedServices() {
-                return mappedServices;
+                return mappingIndex;
             }
 
             @Override
@@ -202,6 +207,21 @@ public class HTTPGatewayApiManTest {
 				return "http:/" + getLocalAddress();
 			}
 
+			@Override
+			public HttpClientPool getHttpClientPool() {
+				return httpClientPool;
+			}
+
+			@Override
+			public GatewayMetrics getMetrics() {
+				return null;
+			}
+
+			@Override
+			public String getMetricsPath() {
+				return null;
+			}
+
         };
 
         websocketHandler.setPathPrefix("");
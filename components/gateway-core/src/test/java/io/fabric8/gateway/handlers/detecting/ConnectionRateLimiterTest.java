@@ -0,0 +1,52 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionRateLimiterTest {
+
+    @Test
+    public void testBurstThenRate() throws Exception {
+        ConnectionRateLimiter limiter = new ConnectionRateLimiter(10, 3, 100);
+        long now = System.nanoTime();
+        long interval = TimeUnit.MILLISECONDS.toNanos(100);
+
+        assertTrue(limiter.tryAcquire("client", now));
+        assertTrue(limiter.tryAcquire("client", now));
+        assertTrue(limiter.tryAcquire("client", now));
+        assertFalse(limiter.tryAcquire("client", now));
+
+        // other keys have their own bucket
+        assertTrue(limiter.tryAcquire("other", now));
+
+        // a token comes back every interval
+        assertTrue(limiter.tryAcquire("client", now + interval));
+        assertFalse(limiter.tryAcquire("client", now + interval));
+
+        // and an idle bucket fills back up to the burst
+        long later = now + 10 * interval;
+        assertTrue(limiter.tryAcquire("client", later));
+        assertTrue(limiter.tryAcquire("client", later));
+        assertTrue(limiter.tryAcquire("client", later));
+        assertFalse(limiter.tryAcquire("client", later));
+    }
+}
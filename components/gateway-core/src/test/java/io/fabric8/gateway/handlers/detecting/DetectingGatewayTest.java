@@ -53,6 +53,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -275,6 +276,13 @@ public class DetectingGatewayTest {
     }
 
     public DetectingGateway createGateway() {
+        return startGateway(newGateway());
+    }
+
+    /**
+     * Creates a gateway which still has to be started, so that tests can change its settings first
+     */
+    protected DetectingGateway newGateway() {
 
         String loadBalancerType = LoadBalancers.STICKY_LOAD_BALANCER;
         int stickyLoadBalancerCacheSize = LoadBalancers.STICKY_LOAD_BALANCER_DEFAULT_CACHE_SIZE;
@@ -299,8 +307,11 @@ public class DetectingGatewayTest {
         gateway.setServiceLoadBalancer(serviceLoadBalancer);
         gateway.setDefaultVirtualHost("broker1");
         gateway.setConnectionTimeout(5000);
-        gateway.init();
+        return gateway;
+    }
 
+    protected DetectingGateway startGateway(DetectingGateway gateway) {
+        gateway.init();
         gateways.add(gateway);
         return gateway;
     }
@@ -397,6 +408,138 @@ public class DetectingGatewayTest {
 
     }
 
+    @Test
+    public void rejectsClientsConnectingTooFast() throws Exception {
+        DetectingGateway gateway = newGateway();
+        gateway.setClientConnectionRate(0.01);
+        gateway.setClientConnectionBurst(1);
+        startGateway(gateway);
+
+        org.fusesource.stomp.client.BlockingConnection connection = connectStomp(gateway, "broker0");
+        assertStompConnectFails(gateway, "broker0");
+
+        assertEquals(1, gateway.getRejectedClientConnections());
+        // rejected clients are turned away before they count as connection attempts
+        assertEquals(1, gateway.getReceivedConnectionAttempts());
+        assertConnectedToBroker(0);
+        connection.close();
+    }
+
+    @Test
+    public void rejectsVirtualHostsReceivingConnectionsTooFast() throws Exception {
+        DetectingGateway gateway = newGateway();
+        gateway.setVirtualHostConnectionRate(0.01);
+        gateway.setVirtualHostConnectionBurst(1);
+        startGateway(gateway);
+
+        org.fusesource.stomp.client.BlockingConnection connection0 = connectStomp(gateway, "broker0");
+        assertStompConnectFails(gateway, "broker0");
+        // each virtual host has its own limit
+        org.fusesource.stomp.client.BlockingConnection connection1 = connectStomp(gateway, "broker1");
+
+        assertEquals(1, gateway.getRejectedVirtualHostConnections());
+        assertEquals(1, gateway.getFailedConnectionAttempts());
+        assertEquals(2, gateway.getSuccessfulConnectionAttempts());
+        connection0.close();
+        connection1.close();
+    }
+
+    @Test
+    public void unknownVirtualHostWithoutDefaultIsNotRateLimited() throws Exception {
+        DetectingGateway gateway = newGateway();
+        gateway.setDefaultVirtualHost(null);
+        gateway.setVirtualHostConnectionRate(0.01);
+        gateway.setVirtualHostConnectionBurst(1);
+        startGateway(gateway);
+
+        long start = System.currentTimeMillis();
+        assertStompConnectFails(gateway, "unknown");
+        // the client is turned away straight away rather than when the connection times out
+        assertTrue(System.currentTimeMillis() - start < 4000);
+        assertEquals(0, gateway.getRejectedVirtualHostConnections());
+        assertEquals(1, gateway.getFailedConnectionAttempts());
+    }
+
+    @Test
+    public void releasesServiceConnectionsWhenClientsClose() throws Exception {
+        final DetectingGateway gateway = newGateway();
+        gateway.setMaxConnectionsPerService(1);
+        startGateway(gateway);
+
+        org.fusesource.stomp.client.BlockingConnection connection = connectStomp(gateway, "broker0");
+        assertEquals(1, gateway.getServiceConnectionCount("broker0"));
+        assertStompConnectFails(gateway, "broker0");
+        assertEquals(1, gateway.getRejectedServiceConnections());
+
+        connection.close();
+        within(2, TimeUnit.SECONDS, new Callable<Object>(){
+            @Override
+            public Object call() throws Exception {
+                assertEquals(0, gateway.getServiceConnectionCount("broker0"));
+                assertEquals(0, gateway.getConnectedClients().length);
+                return null;
+            }
+        });
+
+        connection = connectStomp(gateway, "broker0");
+        assertEquals(1, gateway.getServiceConnectionCount("broker0"));
+        assertEquals(1, gateway.getRejectedServiceConnections());
+        connection.close();
+    }
+
+    @Test
+    public void releasesServiceConnectionsWhenConnectFails() throws Exception {
+        ServiceDTO details = new ServiceDTO();
+        details.setId("unreachable");
+        details.setVersion("1.0");
+        details.setContainer("testing");
+        details.setBundleName("none");
+        details.setBundleVersion("1.0");
+        details.setServices(Arrays.asList("stomp://localhost:" + unusedPort()));
+        serviceMap.serviceUpdated("unreachable", details);
+
+        final DetectingGateway gateway = newGateway();
+        gateway.setMaxConnectionsPerService(1);
+        startGateway(gateway);
+
+        for (int i = 0; i < 2; i++) {
+            assertStompConnectFails(gateway, "unreachable");
+            within(2, TimeUnit.SECONDS, new Callable<Object>(){
+                @Override
+                public Object call() throws Exception {
+                    assertEquals(0, gateway.getServiceConnectionCount("unreachable"));
+                    return null;
+                }
+            });
+        }
+        // the second attempt was let through as the first released its connection
+        assertEquals(0, gateway.getRejectedServiceConnections());
+        assertEquals(2, gateway.getFailedConnectionAttempts());
+    }
+
+    protected org.fusesource.stomp.client.BlockingConnection connectStomp(DetectingGateway gateway, String virtualHost) throws Exception {
+        Stomp stomp = new Stomp("localhost", gateway.getBoundPort());
+        stomp.setHost(virtualHost);
+        return stomp.connectBlocking();
+    }
+
+    protected void assertStompConnectFails(DetectingGateway gateway, String virtualHost) throws Exception {
+        try {
+            connectStomp(gateway, virtualHost).close();
+            fail("Expected the connection to virtual host " + virtualHost + " to fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    protected int unusedPort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
     private <T> T within(int timeout, TimeUnit unit, Callable<T> action) throws Exception {
         long remaining = unit.toMillis(timeout);
         Throwable lastError=null;
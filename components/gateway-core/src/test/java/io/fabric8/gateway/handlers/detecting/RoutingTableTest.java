@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting;
+
+import io.fabric8.gateway.ServiceDTO;
+import io.fabric8.gateway.ServiceMap;
+import io.fabric8.gateway.api.ServiceDetails;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RoutingTableTest {
+
+    @Test
+    public void testServicesAndEndpointsAreIndexedByVirtualHost() throws Exception {
+        ServiceMap serviceMap = new ServiceMap();
+        ServiceDTO broker1 = createService("broker1", "stomp://localhost:61613", "not a uri", "tcp://localhost:61616");
+        serviceMap.serviceUpdated("broker1", broker1);
+
+        RoutingTable table = new RoutingTable(serviceMap);
+        assertEquals(serviceMap.getVersion(), table.getVersion());
+        assertTrue(table.getServices("broker2").isEmpty());
+
+        List<ServiceDetails> services = table.getServices("broker1");
+        assertEquals(1, services.size());
+        List<URI> endpoints = table.getEndpoints(services.get(0));
+        assertEquals(Arrays.asList(new URI("stomp://localhost:61613"), new URI("tcp://localhost:61616")), endpoints);
+    }
+
+    @Test
+    public void testServiceChangesMakeTheTableStale() throws Exception {
+        ServiceMap serviceMap = new ServiceMap();
+        ServiceDTO broker1 = createService("broker1", "tcp://localhost:61616");
+        serviceMap.serviceUpdated("broker1", broker1);
+        RoutingTable table = new RoutingTable(serviceMap);
+
+        serviceMap.serviceRemoved("broker1", broker1);
+        assertTrue(table.getVersion() != serviceMap.getVersion());
+        assertEquals(1, table.getServices("broker1").size());
+        assertTrue(new RoutingTable(serviceMap).getServices("broker1").isEmpty());
+    }
+
+    protected ServiceDTO createService(String id, String... urls) {
+        ServiceDTO details = new ServiceDTO();
+        details.setId(id);
+        details.setVersion("1.0");
+        details.setContainer("testing");
+        details.setServices(Arrays.asList(urls));
+        return details;
+    }
+}
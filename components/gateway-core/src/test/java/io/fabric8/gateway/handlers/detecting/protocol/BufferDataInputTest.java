@@ -0,0 +1,60 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting.protocol;
+
+import org.junit.Test;
+import org.vertx.java.core.buffer.Buffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class BufferDataInputTest {
+
+    @Test
+    public void testReadLineMatchesDataInputStream() throws Exception {
+        String text = "first\nsecond\r\nthird\rfourth\n\nlast";
+        BufferDataInput in = new BufferDataInput(new Buffer("xx" + text + "yy"), 2, 2 + text.length());
+        DataInputStream expected = new DataInputStream(new ByteArrayInputStream(text.getBytes("UTF-8")));
+
+        String line;
+        do {
+            line = expected.readLine();
+            assertEquals(line, in.readLine());
+        } while (line != null);
+        assertNull(in.readLine());
+    }
+
+    @Test
+    public void testReadsStopAtTheEnd() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.appendInt(42);
+        buffer.appendShort((short) 7);
+        BufferDataInput in = new BufferDataInput(buffer, 0, 5);
+
+        assertEquals(42, in.readInt());
+        assertEquals(1, in.remaining());
+        try {
+            in.readShort();
+            fail("Expected an EOFException");
+        } catch (EOFException expected) {
+        }
+    }
+}
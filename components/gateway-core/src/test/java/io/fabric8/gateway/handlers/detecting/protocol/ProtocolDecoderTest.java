@@ -0,0 +1,166 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting.protocol;
+
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.streams.ReadStream;
+import org.vertx.java.core.streams.WriteStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ProtocolDecoderTest {
+
+    @Test
+    public void testCompositeBufferSpansChunks() throws Exception {
+        CompositeBuffer buffer = new CompositeBuffer();
+        buffer.append(new Buffer("abc"));
+        buffer.append(new Buffer(""));
+        buffer.append(new Buffer("defg"));
+
+        assertEquals(7, buffer.length());
+        assertEquals('g', buffer.getByte(6));
+        assertEquals('a', buffer.getByte(0));
+        assertEquals(4, buffer.indexOf(0, 7, (byte) 'e'));
+        assertEquals(-1, buffer.indexOf(5, 7, (byte) 'a'));
+        assertEquals("cde", buffer.getBuffer(2, 5).toString());
+        assertEquals("de", buffer.getBuffer(3, 5).toString());
+
+        // only whole chunks are dropped
+        assertEquals(3, buffer.discard(4));
+        assertEquals(4, buffer.length());
+        assertEquals('d', buffer.getByte(0));
+    }
+
+    @Test
+    public void testLinesSplitAcrossChunks() throws Exception {
+        final List<String> lines = new ArrayList<String>();
+        ProtocolDecoder<Buffer> decoder = lineDecoder(lines);
+
+        decoder.handle(new Buffer("CONN"));
+        decoder.handle(new Buffer("ECT\nhost:"));
+        decoder.handle(new Buffer("broker"));
+        decoder.handle(new Buffer("1\n\n"));
+
+        assertEquals(Arrays.asList("CONNECT\n", "host:broker1\n", "\n"), lines);
+        assertEquals(22, decoder.getBytesDecoded());
+    }
+
+    @Test
+    public void testSnoopKeepsTheReceivedChunks() throws Exception {
+        final List<String> lines = new ArrayList<String>();
+        ProtocolDecoder<Buffer> decoder = lineDecoder(lines);
+        Buffer first = new Buffer("CONN");
+        Buffer second = new Buffer("ECT\nhost:");
+        Buffer third = new Buffer("broker1\n");
+        CompositeBuffer received = new CompositeBuffer();
+        received.append(first);
+        received.append(second);
+        TestStream stream = new TestStream();
+
+        decoder.snoop(stream, received);
+        assertEquals(Arrays.asList("CONNECT\n"), lines);
+        stream.dataHandler.handle(third);
+        assertEquals(Arrays.asList("CONNECT\n", "host:broker1\n"), lines);
+
+        // the chunks are forwarded as they were received
+        assertEquals(21, received.length());
+        received.writeTo(stream);
+        assertEquals(3, stream.written.size());
+        assertSame(first, stream.written.get(0));
+        assertSame(second, stream.written.get(1));
+        assertSame(third, stream.written.get(2));
+    }
+
+    protected ProtocolDecoder<Buffer> lineDecoder(final List<String> lines) {
+        ProtocolDecoder<Buffer> decoder = new ProtocolDecoder<Buffer>() {
+            @Override
+            protected Action<Buffer> initialDecodeAction() {
+                return new Action<Buffer>() {
+                    public Buffer apply() throws IOException {
+                        return readUntil((byte) '\n', 100, "The maximum line length was exceeded");
+                    }
+                };
+            }
+        };
+        decoder.codecHandler(new Handler<Buffer>() {
+            @Override
+            public void handle(Buffer event) {
+                lines.add(event.toString());
+            }
+        });
+        return decoder;
+    }
+
+    static class TestStream implements ReadStream<TestStream>, WriteStream<TestStream> {
+        final List<Buffer> written = new ArrayList<Buffer>();
+        Handler<Buffer> dataHandler;
+
+        @Override
+        public TestStream dataHandler(Handler<Buffer> handler) {
+            dataHandler = handler;
+            return this;
+        }
+
+        @Override
+        public TestStream pause() {
+            return this;
+        }
+
+        @Override
+        public TestStream resume() {
+            return this;
+        }
+
+        @Override
+        public TestStream endHandler(Handler<Void> handler) {
+            return this;
+        }
+
+        @Override
+        public TestStream exceptionHandler(Handler<Throwable> handler) {
+            return this;
+        }
+
+        @Override
+        public TestStream write(Buffer data) {
+            written.add(data);
+            return this;
+        }
+
+        @Override
+        public TestStream setWriteQueueMaxSize(int maxSize) {
+            return this;
+        }
+
+        @Override
+        public boolean writeQueueFull() {
+            return false;
+        }
+
+        @Override
+        public TestStream drainHandler(Handler<Void> handler) {
+            return this;
+        }
+    }
+}
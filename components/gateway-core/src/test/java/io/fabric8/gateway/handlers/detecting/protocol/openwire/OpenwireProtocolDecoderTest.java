@@ -0,0 +1,155 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting.protocol.openwire;
+
+import io.fabric8.gateway.handlers.detecting.protocol.BufferDataInput;
+import io.fabric8.gateway.handlers.detecting.protocol.openwire.codec.OpenWireFormat;
+import io.fabric8.gateway.handlers.detecting.protocol.openwire.command.ConnectionControl;
+import io.fabric8.gateway.handlers.detecting.protocol.openwire.command.WireFormatInfo;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OpenwireProtocolDecoderTest {
+
+    @Test
+    public void testWireFormatInfoIsReadBack() throws Exception {
+        WireFormatInfo info = wireFormatInfo();
+        info.setHost("broker1");
+        // entries of every type which have to be skipped
+        info.setCacheEnabled(true);
+        info.setMaxInactivityDuration(30000);
+        info.setCacheSize(1024);
+        info.setProperty("Byte", (byte) 1);
+        info.setProperty("Char", 'c');
+        info.setProperty("Short", (short) 2);
+        info.setProperty("Float", 3.0f);
+        info.setProperty("Double", 4.0d);
+        info.setProperty("Bytes", new byte[]{1, 2, 3});
+        info.setProperty("Null", null);
+        info.setProperty("BigString", bigString());
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("Host", "not this one");
+        nested.put("List", Arrays.<Object>asList("a", 5, Arrays.asList(6L, "b")));
+        info.setProperty("Map", nested);
+        info.setProperty("List", Arrays.<Object>asList(true, "c", nested));
+
+        Buffer frame = marshal(info);
+        WireFormatInfo answer = OpenwireProtocolDecoder.readWireFormatInfo(new BufferDataInput(frame, 4, frame.length()));
+        assertEquals("broker1", answer.getHost());
+        assertEquals(info.getVersion(), answer.getVersion());
+        assertArrayEquals(info.getMagic(), answer.getMagic());
+        assertTrue(answer.isValid());
+    }
+
+    @Test
+    public void testFramesSplitAcrossChunks() throws Exception {
+        WireFormatInfo info = wireFormatInfo();
+        info.setHost("broker2");
+        info.setMaxInactivityDurationInitalDelay(10000);
+        Buffer frame = marshal(info);
+
+        final List<WireFormatInfo> decoded = new ArrayList<WireFormatInfo>();
+        OpenwireProtocolDecoder decoder = new OpenwireProtocolDecoder(new OpenwireProtocol());
+        decoder.codecHandler(new Handler<WireFormatInfo>() {
+            @Override
+            public void handle(WireFormatInfo event) {
+                decoded.add(event);
+            }
+        });
+        for (int i = 0; i < frame.length(); i += 7) {
+            decoder.handle(frame.getBuffer(i, Math.min(i + 7, frame.length())));
+        }
+
+        assertEquals(1, decoded.size());
+        assertEquals("broker2", decoded.get(0).getHost());
+        assertEquals(frame.length(), decoder.getBytesDecoded());
+    }
+
+    @Test
+    public void testWireFormatInfoWithoutHost() throws Exception {
+        WireFormatInfo info = wireFormatInfo();
+        info.setCacheEnabled(false);
+        Buffer frame = marshal(info);
+
+        WireFormatInfo answer = OpenwireProtocolDecoder.readWireFormatInfo(new BufferDataInput(frame, 4, frame.length()));
+        assertNull(answer.getHost());
+    }
+
+    @Test
+    public void testDeeplyNestedPropertiesAreRejected() throws Exception {
+        WireFormatInfo info = wireFormatInfo();
+        List<Object> list = new ArrayList<Object>();
+        for (int i = 0; i < 20; i++) {
+            list = new ArrayList<Object>(Arrays.<Object>asList(list));
+        }
+        info.setProperty("List", list);
+        info.setHost("broker1");
+        Buffer frame = marshal(info);
+
+        try {
+            OpenwireProtocolDecoder.readWireFormatInfo(new BufferDataInput(frame, 4, frame.length()));
+            fail("Expected a ProtocolException");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void testOtherCommandsAreRejected() throws Exception {
+        Buffer frame = marshal(new ConnectionControl());
+        try {
+            OpenwireProtocolDecoder.readWireFormatInfo(new BufferDataInput(frame, 4, frame.length()));
+            fail("Expected a ProtocolException");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    protected WireFormatInfo wireFormatInfo() {
+        WireFormatInfo info = new WireFormatInfo();
+        info.setVersion(1);
+        return info;
+    }
+
+    /**
+     * Marshals the command with the loose encoding and the size prefix, as a client opens the connection with it
+     */
+    protected Buffer marshal(Object command) throws Exception {
+        OpenWireFormat format = new OpenWireFormat(1);
+        format.setTightEncodingEnabled(false);
+        return new Buffer(format.marshal(command).toByteArray());
+    }
+
+    private static String bigString() {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < Short.MAX_VALUE) {
+            builder.append("0123456789");
+        }
+        return builder.toString();
+    }
+}
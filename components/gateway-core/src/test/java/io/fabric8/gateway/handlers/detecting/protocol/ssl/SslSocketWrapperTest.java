@@ -0,0 +1,628 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting.protocol.ssl;
+
+import io.fabric8.gateway.SocketWrapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.streams.ReadStream;
+import org.vertx.java.core.streams.WriteStream;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link SslSocketWrapper} with a client and a server wrapper talking to each
+ * other over an in memory connection on a Vert.x event loop.
+ */
+public class SslSocketWrapperTest {
+
+    private Vertx vertx;
+    private ClassLoader classLoader;
+    private Context context;
+    private Thread eventLoop;
+    private SslTaskExecutor clientTasks;
+    private SslTaskExecutor serverTasks;
+
+    // the threads which verified the server certificate, which is done by a delegated task.
+    private final List<Thread> taskThreads = new CopyOnWriteArrayList<Thread>();
+    private final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+    private final AtomicInteger overflows = new AtomicInteger();
+    private final AtomicInteger underflows = new AtomicInteger();
+
+    @Before
+    public void startVertx() throws Exception {
+        // vert.x resets the context class loader of the calling thread
+        classLoader = Thread.currentThread().getContextClassLoader();
+        vertx = VertxFactory.newVertx();
+        final CountDownLatch started = new CountDownLatch(1);
+        vertx.runOnContext(new Handler<Void>() {
+            @Override
+            public void handle(Void event) {
+                context = vertx.currentContext();
+                eventLoop = Thread.currentThread();
+                started.countDown();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        clientTasks = new SslTaskExecutor(vertx, 2, 16);
+        serverTasks = new SslTaskExecutor(vertx, 2, 16);
+    }
+
+    @After
+    public void stopVertx() {
+        clientTasks.shutdown();
+        serverTasks.shutdown();
+        vertx.stop();
+        Thread.currentThread().setContextClassLoader(classLoader);
+    }
+
+    @Test
+    public void testHandshakeTasksRunOffTheEventLoop() throws Exception {
+        Buffer message = message(1000);
+        Connection connection = connect(clientContext("TLS"), serverContext("TLS"), 16 * 1024, message);
+        connection.await();
+
+        assertEquals(1, clientTasks.getHandshakes());
+        assertEquals(1, serverTasks.getHandshakes());
+        assertTrue(clientTasks.getOffloadedTasks() > 0);
+        assertTrue(serverTasks.getOffloadedTasks() > 0);
+        assertEquals(0, clientTasks.getInlineTasks());
+        assertEquals(0, serverTasks.getInlineTasks());
+        assertFalse(taskThreads.isEmpty());
+        for (Thread thread : taskThreads) {
+            assertNotSame(eventLoop, thread);
+            assertTrue(thread.getName(), thread.getName().startsWith("gateway-ssl-handshake-"));
+        }
+        assertArrayEquals(message.getBytes(), connection.serverReceived.getBytes());
+        assertArrayEquals(message.getBytes(), connection.clientReceived.getBytes());
+    }
+
+    @Test
+    public void testRecordsSplitAcrossReadsAndOverflowingBuffers() throws Exception {
+        Buffer message = message(100 * 1024);
+        // every record arrives in several reads, and the first buffers sized from the session are too small
+        Connection connection = connect(smallBuffers(clientContext("TLS")), smallBuffers(serverContext("TLS")), 100, message);
+        connection.await();
+
+        assertTrue(underflows.get() > 0);
+        assertTrue(overflows.get() > 0);
+        assertArrayEquals(message.getBytes(), connection.serverReceived.getBytes());
+        assertArrayEquals(message.getBytes(), connection.clientReceived.getBytes());
+    }
+
+    @Test
+    public void testReconnectingClientResumesItsSession() throws Exception {
+        // TLS 1.3 resumes sessions without their ids, which are counted as misses
+        SSLContext clientContext = clientContext("TLSv1.2");
+        SSLContext serverContext = serverContext("TLSv1.2");
+        connect(clientContext, serverContext, 16 * 1024, message(100)).await();
+        connect(clientContext, serverContext, 16 * 1024, message(100)).await();
+
+        assertEquals(1, clientTasks.getSessionCacheHits());
+        assertEquals(1, clientTasks.getSessionCacheMisses());
+        assertEquals(1, serverTasks.getSessionCacheHits());
+        assertEquals(1, serverTasks.getSessionCacheMisses());
+
+        // a new client does a full handshake
+        connect(clientContext("TLSv1.2"), serverContext, 16 * 1024, message(100)).await();
+        assertEquals(1, serverTasks.getSessionCacheHits());
+        assertEquals(2, serverTasks.getSessionCacheMisses());
+    }
+
+    private static Buffer message(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return new Buffer(data);
+    }
+
+    private SSLContext serverContext(String protocol) throws Exception {
+        SslConfig config = new SslConfig(getClass().getResource("/server.ks"), "password");
+        config.setKeyPassword("password");
+        config.setProtocol(protocol);
+        SSLContext answer = SSLContext.getInstance(config.getProtocol());
+        answer.init(config.getKeyManagers(), config.getTrustManagers(), null);
+        config.configureSessionContext(answer);
+        return answer;
+    }
+
+    private SSLContext clientContext(String protocol) throws Exception {
+        TrustManager[] trustManagers = new SslConfig(getClass().getResource("/client.ks"), "password").getTrustManagers();
+        for (int i = 0; i < trustManagers.length; i++) {
+            if (trustManagers[i] instanceof X509TrustManager) {
+                trustManagers[i] = new RecordingTrustManager((X509TrustManager) trustManagers[i]);
+            }
+        }
+        SSLContext answer = SSLContext.getInstance(protocol);
+        answer.init(null, trustManagers, null);
+        return answer;
+    }
+
+    /**
+     * Returns a context whose engines first claim that a few bytes are enough to hold a record.
+     */
+    private SSLContext smallBuffers(final SSLContext context) {
+        return new SSLContext(new SSLContextSpi() {
+            @Override
+            protected void engineInit(KeyManager[] keyManagers, TrustManager[] trustManagers, SecureRandom random) {
+            }
+
+            @Override
+            protected SSLSocketFactory engineGetSocketFactory() {
+                return context.getSocketFactory();
+            }
+
+            @Override
+            protected SSLServerSocketFactory engineGetServerSocketFactory() {
+                return context.getServerSocketFactory();
+            }
+
+            @Override
+            protected SSLEngine engineCreateSSLEngine() {
+                return new SmallBufferEngine(context.createSSLEngine());
+            }
+
+            @Override
+            protected SSLEngine engineCreateSSLEngine(String host, int port) {
+                return new SmallBufferEngine(context.createSSLEngine(host, port));
+            }
+
+            @Override
+            protected SSLSessionContext engineGetServerSessionContext() {
+                return context.getServerSessionContext();
+            }
+
+            @Override
+            protected SSLSessionContext engineGetClientSessionContext() {
+                return context.getClientSessionContext();
+            }
+        }, context.getProvider(), context.getProtocol()) {
+        };
+    }
+
+    /**
+     * Connects a client to a server which echoes everything back and has the client send the message.
+     */
+    private Connection connect(final SSLContext clientContext, final SSLContext serverContext, final int chunkSize, final Buffer message) throws Exception {
+        final Connection connection = new Connection(message.length());
+        onEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                Pipe clientEnd = new Pipe(chunkSize);
+                Pipe serverEnd = new Pipe(chunkSize);
+                clientEnd.peer = serverEnd;
+                serverEnd.peer = clientEnd;
+
+                final SslSocketWrapper client = new SslSocketWrapper(clientEnd);
+                client.setTaskExecutor(clientTasks);
+                client.initClient(clientContext, "localhost", 61616, null, null);
+                final SslSocketWrapper server = new SslSocketWrapper(serverEnd);
+                server.setTaskExecutor(serverTasks);
+                server.initServer(serverContext, SslSocketWrapper.ClientAuth.NONE, null, null);
+
+                server.exceptionHandler(connection);
+                server.dataHandler(new Handler<Buffer>() {
+                    @Override
+                    public void handle(Buffer data) {
+                        connection.serverReceived.appendBuffer(data);
+                        server.write(data);
+                    }
+                });
+                client.exceptionHandler(connection);
+                client.dataHandler(new Handler<Buffer>() {
+                    @Override
+                    public void handle(Buffer data) {
+                        connection.clientReceived.appendBuffer(data);
+                        if (connection.clientReceived.length() >= connection.expected) {
+                            connection.echoed.countDown();
+                        }
+                    }
+                });
+                // the first write starts the handshake
+                client.write(message.copy());
+            }
+        });
+        return connection;
+    }
+
+    private void onEventLoop(final Runnable task) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        context.runOnContext(new Handler<Void>() {
+            @Override
+            public void handle(Void event) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    failures.add(e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * A client connected to an echo server, the buffers are only updated on the event loop.
+     */
+    private class Connection implements Handler<Throwable> {
+        final int expected;
+        final Buffer clientReceived = new Buffer();
+        final Buffer serverReceived = new Buffer();
+        final CountDownLatch echoed = new CountDownLatch(1);
+
+        Connection(int expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public void handle(Throwable error) {
+            failures.add(error);
+            echoed.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Timed out waiting for the echo", echoed.await(10, TimeUnit.SECONDS));
+            assertEquals("[]", failures.toString());
+        }
+    }
+
+    /**
+     * One end of an in memory connection.  What is written to it is handed to the other end
+     * on the event loop in chunks of at most chunkSize bytes, like a socket would.
+     */
+    private class Pipe extends SocketWrapper implements ReadStream<Pipe>, WriteStream<Pipe> {
+        private final int chunkSize;
+        private final ArrayDeque<Buffer> received = new ArrayDeque<Buffer>();
+        private Pipe peer;
+        private Handler<Buffer> dataHandler;
+        private int paused;
+
+        Pipe(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public Pipe write(Buffer data) {
+            for (int i = 0; i < data.length(); i += chunkSize) {
+                final Buffer chunk = data.getBuffer(i, Math.min(data.length(), i + chunkSize));
+                context.runOnContext(new Handler<Void>() {
+                    @Override
+                    public void handle(Void event) {
+                        peer.received.add(chunk);
+                        peer.deliver();
+                    }
+                });
+            }
+            return this;
+        }
+
+        private void deliver() {
+            while (paused == 0 && dataHandler != null && !received.isEmpty()) {
+                dataHandler.handle(received.poll());
+            }
+        }
+
+        @Override
+        public Pipe dataHandler(Handler<Buffer> handler) {
+            dataHandler = handler;
+            deliver();
+            return this;
+        }
+
+        @Override
+        public Pipe pause() {
+            paused++;
+            return this;
+        }
+
+        @Override
+        public Pipe resume() {
+            paused--;
+            deliver();
+            return this;
+        }
+
+        @Override
+        public Pipe endHandler(Handler<Void> handler) {
+            return this;
+        }
+
+        @Override
+        public Pipe exceptionHandler(Handler<Throwable> handler) {
+            return this;
+        }
+
+        @Override
+        public Pipe setWriteQueueMaxSize(int size) {
+            return this;
+        }
+
+        @Override
+        public boolean writeQueueFull() {
+            return false;
+        }
+
+        @Override
+        public Pipe drainHandler(Handler<Void> handler) {
+            return this;
+        }
+
+        @Override
+        public ReadStream readStream() {
+            return this;
+        }
+
+        @Override
+        public WriteStream writeStream() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Object stream() {
+            return this;
+        }
+
+        @Override
+        public InetSocketAddress localAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress remoteAddress() {
+            return null;
+        }
+    }
+
+    /**
+     * Remembers which threads verified a server certificate.
+     */
+    private class RecordingTrustManager implements X509TrustManager {
+        private final X509TrustManager next;
+
+        RecordingTrustManager(X509TrustManager next) {
+            this.next = next;
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            next.checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            taskThreads.add(Thread.currentThread());
+            next.checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return next.getAcceptedIssuers();
+        }
+    }
+
+    /**
+     * An engine whose session answers the first question about each buffer size with a size too
+     * small for any record, and which counts the overflows and underflows of its wraps and unwraps.
+     */
+    private class SmallBufferEngine extends SSLEngine {
+        private final SSLEngine next;
+        private boolean applicationBufferSizeAsked;
+        private boolean packetBufferSizeAsked;
+
+        SmallBufferEngine(SSLEngine next) {
+            super(next.getPeerHost(), next.getPeerPort());
+            this.next = next;
+        }
+
+        @Override
+        public SSLSession getSession() {
+            final SSLSession session = next.getSession();
+            return (SSLSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{SSLSession.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("getApplicationBufferSize") && !applicationBufferSizeAsked) {
+                        applicationBufferSizeAsked = true;
+                        return 16;
+                    }
+                    if (method.getName().equals("getPacketBufferSize") && !packetBufferSizeAsked) {
+                        packetBufferSizeAsked = true;
+                        return 16;
+                    }
+                    try {
+                        return method.invoke(session, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            });
+        }
+
+        private SSLEngineResult count(SSLEngineResult result) {
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    overflows.incrementAndGet();
+                    break;
+                case BUFFER_UNDERFLOW:
+                    underflows.incrementAndGet();
+                    break;
+            }
+            return result;
+        }
+
+        @Override
+        public SSLEngineResult wrap(ByteBuffer[] sources, int offset, int length, ByteBuffer target) throws SSLException {
+            return count(next.wrap(sources, offset, length, target));
+        }
+
+        @Override
+        public SSLEngineResult unwrap(ByteBuffer source, ByteBuffer[] targets, int offset, int length) throws SSLException {
+            return count(next.unwrap(source, targets, offset, length));
+        }
+
+        @Override
+        public Runnable getDelegatedTask() {
+            return next.getDelegatedTask();
+        }
+
+        @Override
+        public void closeInbound() throws SSLException {
+            next.closeInbound();
+        }
+
+        @Override
+        public boolean isInboundDone() {
+            return next.isInboundDone();
+        }
+
+        @Override
+        public void closeOutbound() {
+            next.closeOutbound();
+        }
+
+        @Override
+        public boolean isOutboundDone() {
+            return next.isOutboundDone();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return next.getSupportedCipherSuites();
+        }
+
+        @Override
+        public String[] getEnabledCipherSuites() {
+            return next.getEnabledCipherSuites();
+        }
+
+        @Override
+        public void setEnabledCipherSuites(String[] suites) {
+            next.setEnabledCipherSuites(suites);
+        }
+
+        @Override
+        public String[] getSupportedProtocols() {
+            return next.getSupportedProtocols();
+        }
+
+        @Override
+        public String[] getEnabledProtocols() {
+            return next.getEnabledProtocols();
+        }
+
+        @Override
+        public void setEnabledProtocols(String[] protocols) {
+            next.setEnabledProtocols(protocols);
+        }
+
+        @Override
+        public SSLSession getHandshakeSession() {
+            return next.getHandshakeSession();
+        }
+
+        @Override
+        public void beginHandshake() throws SSLException {
+            next.beginHandshake();
+        }
+
+        @Override
+        public SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+            return next.getHandshakeStatus();
+        }
+
+        @Override
+        public void setUseClientMode(boolean mode) {
+            next.setUseClientMode(mode);
+        }
+
+        @Override
+        public boolean getUseClientMode() {
+            return next.getUseClientMode();
+        }
+
+        @Override
+        public void setNeedClientAuth(boolean need) {
+            next.setNeedClientAuth(need);
+        }
+
+        @Override
+        public boolean getNeedClientAuth() {
+            return next.getNeedClientAuth();
+        }
+
+        @Override
+        public void setWantClientAuth(boolean want) {
+            next.setWantClientAuth(want);
+        }
+
+        @Override
+        public boolean getWantClientAuth() {
+            return next.getWantClientAuth();
+        }
+
+        @Override
+        public void setEnableSessionCreation(boolean flag) {
+            next.setEnableSessionCreation(flag);
+        }
+
+        @Override
+        public boolean getEnableSessionCreation() {
+            return next.getEnableSessionCreation();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.tcp;
+
+import io.fabric8.gateway.ServiceMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.net.NetSocket;
+
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the statistics of a {@link TcpGateway} running several instances.
+ */
+public class TcpGatewayTest {
+
+    private Vertx vertx;
+    private ClassLoader classLoader;
+    private TcpGateway gateway;
+
+    @Before
+    public void startVertx() {
+        // vert.x resets the context class loader of the calling thread
+        classLoader = Thread.currentThread().getContextClassLoader();
+        vertx = VertxFactory.newVertx();
+    }
+
+    @After
+    public void stopVertx() {
+        if (gateway != null) {
+            gateway.destroy();
+        }
+        vertx.stop();
+        Thread.currentThread().setContextClassLoader(classLoader);
+    }
+
+    @Test
+    public void testConnectionsAreCountedPerInstance() throws Exception {
+        gateway = new TcpGateway(vertx, new ServiceMap(), 0, "tcp", new Handler<NetSocket>() {
+            @Override
+            public void handle(NetSocket socket) {
+                socket.close();
+            }
+        });
+        gateway.setInstances(3);
+        gateway.init();
+
+        int port = gateway.getBoundPort();
+        for (int i = 0; i < 30; i++) {
+            new Socket("localhost", port).close();
+        }
+        for (int i = 0; i < 100 && gateway.getReceivedConnections() < 30; i++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(30, gateway.getReceivedConnections());
+        long[] counts = gateway.getInstanceConnectionCounts();
+        assertEquals(3, counts.length);
+        long total = 0;
+        for (long count : counts) {
+            assertTrue(count > 0);
+            total += count;
+        }
+        assertEquals(30, total);
+    }
+}
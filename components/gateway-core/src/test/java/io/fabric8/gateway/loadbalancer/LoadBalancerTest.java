@@ -15,6 +15,9 @@
  */
 package io.fabric8.gateway.loadbalancer;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.gateway.ServiceDTO;
 import io.fabric8.gateway.loadbalancer.ClientRequestFacade;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
 import io.fabric8.gateway.loadbalancer.RandomLoadBalancer;
@@ -24,9 +27,14 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -63,7 +71,7 @@ public class LoadBalancerTest {
         assertTrue("Should have most of the values but was: " + set, set.size() > 1);
     }
 
-    protected Set<String> asSet(List<String> results) {
+    protected Set<String> asSet(Collection<String> results) {
         Set<String> set = new HashSet<String>();
         set.addAll(results);
         return set;
@@ -102,6 +110,367 @@ public class LoadBalancerTest {
 
     }
 
+    @Test
+    public void testStickyLoadBalancerKeepsServicesWhichAreDeserializedAgain() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<ServiceDTO> dtos = new ArrayList<ServiceDTO>();
+        for (String service : services) {
+            ServiceDTO dto = new ServiceDTO();
+            dto.setId("broker");
+            dto.setContainer("container-" + dtos.size());
+            dto.setVersion("1.0");
+            dto.setServices(Collections.singletonList(service));
+            dtos.add(dto);
+        }
+        byte[] json = mapper.writeValueAsBytes(dtos);
+        TypeReference<List<ServiceDTO>> type = new TypeReference<List<ServiceDTO>>() {
+        };
+
+        LoadBalancer loadBalancer = new StickyLoadBalancer(10, new RoundRobinLoadBalancer());
+        ServiceDTO first = loadBalancer.choose(mapper.<List<ServiceDTO>>readValue(json, type), clientRequestFacade);
+        for (int i = 0; i < requestCount; i++) {
+            // the registry cache hands out newly deserialized services on every update
+            List<ServiceDTO> updated = mapper.readValue(json, type);
+            ServiceDTO chosen = loadBalancer.choose(updated, clientRequestFacade);
+            assertEquals(first, chosen);
+            assertEquals(first.getContainer(), chosen.getContainer());
+        }
+    }
+
+    @Test
+    public void testStickyLoadBalancerChoosesAgainWhenServiceGoesAway() throws Exception {
+        LoadBalancer loadBalancer = new StickyLoadBalancer();
+        String first = loadBalancer.choose(services, clientRequestFacade);
+        assertEquals(first, loadBalancer.choose(services, clientRequestFacade));
+
+        List<String> remaining = new ArrayList<String>(services);
+        remaining.remove(first);
+        String second = loadBalancer.choose(remaining, clientRequestFacade);
+        assertTrue("Should have chosen an available service but was: " + second, remaining.contains(second));
+        assertEquals(second, loadBalancer.choose(remaining, clientRequestFacade));
+    }
+
+    @Test
+    public void testLeastOutstandingRequestsLoadBalancer() throws Exception {
+        assertLoadBalancerWorksOnEmptyOrSingletonServices(new LeastOutstandingRequestsLoadBalancer());
+
+        LeastOutstandingRequestsLoadBalancer loadBalancer = new LeastOutstandingRequestsLoadBalancer();
+        // with no requests completing every service should get an equal share
+        Set<String> set = asSet(performRequests(loadBalancer));
+        assertEquals("Should have all of the values: " + set, services.size(), set.size());
+
+        // once a service completes its requests it should be chosen next
+        String idle = services.get(2);
+        loadBalancer.requestCompleted(idle, 1000, true);
+        loadBalancer.requestCompleted(idle, 1000, true);
+        assertEquals(idle, loadBalancer.choose(services, clientRequestFacade));
+        assertEquals(1, loadBalancer.getStatistics(idle).getOutstandingRequests());
+    }
+
+    @Test
+    public void testEwmaLoadBalancerAvoidsSlowService() throws Exception {
+        assertLoadBalancerWorksOnEmptyOrSingletonServices(new EwmaLoadBalancer());
+        assertAvoidsSlowService(new EwmaLoadBalancer());
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesLoadBalancerAvoidsSlowService() throws Exception {
+        assertLoadBalancerWorksOnEmptyOrSingletonServices(new PowerOfTwoChoicesLoadBalancer());
+        assertAvoidsSlowService(new PowerOfTwoChoicesLoadBalancer());
+    }
+
+    @Test
+    public void testConsistentHashLoadBalancerOnlyMovesClientsOfRemovedService() throws Exception {
+        assertLoadBalancerWorksOnEmptyOrSingletonServices(new ConsistentHashLoadBalancer());
+
+        ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer();
+        Map<String, String> chosen = new HashMap<String, String>();
+        for (int i = 0; i < 1000; i++) {
+            clientRequestKey = "client:" + i;
+            String service = loadBalancer.choose(services, clientRequestFacade);
+            loadBalancer.requestEnded(service);
+            assertEquals("Should be sticky for client " + clientRequestKey, service, loadBalancer.choose(services, clientRequestFacade));
+            loadBalancer.requestEnded(service);
+            chosen.put(clientRequestKey, service);
+        }
+        assertEquals("Should have used all of the services: " + asSet(chosen.values()), services.size(), asSet(chosen.values()).size());
+
+        // another gateway with the services listed in a different order picks the same ones
+        ConsistentHashLoadBalancer other = new ConsistentHashLoadBalancer();
+        List<String> reversed = new ArrayList<String>(services);
+        Collections.reverse(reversed);
+        List<String> remaining = new ArrayList<String>(services);
+        String removed = remaining.remove(1);
+        for (Map.Entry<String, String> entry : chosen.entrySet()) {
+            clientRequestKey = entry.getKey();
+            assertEquals(entry.getValue(), other.choose(reversed, clientRequestFacade));
+            other.requestEnded(entry.getValue());
+
+            String service = loadBalancer.choose(remaining, clientRequestFacade);
+            loadBalancer.requestEnded(service);
+            if (!entry.getValue().equals(removed)) {
+                assertEquals("Client " + clientRequestKey + " should not have moved", entry.getValue(), service);
+            }
+        }
+    }
+
+    @Test
+    public void testConsistentHashLoadBalancerKeepsARingPerServiceList() throws Exception {
+        ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer();
+        List<String> otherServices = Arrays.asList("http://localhost:9182/bar", "http://localhost:9183/bar", "http://localhost:9184/bar");
+        Map<String, String> chosen = new HashMap<String, String>();
+        Map<String, String> otherChosen = new HashMap<String, String>();
+        for (int i = 0; i < 100; i++) {
+            clientRequestKey = "client:" + i;
+            String service = loadBalancer.choose(services, clientRequestFacade);
+            loadBalancer.requestEnded(service);
+            chosen.put(clientRequestKey, service);
+            service = loadBalancer.choose(new ArrayList<String>(otherServices), clientRequestFacade);
+            loadBalancer.requestEnded(service);
+            otherChosen.put(clientRequestKey, service);
+        }
+        // virtual hosts with different services share the load balancer without rebuilding the rings
+        assertEquals(2, loadBalancer.getRingCount());
+        for (int i = 0; i < 100; i++) {
+            clientRequestKey = "client:" + i;
+            String service = loadBalancer.choose(otherServices, clientRequestFacade);
+            loadBalancer.requestEnded(service);
+            assertEquals(otherChosen.get(clientRequestKey), service);
+            service = loadBalancer.choose(new ArrayList<String>(services), clientRequestFacade);
+            loadBalancer.requestEnded(service);
+            assertEquals(chosen.get(clientRequestKey), service);
+        }
+        assertEquals(2, loadBalancer.getRingCount());
+    }
+
+    @Test
+    public void testConsistentHashLoadBalancerPlacesServicesByTheirId() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<ServiceDTO> dtos = new ArrayList<ServiceDTO>();
+        for (int i = 0; i < 4; i++) {
+            ServiceDTO dto = new ServiceDTO();
+            dto.setId("broker");
+            dto.setVersion("1.0");
+            dto.setContainer("container-" + i);
+            dto.setBundleVersion("1.0." + i);
+            dto.setServices(Collections.singletonList("tcp://localhost:" + (61616 + i)));
+            dtos.add(dto);
+        }
+        String json = mapper.writeValueAsString(dtos);
+        assertTrue(json, !json.contains("loadBalancerId"));
+
+        ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer();
+        ConsistentHashLoadBalancer other = new ConsistentHashLoadBalancer();
+        List<ServiceDTO> upgraded = mapper.readValue(json, new TypeReference<List<ServiceDTO>>() {});
+        for (ServiceDTO dto : upgraded) {
+            // a bundle upgrade changes the String value but not where the service is on the ring
+            dto.setBundleVersion("2.0");
+        }
+        for (int i = 0; i < 100; i++) {
+            clientRequestKey = "client:" + i;
+            ServiceDTO service = loadBalancer.choose(dtos, clientRequestFacade);
+            loadBalancer.requestEnded(service);
+            // the services read again are equal so they share the ring
+            List<ServiceDTO> again = mapper.readValue(json, new TypeReference<List<ServiceDTO>>() {});
+            ServiceDTO chosenAgain = loadBalancer.choose(again, clientRequestFacade);
+            loadBalancer.requestEnded(chosenAgain);
+            assertEquals(service, chosenAgain);
+
+            ServiceDTO chosenUpgraded = other.choose(upgraded, clientRequestFacade);
+            other.requestEnded(chosenUpgraded);
+            assertEquals(service.getContainer(), chosenUpgraded.getContainer());
+        }
+        assertEquals(1, loadBalancer.getRingCount());
+    }
+
+    @Test
+    public void testConsistentHashLoadBalancerBoundsTheLoad() throws Exception {
+        ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer(100, 1.5);
+        // the same client opening many connections spills over to the other services
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < 100; i++) {
+            String service = loadBalancer.choose(services, clientRequestFacade);
+            Integer count = counts.get(service);
+            counts.put(service, count == null ? 1 : count + 1);
+        }
+        for (String service : services) {
+            int outstanding = loadBalancer.getStatistics(service).getOutstandingRequests();
+            assertTrue("Service " + service + " has too many requests: " + counts, outstanding <= Math.ceil(1.5 * 100 / services.size()));
+        }
+    }
+
+    @Test
+    public void testLoadTrackingLoadBalancerIgnoresUnexpectedCompletions() throws Exception {
+        LoadTrackingLoadBalancer loadBalancer = new LeastOutstandingRequestsLoadBalancer();
+        String service = services.get(0);
+        loadBalancer.requestCompleted(service, 1000, true);
+        loadBalancer.requestEnded(service);
+        assertEquals(0, loadBalancer.getStatistics(service).getOutstandingRequests());
+
+        // load balancers which do not track load are ignored
+        LoadBalancers.requestCompleted(new RoundRobinLoadBalancer(), service, 1000, true);
+    }
+
+    @Test
+    public void testOutlierDetectingLoadBalancerEjectsFailingService() throws Exception {
+        OutlierDetectingLoadBalancer loadBalancer = new OutlierDetectingLoadBalancer(new RoundRobinLoadBalancer());
+        loadBalancer.setConsecutiveFailures(3);
+        loadBalancer.setBaseEjectionTime(100);
+        assertLoadBalancerWorksOnEmptyOrSingletonServices(loadBalancer);
+
+        String failing = services.get(0);
+        for (int i = 0; i < 3; i++) {
+            loadBalancer.requestCompleted(failing, 1000, false);
+        }
+        assertEquals(1, loadBalancer.getEjectedServices().size());
+        Set<String> set = asSet(performRequests(loadBalancer));
+        assertEquals("Should have the other values: " + set, services.size() - 1, set.size());
+        assertTrue("Should not have used the ejected service: " + set, !set.contains(failing));
+
+        // once the ejection time is up a single probe is let through
+        Thread.sleep(150);
+        assertEquals(failing, loadBalancer.choose(services, clientRequestFacade));
+        assertTrue(!asSet(performRequests(loadBalancer)).contains(failing));
+
+        // a successful probe restores the service
+        loadBalancer.requestCompleted(failing, 1000, true);
+        assertTrue(loadBalancer.getEjectedServices().isEmpty());
+        assertTrue(asSet(performRequests(loadBalancer)).contains(failing));
+    }
+
+    @Test
+    public void testOutlierDetectingLoadBalancerBacksOffWhenProbeFails() throws Exception {
+        OutlierDetectingLoadBalancer loadBalancer = new OutlierDetectingLoadBalancer(new RoundRobinLoadBalancer());
+        loadBalancer.setConsecutiveFailures(1);
+        loadBalancer.setBaseEjectionTime(100);
+        loadBalancer.setMaxEjectionTime(250);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), loadBalancer.ejectionTimeNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), loadBalancer.ejectionTimeNanos(2));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(250), loadBalancer.ejectionTimeNanos(3));
+
+        String failing = services.get(1);
+        loadBalancer.requestCompleted(failing, 1000, false);
+        Thread.sleep(150);
+        assertEquals(failing, loadBalancer.choose(services, clientRequestFacade));
+        loadBalancer.requestCompleted(failing, 1000, false);
+
+        // ejected again for twice as long
+        Thread.sleep(150);
+        assertTrue(!asSet(performRequests(loadBalancer)).contains(failing));
+        Thread.sleep(100);
+        assertEquals(failing, loadBalancer.choose(services, clientRequestFacade));
+    }
+
+    @Test
+    public void testOutlierDetectingLoadBalancerOnlyResolvesEjectionWithTheProbe() throws Exception {
+        OutlierDetectingLoadBalancer loadBalancer = new OutlierDetectingLoadBalancer(new RoundRobinLoadBalancer());
+        loadBalancer.setConsecutiveFailures(1);
+        loadBalancer.setBaseEjectionTime(100);
+
+        String failing = services.get(0);
+        // a request which is still in flight when the service is ejected
+        long earlierStart = System.nanoTime();
+        loadBalancer.requestCompleted(failing, 1000, false);
+        Thread.sleep(150);
+        assertEquals(failing, loadBalancer.choose(services, clientRequestFacade));
+        long probeStart = System.nanoTime();
+
+        // the earlier request ending or succeeding neither releases nor resolves the probe
+        loadBalancer.requestEnded(failing);
+        loadBalancer.requestCompleted(failing, System.nanoTime() - earlierStart, true);
+        assertEquals(1, loadBalancer.getEjectedServices().size());
+        assertTrue(!asSet(performRequests(loadBalancer)).contains(failing));
+
+        loadBalancer.requestCompleted(failing, System.nanoTime() - probeStart, true);
+        assertTrue(loadBalancer.getEjectedServices().isEmpty());
+    }
+
+    @Test
+    public void testOutlierDetectingLoadBalancerGivesUpOnAbandonedProbe() throws Exception {
+        OutlierDetectingLoadBalancer loadBalancer = new OutlierDetectingLoadBalancer(new RoundRobinLoadBalancer());
+        loadBalancer.setConsecutiveFailures(1);
+        loadBalancer.setBaseEjectionTime(100);
+
+        String failing = services.get(0);
+        loadBalancer.requestCompleted(failing, 1000, false);
+        Thread.sleep(150);
+        assertEquals(failing, loadBalancer.choose(services, clientRequestFacade));
+        loadBalancer.requestEnded(failing);
+        assertTrue(!asSet(performRequests(loadBalancer)).contains(failing));
+
+        // once the probe has had as long as the ejection another one is let through
+        Thread.sleep(150);
+        assertEquals(failing, loadBalancer.choose(services, clientRequestFacade));
+    }
+
+    @Test
+    public void testOutlierDetectingLoadBalancerProbeIsTrackedByDelegate() throws Exception {
+        LeastOutstandingRequestsLoadBalancer delegate = new LeastOutstandingRequestsLoadBalancer();
+        OutlierDetectingLoadBalancer loadBalancer = new OutlierDetectingLoadBalancer(delegate);
+        loadBalancer.setConsecutiveFailures(1);
+        loadBalancer.setBaseEjectionTime(100);
+
+        String failing = services.get(2);
+        assertEquals(failing, loadBalancer.choose(Collections.singletonList(failing), clientRequestFacade));
+        loadBalancer.requestCompleted(failing, 1000, false);
+        assertEquals(0, delegate.getStatistics(failing).getOutstandingRequests());
+
+        Thread.sleep(150);
+        assertEquals(failing, loadBalancer.choose(services, clientRequestFacade));
+        assertEquals(1, delegate.getStatistics(failing).getOutstandingRequests());
+        loadBalancer.requestCompleted(failing, 1000, true);
+        assertEquals(0, delegate.getStatistics(failing).getOutstandingRequests());
+    }
+
+    @Test
+    public void testOutlierDetectingLoadBalancerFailsOpenWhenAllServicesAreEjected() throws Exception {
+        OutlierDetectingLoadBalancer loadBalancer = new OutlierDetectingLoadBalancer(new RoundRobinLoadBalancer());
+        loadBalancer.setConsecutiveFailures(1);
+        for (String service : services) {
+            loadBalancer.requestCompleted(service, 1000, false);
+        }
+        assertEquals(services.size(), loadBalancer.getEjectedServices().size());
+        assertEquals(services.size(), asSet(performRequests(loadBalancer)).size());
+    }
+
+    @Test
+    public void testOutlierDetectingLoadBalancerEjectsOnFailureRate() throws Exception {
+        OutlierDetectingLoadBalancer loadBalancer = new OutlierDetectingLoadBalancer(new LeastOutstandingRequestsLoadBalancer());
+        loadBalancer.setFailureRateRequestVolume(10);
+        loadBalancer.setFailureRatePercentage(50);
+        String flaky = services.get(3);
+        // the failures are never consecutive but half the requests fail
+        for (int i = 0; i < 20; i++) {
+            loadBalancer.requestCompleted(flaky, 1000, i % 2 == 0);
+        }
+        assertEquals(1, loadBalancer.getEjectedServices().size());
+        assertTrue(!asSet(performRequests(loadBalancer)).contains(flaky));
+    }
+
+    /**
+     * Sends requests which complete straight away to a load balancer where one service is much
+     * slower than the others and asserts that it gets less than its fair share of the traffic
+     */
+    protected void assertAvoidsSlowService(LoadTrackingLoadBalancer loadBalancer) {
+        String slow = services.get(1);
+        int count = 1000;
+        int slowCount = 0;
+        for (int i = 0; i < count; i++) {
+            String service = loadBalancer.choose(services, clientRequestFacade);
+            assertNotNull(service);
+            long latency = service.equals(slow) ? TimeUnit.MILLISECONDS.toNanos(500) : TimeUnit.MILLISECONDS.toNanos(5);
+            if (service.equals(slow)) {
+                slowCount++;
+            }
+            loadBalancer.requestCompleted(service, latency, true);
+        }
+        assertTrue("The slow service should get less traffic but got " + slowCount + " of " + count + " requests",
+                slowCount < count / (services.size() * 10));
+        for (String service : services) {
+            assertEquals(0, loadBalancer.getStatistics(service).getOutstandingRequests());
+        }
+    }
+
     protected List<String> performRequests(LoadBalancer loadBalancer) {
         List<String> answer = new ArrayList<String>();
         for (int i = 0; i < requestCount; i++) {
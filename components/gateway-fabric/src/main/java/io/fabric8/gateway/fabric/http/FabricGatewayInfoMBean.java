@@ -30,5 +30,27 @@ public interface FabricGatewayInfoMBean {
     String getLastError();
     String getLastCallDate();
     long getAvarageCallTimeNanos();
+    double getCallTime50thPercentileMillis();
+    double getCallTime90thPercentileMillis();
+    double getCallTime99thPercentileMillis();
+    double getCallTime999thPercentileMillis();
+    double getMaxCallTimeMillis();
+    int getRequestsInFlight();
+    long getResponses2xx();
+    long getResponses3xx();
+    long getResponses4xx();
+    long getResponses5xx();
+    long getRequestsWithoutResponse();
+    long getBytesFromClients();
+    long getBytesToClients();
+    String[] getRouteStatistics();
+    String[] getBackendStatistics();
+    int getBackendClientCount();
+    long getBackendClientsCreated();
+    long getBackendClientsEvicted();
+    long getBackendClientsAcquired();
+    int getBackendRequestsInFlight();
+    String[] getBackendClients();
+    String[] getEjectedBackends();
     void resetStatistics();
 }
@@ -19,10 +19,13 @@ package io.fabric8.gateway.fabric.http;
 import io.fabric8.gateway.api.CallDetailRecord;
 import io.fabric8.gateway.api.apimanager.ApiManager;
 import io.fabric8.gateway.api.apimanager.ApiManagerService;
+import io.fabric8.gateway.api.handlers.http.HttpClientPool;
 import io.fabric8.gateway.api.handlers.http.HttpGateway;
 import io.fabric8.gateway.api.handlers.http.HttpGatewayHandler;
+import io.fabric8.gateway.api.handlers.http.HttpMappingIndex;
 import io.fabric8.gateway.api.handlers.http.HttpMappingRule;
 import io.fabric8.gateway.api.handlers.http.IMappedServices;
+import io.fabric8.gateway.api.metrics.GatewayMetrics;
 import io.fabric8.gateway.fabric.support.vertx.VertxService;
 import io.fabric8.gateway.handlers.http.HttpGatewayServer;
 import io.fabric8.utils.ShutdownTracker;
@@ -33,6 +36,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
@@ -59,11 +63,21 @@ public class FabricHTTPGateway implements HttpGateway {
     
     HTTPGatewayConfig gatewayConfig;
     private ApiManager apiManager;
+    private HttpClientPool httpClientPool;
     private HttpGatewayServer server;
+    private final GatewayMetrics metrics = new GatewayMetrics();
     
     //private DetectingGatewayWebSocketHandler websocketHandler = new DetectingGatewayWebSocketHandler();
     private MBeanServer mbeanServer;
     private Set<HttpMappingRule> mappingRuleConfigurations = new CopyOnWriteArraySet<HttpMappingRule>();
+    private final AtomicLong mappingRulesVersion = new AtomicLong();
+    private volatile MappedServicesSnapshot mappedServicesSnapshot;
+    private final Runnable mappingRulesChangeListener = new Runnable() {
+        @Override
+        public void run() {
+            mappingRulesVersion.incrementAndGet();
+        }
+    };
 
     ShutdownTracker shutdownTracker = new ShutdownTracker();
     private FabricHTTPGatewayInfo fabricHTTPGatewayInfoMBean;
@@ -86,6 +100,18 @@ public class FabricHTTPGateway implements HttpGateway {
     private void updateConfiguration() throws Exception {
         Vertx vertx = getVertx();
         
+        if (httpClientPool != null) {
+            httpClientPool.close();
+        }
+        httpClientPool = new HttpClientPool(vertx);
+        httpClientPool.setMaxPoolSize(gatewayConfig.getHttpClientMaxPoolSize());
+        httpClientPool.setKeepAlive(gatewayConfig.isHttpClientKeepAlive());
+        httpClientPool.setPipelining(gatewayConfig.isHttpClientPipelining());
+        httpClientPool.setConnectTimeout(gatewayConfig.getHttpClientConnectTimeout());
+        httpClientPool.setIdleTimeout(gatewayConfig.getHttpClientIdleTimeout());
+        httpClientPool.start();
+        LOG.info("Using back end " + httpClientPool);
+
         apiManager = new ApiManager();
         
         Handler<HttpServerRequest> requestHandler = null;
@@ -110,34 +136,77 @@ public class FabricHTTPGateway implements HttpGateway {
         if (server != null) {
             server.destroy();
         }
+        if (httpClientPool != null) {
+            httpClientPool.close();
+        }
     }
     
+    /**
+     * Records the last call and error; the call counts and latencies are tracked by the {@link #getMetrics()}
+     */
     @Override
     public void addCallDetailRecord(CallDetailRecord cdr) {
-    	fabricHTTPGatewayInfoMBean.setLastCallDate(cdr.getCallDate().toString());
-    	fabricHTTPGatewayInfoMBean.registerCall(cdr.getCallTimeNanos());
-    	if (cdr.getError()!=null) {
-    		fabricHTTPGatewayInfoMBean.setLastError(cdr.getError());
+    	FabricHTTPGatewayInfo info = fabricHTTPGatewayInfoMBean;
+    	if (info != null) {
+    		info.setLastCallTime(cdr.getCallTimeMillis());
+    		if (cdr.getError()!=null) {
+    			info.setLastError(cdr.getError());
+    		}
     	}
     }
 
+    @Override
+    public GatewayMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String getMetricsPath() {
+        return gatewayConfig != null ? gatewayConfig.getMetricsPath() : null;
+    }
+
     @Override
     public void addMappingRuleConfiguration(HttpMappingRule mappingRuleConfiguration) {
         mappingRuleConfigurations.add(mappingRuleConfiguration);
+        mappingRuleConfiguration.addChangeListener(mappingRulesChangeListener);
+        mappingRulesVersion.incrementAndGet();
     }
 
     @Override
     public void removeMappingRuleConfiguration(HttpMappingRule mappingRuleConfiguration) {
+        mappingRuleConfiguration.removeChangeListener(mappingRulesChangeListener);
         mappingRuleConfigurations.remove(mappingRuleConfiguration);
+        mappingRulesVersion.incrementAndGet();
     }
 
+    /**
+     * Returns an indexed snapshot of the mapped services which is only rebuilt
+     * after the mapping rules have changed, rather than on every request.
+     */
     @Override
     public Map<String, IMappedServices> getMappedServices() {
-        Map<String, IMappedServices> answer = new HashMap<String, IMappedServices>();
-        for (HttpMappingRule mappingRuleConfiguration : mappingRuleConfigurations) {
-            mappingRuleConfiguration.appendMappedServices(answer);
+        long version = mappingRulesVersion.get();
+        MappedServicesSnapshot snapshot = mappedServicesSnapshot;
+        if (snapshot == null || snapshot.version != version) {
+            Map<String, IMappedServices> answer = new HashMap<String, IMappedServices>();
+            for (HttpMappingRule mappingRuleConfiguration : mappingRuleConfigurations) {
+                mappingRuleConfiguration.appendMappedServices(answer);
+            }
+            // if the rules changed while we were building then the next call rebuilds again
+            snapshot = new MappedServicesSnapshot(version, new HttpMappingIndex(answer));
+            mappedServicesSnapshot = snapshot;
+        }
+        return snapshot.mappedServices;
+    }
+
+    private static class MappedServicesSnapshot {
+        private final long version;
+        private final HttpMappingIndex mappedServices;
+
+        MappedServicesSnapshot(long version, HttpMappingIndex mappedServices) {
+            this.version = version;
+            this.mappedServices = mappedServices;
         }
-        return answer;
     }
 
     @Override
@@ -207,4 +276,9 @@ public class FabricHTTPGateway implements HttpGateway {
 		return apiManager;
 	}
 
+	@Override
+	public HttpClientPool getHttpClientPool() {
+		return httpClientPool;
+	}
+
 }
@@ -15,8 +15,23 @@
  */
 package io.fabric8.gateway.fabric.http;
 
+import io.fabric8.gateway.api.handlers.http.HttpClientPool;
+import io.fabric8.gateway.api.handlers.http.IMappedServices;
+import io.fabric8.gateway.api.metrics.GatewayMetrics;
+import io.fabric8.gateway.api.metrics.RequestStatistics;
+import io.fabric8.gateway.handlers.http.MappedServices;
+import io.fabric8.gateway.loadbalancer.LoadBalancer;
+import io.fabric8.gateway.loadbalancer.OutlierDetectingLoadBalancer;
 import io.fabric8.utils.ShutdownTracker;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import javax.management.MBeanServer;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
@@ -33,10 +48,8 @@ public class FabricHTTPGatewayInfo implements FabricGatewayInfoMBean {
 
     private final FabricHTTPGateway fabricHTTPGateway;
     private ObjectName objectName;
-    private long numberOfInvocations = 0l;
-    private long averageCallTimeNanos = 0l;
-    private String lastError;
-    private String lastCallDate;
+    private volatile String lastError;
+    private volatile long lastCallTime;
     
     public FabricHTTPGatewayInfo(FabricHTTPGateway fabricHTTPGateway) {
 		super();
@@ -83,15 +96,15 @@ public class FabricHTTPGatewayInfo implements FabricGatewayInfoMBean {
 		return mappedServices;
 	}
 
+    protected RequestStatistics getTotalStatistics() {
+    	return getFabricHTTPGateway().getMetrics().getTotal();
+    }
+
     @Override
 	public long getNumberOfInvocations() {
-		return numberOfInvocations;
+		return getTotalStatistics().getRequests();
 	}
     
-    public void registerCall(long callTimeNanos) {
-    	averageCallTimeNanos = (averageCallTimeNanos * numberOfInvocations + callTimeNanos)/++numberOfInvocations;
-    }
-    
     public void setLastError(String error) {
     	lastError = error;
     }
@@ -101,28 +114,166 @@ public class FabricHTTPGatewayInfo implements FabricGatewayInfoMBean {
     	return lastError;
     }
     
-    public void setLastCallDate(String callDate) {
-    	lastCallDate = callDate;
+    public void setLastCallTime(long callTimeMillis) {
+    	lastCallTime = callTimeMillis;
     }
     
     @Override
     public String getLastCallDate() {
-    	if (lastCallDate!=null)
-    		return lastCallDate.toString();
+    	long time = lastCallTime;
+    	if (time != 0)
+    		return new Date(time).toString();
     	else
     		return null;
     }
     
     @Override 
     public long getAvarageCallTimeNanos() {
-    	return averageCallTimeNanos;
+    	return (long) (getTotalStatistics().getLatency().getMean() * 1000000);
+    }
+
+    @Override
+    public double getCallTime50thPercentileMillis() {
+    	return getTotalStatistics().getLatency().getValueAtPercentile(50);
+    }
+
+    @Override
+    public double getCallTime90thPercentileMillis() {
+    	return getTotalStatistics().getLatency().getValueAtPercentile(90);
+    }
+
+    @Override
+    public double getCallTime99thPercentileMillis() {
+    	return getTotalStatistics().getLatency().getValueAtPercentile(99);
+    }
+
+    @Override
+    public double getCallTime999thPercentileMillis() {
+    	return getTotalStatistics().getLatency().getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public double getMaxCallTimeMillis() {
+    	return getTotalStatistics().getLatency().getMax();
+    }
+
+    @Override
+    public int getRequestsInFlight() {
+    	return getTotalStatistics().getInFlight();
+    }
+
+    @Override
+    public long getResponses2xx() {
+    	return getTotalStatistics().getStatusCount(2);
+    }
+
+    @Override
+    public long getResponses3xx() {
+    	return getTotalStatistics().getStatusCount(3);
+    }
+
+    @Override
+    public long getResponses4xx() {
+    	return getTotalStatistics().getStatusCount(4);
+    }
+
+    @Override
+    public long getResponses5xx() {
+    	return getTotalStatistics().getStatusCount(5);
+    }
+
+    @Override
+    public long getRequestsWithoutResponse() {
+    	return getTotalStatistics().getStatusCount(0);
+    }
+
+    @Override
+    public long getBytesFromClients() {
+    	return getTotalStatistics().getBytesIn();
+    }
+
+    @Override
+    public long getBytesToClients() {
+    	return getTotalStatistics().getBytesOut();
+    }
+
+    @Override
+    public String[] getRouteStatistics() {
+    	List<String> answer = GatewayMetrics.describe(getFabricHTTPGateway().getMetrics().getRoutes());
+    	return answer.toArray(new String[answer.size()]);
+    }
+
+    @Override
+    public String[] getBackendStatistics() {
+    	List<String> answer = GatewayMetrics.describe(getFabricHTTPGateway().getMetrics().getBackends());
+    	return answer.toArray(new String[answer.size()]);
     }
     
+    @Override
+    public int getBackendClientCount() {
+    	HttpClientPool pool = getFabricHTTPGateway().getHttpClientPool();
+    	return pool != null ? pool.getClientCount() : 0;
+    }
+
+    @Override
+    public long getBackendClientsCreated() {
+    	HttpClientPool pool = getFabricHTTPGateway().getHttpClientPool();
+    	return pool != null ? pool.getCreatedClients() : 0;
+    }
+
+    @Override
+    public long getBackendClientsEvicted() {
+    	HttpClientPool pool = getFabricHTTPGateway().getHttpClientPool();
+    	return pool != null ? pool.getEvictedClients() : 0;
+    }
+
+    @Override
+    public long getBackendClientsAcquired() {
+    	HttpClientPool pool = getFabricHTTPGateway().getHttpClientPool();
+    	return pool != null ? pool.getAcquiredClients() : 0;
+    }
+
+    @Override
+    public int getBackendRequestsInFlight() {
+    	HttpClientPool pool = getFabricHTTPGateway().getHttpClientPool();
+    	return pool != null ? pool.getRequestsInFlight() : 0;
+    }
+
+    @Override
+    public String[] getBackendClients() {
+    	HttpClientPool pool = getFabricHTTPGateway().getHttpClientPool();
+    	if (pool == null) {
+    		return new String[0];
+    	}
+    	List<String> clients = pool.getClientDescriptions();
+    	return clients.toArray(new String[clients.size()]);
+    }
+
+    @Override
+    public String[] getEjectedBackends() {
+    	// the mapped services usually share a load balancer so avoid listing its services more than once
+    	Set<LoadBalancer> loadBalancers = Collections.newSetFromMap(new IdentityHashMap<LoadBalancer, Boolean>());
+    	Map<String, IMappedServices> mappedServices = getFabricHTTPGateway().getMappedServices();
+    	if (mappedServices != null) {
+    		for (IMappedServices services : mappedServices.values()) {
+    			if (services instanceof MappedServices) {
+    				loadBalancers.add(((MappedServices) services).getLoadBalancer());
+    			}
+    		}
+    	}
+    	List<String> answer = new ArrayList<String>();
+    	for (LoadBalancer loadBalancer : loadBalancers) {
+    		if (loadBalancer instanceof OutlierDetectingLoadBalancer) {
+    			answer.addAll(((OutlierDetectingLoadBalancer) loadBalancer).getEjectedServices());
+    		}
+    	}
+    	return answer.toArray(new String[answer.size()]);
+    }
+
     @Override
     public void resetStatistics() {
-    	averageCallTimeNanos = 0l;
-    	numberOfInvocations = 0l;
-    	lastCallDate = null;
+    	getFabricHTTPGateway().getMetrics().reset();
+    	lastCallTime = 0;
     	lastError = null;
     }
    
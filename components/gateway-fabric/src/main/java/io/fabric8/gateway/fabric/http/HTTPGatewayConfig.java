@@ -15,6 +15,11 @@
  */
 package io.fabric8.gateway.fabric.http;
 
+import io.fabric8.gateway.api.handlers.http.HttpClientPool;
+import io.fabric8.gateway.fabric.support.http.HttpMappingKubeCache;
+import io.fabric8.gateway.loadbalancer.OutlierDetectingLoadBalancer;
+import io.fabric8.utils.Strings;
+
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
@@ -54,6 +59,34 @@ public class HTTPGatewayConfig extends HashMap<String, String> {
     public final static String REVERSE_HEADERS = "REVERSE_HEADERS";
     /** The loadbalancer to use in the gateway */
     public final static String LOAD_BALANCER = "LOAD_BALANCER";
+    /** The maximum number of pooled connections kept to each back end host:port */
+    public final static String HTTP_CLIENT_MAX_POOL_SIZE = "HTTP_CLIENT_MAX_POOL_SIZE";
+    /** If enabled (the default) connections to the back end services are kept alive and reused */
+    public final static String HTTP_CLIENT_KEEP_ALIVE = "HTTP_CLIENT_KEEP_ALIVE";
+    /** If enabled then requests to the back end services are pipelined on the kept alive connections */
+    public final static String HTTP_CLIENT_PIPELINING = "HTTP_CLIENT_PIPELINING";
+    /** The timeout in milliseconds when connecting to a back end service */
+    public final static String HTTP_CLIENT_CONNECT_TIMEOUT = "HTTP_CLIENT_CONNECT_TIMEOUT";
+    /** The time in milliseconds after which an unused back end client and its connections are closed */
+    public final static String HTTP_CLIENT_IDLE_TIMEOUT = "HTTP_CLIENT_IDLE_TIMEOUT";
+    /** If enabled back end services which keep failing are temporarily ejected from load balancing */
+    public final static String OUTLIER_DETECTION = "OUTLIER_DETECTION";
+    /** The number of consecutive failed requests after which a back end service is ejected */
+    public final static String OUTLIER_CONSECUTIVE_FAILURES = "OUTLIER_CONSECUTIVE_FAILURES";
+    /** The percentage of failed requests after which a back end service is ejected */
+    public final static String OUTLIER_FAILURE_RATE_PERCENTAGE = "OUTLIER_FAILURE_RATE_PERCENTAGE";
+    /** The time in milliseconds a back end service is first ejected for; doubled each time it is ejected again */
+    public final static String OUTLIER_BASE_EJECTION_TIME = "OUTLIER_BASE_EJECTION_TIME";
+    /** The maximum time in milliseconds a back end service is ejected for */
+    public final static String OUTLIER_MAX_EJECTION_TIME = "OUTLIER_MAX_EJECTION_TIME";
+    /** The path the request metrics are served from in the Prometheus text format; set to blank to not serve them */
+    public final static String METRICS_PATH = "METRICS_PATH";
+    /** The interval in milliseconds at which the watched Kubernetes services are fully re-listed */
+    public final static String KUBERNETES_RESYNC_INTERVAL = "KUBERNETES_RESYNC_INTERVAL";
+    /** If enabled the ready pod addresses of each service are used as back ends instead of the service portal IP */
+    public final static String ROUTE_TO_ENDPOINTS = "ROUTE_TO_ENDPOINTS";
+    /** The default path the request metrics are served from */
+    public final static String DEFAULT_METRICS_PATH = "/_metrics";
     
     public int getPort() {
         return Integer.parseInt(get(HTTP_PORT));
@@ -102,6 +135,56 @@ public class HTTPGatewayConfig extends HashMap<String, String> {
     public boolean isReverseHeaders() {
         return Boolean.parseBoolean(get(REVERSE_HEADERS));
     }
+    public int getHttpClientMaxPoolSize() {
+        return getInt(HTTP_CLIENT_MAX_POOL_SIZE, HttpClientPool.DEFAULT_MAX_POOL_SIZE);
+    }
+    public boolean isHttpClientKeepAlive() {
+        String value = get(HTTP_CLIENT_KEEP_ALIVE);
+        return value == null || Boolean.parseBoolean(value);
+    }
+    public boolean isHttpClientPipelining() {
+        return Boolean.parseBoolean(get(HTTP_CLIENT_PIPELINING));
+    }
+    public int getHttpClientConnectTimeout() {
+        return getInt(HTTP_CLIENT_CONNECT_TIMEOUT, HttpClientPool.DEFAULT_CONNECT_TIMEOUT);
+    }
+    public long getHttpClientIdleTimeout() {
+        String value = get(HTTP_CLIENT_IDLE_TIMEOUT);
+        return Strings.isNotBlank(value) ? Long.parseLong(value.trim()) : HttpClientPool.DEFAULT_IDLE_TIMEOUT;
+    }
+    public boolean isOutlierDetection() {
+        return Boolean.parseBoolean(get(OUTLIER_DETECTION));
+    }
+    public int getOutlierConsecutiveFailures() {
+        return getInt(OUTLIER_CONSECUTIVE_FAILURES, OutlierDetectingLoadBalancer.DEFAULT_CONSECUTIVE_FAILURES);
+    }
+    public int getOutlierFailureRatePercentage() {
+        return getInt(OUTLIER_FAILURE_RATE_PERCENTAGE, OutlierDetectingLoadBalancer.DEFAULT_FAILURE_RATE_PERCENTAGE);
+    }
+    public long getOutlierBaseEjectionTime() {
+        return getLong(OUTLIER_BASE_EJECTION_TIME, OutlierDetectingLoadBalancer.DEFAULT_BASE_EJECTION_TIME);
+    }
+    public long getOutlierMaxEjectionTime() {
+        return getLong(OUTLIER_MAX_EJECTION_TIME, OutlierDetectingLoadBalancer.DEFAULT_MAX_EJECTION_TIME);
+    }
+    public String getMetricsPath() {
+        String value = get(METRICS_PATH);
+        return value != null ? value.trim() : DEFAULT_METRICS_PATH;
+    }
+    public long getKubernetesResyncInterval() {
+        return getLong(KUBERNETES_RESYNC_INTERVAL, HttpMappingKubeCache.DEFAULT_RESYNC_INTERVAL);
+    }
+    public boolean isRouteToEndpoints() {
+        return Boolean.parseBoolean(get(ROUTE_TO_ENDPOINTS));
+    }
+    protected long getLong(String key, long defaultValue) {
+        String value = get(key);
+        return Strings.isNotBlank(value) ? Long.parseLong(value.trim()) : defaultValue;
+    }
+    protected int getInt(String key, int defaultValue) {
+        String value = get(key);
+        return Strings.isNotBlank(value) ? Integer.parseInt(value.trim()) : defaultValue;
+    }
     public static List<Map<String,String>> parseSelectorConfig(String selectorConfig) throws IOException {
     	ObjectMapper mapper = new ObjectMapper();
     	TypeReference<List<Map<String,String>>> typeRef = new TypeReference<List<Map<String,String>>>() {};
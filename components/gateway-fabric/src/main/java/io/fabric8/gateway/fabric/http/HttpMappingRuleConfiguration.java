@@ -20,6 +20,7 @@ import io.fabric8.gateway.fabric.support.http.HttpMappingKubeCache;
 import io.fabric8.gateway.fabric.support.http.HttpMappingRuleBase;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
 import io.fabric8.gateway.loadbalancer.LoadBalancers;
+import io.fabric8.gateway.loadbalancer.OutlierDetectingLoadBalancer;
 
 import java.util.List;
 import java.util.Map;
@@ -69,6 +70,10 @@ public class HttpMappingRuleConfiguration {
      * <li>LoadBalancers.RANDOM_LOAD_BALANCER, value = "Random"),
      * <li>LoadBalancers.ROUND_ROBIN_LOAD_BALANCER, value = "Round Robin"),
      * <li>LoadBalancers.STICKY_LOAD_BALANCER, value = "Sticky")
+     * <li>LoadBalancers.LEAST_OUTSTANDING_REQUESTS_LOAD_BALANCER, value = "Least Outstanding Requests")
+     * <li>LoadBalancers.EWMA_LOAD_BALANCER, value = "Lowest Latency")
+     * <li>LoadBalancers.POWER_OF_TWO_CHOICES_LOAD_BALANCER, value = "Power Of Two Choices")
+     * <li>LoadBalancers.CONSISTENT_HASH_LOAD_BALANCER, value = "Consistent Hash")
      * </ul>
      */
     private String loadBalancerType;
@@ -131,6 +136,14 @@ public class HttpMappingRuleConfiguration {
         reverseHeaders = httpGatewayConfig.isReverseHeaders();
         
         LoadBalancer loadBalancer = LoadBalancers.createLoadBalancer(loadBalancerType, stickyLoadBalancerCacheSize);
+        if (httpGatewayConfig.isOutlierDetection()) {
+            OutlierDetectingLoadBalancer outlierDetectingLoadBalancer = new OutlierDetectingLoadBalancer(loadBalancer);
+            outlierDetectingLoadBalancer.setConsecutiveFailures(httpGatewayConfig.getOutlierConsecutiveFailures());
+            outlierDetectingLoadBalancer.setFailureRatePercentage(httpGatewayConfig.getOutlierFailureRatePercentage());
+            outlierDetectingLoadBalancer.setBaseEjectionTime(httpGatewayConfig.getOutlierBaseEjectionTime());
+            outlierDetectingLoadBalancer.setMaxEjectionTime(httpGatewayConfig.getOutlierMaxEjectionTime());
+            loadBalancer = outlierDetectingLoadBalancer;
+        }
 
         LOG.info("activating http mapping selector: " + serviceSelectors + " with URI template: " + uriTemplate
                 + " enabledVersion: " + enabledVersion + " with load balancer: " + loadBalancer);
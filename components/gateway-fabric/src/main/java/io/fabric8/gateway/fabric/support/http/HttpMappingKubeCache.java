@@ -1,39 +1,91 @@
 package io.fabric8.gateway.fabric.support.http;
 
 import static io.fabric8.kubernetes.api.KubernetesHelper.getSelector;
-import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import io.fabric8.gateway.ServiceDTO;
 import io.fabric8.gateway.api.apimanager.ApiManager;
 import io.fabric8.gateway.api.apimanager.ServiceMapping;
 import io.fabric8.gateway.api.handlers.http.HttpMappingRule;
 import io.fabric8.gateway.fabric.http.HTTPGatewayConfig;
+import io.fabric8.kubernetes.api.AbstractWatcher;
 import io.fabric8.kubernetes.api.KubernetesClient;
 import io.fabric8.kubernetes.api.KubernetesFactory;
 import io.fabric8.kubernetes.api.KubernetesHelper;
+import io.fabric8.kubernetes.api.Watcher.Action;
+import io.fabric8.kubernetes.api.model.EndpointAddress;
+import io.fabric8.kubernetes.api.model.EndpointPort;
+import io.fabric8.kubernetes.api.model.EndpointSubset;
+import io.fabric8.kubernetes.api.model.Endpoints;
+import io.fabric8.kubernetes.api.model.EndpointsList;
+import io.fabric8.kubernetes.api.model.HasMetadata;
 import io.fabric8.kubernetes.api.model.Service;
 import io.fabric8.kubernetes.api.model.ServiceList;
+import io.fabric8.kubernetes.api.model.ServicePort;
+import io.fabric8.kubernetes.api.model.ServiceSpec;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 
+import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Keeps the HTTP mapping rules in line with the Kubernetes services matching the
+ * gateway's selectors. The services are listed once and then watched from the
+ * resource version of that list, so changes are applied as soon as Kubernetes
+ * reports them. Whenever the watch is lost the services are listed again, the
+ * result is diffed against the current mappings and a new watch is started.
+ * A full resync also runs every {@link HTTPGatewayConfig#KUBERNETES_RESYNC_INTERVAL}
+ * to recover from any missed event.
+ *
+ * By default each service is mapped to its portal IP and kube-proxy picks the pod.
+ * With {@link HTTPGatewayConfig#ROUTE_TO_ENDPOINTS} enabled the endpoints of the
+ * matching services are watched as well and every ready pod address becomes a back
+ * end of its own, so the gateway's load balancer chooses the pod.
+ *
+ * All state is only touched from the single cache thread.
+ */
 public class HttpMappingKubeCache implements Runnable {
 
     private static final transient Logger LOG = LoggerFactory.getLogger(HttpMappingKubeCache.class);
 
+    public static final long DEFAULT_RESYNC_INTERVAL = 5 * 60 * 1000L;
+    /** How often services which are not registered in the API manager yet are checked again */
+    private static final long PENDING_CHECK_INTERVAL = 5000L;
+    private static final long MIN_RECONNECT_DELAY = 1000L;
+    private static final long MAX_RECONNECT_DELAY = 30000L;
+
     private final ScheduledExecutorService serviceCacheExecutor = Executors.newSingleThreadScheduledExecutor();
     private KubernetesClient client;
+    private String namespace;
     private final HttpMappingRule mappingRuleConfiguration;
     private final List<Map<String,String>> serviceSelectors;
-    private List<String> contextPathsCache;
+    /** Matching services which are available, by context path */
+    private final Map<String, Service> matchedServices = new HashMap<String, Service>();
+    /** Matching services waiting to be registered in the API manager, by context path */
+    private final Map<String, Service> pendingServices = new HashMap<String, Service>();
+    /** The endpoints of all services, by service name; only kept when routing to endpoints */
+    private final Map<String, Endpoints> endpoints = new HashMap<String, Endpoints>();
+    /** What is currently registered in the mapping rules, by context path */
+    private final Map<String, MappedService> contextPathsCache = new HashMap<String, MappedService>();
     private ApiManager apiManager;
+    private boolean routeToEndpoints;
+    private final List<WebSocketClient> watchClients = new ArrayList<WebSocketClient>();
+    /** Incremented whenever the watches are restarted so events of old watches are ignored */
+    private int watchGeneration;
+    private String servicesResourceVersion;
+    private String endpointsResourceVersion;
+    private long reconnectDelay = MIN_RECONNECT_DELAY;
+    private volatile boolean running;
 
     public HttpMappingKubeCache(HttpMappingRule mappingRuleConfiguration, List<Map<String,String>> serviceSelectors, ApiManager apiManager) {
        this.mappingRuleConfiguration = mappingRuleConfiguration;
@@ -44,14 +96,46 @@ public class HttpMappingKubeCache implements Runnable {
     public void init(HTTPGatewayConfig configuation) {
         String kubernetesMaster = configuation.getKubernetesMaster();
         KubernetesFactory factory = new KubernetesFactory(kubernetesMaster);
-        contextPathsCache = new ArrayList<String>();
-        client = new KubernetesClient(factory);
-        //for now simply check in with kubernetes every 5 seconds
-        //it'd be nice if kubernetes can callback into our cache.
-        serviceCacheExecutor.scheduleWithFixedDelay(this, 0, 5, SECONDS);
+        init(configuation, new KubernetesClient(factory));
+    }
+
+    void init(HTTPGatewayConfig configuation, KubernetesClient client) {
+        this.client = client;
+        namespace = client.getNamespace();
+        routeToEndpoints = configuation.isRouteToEndpoints();
+        running = true;
+        serviceCacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                resyncAndWatch();
+            }
+        });
+        long resyncInterval = configuation.getKubernetesResyncInterval();
+        if (resyncInterval > 0) {
+            serviceCacheExecutor.scheduleWithFixedDelay(this, resyncInterval, resyncInterval, MILLISECONDS);
+        }
+        if (apiManager != null) {
+            serviceCacheExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkPendingServices();
+                }
+            }, PENDING_CHECK_INTERVAL, PENDING_CHECK_INTERVAL, MILLISECONDS);
+        }
     }
 
     public void destroy() {
+        running = false;
+        try {
+            serviceCacheExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    stopWatch();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // already destroyed
+        }
         serviceCacheExecutor.shutdown();
     }
 
@@ -65,6 +149,7 @@ public class HttpMappingKubeCache implements Runnable {
      * @return true if all gateway selector fields are matched
      */
     private boolean selectorMatch(Map<String,String> selector) {
+        if (selector == null) return false;
 
     	for (Map<String,String> serviceSelector : serviceSelectors) {
     		boolean isMatch = true;
@@ -84,58 +169,435 @@ public class HttpMappingKubeCache implements Runnable {
         this.refreshServices();
     }
 
-    public void refreshServices() {
-        List<String> currentCache = new ArrayList<String>();
-        currentCache.addAll(contextPathsCache);
+    /**
+     * Lists all services (and endpoints) and brings the mappings in line with them.
+     * @return true if everything could be listed
+     */
+    public boolean refreshServices() {
         try {
-            ServiceList serviceList = client.getServices();
-            
-            for (Service service1 : serviceList.getItems()) {
-                Map<String, String> selector = getSelector(service1);
-                if (selectorMatch(selector)) {
-                    String contextPath = KubernetesHelper.getName(service1);
-                    if (LOG.isDebugEnabled()) LOG.debug("Match for Kubernetes Service Name=" + contextPath);
-                    if (apiManager!=null) {
-                    	
-	                    ServiceMapping apiManagerServiceMapping = apiManager.getService().getApiManagerServiceMapping(contextPath);
-                        
-	                    if (apiManagerServiceMapping==null) {
-	                    	if (LOG.isDebugEnabled()) LOG.debug("Service is not registered in the API Manager, and is therefore not yet available");
-                        	break;
-                        }
-                    }
-
-                    ServiceDTO dto = new ServiceDTO();
-                    dto.setId(KubernetesHelper.getName(service1));
-                    dto.setContainer(selector.get("container"));
-                    dto.setVersion(selector.get("version"));
-
-                    Map<String, String> params = new HashMap<String, String>();
-                    params.put("id", paramValue(dto.getId()));
-                    params.put("container", paramValue(dto.getContainer()));
-                    params.put("version", paramValue(dto.getVersion()));
-                    
-                    String serviceURL =  KubernetesHelper.getServiceURL(service1);
-                	String service = serviceURL + "/" + KubernetesHelper.getName(service1);
-                    List<String> services = Arrays.asList(service);
-                    if (!contextPathsCache.contains(contextPath)) {
-                        LOG.info("Adding " + service);
-                        contextPathsCache.add(contextPath);
+            if (routeToEndpoints) {
+                EndpointsList endpointsList = client.getEndpoints(namespace);
+                endpoints.clear();
+                for (Endpoints item : endpointsList.getItems()) {
+                    endpoints.put(KubernetesHelper.getName(item), item);
+                }
+                if (endpointsList.getMetadata() != null) {
+                    endpointsResourceVersion = endpointsList.getMetadata().getResourceVersion();
+                }
+            }
+            ServiceList serviceList = client.getServices(namespace);
+            Set<String> stale = new HashSet<String>(matchedServices.keySet());
+            stale.addAll(pendingServices.keySet());
+            stale.addAll(contextPathsCache.keySet());
+            for (Service service : serviceList.getItems()) {
+                if (selectorMatch(getSelector(service))) {
+                    String contextPath = KubernetesHelper.getName(service);
+                    stale.remove(contextPath);
+                    try {
+                        serviceUpdated(service);
+                    } catch (Throwable e) {
+                        LOG.warn("Failed to map Kubernetes service " + contextPath + ": " + e, e);
                     }
-                    mappingRuleConfiguration.updateMappingRules(false, contextPath,
-                            services, params, dto);
-                    currentCache.remove(contextPath);
                 }
             }
             //Removing services that we still have in our cache, but are no longer in kubernetes
-            for (String contextPath: currentCache) {
-                mappingRuleConfiguration.updateMappingRules(true, contextPath,
-                        null, null, null);
+            for (String contextPath : stale) {
+                serviceRemoved(contextPath);
+            }
+            if (serviceList.getMetadata() != null) {
+                servicesResourceVersion = serviceList.getMetadata().getResourceVersion();
+            }
+            return true;
+        } catch (Throwable e) {
+            LOG.warn("Failed to list the Kubernetes services: " + e, e);
+            return false;
+        }
+    }
+
+    /**
+     * Relists the services and starts watching them from the version of that list,
+     * so no change made in between is missed.
+     */
+    private void resyncAndWatch() {
+        if (!running) return;
+        stopWatch();
+        if (!refreshServices()) {
+            scheduleReconnect();
+            return;
+        }
+        try {
+            WebSocketClient servicesClient = client.watchServices(namespace, null,
+                    new ServiceWatcher(watchGeneration), servicesResourceVersion);
+            if (servicesClient == null) {
+                scheduleReconnect();
+                return;
+            }
+            watchClients.add(servicesClient);
+            if (routeToEndpoints) {
+                WebSocketClient endpointsClient = client.watchEndpoints(namespace, null,
+                        new EndpointsWatcher(watchGeneration), endpointsResourceVersion);
+                if (endpointsClient == null) {
+                    stopWatch();
+                    scheduleReconnect();
+                    return;
+                }
+                watchClients.add(endpointsClient);
+            }
+            reconnectDelay = MIN_RECONNECT_DELAY;
+            LOG.info("Watching Kubernetes services in namespace " + namespace + " from version " + servicesResourceVersion
+                    + (routeToEndpoints ? " and endpoints from version " + endpointsResourceVersion : ""));
+        } catch (Throwable e) {
+            LOG.warn("Failed to watch the Kubernetes services: " + e, e);
+            stopWatch();
+            scheduleReconnect();
+        }
+    }
+
+    private void scheduleReconnect() {
+        if (!running) return;
+        LOG.info("Reconnecting the Kubernetes service watch in " + reconnectDelay + " ms");
+        try {
+            serviceCacheExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    resyncAndWatch();
+                }
+            }, reconnectDelay, MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        }
+        reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+    }
+
+    private void stopWatch() {
+        watchGeneration++;
+        for (WebSocketClient watchClient : watchClients) {
+            try {
+                watchClient.stop();
+            } catch (Exception e) {
+                LOG.debug("Error stopping the Kubernetes watch: " + e, e);
+            }
+        }
+        watchClients.clear();
+    }
+
+    /**
+     * Adds or updates the mapping of a matching service.
+     */
+    private void serviceUpdated(Service service) {
+        String contextPath = KubernetesHelper.getName(service);
+        if (LOG.isDebugEnabled()) LOG.debug("Match for Kubernetes Service Name=" + contextPath);
+        if (apiManager!=null) {
+            ServiceMapping apiManagerServiceMapping = apiManager.getService().getApiManagerServiceMapping(contextPath);
+            if (apiManagerServiceMapping==null) {
+                if (LOG.isDebugEnabled()) LOG.debug("Service is not registered in the API Manager, and is therefore not yet available");
+                // it may have been mapped while it was still registered
+                if (matchedServices.remove(contextPath) != null) {
+                    remap(contextPath);
+                }
+                pendingServices.put(contextPath, service);
+                return;
+            }
+        }
+        pendingServices.remove(contextPath);
+        matchedServices.put(contextPath, service);
+        remap(contextPath);
+    }
+
+    private void serviceRemoved(String contextPath) {
+        pendingServices.remove(contextPath);
+        matchedServices.remove(contextPath);
+        remap(contextPath);
+    }
+
+    private void endpointsUpdated(Endpoints item) {
+        String name = KubernetesHelper.getName(item);
+        endpoints.put(name, item);
+        if (matchedServices.containsKey(name)) {
+            remap(name);
+        }
+    }
+
+    private void endpointsRemoved(String name) {
+        endpoints.remove(name);
+        if (matchedServices.containsKey(name)) {
+            remap(name);
+        }
+    }
+
+    /**
+     * Brings the mapping rules of the given context path in line with the current
+     * service and endpoints, only adding and removing the back ends which changed.
+     */
+    private void remap(String contextPath) {
+        Service service = matchedServices.get(contextPath);
+        MappedService current = contextPathsCache.get(contextPath);
+        MappedService wanted = service != null ? toMappedService(contextPath, service) : null;
+        if (wanted == null || wanted.serviceUrls.isEmpty()) {
+            if (current != null) {
                 LOG.info("Removing " + contextPath);
+                mappingRuleConfiguration.updateMappingRules(true, contextPath,
+                        new ArrayList<String>(current.serviceUrls), current.params, current.dto);
                 contextPathsCache.remove(contextPath);
             }
-        } catch (Throwable e) {
-            e.printStackTrace();
+            return;
+        }
+        if (current == null || !current.params.equals(wanted.params)) {
+            if (current != null) {
+                mappingRuleConfiguration.updateMappingRules(true, contextPath,
+                        new ArrayList<String>(current.serviceUrls), current.params, current.dto);
+            }
+            LOG.info("Adding " + wanted.serviceUrls);
+            mappingRuleConfiguration.updateMappingRules(false, contextPath,
+                    new ArrayList<String>(wanted.serviceUrls), wanted.params, wanted.dto);
+            contextPathsCache.put(contextPath, wanted);
+            return;
+        }
+        List<String> removed = new ArrayList<String>(current.serviceUrls);
+        removed.removeAll(wanted.serviceUrls);
+        List<String> added = new ArrayList<String>(wanted.serviceUrls);
+        added.removeAll(current.serviceUrls);
+        if (!removed.isEmpty()) {
+            LOG.info("Removing " + removed + " from " + contextPath);
+            mappingRuleConfiguration.updateMappingRules(true, contextPath, removed, current.params, current.dto);
+        }
+        if (!added.isEmpty()) {
+            LOG.info("Adding " + added + " to " + contextPath);
+            mappingRuleConfiguration.updateMappingRules(false, contextPath, added, wanted.params, wanted.dto);
+        }
+        contextPathsCache.put(contextPath, wanted);
+    }
+
+    private MappedService toMappedService(String contextPath, Service service) {
+        Map<String, String> selector = getSelector(service);
+        ServiceDTO dto = new ServiceDTO();
+        dto.setId(contextPath);
+        dto.setContainer(selector.get("container"));
+        dto.setVersion(selector.get("version"));
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("id", paramValue(dto.getId()));
+        params.put("container", paramValue(dto.getContainer()));
+        params.put("version", paramValue(dto.getVersion()));
+
+        Set<String> serviceUrls = new LinkedHashSet<String>();
+        if (routeToEndpoints) {
+            addEndpointUrls(serviceUrls, contextPath, service);
+        } else {
+            String serviceURL = KubernetesHelper.getServiceURL(service);
+            if (serviceURL != null) {
+                serviceUrls.add(serviceURL + "/" + contextPath);
+            } else {
+                LOG.warn("Kubernetes service " + contextPath + " has no portal IP yet");
+            }
+        }
+        return new MappedService(serviceUrls, params, dto);
+    }
+
+    /**
+     * Adds a URL for every ready address of the service's endpoints, using the
+     * endpoint port which belongs to the first port of the service.
+     */
+    private void addEndpointUrls(Set<String> serviceUrls, String contextPath, Service service) {
+        Endpoints item = endpoints.get(contextPath);
+        if (item == null || item.getSubsets() == null) {
+            return;
+        }
+        String portName = null;
+        ServiceSpec spec = service.getSpec();
+        if (spec != null && spec.getPorts() != null && !spec.getPorts().isEmpty()) {
+            ServicePort servicePort = spec.getPorts().get(0);
+            portName = servicePort.getName();
+        }
+        for (EndpointSubset subset : item.getSubsets()) {
+            EndpointPort port = selectPort(subset.getPorts(), portName);
+            if (port == null || port.getPort() == null || subset.getAddresses() == null) {
+                continue;
+            }
+            String protocol = port.getPort() == 443 || port.getPort() == 8443
+                    || (port.getName() != null && port.getName().contains("https")) ? "https" : "http";
+            for (EndpointAddress address : subset.getAddresses()) {
+                serviceUrls.add(protocol + "://" + address.getIp() + ":" + port.getPort() + "/" + contextPath);
+            }
+        }
+    }
+
+    private static EndpointPort selectPort(List<EndpointPort> ports, String name) {
+        if (ports == null || ports.isEmpty()) {
+            return null;
+        }
+        if (name != null) {
+            for (EndpointPort port : ports) {
+                if (name.equals(port.getName())) {
+                    return port;
+                }
+            }
+        }
+        return ports.get(0);
+    }
+
+    private void checkPendingServices() {
+        for (Service service : pendingServices.values().toArray(new Service[pendingServices.size()])) {
+            try {
+                serviceUpdated(service);
+            } catch (Throwable e) {
+                LOG.warn("Failed to map Kubernetes service " + KubernetesHelper.getName(service) + ": " + e, e);
+            }
+        }
+    }
+
+    private void onServiceEvent(Action action, Service service) {
+        String version = KubernetesHelper.getResourceVersion(service);
+        if (version != null) {
+            servicesResourceVersion = version;
+        }
+        String contextPath = KubernetesHelper.getName(service);
+        switch (action) {
+        case ADDED:
+        case MODIFIED:
+            if (selectorMatch(getSelector(service))) {
+                serviceUpdated(service);
+            } else {
+                // the selector may have changed so the service no longer matches
+                serviceRemoved(contextPath);
+            }
+            break;
+        case DELETED:
+            serviceRemoved(contextPath);
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void onEndpointsEvent(Action action, Endpoints item) {
+        String version = KubernetesHelper.getResourceVersion(item);
+        if (version != null) {
+            endpointsResourceVersion = version;
+        }
+        switch (action) {
+        case ADDED:
+        case MODIFIED:
+            endpointsUpdated(item);
+            break;
+        case DELETED:
+            endpointsRemoved(KubernetesHelper.getName(item));
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * The back ends registered in the mapping rules for a context path, together with
+     * the parameters they were registered with so they can be removed again.
+     */
+    private static final class MappedService {
+        private final Set<String> serviceUrls;
+        private final Map<String, String> params;
+        private final ServiceDTO dto;
+
+        MappedService(Set<String> serviceUrls, Map<String, String> params, ServiceDTO dto) {
+            this.serviceUrls = serviceUrls;
+            this.params = params;
+            this.dto = dto;
+        }
+    }
+
+    /**
+     * Hands the events of one watch over to the cache thread; events of a watch which
+     * has been replaced are dropped.
+     */
+    private abstract class ResourceWatcher<T extends HasMetadata> extends AbstractWatcher<T> {
+        private final int generation;
+
+        ResourceWatcher(int generation) {
+            this.generation = generation;
+        }
+
+        protected abstract void apply(Action action, T object);
+
+        @Override
+        public void eventReceived(final Action action, final T object) {
+            if (!running) return;
+            if (action == Action.ERROR || object == null) {
+                // e.g. the resource version is too old; start over from a fresh list
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == watchGeneration) resyncAndWatch();
+                    }
+                });
+                return;
+            }
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    if (generation != watchGeneration) return;
+                    try {
+                        apply(action, object);
+                    } catch (Throwable e) {
+                        LOG.warn("Failed to apply " + action + " of Kubernetes " + KubernetesHelper.getName(object) + ": " + e, e);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onWebSocketClose(int statusCode, String reason) {
+            super.onWebSocketClose(statusCode, reason);
+            reconnect("Kubernetes watch closed: " + reason);
+        }
+
+        @Override
+        public void onWebSocketError(Throwable cause) {
+            super.onWebSocketError(cause);
+            // a watch which failed to connect is never closed
+            reconnect("Kubernetes watch failed: " + cause);
+        }
+
+        private void reconnect(final String message) {
+            if (!running) return;
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    if (generation == watchGeneration) {
+                        LOG.info(message);
+                        stopWatch();
+                        scheduleReconnect();
+                    }
+                }
+            });
+        }
+
+        private void dispatch(Runnable task) {
+            try {
+                serviceCacheExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+            }
+        }
+    }
+
+    private class ServiceWatcher extends ResourceWatcher<Service> {
+        ServiceWatcher(int generation) {
+            super(generation);
+        }
+
+        @Override
+        protected void apply(Action action, Service service) {
+            onServiceEvent(action, service);
+        }
+    }
+
+    private class EndpointsWatcher extends ResourceWatcher<Endpoints> {
+        EndpointsWatcher(int generation) {
+            super(generation);
+        }
+
+        @Override
+        protected void apply(Action action, Endpoints item) {
+            onEndpointsEvent(action, item);
         }
     }
 }
@@ -0,0 +1,295 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.fabric.support.http;
+
+import io.fabric8.gateway.api.ServiceDetails;
+import io.fabric8.gateway.api.apimanager.ApiManager;
+import io.fabric8.gateway.api.apimanager.ApiManagerService;
+import io.fabric8.gateway.api.apimanager.ServiceMapping;
+import io.fabric8.gateway.api.handlers.http.HttpClientPool;
+import io.fabric8.gateway.api.handlers.http.HttpMappingRule;
+import io.fabric8.gateway.api.handlers.http.IMappedServices;
+import io.fabric8.gateway.fabric.http.HTTPGatewayConfig;
+import io.fabric8.kubernetes.api.AbstractWatcher;
+import io.fabric8.kubernetes.api.KubernetesClient;
+import io.fabric8.kubernetes.api.KubernetesHelper;
+import io.fabric8.kubernetes.api.Watcher;
+import io.fabric8.kubernetes.api.Watcher.Action;
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceList;
+import io.fabric8.kubernetes.api.model.ServicePort;
+import io.fabric8.kubernetes.api.model.ServiceSpec;
+import io.fabric8.kubernetes.api.model.base.ListMeta;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.junit.After;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.http.HttpServerRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpMappingKubeCacheTest {
+    private static final Map<String, String> SELECTOR = Collections.singletonMap("gateway", "true");
+
+    private final FakeKubernetesClient client = new FakeKubernetesClient();
+    private final RecordingMappingRule rules = new RecordingMappingRule();
+    private HttpMappingKubeCache cache;
+
+    @After
+    public void destroy() {
+        if (cache != null) {
+            cache.destroy();
+        }
+    }
+
+    @Test
+    public void watchStartsFromTheVersionOfTheList() throws Exception {
+        client.services.add(service("foo", 1, "5"));
+        client.resourceVersion = "10";
+        start(null);
+
+        waitForWatches(1);
+        assertEquals("10", client.watchedVersions.get(0));
+        assertEquals(Collections.singletonList("add /foo [http://127.0.0.1:1/foo]"), rules.changes);
+    }
+
+    @Test
+    public void eventsUpdateOnlyTheAffectedMapping() throws Exception {
+        client.services.add(service("foo", 1, "5"));
+        client.services.add(service("bar", 2, "6"));
+        start(null);
+        waitForWatches(1);
+        rules.changes.clear();
+
+        client.watcher.eventReceived(Action.MODIFIED, service("foo", 3, "11"));
+        client.watcher.eventReceived(Action.DELETED, service("bar", 2, "12"));
+        // services without the gateway selector are ignored
+        Service other = service("other", 5, "13");
+        other.getSpec().setSelector(Collections.singletonMap("gateway", "false"));
+        client.watcher.eventReceived(Action.ADDED, other);
+        client.watcher.eventReceived(Action.ADDED, service("baz", 4, "14"));
+        waitForChanges(4);
+
+        assertEquals(4, rules.changes.size());
+        assertEquals("remove /foo [http://127.0.0.1:1/foo]", rules.changes.get(0));
+        assertEquals("add /foo [http://127.0.0.1:3/foo]", rules.changes.get(1));
+        assertEquals("remove /bar [http://127.0.0.1:2/bar]", rules.changes.get(2));
+        assertEquals("add /baz [http://127.0.0.1:4/baz]", rules.changes.get(3));
+    }
+
+    @Test
+    public void closedWatchIsResumedFromTheLatestList() throws Exception {
+        client.services.add(service("foo", 1, "5"));
+        client.resourceVersion = "10";
+        start(null);
+        waitForWatches(1);
+        AbstractWatcher<Service> closed = client.watcher;
+        rules.changes.clear();
+
+        // foo is deleted while the watch is down
+        client.services.clear();
+        client.services.add(service("bar", 2, "15"));
+        client.resourceVersion = "20";
+        closed.onWebSocketClose(1006, "Disconnected");
+        waitForWatches(2);
+
+        assertEquals("20", client.watchedVersions.get(1));
+        assertEquals(2, client.lists.size());
+        assertTrue(rules.changes.toString(), rules.changes.contains("remove /foo [http://127.0.0.1:1/foo]"));
+        assertTrue(rules.changes.toString(), rules.changes.contains("add /bar [http://127.0.0.1:2/bar]"));
+
+        // events of the old watch are dropped
+        rules.changes.clear();
+        closed.eventReceived(Action.ADDED, service("stale", 3, "21"));
+        client.watcher.eventReceived(Action.ADDED, service("baz", 4, "22"));
+        waitForChanges(1);
+        assertEquals(Collections.singletonList("add /baz [http://127.0.0.1:4/baz]"), rules.changes);
+    }
+
+    @Test
+    public void errorEventRelistsImmediately() throws Exception {
+        client.resourceVersion = "10";
+        start(null);
+        waitForWatches(1);
+
+        client.resourceVersion = "30";
+        client.watcher.eventReceived(Action.ERROR, null);
+        waitForWatches(2);
+        assertEquals("30", client.watchedVersions.get(1));
+    }
+
+    @Test
+    public void failedListIsRetried() throws Exception {
+        client.failLists = 1;
+        client.resourceVersion = "10";
+        start(null);
+
+        waitForWatches(1);
+        assertEquals(2, client.lists.size());
+        assertEquals("10", client.watchedVersions.get(0));
+    }
+
+    @Test
+    public void serviceUnregisteredFromApiManagerIsUnmapped() throws Exception {
+        RecordingApiManagerService apiManagerService = new RecordingApiManagerService();
+        apiManagerService.mappings.put("foo", new ServiceMapping("foo", "org", "foo", "1.0"));
+        ApiManager apiManager = new ApiManager();
+        apiManager.setService(apiManagerService);
+        client.services.add(service("foo", 1, "5"));
+        start(apiManager);
+        waitForWatches(1);
+        assertEquals(Collections.singletonList("add /foo [http://127.0.0.1:1/foo]"), rules.changes);
+        rules.changes.clear();
+
+        apiManagerService.mappings.remove("foo");
+        client.watcher.eventReceived(Action.MODIFIED, service("foo", 1, "11"));
+        waitForChanges(1);
+        assertEquals(Collections.singletonList("remove /foo [http://127.0.0.1:1/foo]"), rules.changes);
+    }
+
+    protected void start(ApiManager apiManager) {
+        HTTPGatewayConfig config = new HTTPGatewayConfig();
+        config.put(HTTPGatewayConfig.KUBERNETES_RESYNC_INTERVAL, "0");
+        List<Map<String, String>> selectors = new ArrayList<Map<String, String>>();
+        selectors.add(SELECTOR);
+        cache = new HttpMappingKubeCache(rules, selectors, apiManager);
+        cache.init(config, client);
+    }
+
+    protected void waitForWatches(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && client.watchedVersions.size() < count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, client.watchedVersions.size());
+    }
+
+    protected void waitForChanges(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && rules.changes.size() < count; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(rules.changes.toString(), rules.changes.size() >= count);
+    }
+
+    /**
+     * A service on 127.0.0.1 so that nothing answers the SSL check for its URL
+     */
+    protected static Service service(String name, int port, String resourceVersion) {
+        Service service = new Service();
+        KubernetesHelper.setName(service, name);
+        KubernetesHelper.getOrCreateMetadata(service).setResourceVersion(resourceVersion);
+        ServiceSpec spec = KubernetesHelper.getOrCreateSpec(service);
+        spec.setSelector(SELECTOR);
+        spec.setPortalIP("127.0.0.1");
+        ServicePort servicePort = new ServicePort();
+        servicePort.setPort(port);
+        spec.setPorts(Collections.singletonList(servicePort));
+        return service;
+    }
+
+    static class FakeKubernetesClient extends KubernetesClient {
+        final List<Service> services = new CopyOnWriteArrayList<Service>();
+        final List<String> lists = new CopyOnWriteArrayList<String>();
+        final List<String> watchedVersions = new CopyOnWriteArrayList<String>();
+        volatile String resourceVersion = "1";
+        volatile int failLists;
+        volatile AbstractWatcher<Service> watcher;
+
+        @Override
+        public String getNamespace() {
+            return "default";
+        }
+
+        @Override
+        public ServiceList getServices(String namespace) {
+            lists.add(resourceVersion);
+            if (failLists > 0) {
+                failLists--;
+                throw new IllegalStateException("Kubernetes is not available");
+            }
+            ServiceList answer = new ServiceList();
+            answer.setItems(new ArrayList<Service>(services));
+            ListMeta metadata = new ListMeta();
+            metadata.setResourceVersion(resourceVersion);
+            answer.setMetadata(metadata);
+            return answer;
+        }
+
+        @Override
+        public WebSocketClient watchServices(String namespace, Map<String, String> labels, Watcher<Service> watcher, String resourceVersion) throws Exception {
+            this.watcher = (AbstractWatcher<Service>) watcher;
+            watchedVersions.add(resourceVersion);
+            return new WebSocketClient();
+        }
+    }
+
+    static class RecordingMappingRule implements HttpMappingRule {
+        final List<String> changes = new CopyOnWriteArrayList<String>();
+
+        @Override
+        public void appendMappedServices(Map<String, IMappedServices> uriToServicesMap) {
+        }
+
+        @Override
+        public void addChangeListener(Runnable listener) {
+        }
+
+        @Override
+        public void removeChangeListener(Runnable listener) {
+        }
+
+        @Override
+        public void updateMappingRules(boolean remove, String path, List<String> services, Map<String, String> defaultParams, ServiceDetails serviceDetails) {
+            changes.add((remove ? "remove /" : "add /") + path + " " + services);
+        }
+    }
+
+    static class RecordingApiManagerService implements ApiManagerService {
+        final Map<String, ServiceMapping> mappings = new ConcurrentHashMap<String, ServiceMapping>();
+
+        @Override
+        public void init(Map<String, Object> config) {
+        }
+
+        @Override
+        public Object getEngine() {
+            return null;
+        }
+
+        @Override
+        public Handler<HttpClientResponse> createServiceResponseHandler(HttpClientPool.Lease lease, Object apiManagementResponseHandler) {
+            return null;
+        }
+
+        @Override
+        public Handler<HttpServerRequest> createApiManagerHttpGatewayHandler() {
+            return null;
+        }
+
+        @Override
+        public ServiceMapping getApiManagerServiceMapping(String servicePath) {
+            return mappings.get(servicePath);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hashes the client ID String requested from the {@link ClientRequestFacade} onto a ring of the
+ * services, so that a client keeps being sent to the same service across connections and across
+ * gateways, and only the clients of a service which is added or removed move to another one.
+ * <p/>
+ * The load is bounded: a service is skipped in favour of the next one on the ring while it has
+ * more than the load factor times the average number of requests in flight, so a few busy clients
+ * cannot overload the service they hash to.
+ * <p/>
+ * Services are placed on the ring by their {@link LoadBalancedService#getLoadBalancerId()}, or their
+ * String value if they do not implement it, so a service gets the same points on every gateway.
+ * Requests without a client ID go to the least loaded service.
+ * <p/>
+ * A ring is built for each distinct list of services and kept for as long as that list is in use,
+ * so one load balancer can be shared by virtual hosts with different services.
+ */
+public class ConsistentHashLoadBalancer extends LoadTrackingLoadBalancer {
+    public static final int DEFAULT_REPLICAS = 100;
+    public static final double DEFAULT_LOAD_FACTOR = 1.25;
+    public static final int MAX_RINGS = 256;
+
+    private final int replicas;
+    private final double loadFactor;
+    // keyed by a copy of the services, which compares equal to any list of the same services in the same order
+    private final ConcurrentMap<List<?>, Ring> rings = new ConcurrentHashMap<List<?>, Ring>();
+
+    public ConsistentHashLoadBalancer() {
+        this(DEFAULT_REPLICAS, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param replicas the number of points each service gets on the ring; more points spread the
+     *                 clients more evenly between the services
+     * @param loadFactor how many times the average number of requests in flight a service may have
+     *                   before its clients spill over to the next service on the ring; must be over 1
+     */
+    public ConsistentHashLoadBalancer(int replicas, double loadFactor) {
+        if (loadFactor <= 1) {
+            throw new IllegalArgumentException("The load factor must be greater than 1 but was " + loadFactor);
+        }
+        this.replicas = Math.max(replicas, 1);
+        this.loadFactor = loadFactor;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHashLoadBalancer{" +
+                "replicas=" + replicas +
+                ", loadFactor=" + loadFactor +
+                '}';
+    }
+
+    @Override
+    protected <T> T doChoose(List<T> services, ClientRequestFacade requestFacade) {
+        String clientKey = requestFacade.getClientRequestKey();
+        if (clientKey == null) {
+            return chooseLeastOutstanding(services);
+        }
+        Ring current = getRing(services);
+        int size = services.size();
+        int total = 0;
+        for (T service : services) {
+            total += getStatistics(service).getOutstandingRequests();
+        }
+        // the new request counts towards the load, so there is always a service below the bound
+        int bound = (int) Math.ceil(loadFactor * (total + 1) / size);
+
+        boolean[] tried = new boolean[size];
+        int triedCount = 0;
+        int points = current.points.length;
+        int start = current.indexOf(hash(clientKey));
+        for (int i = 0; i < points && triedCount < size; i++) {
+            int owner = current.owners[(start + i) % points];
+            if (!tried[owner]) {
+                T service = services.get(owner);
+                if (getStatistics(service).getOutstandingRequests() < bound) {
+                    return service;
+                }
+                tried[owner] = true;
+                triedCount++;
+            }
+        }
+        return chooseLeastOutstanding(services);
+    }
+
+    private <T> T chooseLeastOutstanding(List<T> services) {
+        int size = services.size();
+        int start = nextStartIndex(size);
+        T answer = null;
+        int lowest = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            T service = services.get((start + i) % size);
+            int outstanding = getStatistics(service).getOutstandingRequests();
+            if (outstanding < lowest) {
+                answer = service;
+                lowest = outstanding;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the ring for the given services, only building a new one the first time they are used
+     */
+    private Ring getRing(List<?> services) {
+        Ring answer = rings.get(services);
+        if (answer == null) {
+            if (rings.size() >= MAX_RINGS) {
+                // the services have changed many times, so drop the rings of the lists which are no longer used
+                rings.clear();
+            }
+            String[] ids = new String[services.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = getId(services.get(i));
+            }
+            answer = new Ring(ids, replicas);
+            Ring existing = rings.putIfAbsent(new ArrayList<Object>(services), answer);
+            if (existing != null) {
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the ID which places the service on the ring
+     */
+    static String getId(Object service) {
+        if (service instanceof LoadBalancedService) {
+            return ((LoadBalancedService) service).getLoadBalancerId();
+        }
+        return String.valueOf(service);
+    }
+
+    /**
+     * Returns the number of service lists which currently have a ring
+     */
+    public int getRingCount() {
+        return rings.size();
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the String with the bits mixed by the MurmurHash3 finalizer, so that
+     * similar Strings still end up far apart on the ring
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Ring {
+        private final long[] points;
+        private final int[] owners;
+
+        Ring(String[] ids, int replicas) {
+            int count = ids.length * replicas;
+            // sort the points along with the index of the service owning them
+            long[][] pairs = new long[count][];
+            for (int m = 0; m < ids.length; m++) {
+                for (int r = 0; r < replicas; r++) {
+                    pairs[m * replicas + r] = new long[]{hash(ids[m] + "#" + r), m};
+                }
+            }
+            Arrays.sort(pairs, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] a, long[] b) {
+                    return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+                }
+            });
+            points = new long[count];
+            owners = new int[count];
+            for (int i = 0; i < count; i++) {
+                points[i] = pairs[i][0];
+                owners[i] = (int) pairs[i][1];
+            }
+        }
+
+        /**
+         * Returns the index of the first point at or after the given hash, wrapping around the ring
+         */
+        int indexOf(long hash) {
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index == points.length ? 0 : index;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.List;
+
+/**
+ * Chooses the service with the lowest moving average response time weighted by the number of
+ * requests it has in flight, so that a slow or overloaded service gets less of the traffic
+ */
+public class EwmaLoadBalancer extends LoadTrackingLoadBalancer {
+    private final long decayTime;
+
+    public EwmaLoadBalancer() {
+        this(DEFAULT_DECAY_TIME, DEFAULT_FAILURE_PENALTY);
+    }
+
+    public EwmaLoadBalancer(long decayTime, long failurePenalty) {
+        super(decayTime, failurePenalty);
+        this.decayTime = decayTime;
+    }
+
+    @Override
+    public String toString() {
+        return "EwmaLoadBalancer{" +
+                "decayTime=" + decayTime +
+                '}';
+    }
+
+    @Override
+    protected <T> T doChoose(List<T> services, ClientRequestFacade requestFacade) {
+        return chooseLowestCost(services);
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.List;
+
+/**
+ * Chooses the service with the fewest requests in flight, spreading ties between equally loaded
+ * services in a round robin fashion
+ */
+public class LeastOutstandingRequestsLoadBalancer extends LoadTrackingLoadBalancer {
+
+    @Override
+    public String toString() {
+        return "LeastOutstandingRequestsLoadBalancer{}";
+    }
+
+    @Override
+    protected <T> T doChoose(List<T> services, ClientRequestFacade requestFacade) {
+        return chooseLowestCost(services);
+    }
+
+    @Override
+    protected double cost(ServiceStatistics serviceStatistics, double defaultLatency) {
+        return serviceStatistics.getOutstandingRequests();
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+/**
+ * A {@link LoadBalancer} which needs to be told how the requests to the services it chooses
+ * turned out; such as to avoid busy, slow or failing services.
+ * <p/>
+ * Choosing a service counts as starting a request to it, so each chosen service must be followed
+ * by either {@link #requestCompleted(Object, long, boolean)} or {@link #requestEnded(Object)}.
+ * Callers usually go through the helper methods on {@link LoadBalancers} which ignore load
+ * balancers that do not need to know. Durations are measured from after the service was chosen,
+ * so that load balancers can tell which request an outcome belongs to by when it started.
+ */
+public interface LoadAwareLoadBalancer extends LoadBalancer {
+
+    /**
+     * Records that the service responded, or failed to, after the given number of nanoseconds
+     * and that the request is no longer in flight
+     *
+     * @param success false if the request failed or the service reported an error
+     */
+    void requestCompleted(Object service, long durationNanos, boolean success);
+
+    /**
+     * Records that the service responded, or failed to, after the given number of nanoseconds while
+     * the request stays in flight; such as when a connection is accepted and then stays open until
+     * {@link #requestEnded(Object)} is called
+     *
+     * @param success false if the request failed or the service reported an error
+     */
+    void responseReceived(Object service, long durationNanos, boolean success);
+
+    /**
+     * Records that a request is no longer in flight without recording a response; such as when it was
+     * abandoned before being sent or after {@link #responseReceived(Object, long, boolean)}
+     */
+    void requestEnded(Object service);
+}
@@ -0,0 +1,29 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+/**
+ * A service which can tell load balancers an ID for it which is the same on every gateway and
+ * stays the same while the service runs; such as for the {@link ConsistentHashLoadBalancer} to
+ * place it on its ring. Services which do not implement this are identified by their String value.
+ */
+public interface LoadBalancedService {
+
+    /**
+     * Returns the ID of this service which is the same on every gateway
+     */
+    String getLoadBalancerId();
+}
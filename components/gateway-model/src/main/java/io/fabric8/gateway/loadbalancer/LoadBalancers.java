@@ -28,6 +28,10 @@ public class LoadBalancers {
     public static final String RANDOM_LOAD_BALANCER = "random";
     public static final String ROUND_ROBIN_LOAD_BALANCER = "roundrobin";
     public static final String STICKY_LOAD_BALANCER = "sticky";
+    public static final String LEAST_OUTSTANDING_REQUESTS_LOAD_BALANCER = "leastoutstanding";
+    public static final String EWMA_LOAD_BALANCER = "ewma";
+    public static final String POWER_OF_TWO_CHOICES_LOAD_BALANCER = "poweroftwochoices";
+    public static final String CONSISTENT_HASH_LOAD_BALANCER = "consistenthash";
 
     public static final int STICKY_LOAD_BALANCER_DEFAULT_CACHE_SIZE = 10000;
 
@@ -38,6 +42,14 @@ public class LoadBalancers {
             return new RoundRobinLoadBalancer();
         } else if (STICKY_LOAD_BALANCER.equals(loadBalancerType)) {
             return new StickyLoadBalancer(stickyLoadBalancerCacheSize);
+        } else if (LEAST_OUTSTANDING_REQUESTS_LOAD_BALANCER.equals(loadBalancerType)) {
+            return new LeastOutstandingRequestsLoadBalancer();
+        } else if (EWMA_LOAD_BALANCER.equals(loadBalancerType)) {
+            return new EwmaLoadBalancer();
+        } else if (POWER_OF_TWO_CHOICES_LOAD_BALANCER.equals(loadBalancerType)) {
+            return new PowerOfTwoChoicesLoadBalancer();
+        } else if (CONSISTENT_HASH_LOAD_BALANCER.equals(loadBalancerType)) {
+            return new ConsistentHashLoadBalancer();
         } else {
             if (Strings.isNotBlank(loadBalancerType)) {
                 LOG.warn("Ignored invalid load balancer type: " + loadBalancerType);
@@ -47,4 +59,42 @@ public class LoadBalancers {
             return new RoundRobinLoadBalancer();
         }
     }
+
+    /**
+     * Reports the outcome of a request to a service chosen by the given load balancer, if the load
+     * balancer needs to know; requests which were not load balanced pass a null service
+     *
+     * @param durationNanos how long the request took in nanoseconds
+     * @param success false if the request failed
+     * @see LoadAwareLoadBalancer#requestCompleted(Object, long, boolean)
+     */
+    public static void requestCompleted(LoadBalancer loadBalancer, Object service, long durationNanos, boolean success) {
+        if (service != null && loadBalancer instanceof LoadAwareLoadBalancer) {
+            ((LoadAwareLoadBalancer) loadBalancer).requestCompleted(service, durationNanos, success);
+        }
+    }
+
+    /**
+     * Reports that a service chosen by the given load balancer responded while the request stays
+     * in flight, if the load balancer needs to know
+     *
+     * @see LoadAwareLoadBalancer#responseReceived(Object, long, boolean)
+     */
+    public static void responseReceived(LoadBalancer loadBalancer, Object service, long durationNanos, boolean success) {
+        if (service != null && loadBalancer instanceof LoadAwareLoadBalancer) {
+            ((LoadAwareLoadBalancer) loadBalancer).responseReceived(service, durationNanos, success);
+        }
+    }
+
+    /**
+     * Reports that a request to a service chosen by the given load balancer is no longer in
+     * flight, if the load balancer needs to know
+     *
+     * @see LoadAwareLoadBalancer#requestEnded(Object)
+     */
+    public static void requestEnded(LoadBalancer loadBalancer, Object service) {
+        if (service != null && loadBalancer instanceof LoadAwareLoadBalancer) {
+            ((LoadAwareLoadBalancer) loadBalancer).requestEnded(service);
+        }
+    }
 }
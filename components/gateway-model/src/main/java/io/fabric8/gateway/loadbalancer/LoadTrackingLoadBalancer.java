@@ -0,0 +1,202 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A base class for load balancers which choose a service based on the
+ * {@link ServiceStatistics} of each service; such as the number of requests in flight or how
+ * quickly it has been responding.
+ */
+public abstract class LoadTrackingLoadBalancer implements LoadAwareLoadBalancer {
+    public static final long DEFAULT_DECAY_TIME = 10000;
+    public static final long DEFAULT_FAILURE_PENALTY = 1000;
+
+    private static final int PURGE_INTERVAL_MASK = 1023;
+    private static final long IDLE_DECAY_TIMES = 10;
+
+    private final ConcurrentMap<Object, ServiceStatistics> statistics = new ConcurrentHashMap<Object, ServiceStatistics>();
+    private final AtomicInteger counter = new AtomicInteger();
+    private final AtomicInteger chooseCounter = new AtomicInteger();
+    private final long decayTimeNanos;
+    private final long failurePenaltyNanos;
+
+    protected LoadTrackingLoadBalancer() {
+        this(DEFAULT_DECAY_TIME, DEFAULT_FAILURE_PENALTY);
+    }
+
+    /**
+     * @param decayTime the time in milliseconds over which old response times stop counting
+     * @param failurePenalty the minimum response time in milliseconds recorded for a failed request,
+     *                       so that a service which fails fast does not attract all the traffic
+     */
+    protected LoadTrackingLoadBalancer(long decayTime, long failurePenalty) {
+        this.decayTimeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(decayTime, 1));
+        this.failurePenaltyNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(failurePenalty, 0));
+    }
+
+    @Override
+    public <T> T choose(List<T> services, ClientRequestFacade requestFacade) {
+        int size = services.size();
+        if (size == 0) {
+            return null;
+        }
+        if ((chooseCounter.incrementAndGet() & PURGE_INTERVAL_MASK) == 0) {
+            purgeIdleStatistics(System.nanoTime() - IDLE_DECAY_TIMES * decayTimeNanos);
+        }
+        T answer = size == 1 ? services.get(0) : doChoose(services, requestFacade);
+        if (answer != null) {
+            getStatistics(answer).requestStarted();
+        }
+        return answer;
+    }
+
+    /**
+     * Chooses one of at least two services
+     */
+    protected abstract <T> T doChoose(List<T> services, ClientRequestFacade requestFacade);
+
+    @Override
+    public void requestCompleted(Object service, long durationNanos, boolean success) {
+        if (service != null) {
+            getStatistics(service).requestCompleted(penalise(durationNanos, success), success);
+        }
+    }
+
+    @Override
+    public void responseReceived(Object service, long durationNanos, boolean success) {
+        if (service != null) {
+            getStatistics(service).responseReceived(penalise(durationNanos, success), success);
+        }
+    }
+
+    @Override
+    public void requestEnded(Object service) {
+        if (service != null) {
+            getStatistics(service).requestEnded();
+        }
+    }
+
+    /**
+     * Returns the response time to record for a request, which is at least the failure penalty
+     * for a failed request
+     */
+    protected long penalise(long durationNanos, boolean success) {
+        return success ? durationNanos : Math.max(durationNanos, failurePenaltyNanos);
+    }
+
+    /**
+     * Returns the statistics of the given service, creating them if need be
+     */
+    public ServiceStatistics getStatistics(Object service) {
+        ServiceStatistics answer = statistics.get(service);
+        if (answer == null) {
+            answer = new ServiceStatistics(decayTimeNanos);
+            ServiceStatistics existing = statistics.putIfAbsent(service, answer);
+            if (existing != null) {
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns a read only view of the statistics of each service
+     */
+    public Map<Object, ServiceStatistics> getServiceStatistics() {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * Returns the index of the service at which to start scanning, which rotates so that ties
+     * between equally loaded services are spread around
+     */
+    protected int nextStartIndex(int size) {
+        int index = counter.getAndIncrement() % size;
+        return index < 0 ? index + size : index;
+    }
+
+    /**
+     * Returns the service with the lowest {@link #cost(ServiceStatistics, double)}
+     */
+    protected <T> T chooseLowestCost(List<T> services) {
+        int size = services.size();
+        double defaultLatency = averageLatency(services);
+        int start = nextStartIndex(size);
+        T answer = null;
+        double lowest = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            T service = services.get((start + i) % size);
+            double cost = cost(getStatistics(service), defaultLatency);
+            if (answer == null || cost < lowest) {
+                answer = service;
+                lowest = cost;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the average latency of the services which have been sampled, used as the latency of
+     * services which have not yet completed a request
+     */
+    protected <T> double averageLatency(List<T> services) {
+        double total = 0;
+        int count = 0;
+        for (T service : services) {
+            ServiceStatistics serviceStatistics = statistics.get(service);
+            if (serviceStatistics != null && serviceStatistics.isSampled()) {
+                total += serviceStatistics.getLatency();
+                count++;
+            }
+        }
+        return count > 0 ? total / count : 0;
+    }
+
+    /**
+     * Returns the cost of sending another request to a service; by default its average latency
+     * multiplied by the number of requests it would then have in flight
+     *
+     * @param defaultLatency the latency to assume if the service has no samples yet
+     */
+    protected double cost(ServiceStatistics serviceStatistics, double defaultLatency) {
+        double latency = serviceStatistics.isSampled() ? serviceStatistics.getLatency() : defaultLatency;
+        // add one nanosecond so that the outstanding requests still count before any latency is known
+        return (latency + 1) * (serviceStatistics.getOutstandingRequests() + 1);
+    }
+
+    /**
+     * Removes the statistics of services which have had no requests in flight since the given time,
+     * so that services which have gone away are forgotten
+     */
+    protected void purgeIdleStatistics(long idleSince) {
+        Iterator<ServiceStatistics> iter = statistics.values().iterator();
+        while (iter.hasNext()) {
+            ServiceStatistics serviceStatistics = iter.next();
+            if (serviceStatistics.getOutstandingRequests() == 0 && serviceStatistics.getLastUsed() - idleSince < 0) {
+                iter.remove();
+            }
+        }
+    }
+}
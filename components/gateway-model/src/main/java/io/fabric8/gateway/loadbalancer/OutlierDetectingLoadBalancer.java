@@ -0,0 +1,258 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A load balancer which passively tracks the health of each service from the outcome of the
+ * requests sent to it and temporarily ejects failing services before delegating the choice
+ * of the remaining services to another load balancer.
+ * <p/>
+ * See {@link ServiceHealth} for when a service is ejected and restored. If every service is
+ * ejected the load balancer fails open and chooses from all of them, as there is nothing better to do.
+ */
+public class OutlierDetectingLoadBalancer implements LoadAwareLoadBalancer {
+    private static final transient Logger LOG = LoggerFactory.getLogger(OutlierDetectingLoadBalancer.class);
+
+    public static final int DEFAULT_CONSECUTIVE_FAILURES = 5;
+    public static final int DEFAULT_FAILURE_RATE_PERCENTAGE = 50;
+    public static final int DEFAULT_FAILURE_RATE_REQUEST_VOLUME = 20;
+    public static final long DEFAULT_BASE_EJECTION_TIME = 10000;
+    public static final long DEFAULT_MAX_EJECTION_TIME = 300000;
+
+    private static final int PURGE_INTERVAL_MASK = 1023;
+
+    private final LoadBalancer loadBalancer;
+    private final ConcurrentMap<Object, ServiceHealth> health = new ConcurrentHashMap<Object, ServiceHealth>();
+    private final AtomicInteger chooseCounter = new AtomicInteger();
+    private int consecutiveFailures = DEFAULT_CONSECUTIVE_FAILURES;
+    private int failureRatePercentage = DEFAULT_FAILURE_RATE_PERCENTAGE;
+    private int failureRateRequestVolume = DEFAULT_FAILURE_RATE_REQUEST_VOLUME;
+    private long baseEjectionTime = DEFAULT_BASE_EJECTION_TIME;
+    private long maxEjectionTime = DEFAULT_MAX_EJECTION_TIME;
+
+    public OutlierDetectingLoadBalancer(LoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    @Override
+    public String toString() {
+        return "OutlierDetectingLoadBalancer{" +
+                "loadBalancer=" + loadBalancer +
+                ", consecutiveFailures=" + consecutiveFailures +
+                ", failureRatePercentage=" + failureRatePercentage +
+                ", baseEjectionTime=" + baseEjectionTime +
+                ", maxEjectionTime=" + maxEjectionTime +
+                '}';
+    }
+
+    @Override
+    public <T> T choose(List<T> services, ClientRequestFacade requestFacade) {
+        long now = System.nanoTime();
+        if ((chooseCounter.incrementAndGet() & PURGE_INTERVAL_MASK) == 0) {
+            purgeStaleServices(now);
+        }
+        if (health.isEmpty()) {
+            return loadBalancer.choose(services, requestFacade);
+        }
+        // only copy the services if some of them are ejected
+        List<T> available = null;
+        int size = services.size();
+        for (int i = 0; i < size; i++) {
+            T service = services.get(i);
+            ServiceHealth serviceHealth = health.get(service);
+            if (serviceHealth == null || !serviceHealth.isEjected()) {
+                if (available != null) {
+                    available.add(service);
+                }
+            } else if (serviceHealth.tryAcquire(now)) {
+                LOG.info("Probing ejected service " + service);
+                // go through the delegate so that it accounts for the probe like any other request
+                return loadBalancer.choose(Collections.singletonList(service), requestFacade);
+            } else if (available == null) {
+                available = new ArrayList<T>(services.subList(0, i));
+            }
+        }
+        if (available == null || available.isEmpty()) {
+            return loadBalancer.choose(services, requestFacade);
+        }
+        return loadBalancer.choose(available, requestFacade);
+    }
+
+    @Override
+    public void requestCompleted(Object service, long durationNanos, boolean success) {
+        recordOutcome(service, durationNanos, success);
+        LoadBalancers.requestCompleted(loadBalancer, service, durationNanos, success);
+    }
+
+    @Override
+    public void responseReceived(Object service, long durationNanos, boolean success) {
+        recordOutcome(service, durationNanos, success);
+        LoadBalancers.responseReceived(loadBalancer, service, durationNanos, success);
+    }
+
+    @Override
+    public void requestEnded(Object service) {
+        // there is no telling whether this was the probe, so an abandoned probe is left to expire
+        LoadBalancers.requestEnded(loadBalancer, service);
+    }
+
+    protected void recordOutcome(Object service, long durationNanos, boolean success) {
+        if (service == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long startedAt = now - durationNanos;
+        ServiceHealth serviceHealth = health.get(service);
+        if (success) {
+            if (serviceHealth != null) {
+                boolean wasProbing = serviceHealth.isProbing();
+                if (serviceHealth.recordSuccess(now, startedAt)) {
+                    LOG.warn("Ejected failing service " + service + " " + serviceHealth);
+                } else if (wasProbing && !serviceHealth.isEjected()) {
+                    LOG.info("Restored service " + service + " after a successful probe");
+                }
+                if (serviceHealth.isIdle()) {
+                    health.remove(service, serviceHealth);
+                }
+            }
+        } else {
+            if (serviceHealth == null) {
+                serviceHealth = new ServiceHealth(this);
+                ServiceHealth existing = health.putIfAbsent(service, serviceHealth);
+                if (existing != null) {
+                    serviceHealth = existing;
+                }
+            }
+            if (serviceHealth.recordFailure(now, startedAt)) {
+                LOG.warn("Ejected failing service " + service + " " + serviceHealth);
+            }
+        }
+    }
+
+    protected void purgeStaleServices(long now) {
+        long staleNanos = TimeUnit.MILLISECONDS.toNanos(maxEjectionTime);
+        Iterator<ServiceHealth> iter = health.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().isStale(now, staleNanos)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the ejection time in nanoseconds for the given number of consecutive ejections,
+     * doubling the base ejection time each time up to the maximum ejection time
+     */
+    long ejectionTimeNanos(int ejections) {
+        long answer = baseEjectionTime;
+        for (int i = 1; i < ejections && answer < maxEjectionTime; i++) {
+            answer *= 2;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.min(answer, maxEjectionTime));
+    }
+
+    /**
+     * Returns the health of the services which have recently failed
+     */
+    public Map<Object, ServiceHealth> getServiceHealth() {
+        return Collections.unmodifiableMap(health);
+    }
+
+    /**
+     * Returns a description of each service which is currently ejected
+     */
+    public List<String> getEjectedServices() {
+        List<String> answer = new ArrayList<String>();
+        for (Map.Entry<Object, ServiceHealth> entry : health.entrySet()) {
+            if (entry.getValue().isEjected()) {
+                answer.add(entry.getKey() + " " + entry.getValue());
+            }
+        }
+        return answer;
+    }
+
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Sets the number of consecutive failures after which a service is ejected
+     */
+    public void setConsecutiveFailures(int consecutiveFailures) {
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    public int getFailureRatePercentage() {
+        return failureRatePercentage;
+    }
+
+    /**
+     * Sets the percentage of failed requests after which a service is ejected
+     */
+    public void setFailureRatePercentage(int failureRatePercentage) {
+        this.failureRatePercentage = failureRatePercentage;
+    }
+
+    public int getFailureRateRequestVolume() {
+        return failureRateRequestVolume;
+    }
+
+    /**
+     * Sets the number of requests over which the failure rate of a service is measured
+     */
+    public void setFailureRateRequestVolume(int failureRateRequestVolume) {
+        this.failureRateRequestVolume = failureRateRequestVolume;
+    }
+
+    public long getBaseEjectionTime() {
+        return baseEjectionTime;
+    }
+
+    /**
+     * Sets the time in milliseconds a service is first ejected for
+     */
+    public void setBaseEjectionTime(long baseEjectionTime) {
+        this.baseEjectionTime = baseEjectionTime;
+    }
+
+    public long getMaxEjectionTime() {
+        return maxEjectionTime;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a service is ejected for
+     */
+    public void setMaxEjectionTime(long maxEjectionTime) {
+        this.maxEjectionTime = maxEjectionTime;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks two services at random and chooses the one with the lower cost, using the same latency
+ * weighted cost as the {@link EwmaLoadBalancer}.
+ * <p/>
+ * This avoids busy and slow services almost as well as scanning every service, but without
+ * every gateway herding onto the same momentarily idle service and at a constant cost however
+ * many services there are.
+ */
+public class PowerOfTwoChoicesLoadBalancer extends LoadTrackingLoadBalancer {
+    private final long decayTime;
+
+    public PowerOfTwoChoicesLoadBalancer() {
+        this(DEFAULT_DECAY_TIME, DEFAULT_FAILURE_PENALTY);
+    }
+
+    public PowerOfTwoChoicesLoadBalancer(long decayTime, long failurePenalty) {
+        super(decayTime, failurePenalty);
+        this.decayTime = decayTime;
+    }
+
+    @Override
+    public String toString() {
+        return "PowerOfTwoChoicesLoadBalancer{" +
+                "decayTime=" + decayTime +
+                '}';
+    }
+
+    @Override
+    protected <T> T doChoose(List<T> services, ClientRequestFacade requestFacade) {
+        int size = services.size();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        T a = services.get(first);
+        T b = services.get(second);
+        ServiceStatistics statisticsA = getStatistics(a);
+        ServiceStatistics statisticsB = getStatistics(b);
+        double defaultLatency = 0;
+        if (!statisticsA.isSampled() || !statisticsB.isSampled()) {
+            defaultLatency = averageLatency(services);
+        }
+        return cost(statisticsB, defaultLatency) < cost(statisticsA, defaultLatency) ? b : a;
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the recent failures of a single service for an {@link OutlierDetectingLoadBalancer}
+ * and whether the service is currently ejected from load balancing.
+ * <p/>
+ * A service is ejected after too many consecutive failures or too high a failure rate. Once its
+ * ejection time is up a single request is let through as a probe; if that succeeds the service is
+ * restored, otherwise it is ejected again for twice as long up to the maximum ejection time.
+ * <p/>
+ * Only the service is passed back with the outcome of a request, so the probe is told apart from the
+ * requests which were already in flight when the service was ejected by when it started: the probe
+ * is the first request to report an outcome which started after it was let through. A probe which
+ * never reports an outcome, such as when it is abandoned, is given up on after the last ejection time
+ * and the next request is let through as a probe instead.
+ */
+public class ServiceHealth {
+    private final OutlierDetectingLoadBalancer policy;
+    private int consecutiveFailures;
+    private int windowRequests;
+    private int windowFailures;
+    private int ejections;
+    private long totalEjections;
+    private boolean ejected;
+    private boolean probing;
+    private long ejectedAt;
+    private long ejectedUntil;
+    private long probeStartedAt;
+
+    ServiceHealth(OutlierDetectingLoadBalancer policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long now = System.nanoTime();
+        StringBuilder builder = new StringBuilder("ServiceHealth{");
+        if (ejected) {
+            boolean probeInFlight = isProbeInFlight(now);
+            builder.append(probeInFlight ? "probing" : "ejected");
+            builder.append(", ejectedFor=").append(TimeUnit.NANOSECONDS.toMillis(now - ejectedAt)).append("ms");
+            if (!probeInFlight) {
+                builder.append(", remaining=").append(Math.max(TimeUnit.NANOSECONDS.toMillis(ejectedUntil - now), 0)).append("ms");
+            }
+        } else {
+            builder.append("available");
+        }
+        return builder.append(", consecutiveFailures=").append(consecutiveFailures)
+                .append(", ejections=").append(ejections)
+                .append(", totalEjections=").append(totalEjections)
+                .append('}').toString();
+    }
+
+    /**
+     * Returns true if the service is ejected, including while it is being probed
+     */
+    public synchronized boolean isEjected() {
+        return ejected;
+    }
+
+    /**
+     * Returns true if the service is available for load balancing, otherwise returns false unless
+     * its ejection time is up and no other probe is in flight, in which case the caller may use it
+     * as the probe and true is returned
+     */
+    synchronized boolean tryAcquire(long now) {
+        if (!ejected) {
+            return true;
+        }
+        if (now - ejectedUntil >= 0 && !isProbeInFlight(now)) {
+            probing = true;
+            probeStartedAt = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if this service is in the probing state
+     */
+    public synchronized boolean isProbing() {
+        return probing;
+    }
+
+    /**
+     * Returns true if a probe has been let through which has not reported an outcome yet
+     * and has not been given up on
+     */
+    protected boolean isProbeInFlight(long now) {
+        return probing && now - probeStartedAt < ejectedUntil - ejectedAt;
+    }
+
+    /**
+     * Returns true if the request which started at the given time is the probe, rather than
+     * a request which was let through before the probe
+     */
+    protected boolean isProbe(long startedAt) {
+        return probing && startedAt - probeStartedAt >= 0;
+    }
+
+    /**
+     * Records the success of a request which started at the given time and returns true if the
+     * service has been ejected as a result of its failure rate over the last window of requests
+     */
+    synchronized boolean recordSuccess(long now, long startedAt) {
+        consecutiveFailures = 0;
+        if (isProbe(startedAt)) {
+            // the service has recovered
+            probing = false;
+            ejected = false;
+            ejections = 0;
+            resetWindow();
+        } else if (!ejected) {
+            windowRequests++;
+            return checkWindow(now);
+        }
+        return false;
+    }
+
+    /**
+     * Records the failure of a request which started at the given time and returns true if the
+     * service has been ejected as a result
+     */
+    synchronized boolean recordFailure(long now, long startedAt) {
+        if (isProbe(startedAt)) {
+            consecutiveFailures++;
+            probing = false;
+            eject(now);
+            return true;
+        }
+        if (ejected) {
+            // a request which was in flight before the probe
+            return false;
+        }
+        consecutiveFailures++;
+        windowRequests++;
+        windowFailures++;
+        if (consecutiveFailures >= policy.getConsecutiveFailures()) {
+            eject(now);
+            return true;
+        }
+        return checkWindow(now);
+    }
+
+    /**
+     * Returns true if the service is healthy and no longer needs tracking
+     */
+    synchronized boolean isIdle() {
+        return !ejected && consecutiveFailures == 0 && windowFailures == 0;
+    }
+
+    /**
+     * Returns true if the service has been ejected without being probed for longer than the given time,
+     * which means it is probably no longer one of the services being load balanced
+     */
+    synchronized boolean isStale(long now, long staleNanos) {
+        return ejected && !isProbeInFlight(now) && now - ejectedUntil > staleNanos;
+    }
+
+    protected void eject(long now) {
+        ejections++;
+        totalEjections++;
+        ejected = true;
+        ejectedAt = now;
+        ejectedUntil = now + policy.ejectionTimeNanos(ejections);
+        resetWindow();
+    }
+
+    /**
+     * Ejects the service if the window of requests is complete and too many of them failed,
+     * otherwise starts a new window
+     */
+    protected boolean checkWindow(long now) {
+        if (windowRequests >= policy.getFailureRateRequestVolume()) {
+            if (windowFailures * 100 >= policy.getFailureRatePercentage() * windowRequests) {
+                eject(now);
+                return true;
+            }
+            resetWindow();
+        }
+        return false;
+    }
+
+    protected void resetWindow() {
+        windowRequests = 0;
+        windowFailures = 0;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long getTotalEjections() {
+        return totalEjections;
+    }
+}
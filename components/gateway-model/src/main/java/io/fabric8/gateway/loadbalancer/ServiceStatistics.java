@@ -0,0 +1,149 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the number of outstanding requests and an exponentially weighted moving
+ * average of the response time of a single service so that a {@link LoadTrackingLoadBalancer}
+ * can avoid services which are busy or slow.
+ * <p/>
+ * The average decays with time rather than with the number of samples, so a service that
+ * recovers is trusted again after a few multiples of the decay time; a response slower than the
+ * current average is taken as the new average straight away so a degrading service is
+ * avoided quickly.
+ */
+public class ServiceStatistics {
+    private final long decayTimeNanos;
+    private final AtomicInteger outstandingRequests = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile double latency;
+    private volatile long lastSampleTime;
+    private volatile boolean sampled;
+    private volatile long lastUsed = System.nanoTime();
+
+    public ServiceStatistics(long decayTimeNanos) {
+        this.decayTimeNanos = decayTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceStatistics{" +
+                "outstandingRequests=" + outstandingRequests +
+                ", latency=" + latency +
+                ", requests=" + requests +
+                ", failures=" + failures +
+                '}';
+    }
+
+    /**
+     * Records that a request has been sent to the service
+     */
+    public void requestStarted() {
+        outstandingRequests.incrementAndGet();
+        lastUsed = System.nanoTime();
+    }
+
+    /**
+     * Records that a request to the service has completed after the given number of nanoseconds
+     */
+    public void requestCompleted(long durationNanos, boolean success) {
+        decrementOutstandingRequests();
+        responseReceived(durationNanos, success);
+    }
+
+    /**
+     * Records that the service responded to a request after the given number of nanoseconds,
+     * without ending the request; such as when a connection is accepted but stays open
+     */
+    public void responseReceived(long durationNanos, boolean success) {
+        requests.incrementAndGet();
+        if (!success) {
+            failures.incrementAndGet();
+        }
+        long now = System.nanoTime();
+        updateLatency(Math.max(durationNanos, 0), now);
+        lastUsed = now;
+    }
+
+    /**
+     * Records that a request is no longer in flight without recording a response time; such as
+     * when it was abandoned before it got to the service or its response was already recorded
+     */
+    public void requestEnded() {
+        decrementOutstandingRequests();
+        lastUsed = System.nanoTime();
+    }
+
+    protected void decrementOutstandingRequests() {
+        // never go negative if a caller reports a request it did not start
+        int count;
+        do {
+            count = outstandingRequests.get();
+        } while (count > 0 && !outstandingRequests.compareAndSet(count, count - 1));
+    }
+
+    protected synchronized void updateLatency(long sample, long now) {
+        if (!sampled || sample > latency) {
+            latency = sample;
+            sampled = true;
+        } else {
+            long elapsed = Math.max(now - lastSampleTime, 0);
+            double weight = Math.exp(-(double) elapsed / decayTimeNanos);
+            latency = latency * weight + sample * (1.0 - weight);
+        }
+        lastSampleTime = now;
+    }
+
+    /**
+     * Returns the number of requests which have been sent to the service and not yet completed
+     */
+    public int getOutstandingRequests() {
+        return outstandingRequests.get();
+    }
+
+    /**
+     * Returns the moving average of the response time in nanoseconds
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns true if at least one request to the service has completed
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which a request was last started or completed
+     */
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+}
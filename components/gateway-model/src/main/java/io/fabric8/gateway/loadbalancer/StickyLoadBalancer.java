@@ -15,19 +15,23 @@
  */
 package io.fabric8.gateway.loadbalancer;
 
-import java.util.LinkedHashMap;
+import io.fabric8.gateway.support.BoundedConcurrentCache;
+
 import java.util.List;
-import java.util.Map;
 
 /**
  * Implements a sticky load balancer where a unique client ID String is requested from the
  * {@link ClientRequestFacade} and used to keep track of which
  * service was used last time and to use that if its possible and keep a cache of requests to
+ * <p/>
+ * The cache of client IDs is bounded and can be accessed concurrently without locking; if the
+ * cached service is no longer one of the available services a new one is chosen.
  */
 public class StickyLoadBalancer implements LoadBalancer {
     private final LoadBalancer firstRequestLoadBalancer;
     private final int maximumCacheSize;
-    private final Map<String, Object> requestCache;
+    private final long timeToLive;
+    private final BoundedConcurrentCache<String, Object> requestCache;
 
     public StickyLoadBalancer() {
         this(LoadBalancers.STICKY_LOAD_BALANCER_DEFAULT_CACHE_SIZE);
@@ -38,33 +42,48 @@ public class StickyLoadBalancer implements LoadBalancer {
     }
 
     public StickyLoadBalancer(int maximumCacheSize, LoadBalancer firstRequestLoadBalancer) {
+        this(maximumCacheSize, 0, firstRequestLoadBalancer);
+    }
+
+    /**
+     * @param maximumCacheSize the maximum number of client IDs to remember
+     * @param timeToLive the time in milliseconds after which an unused client ID is forgotten; zero or less to never expire them
+     * @param firstRequestLoadBalancer the load balancer used to choose the service for a new client ID
+     */
+    public StickyLoadBalancer(int maximumCacheSize, long timeToLive, LoadBalancer firstRequestLoadBalancer) {
         this.firstRequestLoadBalancer = firstRequestLoadBalancer;
         this.maximumCacheSize = maximumCacheSize;
-        this.requestCache = new LinkedHashMap(maximumCacheSize + 1, .75F, true) {
-            // This method is called just after a new entry has been added
-            public boolean removeEldestEntry(Map.Entry eldest) {
-                return size() > StickyLoadBalancer.this.maximumCacheSize;
-            }
-        };
+        this.timeToLive = timeToLive;
+        this.requestCache = new BoundedConcurrentCache<String, Object>(maximumCacheSize, timeToLive);
     }
 
     @Override
     public String toString() {
         return "StickyLoadBalancer{" +
                 "maximumCacheSize=" + maximumCacheSize +
+                ", timeToLive=" + timeToLive +
                 '}';
     }
 
     @Override
     public <T> T choose(List<T> services, ClientRequestFacade requestFacade) {
         String clientKey = requestFacade.getClientRequestKey();
-        T answer;
-        synchronized (requestCache) {
-            answer = (T) requestCache.get(clientKey);
-            if (answer == null) {
-                answer = firstRequestLoadBalancer.choose(services, requestFacade);
-                if (answer != null) {
-                    requestCache.put(clientKey, answer);
+        if (clientKey == null) {
+            return firstRequestLoadBalancer.choose(services, requestFacade);
+        }
+        T answer = (T) requestCache.get(clientKey);
+        if (answer != null && !services.contains(answer)) {
+            // the service has gone away so lets pick another one
+            requestCache.remove(clientKey, answer);
+            answer = null;
+        }
+        if (answer == null) {
+            answer = firstRequestLoadBalancer.choose(services, requestFacade);
+            if (answer != null) {
+                T existing = (T) requestCache.putIfAbsent(clientKey, answer);
+                if (existing != null && services.contains(existing)) {
+                    // another request from the same client got there first
+                    answer = existing;
                 }
             }
         }
@@ -75,8 +94,13 @@ public class StickyLoadBalancer implements LoadBalancer {
      * Clears the cache of request client IDs to the bound service
      */
     public void flush() {
-        synchronized (requestCache) {
-            requestCache.clear();
-        }
+        requestCache.clear();
+    }
+
+    /**
+     * Returns the number of client IDs currently bound to a service
+     */
+    public int getCacheSize() {
+        return requestCache.size();
     }
 }
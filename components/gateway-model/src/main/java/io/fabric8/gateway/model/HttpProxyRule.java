@@ -17,6 +17,7 @@ package io.fabric8.gateway.model;
 
 import io.fabric8.gateway.loadbalancer.ClientRequestFacade;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
+import io.fabric8.gateway.loadbalancer.LoadBalancers;
 import io.fabric8.gateway.model.loadbalancer.LoadBalancerDefinition;
 import io.fabric8.gateway.model.loadbalancer.RoundRobinLoadBalanceDefinition;
 import io.fabric8.gateway.support.MappingResult;
@@ -68,6 +69,22 @@ public class HttpProxyRule {
         return loadBalancer.choose(uriDefList, requestFacade);
     }
 
+    /**
+     * Reports the outcome of a request to a back end service returned from {@link #chooseBackEndService(ClientRequestFacade)}
+     * so that a load aware load balancer can avoid busy or slow services
+     */
+    public void backEndServiceCompleted(UriTemplateDefinition backEndService, long durationNanos, boolean success) {
+        LoadBalancers.requestCompleted(getLoadBalancer().getLoadBalancer(), backEndService, durationNanos, success);
+    }
+
+    /**
+     * Reports that a request to a back end service returned from {@link #chooseBackEndService(ClientRequestFacade)}
+     * was abandoned before it was sent
+     */
+    public void backEndServiceCancelled(UriTemplateDefinition backEndService) {
+        LoadBalancers.requestEnded(getLoadBalancer().getLoadBalancer(), backEndService);
+    }
+
     // DSL
     //-------------------------------------------------------------------------
 
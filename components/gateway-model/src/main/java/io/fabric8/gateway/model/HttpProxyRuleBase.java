@@ -15,23 +15,44 @@
  */
 package io.fabric8.gateway.model;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a collection of HTTP proxy mapping rules.
  * <p/>
  * These can be created via a Java DSL and XML DSL (JAXB) or loaded from a database.
+ * <p/>
+ * Every change to the rules, whether through the DSL or through the map returned by
+ * {@link #getMappingRules()}, increments the {@link #getVersion()} so that anything compiled
+ * from the rules knows when to rebuild.
  */
 public class HttpProxyRuleBase {
-    private Map<String, HttpProxyRule> mappingRules = new HashMap<String, HttpProxyRule>();
+    private final AtomicLong version = new AtomicLong();
+    private Map<String, HttpProxyRule> mappingRules = new RuleMap(new HashMap<String, HttpProxyRule>(), version);
 
     public Map<String, HttpProxyRule> getMappingRules() {
         return mappingRules;
     }
 
+    /**
+     * Replaces the mapping rules with a copy of the given rules
+     */
     public void setMappingRules(Map<String, HttpProxyRule> mappingRules) {
-        this.mappingRules = mappingRules;
+        this.mappingRules = new RuleMap(new HashMap<String, HttpProxyRule>(mappingRules), version);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of changes made to the rules so far
+     */
+    public long getVersion() {
+        return version.get();
     }
 
     /**
@@ -45,4 +66,96 @@ public class HttpProxyRuleBase {
         }
         return answer;
     }
+
+    /**
+     * A map of the rules which counts every change made to it or through its views
+     */
+    private static class RuleMap extends AbstractMap<String, HttpProxyRule> {
+        private final Map<String, HttpProxyRule> rules;
+        private final AtomicLong version;
+
+        RuleMap(Map<String, HttpProxyRule> rules, AtomicLong version) {
+            this.rules = rules;
+            this.version = version;
+        }
+
+        @Override
+        public HttpProxyRule get(Object key) {
+            return rules.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return rules.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return rules.size();
+        }
+
+        @Override
+        public HttpProxyRule put(String key, HttpProxyRule value) {
+            HttpProxyRule answer = rules.put(key, value);
+            version.incrementAndGet();
+            return answer;
+        }
+
+        @Override
+        public HttpProxyRule remove(Object key) {
+            if (!rules.containsKey(key)) {
+                return null;
+            }
+            HttpProxyRule answer = rules.remove(key);
+            version.incrementAndGet();
+            return answer;
+        }
+
+        @Override
+        public void clear() {
+            rules.clear();
+            version.incrementAndGet();
+        }
+
+        @Override
+        public Set<Entry<String, HttpProxyRule>> entrySet() {
+            return new AbstractSet<Entry<String, HttpProxyRule>>() {
+                @Override
+                public int size() {
+                    return rules.size();
+                }
+
+                @Override
+                public Iterator<Entry<String, HttpProxyRule>> iterator() {
+                    final Iterator<Entry<String, HttpProxyRule>> iterator = rules.entrySet().iterator();
+                    return new Iterator<Entry<String, HttpProxyRule>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, HttpProxyRule> next() {
+                            final Entry<String, HttpProxyRule> entry = iterator.next();
+                            return new SimpleEntry<String, HttpProxyRule>(entry) {
+                                @Override
+                                public HttpProxyRule setValue(HttpProxyRule value) {
+                                    super.setValue(value);
+                                    HttpProxyRule answer = entry.setValue(value);
+                                    version.incrementAndGet();
+                                    return answer;
+                                }
+                            };
+                        }
+
+                        @Override
+                        public void remove() {
+                            iterator.remove();
+                            version.incrementAndGet();
+                        }
+                    };
+                }
+            };
+        }
+    }
 }
@@ -15,13 +15,14 @@
  */
 package io.fabric8.gateway.model;
 
+import io.fabric8.gateway.loadbalancer.LoadBalancedService;
 import io.fabric8.gateway.support.UriTemplate;
 
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  */
-public class UriTemplateDefinition {
+public class UriTemplateDefinition implements LoadBalancedService {
     private String uriTemplate;
     private AtomicReference<UriTemplate> uriTemplateReference = new AtomicReference<UriTemplate>();
 
@@ -56,6 +57,11 @@ public class UriTemplateDefinition {
                 '}';
     }
 
+    @Override
+    public String getLoadBalancerId() {
+        return uriTemplate;
+    }
+
     // Properties
     //-------------------------------------------------------------------------
 
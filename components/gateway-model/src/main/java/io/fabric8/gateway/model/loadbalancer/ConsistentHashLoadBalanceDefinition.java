@@ -0,0 +1,54 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.model.loadbalancer;
+
+import io.fabric8.gateway.loadbalancer.ConsistentHashLoadBalancer;
+import io.fabric8.gateway.loadbalancer.LoadBalancer;
+
+/**
+ */
+public class ConsistentHashLoadBalanceDefinition extends LoadBalancerDefinition {
+    private int replicas = ConsistentHashLoadBalancer.DEFAULT_REPLICAS;
+    private double loadFactor = ConsistentHashLoadBalancer.DEFAULT_LOAD_FACTOR;
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Sets the number of points each service gets on the hash ring
+     */
+    public void setReplicas(int replicas) {
+        this.replicas = replicas;
+    }
+
+    public double getLoadFactor() {
+        return loadFactor;
+    }
+
+    /**
+     * Sets how many times the average number of requests in flight a service may have before
+     * its clients spill over to the next service on the ring
+     */
+    public void setLoadFactor(double loadFactor) {
+        this.loadFactor = loadFactor;
+    }
+
+    @Override
+    protected LoadBalancer createLoadBalancer() {
+        return new ConsistentHashLoadBalancer(replicas, loadFactor);
+    }
+}
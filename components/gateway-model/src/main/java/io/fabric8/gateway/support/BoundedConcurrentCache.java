@@ -0,0 +1,280 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.support;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache which can be read and written concurrently without taking a lock.
+ * <p/>
+ * Entries live in a {@link ConcurrentHashMap}. When the cache grows beyond its maximum size,
+ * entries are evicted using the CLOCK (second chance) algorithm: every read marks an entry as
+ * referenced, and the eviction sweep gives referenced entries another pass before evicting
+ * them. This approximates LRU without reordering a list on every read.
+ * <p/>
+ * If a time to live is set, an entry which has not been read for that long is treated as
+ * missing and removed.
+ * <p/>
+ * Removed entries stay on the clock until a sweep reaches them; they no longer count towards
+ * the maximum size, and a sweep is started once there are more of them than the maximum size.
+ */
+public class BoundedConcurrentCache<K, V> {
+    private final int maximumSize;
+    private final long timeToLive;
+    private final ConcurrentHashMap<K, Entry<K, V>> map;
+    private final ConcurrentLinkedQueue<Entry<K, V>> clock = new ConcurrentLinkedQueue<Entry<K, V>>();
+    private final AtomicInteger clockSize = new AtomicInteger();
+    private final AtomicInteger removedOnClock = new AtomicInteger();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final AtomicLong evictions = new AtomicLong();
+
+    static final class Entry<K, V> {
+        final K key;
+        final V value;
+        volatile long lastAccess;
+        volatile boolean referenced;
+        volatile boolean removed;
+
+        Entry(K key, V value, long now) {
+            this.key = key;
+            this.value = value;
+            this.lastAccess = now;
+        }
+    }
+
+    /**
+     * @param maximumSize the maximum number of entries
+     * @param timeToLive the time in milliseconds after the last access at which an entry expires; zero or less disables expiry
+     */
+    public BoundedConcurrentCache(int maximumSize, long timeToLive) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive but was " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.timeToLive = timeToLive;
+        this.map = new ConcurrentHashMap<K, Entry<K, V>>(Math.min(maximumSize, 1024));
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedConcurrentCache{" +
+                "maximumSize=" + maximumSize +
+                ", timeToLive=" + timeToLive +
+                ", size=" + size() +
+                '}';
+    }
+
+    /**
+     * Returns the value for the given key or null if there is none or it has expired
+     */
+    public V get(K key) {
+        Entry<K, V> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (timeToLive > 0) {
+            long now = System.currentTimeMillis();
+            if (isExpired(entry, now)) {
+                removeEntry(entry);
+                return null;
+            }
+            entry.lastAccess = now;
+        }
+        // avoid writing to the shared entry when it is already marked
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Associates the value with the key unless there is already a live value for the key
+     *
+     * @return the existing value or null if the given value was added
+     */
+    public V putIfAbsent(K key, V value) {
+        long now = System.currentTimeMillis();
+        Entry<K, V> entry = new Entry<K, V>(key, value, now);
+        while (true) {
+            Entry<K, V> existing = map.putIfAbsent(key, entry);
+            if (existing == null) {
+                added(entry);
+                return null;
+            }
+            if (!isExpired(existing, now)) {
+                return existing.value;
+            }
+            // replace the expired entry
+            if (map.replace(key, existing, entry)) {
+                removed(existing);
+                added(entry);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Removes the value for the given key
+     *
+     * @return the removed value or null if there was none
+     */
+    public V remove(K key) {
+        Entry<K, V> entry = map.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        removed(entry);
+        return entry.value;
+    }
+
+    /**
+     * Removes the entry for the given key only if it is currently mapped to the given value
+     */
+    public boolean remove(K key, V value) {
+        Entry<K, V> entry = map.get(key);
+        if (entry != null && (entry.value == value || (value != null && value.equals(entry.value)))) {
+            return removeEntry(entry);
+        }
+        return false;
+    }
+
+    public void clear() {
+        Entry<K, V> entry;
+        while ((entry = clock.poll()) != null) {
+            dropFromClock(entry);
+        }
+        // entries being added concurrently may not be on the clock yet
+        for (Entry<K, V> value : map.values()) {
+            removeEntry(value);
+        }
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Returns the number of entries which have been evicted to keep the cache within its maximum size
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of live and removed entries on the clock; this walks the clock so is only for testing
+     */
+    int getClockLength() {
+        return clock.size();
+    }
+
+    protected boolean isExpired(Entry<K, V> entry, long now) {
+        return timeToLive > 0 && now - entry.lastAccess > timeToLive;
+    }
+
+    private boolean removeEntry(Entry<K, V> entry) {
+        if (map.remove(entry.key, entry)) {
+            removed(entry);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Accounts for an entry removed from the map which is still on the clock
+     */
+    private void removed(Entry<K, V> entry) {
+        entry.removed = true;
+        clockSize.decrementAndGet();
+        if (removedOnClock.incrementAndGet() > maximumSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Drops an entry taken off the clock, removing it from the map if it is still there
+     *
+     * @return true if this call removed the entry from the map
+     */
+    private boolean dropFromClock(Entry<K, V> entry) {
+        if (!entry.removed && map.remove(entry.key, entry)) {
+            entry.removed = true;
+            clockSize.decrementAndGet();
+            return true;
+        }
+        // whoever removed it counted it as still being on the clock
+        removedOnClock.decrementAndGet();
+        return false;
+    }
+
+    private void added(Entry<K, V> entry) {
+        clock.offer(entry);
+        if (clockSize.incrementAndGet() > maximumSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Sweeps the clock until it holds no more than the maximum number of live entries and no more
+     * than that many removed ones. Only one thread sweeps at a time; other writers carry on and the
+     * cache may briefly overshoot.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            // every entry gets at most one second chance per sweep
+            int budget = 2 * (clockSize.get() + removedOnClock.get());
+            while ((clockSize.get() > maximumSize || removedOnClock.get() > maximumSize) && budget-- > 0) {
+                Entry<K, V> entry = clock.poll();
+                if (entry == null) {
+                    break;
+                }
+                if (entry.removed) {
+                    removedOnClock.decrementAndGet();
+                    continue;
+                }
+                boolean overSize = clockSize.get() > maximumSize;
+                if (!overSize || (entry.referenced && !isExpired(entry, now))) {
+                    // only removed entries are being swept out or the entry gets its second chance
+                    if (overSize) {
+                        entry.referenced = false;
+                    }
+                    clock.offer(entry);
+                    continue;
+                }
+                if (dropFromClock(entry)) {
+                    evictions.incrementAndGet();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.support;
+
+import io.fabric8.gateway.model.HttpProxyRule;
+import io.fabric8.gateway.model.HttpProxyRuleBase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable tree of {@link HttpProxyRule}s keyed by the path segments of their URI templates, so that
+ * finding the rule for a request URI only visits the rules which could match rather than every rule.
+ * <p/>
+ * Literal segments are tried before URI template variable segments, so the more specific rule wins when
+ * more than one rule could match a request.
+ */
+public class HttpProxyRuleTrie {
+    private static final transient Logger LOG = LoggerFactory.getLogger(HttpProxyRuleTrie.class);
+
+    private final Node root = new Node();
+    private final HttpProxyRuleBase ruleBase;
+    private final long version;
+
+    static class Node {
+        final Map<String, Node> literals = new HashMap<String, Node>();
+        Node variable;
+        /**
+         * The rules whose URI template ends at this node
+         */
+        final List<HttpProxyRule> rules = new ArrayList<HttpProxyRule>();
+        /**
+         * The rules whose URI template ends with a variable at this node which also consumes any remaining paths
+         */
+        final List<HttpProxyRule> trailingRules = new ArrayList<HttpProxyRule>();
+
+        Node literal(String segment) {
+            Node answer = literals.get(segment);
+            if (answer == null) {
+                answer = new Node();
+                literals.put(segment, answer);
+            }
+            return answer;
+        }
+
+        Node variable() {
+            if (variable == null) {
+                variable = new Node();
+            }
+            return variable;
+        }
+    }
+
+    public HttpProxyRuleTrie(HttpProxyRuleBase ruleBase) {
+        this.ruleBase = ruleBase;
+        // read before the rules so that a change made while building makes this tree stale
+        this.version = ruleBase.getVersion();
+        for (HttpProxyRule rule : ruleBase.getMappingRules().values()) {
+            addRule(rule);
+        }
+    }
+
+    /**
+     * Returns the result of the first rule which matches the given request URI paths or null if there is no match
+     */
+    public MappingResult findMappingRule(String[] paths) {
+        return findMappingRule(root, paths, 0);
+    }
+
+    /**
+     * Returns true if this tree was not built from the current version of the given rules; such as if
+     * rules have been added, replaced or removed since
+     */
+    public boolean isStale(HttpProxyRuleBase rules) {
+        return rules != ruleBase || rules.getVersion() != version;
+    }
+
+    protected MappingResult findMappingRule(Node node, String[] paths, int index) {
+        if (index == paths.length) {
+            return matches(node.rules, paths);
+        }
+        Node literal = node.literals.get(paths[index]);
+        if (literal != null) {
+            MappingResult answer = findMappingRule(literal, paths, index + 1);
+            if (answer != null) {
+                return answer;
+            }
+        }
+        Node variable = node.variable;
+        if (variable != null) {
+            MappingResult answer = findMappingRule(variable, paths, index + 1);
+            if (answer == null) {
+                answer = matches(variable.trailingRules, paths);
+            }
+            return answer;
+        }
+        return null;
+    }
+
+    protected MappingResult matches(List<HttpProxyRule> rules, String[] paths) {
+        for (HttpProxyRule rule : rules) {
+            MappingResult answer = rule.matches(paths);
+            if (answer != null) {
+                return answer;
+            }
+        }
+        return null;
+    }
+
+    private void addRule(HttpProxyRule rule) {
+        if (rule.getUriTemplate() == null || rule.getUriTemplate().getUriTemplate() == null) {
+            LOG.warn("Ignoring mapping rule without a URI template: " + rule);
+            return;
+        }
+        UriTemplate template = rule.getUriTemplateObject();
+        String[] paths = template.getPaths();
+        Node node = root;
+        int lastIndex = paths.length - 1;
+        for (int i = 0; i <= lastIndex; i++) {
+            boolean variable = template.getWildcardParameterName(i) != null;
+            if (variable && i == lastIndex) {
+                node.variable().trailingRules.add(rule);
+                return;
+            }
+            node = variable ? node.variable() : node.literal(paths[i]);
+        }
+        node.rules.add(rule);
+    }
+}
@@ -42,7 +42,20 @@ public class MappingResult {
      * Returns the resulting proxy URL from the mapping rule
      */
     public String getDestinationUrl(ClientRequestFacade requestFacade) {
-        UriTemplateDefinition uriTemplateDefinition = proxyRule.chooseBackEndService(requestFacade);
+        return getDestinationUrl(chooseBackEndService(requestFacade));
+    }
+
+    /**
+     * Chooses the back end service to use from the proxy mapping rule
+     */
+    public UriTemplateDefinition chooseBackEndService(ClientRequestFacade requestFacade) {
+        return proxyRule.chooseBackEndService(requestFacade);
+    }
+
+    /**
+     * Returns the resulting proxy URL for the given back end service
+     */
+    public String getDestinationUrl(UriTemplateDefinition uriTemplateDefinition) {
         if (uriTemplateDefinition != null) {
             UriTemplate uriTemplate = uriTemplateDefinition.getUriTemplateObject();
             if (uriTemplate != null) {
@@ -15,24 +15,34 @@
  */
 package io.fabric8.gateway.support;
 
-import io.fabric8.gateway.model.HttpProxyRule;
 import io.fabric8.gateway.model.HttpProxyRuleBase;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
- * A helper class to map a request URI to a mapping rule
+ * A helper class to map a request URI to a mapping rule.
+ * <p/>
+ * The rules are compiled into a {@link HttpProxyRuleTrie} which is rebuilt whenever the mapping rules are
+ * replaced or rules are added to, replaced in or removed from them.
  */
 public class MappingRuleResolver {
-    private HttpProxyRuleBase mappingRules = new HttpProxyRuleBase();
+    private volatile HttpProxyRuleBase mappingRules = new HttpProxyRuleBase();
+    private final AtomicReference<HttpProxyRuleTrie> ruleTrie = new AtomicReference<HttpProxyRuleTrie>();
 
     public MappingResult findMappingRule(String requestURI) {
         String[] paths = Paths.splitPaths(requestURI);
-        MappingResult answer = null;
-        // TODO we could build a path based tree to do more efficient matching?
-        for (HttpProxyRule mappingRule : mappingRules.getMappingRules().values()) {
-            answer = mappingRule.matches(paths);
-            if (answer != null) {
-                break;
-            }
+        return getRuleTrie().findMappingRule(paths);
+    }
+
+    /**
+     * Returns the compiled tree of the current mapping rules
+     */
+    protected HttpProxyRuleTrie getRuleTrie() {
+        HttpProxyRuleBase rules = mappingRules;
+        HttpProxyRuleTrie answer = ruleTrie.get();
+        if (answer == null || answer.isStale(rules)) {
+            answer = new HttpProxyRuleTrie(rules);
+            ruleTrie.set(answer);
         }
         return answer;
     }
@@ -43,6 +53,7 @@ public class MappingRuleResolver {
 
     public void setMappingRules(HttpProxyRuleBase mappingRules) {
         this.mappingRules = mappingRules;
+        ruleTrie.set(null);
     }
 
 }
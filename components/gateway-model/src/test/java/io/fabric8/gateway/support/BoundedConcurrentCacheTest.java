@@ -0,0 +1,146 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.support;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedConcurrentCacheTest {
+
+    @Test
+    public void testPutIfAbsentKeepsExistingValue() throws Exception {
+        BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<String, String>(10, 0);
+        assertNull(cache.putIfAbsent("a", "1"));
+        assertEquals("1", cache.putIfAbsent("a", "2"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("1", cache.remove("a"));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testReferencedEntriesSurviveEviction() throws Exception {
+        BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<String, String>(3, 0);
+        cache.putIfAbsent("a", "1");
+        cache.putIfAbsent("b", "2");
+        cache.putIfAbsent("c", "3");
+        cache.get("a");
+        cache.putIfAbsent("d", "4");
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("4", cache.get("d"));
+    }
+
+    @Test
+    public void testRemovedEntriesDoNotCountTowardsMaximumSize() throws Exception {
+        BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<String, String>(3, 0);
+        cache.putIfAbsent("a", "1");
+        cache.putIfAbsent("b", "2");
+        cache.putIfAbsent("c", "3");
+        cache.remove("a");
+        assertTrue(cache.remove("b", "2"));
+        cache.putIfAbsent("d", "4");
+        cache.putIfAbsent("e", "5");
+
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.getEvictions());
+        assertEquals("3", cache.get("c"));
+        assertEquals("4", cache.get("d"));
+        assertEquals("5", cache.get("e"));
+    }
+
+    @Test
+    public void testRemovedEntriesAreSweptFromClock() throws Exception {
+        BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<String, String>(10, 0);
+        for (int i = 0; i < 10000; i++) {
+            cache.putIfAbsent("key" + i, "value" + i);
+            cache.remove("key" + i);
+        }
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEvictions());
+        assertTrue("clock length " + cache.getClockLength(), cache.getClockLength() <= 2 * 10 + 1);
+    }
+
+    @Test
+    public void testClearDrainsClock() throws Exception {
+        BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<String, String>(3, 0);
+        cache.putIfAbsent("a", "1");
+        cache.putIfAbsent("b", "2");
+        cache.get("a");
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getClockLength());
+        cache.putIfAbsent("c", "3");
+        cache.putIfAbsent("d", "4");
+        cache.putIfAbsent("e", "5");
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<String, String>(10, 50);
+        cache.putIfAbsent("a", "1");
+        assertEquals("1", cache.get("a"));
+        Thread.sleep(120);
+        assertNull(cache.get("a"));
+        assertNull(cache.putIfAbsent("a", "2"));
+        assertEquals("2", cache.get("a"));
+    }
+
+    @Test
+    public void testSizeIsBoundedUnderConcurrentWrites() throws Exception {
+        final int maximumSize = 1000;
+        final BoundedConcurrentCache<String, Integer> cache = new BoundedConcurrentCache<String, Integer>(maximumSize, 0);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (int i = 0; i < 20000; i++) {
+                        String key = "client-" + thread + "-" + i;
+                        cache.putIfAbsent(key, i);
+                        cache.get(key);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        // a final write sweeps any overshoot left by concurrent writers
+        cache.putIfAbsent("last", 0);
+        assertTrue("Cache size should be bounded but was " + cache.size(), cache.size() <= maximumSize);
+    }
+}
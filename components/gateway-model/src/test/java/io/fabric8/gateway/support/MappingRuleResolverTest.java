@@ -16,14 +16,18 @@
 package io.fabric8.gateway.support;
 
 import io.fabric8.gateway.loadbalancer.ClientRequestFacade;
+import io.fabric8.gateway.model.HttpProxyRule;
 import io.fabric8.gateway.model.HttpProxyRuleBase;
 
+import java.util.Map;
+
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 /**
  */
@@ -45,6 +49,44 @@ public class MappingRuleResolverTest extends MappingRuleTestSupport {
         assertRuleMatch("/customers/c123/address/abc", "http://another.com/addresses/abc/customerThingy/c123");
     }
 
+    @Test
+    public void testLiteralSegmentsPreferredOverTemplateVariables() throws Exception {
+        getResolver().getMappingRules().rule("/foo/bar").to("http://bar.com/bar");
+        assertRuleMatch("/foo/bar", "http://bar.com/bar");
+        assertRuleMatch("/foo/bar/again", "http://foo.com/cheese/bar/again");
+        assertRuleMatch("/foo/other", "http://foo.com/cheese/other");
+    }
+
+    @Test
+    public void testNoMatch() throws Exception {
+        assertNull(getResolver().findMappingRule("/"));
+        assertNull(getResolver().findMappingRule("/customers/c123/address"));
+    }
+
+    @Test
+    public void testManyRules() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            getResolver().getMappingRules().rule("/service" + i + "/{path}").to("http://service" + i + ".com/{path}");
+        }
+        assertRuleMatch("/service4711/a/b", "http://service4711.com/a/b");
+        assertRuleMatch("/members/10001", "http://foo.com/rest/members/10001");
+    }
+
+    @Test
+    public void testRuleReplacedWithoutChangingRuleCount() throws Exception {
+        assertRuleMatch("/members", "http://foo.com/rest/members");
+
+        Map<String, HttpProxyRule> rules = getResolver().getMappingRules().getMappingRules();
+        rules.remove("/members");
+        rules.put("/members", new HttpProxyRule("/members").to("http://bar.com/rest/members"));
+        assertRuleMatch("/members", "http://bar.com/rest/members");
+
+        rules.remove("/foo/{path}");
+        rules.put("/bar/{path}", new HttpProxyRule("/bar/{path}").to("http://bar.com/cheese/{path}"));
+        assertNull(getResolver().findMappingRule("/foo/something"));
+        assertRuleMatch("/bar/something", "http://bar.com/cheese/something");
+    }
+
     @Override
     protected void loadMappingRules(HttpProxyRuleBase ruleBase) {
         ruleBase.rule("/members").to("http://foo.com/rest/members");
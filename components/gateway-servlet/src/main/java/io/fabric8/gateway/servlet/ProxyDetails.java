@@ -17,8 +17,9 @@ package io.fabric8.gateway.servlet;
 
 import io.fabric8.utils.Strings;
 import io.fabric8.gateway.model.HttpProxyRule;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpMethod;
+import io.fabric8.gateway.model.UriTemplateDefinition;
+
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  */
@@ -27,13 +28,20 @@ public class ProxyDetails {
     private final String stringProxyURL;
 
     private final HttpProxyRule proxyRule;
+    private final UriTemplateDefinition backEndService;
+    private final AtomicBoolean completed = new AtomicBoolean();
     private String proxyHostAndPort;
     private String proxyPath;
 
     public ProxyDetails(boolean valid, String stringProxyURL, HttpProxyRule proxyRule) {
+        this(valid, stringProxyURL, proxyRule, null);
+    }
+
+    public ProxyDetails(boolean valid, String stringProxyURL, HttpProxyRule proxyRule, UriTemplateDefinition backEndService) {
         this.valid = valid;
         this.stringProxyURL = stringProxyURL;
         this.proxyRule = proxyRule;
+        this.backEndService = backEndService;
         if (proxyHostAndPort == null) {
             return;
         }
@@ -93,11 +101,6 @@ public class ProxyDetails {
         return stringProxyURL;
     }
 
-    public HttpClient createHttpClient(HttpMethod httpMethodProxyRequest) {
-        HttpClient client = new HttpClient();
-        return client;
-    }
-
     public String getProxyHostAndPort() {
         return proxyHostAndPort;
     }
@@ -110,4 +113,28 @@ public class ProxyDetails {
         return proxyRule;
     }
 
+    public UriTemplateDefinition getBackEndService() {
+        return backEndService;
+    }
+
+    /**
+     * Reports the outcome of the request to the chosen back end service to the load balancer;
+     * only the first report of a request counts
+     */
+    public void requestCompleted(long durationNanos, boolean success) {
+        if (backEndService != null && proxyRule != null && completed.compareAndSet(false, true)) {
+            proxyRule.backEndServiceCompleted(backEndService, durationNanos, success);
+        }
+    }
+
+    /**
+     * Reports to the load balancer that the request was not sent to the chosen back end service,
+     * unless its outcome has already been reported
+     */
+    public void requestCancelled() {
+        if (backEndService != null && proxyRule != null && completed.compareAndSet(false, true)) {
+            proxyRule.backEndServiceCancelled(backEndService);
+        }
+    }
+
 }
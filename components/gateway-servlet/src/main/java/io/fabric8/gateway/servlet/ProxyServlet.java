@@ -15,11 +15,14 @@
  */
 package io.fabric8.gateway.servlet;
 
-import io.fabric8.utils.IOHelpers;
 import io.fabric8.gateway.model.HttpProxyRule;
 import io.fabric8.gateway.model.HttpProxyRuleBase;
+import io.fabric8.gateway.model.UriTemplateDefinition;
+import io.fabric8.gateway.servlet.support.AsyncHttpClientPool;
+import io.fabric8.gateway.servlet.support.HttpClientConnectionPool;
 import io.fabric8.gateway.servlet.support.NonBindingSocketFactory;
 import io.fabric8.gateway.servlet.support.ProxySupport;
+import io.fabric8.gateway.servlet.support.StreamingRequestEntity;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
@@ -27,8 +30,10 @@ import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpState;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
@@ -36,7 +41,6 @@ import org.apache.commons.httpclient.methods.OptionsMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.ByteArrayPartSource;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
@@ -45,21 +49,35 @@ import org.apache.commons.httpclient.methods.multipart.StringPart;
 import org.apache.commons.httpclient.protocol.Protocol;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpClientRequest;
+import org.vertx.java.core.http.HttpClientResponse;
 
+import javax.management.ObjectName;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Based on code from http://edwardstx.net/2010/06/http-proxy-servlet/
@@ -104,6 +122,51 @@ public abstract class ProxyServlet extends HttpServlet {
      */
     private int intMaxFileUploadSize = 5 * 1024 * 1024;
 
+    /**
+     * The init parameter used to configure the size of the buffer used to stream request and response bodies
+     */
+    public static final String STREAM_BUFFER_SIZE_PARAMETER = "streamBufferSize";
+
+    /**
+     * The size in bytes of the buffer used to stream request and response bodies. Default value is 64KB.
+     */
+    private int streamBufferSize = ProxySupport.DEFAULT_STREAM_BUFFER_SIZE;
+
+    /**
+     * The pool of connections to the proxied services shared by all requests
+     */
+    private HttpClientConnectionPool connectionPool;
+
+    /**
+     * The init parameter used to enable the asynchronous proxying of requests
+     */
+    public static final String ASYNC_ENABLED_PARAMETER = "asyncEnabled";
+
+    /**
+     * Whether requests are proxied asynchronously so that the container thread is released
+     * while the proxied service is called; requires the servlet to be marked as async supported.
+     */
+    private boolean asyncEnabled;
+
+    /**
+     * The maximum number of proxied requests in progress in async mode before further requests are rejected
+     */
+    private int asyncMaxRequests = 10000;
+
+    /**
+     * The number of event loops the proxied services are called from in async mode
+     */
+    private int asyncEventLoops = AsyncHttpClientPool.DEFAULT_EVENT_LOOPS;
+
+    /**
+     * The async request timeout in milliseconds; zero or less uses the container default
+     */
+    private long asyncTimeout = 0;
+
+    private final AtomicInteger asyncRequests = new AtomicInteger();
+
+    private AsyncHttpClientPool asyncClientPool;
+
     /**
      * Initialize the <code>ProxyServlet</code>
      *
@@ -111,6 +174,18 @@ public abstract class ProxyServlet extends HttpServlet {
      */
     @Override
     public void init(ServletConfig config) throws ServletException {
+        setStreamBufferSize(getIntInitParameter(config, STREAM_BUFFER_SIZE_PARAMETER, getStreamBufferSize()));
+        connectionPool = createConnectionPool(config);
+        String async = config.getInitParameter(ASYNC_ENABLED_PARAMETER);
+        if (async != null && async.trim().length() > 0) {
+            setAsyncEnabled(Boolean.parseBoolean(async.trim()));
+        }
+        setAsyncMaxRequests(getIntInitParameter(config, "asyncMaxRequests", getAsyncMaxRequests()));
+        setAsyncEventLoops(getIntInitParameter(config, "asyncEventLoops", getAsyncEventLoops()));
+        setAsyncTimeout(getIntInitParameter(config, "asyncTimeout", (int) getAsyncTimeout()));
+        if (isAsyncEnabled()) {
+            asyncClientPool = createAsyncClientPool();
+        }
         HttpProxyRuleBase ruleBase = new HttpProxyRuleBase();
         loadRuleBase(config, ruleBase);
         resolver.setMappingRules(ruleBase);
@@ -118,6 +193,76 @@ public abstract class ProxyServlet extends HttpServlet {
         Protocol.registerProtocol("https", new Protocol("https", new NonBindingSocketFactory(), 443));
     }
 
+    @Override
+    public void destroy() {
+        if (asyncClientPool != null) {
+            asyncClientPool.stop();
+            asyncClientPool = null;
+        }
+        if (connectionPool != null) {
+            connectionPool.unregisterMBeanServer(ManagementFactory.getPlatformMBeanServer());
+            connectionPool.stop();
+            connectionPool = null;
+        }
+        super.destroy();
+    }
+
+    /**
+     * Creates the pool of connections to the proxied services, configured from the servlet init parameters
+     */
+    protected HttpClientConnectionPool createConnectionPool(ServletConfig config) throws ServletException {
+        HttpClientConnectionPool pool = new HttpClientConnectionPool();
+        pool.setMaxConnectionsPerHost(getIntInitParameter(config, "maxConnectionsPerHost", pool.getMaxConnectionsPerHost()));
+        pool.setMaxTotalConnections(getIntInitParameter(config, "maxTotalConnections", pool.getMaxTotalConnections()));
+        pool.setConnectionTimeout(getIntInitParameter(config, "connectionTimeout", pool.getConnectionTimeout()));
+        pool.setSocketTimeout(getIntInitParameter(config, "socketTimeout", pool.getSocketTimeout()));
+        pool.setIdleConnectionTimeout(getIntInitParameter(config, "idleConnectionTimeout", (int) pool.getIdleConnectionTimeout()));
+        String staleChecking = config.getInitParameter("staleCheckingEnabled");
+        if (staleChecking != null && staleChecking.trim().length() > 0) {
+            pool.setStaleCheckingEnabled(Boolean.parseBoolean(staleChecking.trim()));
+        }
+        pool.start();
+        try {
+            pool.setObjectName(new ObjectName("io.fabric8.gateway-servlet:service=HttpClientConnectionPool,name=" + ObjectName.quote(config.getServletName())));
+        } catch (Exception e) {
+            LOG.warn("Could not create the connection pool mbean name: " + e, e);
+        }
+        pool.registerMBeanServer(ManagementFactory.getPlatformMBeanServer());
+        LOG.info("Using back end " + pool);
+        return pool;
+    }
+
+    /**
+     * Creates the non blocking clients which call the proxied services in async mode; they are limited to
+     * the same number of connections per back end and use the same connection timeout as the blocking clients
+     */
+    protected AsyncHttpClientPool createAsyncClientPool() throws ServletException {
+        AsyncHttpClientPool pool = new AsyncHttpClientPool();
+        pool.setEventLoops(asyncEventLoops);
+        pool.setMaxConnectionsPerHost(connectionPool.getMaxConnectionsPerHost());
+        pool.setConnectionTimeout(connectionPool.getConnectionTimeout());
+        try {
+            pool.start();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException("Interrupted starting the async clients", e);
+        }
+        LOG.info("Using async back end " + pool);
+        return pool;
+    }
+
+    protected static int getIntInitParameter(ServletConfig config, String name, int defaultValue) throws ServletException {
+        String value = config.getInitParameter(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Invalid " + name + " init parameter: " + value, e);
+        }
+    }
+
     /**
      * load the mapping rules from the servlet context; could use a Java DSL, the XML DSL or load from a database
      */
@@ -168,12 +313,8 @@ public abstract class ProxyServlet extends HttpServlet {
             PostMethod postMethodProxyRequest = new PostMethod(proxyDetails.getStringProxyURL());
             // Forward the request headers
             setProxyRequestHeaders(proxyDetails, httpServletRequest, postMethodProxyRequest);
-            // Check if this is a mulitpart (file upload) POST
-            if (ServletFileUpload.isMultipartContent(httpServletRequest)) {
-                this.handleMultipartPost(postMethodProxyRequest, httpServletRequest);
-            } else {
-                this.handleEntity(postMethodProxyRequest, httpServletRequest);
-            }
+            // Send on the multipart (file upload) or standard body
+            setProxyRequestEntity(proxyDetails, postMethodProxyRequest, httpServletRequest);
             // Execute the proxy request
             this.executeProxyRequest(proxyDetails, postMethodProxyRequest, httpServletRequest, httpServletResponse);
         }
@@ -197,11 +338,7 @@ public abstract class ProxyServlet extends HttpServlet {
         } else {
             PutMethod putMethodProxyRequest = new PutMethod(proxyDetails.getStringProxyURL());
             setProxyRequestHeaders(proxyDetails, httpServletRequest, putMethodProxyRequest);
-            if (ServletFileUpload.isMultipartContent(httpServletRequest)) {
-                handleMultipartPost(putMethodProxyRequest, httpServletRequest);
-            } else {
-                handleEntity(putMethodProxyRequest, httpServletRequest);
-            }
+            setProxyRequestEntity(proxyDetails, putMethodProxyRequest, httpServletRequest);
             executeProxyRequest(proxyDetails, putMethodProxyRequest, httpServletRequest, httpServletResponse);
         }
     }
@@ -244,16 +381,43 @@ public abstract class ProxyServlet extends HttpServlet {
 
     protected ProxyDetails createProxyDetails(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) {
         HttpMappingResult mappingRule = getResolver().findMappingRule(httpServletRequest, httpServletResponse);
-        final HttpProxyRule proxyRule = mappingRule.getProxyRule();
+        HttpProxyRule proxyRule = null;
         if (mappingRule != null) {
-            String destinationUrl = mappingRule.getDestinationUrl(new HttpClientRequestFacade(httpServletRequest, httpServletResponse));
+            proxyRule = mappingRule.getProxyRule();
+            UriTemplateDefinition backEndService = mappingRule.chooseBackEndService(new HttpClientRequestFacade(httpServletRequest, httpServletResponse));
+            String destinationUrl = mappingRule.getDestinationUrl(backEndService);
             if (destinationUrl != null) {
-                return new ProxyDetails(true, destinationUrl, proxyRule);
+                return new ProxyDetails(true, destinationUrl, proxyRule, backEndService);
+            }
+            if (backEndService != null) {
+                proxyRule.backEndServiceCancelled(backEndService);
             }
         }
         return new ProxyDetails(false, null, proxyRule);
     }
 
+    /**
+     * Sets the body of the proxied request from either the multipart (file upload) or the
+     * standard body of the given request
+     */
+    private void setProxyRequestEntity(ProxyDetails proxyDetails, EntityEnclosingMethod entityEnclosingMethod, HttpServletRequest httpServletRequest)
+            throws IOException, ServletException {
+        boolean done = false;
+        try {
+            if (ServletFileUpload.isMultipartContent(httpServletRequest)) {
+                handleMultipartPost(entityEnclosingMethod, httpServletRequest);
+            } else {
+                handleEntity(entityEnclosingMethod, httpServletRequest);
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // the request will never be sent to the chosen service
+                proxyDetails.requestCancelled();
+            }
+        }
+    }
+
     protected void noMappingFound(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws IOException {
         httpServletResponse.sendError(HttpServletResponse.SC_NOT_FOUND, "No endpoint could be found for " + httpServletRequest.getRequestURI());
     }
@@ -336,6 +500,19 @@ public abstract class ProxyServlet extends HttpServlet {
      */
     @SuppressWarnings("unchecked")
     private void handleEntity(EntityEnclosingMethod entityEnclosingMethod, HttpServletRequest httpServletRequest) throws IOException {
+        String contentType = httpServletRequest.getContentType();
+        if (contentType != null) {
+            String lowerContentType = contentType.toLowerCase();
+            if (!lowerContentType.contains("x-www-form-urlencoded") &&
+                    (lowerContentType.contains("json") || lowerContentType.contains("xml") || lowerContentType.contains("application") || lowerContentType.contains("text"))) {
+                // stream the raw body bytes through so that the body is never held in memory
+                // and its character encoding is left untouched
+                RequestEntity entity = new StreamingRequestEntity(httpServletRequest.getInputStream(),
+                        httpServletRequest.getContentLength(), contentType, getStreamBufferSize());
+                entityEnclosingMethod.setRequestEntity(entity);
+                return;
+            }
+        }
         // Get the client POST data as a Map
         Map<String, String[]> mapPostParameters = (Map<String, String[]>) httpServletRequest.getParameterMap();
         // Create a List to hold the NameValuePairs to be passed to the PostMethod
@@ -350,25 +527,10 @@ public abstract class ProxyServlet extends HttpServlet {
                 listNameValuePairs.add(nameValuePair);
             }
         }
-        RequestEntity entity = null;
-        String contentType = httpServletRequest.getContentType();
-        if (contentType != null) {
-            contentType = contentType.toLowerCase();
-            if (contentType.contains("json") || contentType.contains("xml") || contentType.contains("application") || contentType.contains("text")) {
-                String body = IOHelpers.readFully(httpServletRequest.getReader());
-                entity = new StringRequestEntity(body, contentType, httpServletRequest.getCharacterEncoding());
-                entityEnclosingMethod.setRequestEntity(entity);
-            }
-        }
         NameValuePair[] parameters = listNameValuePairs.toArray(new NameValuePair[]{});
-        if (entity != null) {
-            // TODO add as URL parameters?
-            //postMethodProxyRequest.addParameters(parameters);
-        } else {
-            // Set the proxy request POST data
-            if (entityEnclosingMethod instanceof PostMethod) {
-                ((PostMethod)entityEnclosingMethod).setRequestBody(parameters);
-            }
+        // Set the proxy request POST data
+        if (entityEnclosingMethod instanceof PostMethod) {
+            ((PostMethod)entityEnclosingMethod).setRequestBody(parameters);
         }
     }
 
@@ -390,12 +552,62 @@ public abstract class ProxyServlet extends HttpServlet {
             throws IOException, ServletException {
         httpMethodProxyRequest.setDoAuthentication(false);
         httpMethodProxyRequest.setFollowRedirects(false);
+        // the client's cookies are passed on as headers; the pooled client must not keep or add any of its own
+        httpMethodProxyRequest.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
 
-        // Create a default HttpClient
-        HttpClient httpClient = proxyDetails.createHttpClient(httpMethodProxyRequest);
+        AsyncHttpClientPool clientPool = asyncClientPool;
+        if (clientPool != null && httpServletRequest.isAsyncSupported()) {
+            if (asyncRequests.incrementAndGet() > asyncMaxRequests) {
+                asyncRequests.decrementAndGet();
+                proxyDetails.requestCancelled();
+                httpServletResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many concurrent requests");
+                return;
+            }
+            AsyncContext asyncContext = httpServletRequest.startAsync(httpServletRequest, httpServletResponse);
+            if (asyncTimeout > 0) {
+                asyncContext.setTimeout(asyncTimeout);
+            }
+            AsyncProxyRequest asyncProxyRequest = new AsyncProxyRequest(asyncContext, proxyDetails, httpMethodProxyRequest, clientPool.nextEventLoop());
+            asyncContext.addListener(asyncProxyRequest);
+            asyncProxyRequest.start();
+            return;
+        }
+        executeBlockingProxyRequest(proxyDetails, httpMethodProxyRequest, httpServletRequest, httpServletResponse);
+    }
 
-        // Execute the request
-        int intProxyResponseCode = httpClient.executeMethod(httpMethodProxyRequest);
+    private void executeBlockingProxyRequest(
+            ProxyDetails proxyDetails, HttpMethod httpMethodProxyRequest,
+            HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse)
+            throws IOException, ServletException {
+        // Use the shared client so connections to the proxied service are pooled
+        HttpClient httpClient = getConnectionPool().getHttpClient();
+        try {
+            doExecuteProxyRequest(proxyDetails, httpClient, httpMethodProxyRequest, httpServletRequest, httpServletResponse);
+        } finally {
+            // return the connection to the pool
+            httpMethodProxyRequest.releaseConnection();
+            // does nothing if the response from the service has already been reported
+            proxyDetails.requestCancelled();
+        }
+    }
+
+    private void doExecuteProxyRequest(
+            ProxyDetails proxyDetails, HttpClient httpClient, HttpMethod httpMethodProxyRequest,
+            HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse)
+            throws IOException, ServletException {
+        // Execute the request, timing how long the service takes to respond for the load balancer
+        long start = System.nanoTime();
+        int intProxyResponseCode;
+        try {
+            // the client is shared by all users so each request gets its own state rather than the client's
+            intProxyResponseCode = httpClient.executeMethod(null, httpMethodProxyRequest, new HttpState());
+        } catch (IOException e) {
+            proxyDetails.requestCompleted(System.nanoTime() - start, false);
+            throw e;
+        }
+        proxyDetails.requestCompleted(System.nanoTime() - start, intProxyResponseCode < HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 
         // Check if the proxy response is a redirect
         // The following code is adapted from org.tigris.noodle.filters.CheckForRedirect
@@ -403,18 +615,12 @@ public abstract class ProxyServlet extends HttpServlet {
         if (intProxyResponseCode >= HttpServletResponse.SC_MULTIPLE_CHOICES /* 300 */
                 && intProxyResponseCode < HttpServletResponse.SC_NOT_MODIFIED /* 304 */) {
             String stringStatusCode = Integer.toString(intProxyResponseCode);
-            String stringLocation = httpMethodProxyRequest.getResponseHeader(STRING_LOCATION_HEADER).getValue();
-            if (stringLocation == null) {
+            Header location = httpMethodProxyRequest.getResponseHeader(STRING_LOCATION_HEADER);
+            if (location == null) {
                 throw new ServletException("Received status code: " + stringStatusCode
                         + " but no " + STRING_LOCATION_HEADER + " header was found in the response");
             }
-            // Modify the redirect to go to this proxy servlet rather that the proxied host
-            String stringMyHostName = httpServletRequest.getServerName();
-            if (httpServletRequest.getServerPort() != 80) {
-                stringMyHostName += ":" + httpServletRequest.getServerPort();
-            }
-            stringMyHostName += httpServletRequest.getContextPath();
-            httpServletResponse.sendRedirect(stringLocation.replace(proxyDetails.getProxyHostAndPort() + proxyDetails.getProxyPath(), stringMyHostName));
+            httpServletResponse.sendRedirect(getRedirectLocation(proxyDetails, httpServletRequest, location.getValue()));
             return;
         } else if (intProxyResponseCode == HttpServletResponse.SC_NOT_MODIFIED) {
             // 304 needs special handling.  See:
@@ -434,17 +640,7 @@ public abstract class ProxyServlet extends HttpServlet {
         // Pass response headers back to the client
         Header[] headerArrayResponse = httpMethodProxyRequest.getResponseHeaders();
         for (Header header : headerArrayResponse) {
-            if (!ProxySupport.isHopByHopHeader(header.getName())) {
-                if (ProxySupport.isSetCookieHeader(header)) {
-                    HttpProxyRule proxyRule = proxyDetails.getProxyRule();
-                    String setCookie = ProxySupport.replaceCookieAttributes(header.getValue(),
-                            proxyRule.getCookiePath(),
-                            proxyRule.getCookieDomain());
-                    httpServletResponse.setHeader(header.getName(), setCookie);
-                } else {
-                    httpServletResponse.setHeader(header.getName(), header.getValue());
-                }
-            }
+            setProxyResponseHeader(proxyDetails, httpServletResponse, header.getName(), Collections.singletonList(header.getValue()));
         }
 
         // check if we got data, that is either the Content-Length > 0
@@ -452,8 +648,8 @@ public abstract class ProxyServlet extends HttpServlet {
         int code = httpMethodProxyRequest.getStatusCode();
         boolean noData = code == HttpStatus.SC_NO_CONTENT;
         if (!noData) {
-            String length = httpServletRequest.getHeader(STRING_CONTENT_LENGTH_HEADER_NAME);
-            if (length != null && "0".equals(length.trim())) {
+            Header length = httpMethodProxyRequest.getResponseHeader(STRING_CONTENT_LENGTH_HEADER_NAME);
+            if (length != null && "0".equals(length.getValue().trim())) {
                 noData = true;
             }
         }
@@ -462,11 +658,401 @@ public abstract class ProxyServlet extends HttpServlet {
         if (!noData) {
             // Send the content to the client
             InputStream inputStreamProxyResponse = httpMethodProxyRequest.getResponseBodyAsStream();
-            BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStreamProxyResponse);
-            OutputStream outputStreamClientResponse = httpServletResponse.getOutputStream();
-            int intNextByte;
-            while ((intNextByte = bufferedInputStream.read()) != -1) {
-                outputStreamClientResponse.write(intNextByte);
+            if (inputStreamProxyResponse != null) {
+                OutputStream outputStreamClientResponse = httpServletResponse.getOutputStream();
+                ProxySupport.copy(inputStreamProxyResponse, outputStreamClientResponse, getStreamBufferSize());
+            }
+        }
+    }
+
+    /**
+     * Returns the location of a redirect from the proxied service modified to go to this proxy servlet rather than the proxied host
+     */
+    private String getRedirectLocation(ProxyDetails proxyDetails, HttpServletRequest httpServletRequest, String stringLocation) {
+        String stringMyHostName = httpServletRequest.getServerName();
+        if (httpServletRequest.getServerPort() != 80) {
+            stringMyHostName += ":" + httpServletRequest.getServerPort();
+        }
+        stringMyHostName += httpServletRequest.getContextPath();
+        return stringLocation.replace(proxyDetails.getProxyHostAndPort() + proxyDetails.getProxyPath(), stringMyHostName);
+    }
+
+    /**
+     * Passes a header of the proxied response back to the client, unless it is a hop-by-hop header,
+     * with the path and domain of cookies replaced as configured on the proxy rule
+     */
+    private void setProxyResponseHeader(ProxyDetails proxyDetails, HttpServletResponse httpServletResponse, String name, List<String> values) {
+        if (ProxySupport.isHopByHopHeader(name)) {
+            return;
+        }
+        boolean first = true;
+        for (String value : values) {
+            if (ProxySupport.isSetCookieHeader(name)) {
+                HttpProxyRule proxyRule = proxyDetails.getProxyRule();
+                value = ProxySupport.replaceCookieAttributes(value, proxyRule.getCookiePath(), proxyRule.getCookieDomain());
+            }
+            if (first) {
+                httpServletResponse.setHeader(name, value);
+                first = false;
+            } else {
+                httpServletResponse.addHeader(name, value);
+            }
+        }
+    }
+
+    /**
+     * Proxies a request in async mode with the non blocking client of an event loop, and completes the
+     * {@link AsyncContext} from the client's callbacks once the response has been sent, the request fails
+     * or it times out.
+     * <p/>
+     * Everything to do with the client happens on the event loop. Only the request body is read on the
+     * container thread, as reading it blocks with the servlet 3.0 API, and it is handed to the event loop
+     * a chunk at a time. Writing the response and completing the {@link AsyncContext} are guarded by this
+     * object; a timeout or an error completes the request and aborts the call to the proxied service without
+     * waiting for it, and the callbacks check that the request is not completed before they write.
+     */
+    private class AsyncProxyRequest implements AsyncListener {
+        private final AsyncContext asyncContext;
+        private final ProxyDetails proxyDetails;
+        private final HttpMethod httpMethodProxyRequest;
+        private final AsyncHttpClientPool.EventLoop eventLoop;
+        private final long start = System.nanoTime();
+        // only used on the event loop
+        private HttpClientRequest clientRequest;
+        private HttpClientResponse clientResponse;
+        private boolean aborted;
+        private boolean ended;
+        // guarded by this
+        private boolean completed;
+        private boolean writable = true;
+
+        AsyncProxyRequest(AsyncContext asyncContext, ProxyDetails proxyDetails, HttpMethod httpMethodProxyRequest,
+                          AsyncHttpClientPool.EventLoop eventLoop) {
+            this.asyncContext = asyncContext;
+            this.proxyDetails = proxyDetails;
+            this.httpMethodProxyRequest = httpMethodProxyRequest;
+            this.eventLoop = eventLoop;
+        }
+
+        /**
+         * Sends the request to the proxied service, streaming its body from the calling container thread
+         */
+        void start() {
+            final URL url;
+            try {
+                url = new URL(proxyDetails.getStringProxyURL());
+            } catch (MalformedURLException e) {
+                proxyDetails.requestCancelled();
+                fail(HttpServletResponse.SC_BAD_GATEWAY, "Invalid proxy URL: " + e);
+                return;
+            }
+            final RequestEntity entity = httpMethodProxyRequest instanceof EntityEnclosingMethod
+                    ? ((EntityEnclosingMethod) httpMethodProxyRequest).getRequestEntity() : null;
+            eventLoop.execute(new Handler<Void>() {
+                @Override
+                public void handle(Void event) {
+                    sendRequestHead(url, entity);
+                }
+            });
+            if (entity != null) {
+                try {
+                    entity.writeRequest(new RequestBodyStream());
+                } catch (IOException e) {
+                    LOG.debug("Failed to send the request body to " + url + ". " + e);
+                    proxyDetails.requestCancelled();
+                    fail(HttpServletResponse.SC_BAD_GATEWAY, "Failed to proxy request: " + e);
+                    abort();
+                    return;
+                }
+                eventLoop.execute(new Handler<Void>() {
+                    @Override
+                    public void handle(Void event) {
+                        if (clientRequest != null && !aborted) {
+                            clientRequest.end();
+                        }
+                    }
+                });
+            }
+        }
+
+        private void sendRequestHead(URL url, RequestEntity entity) {
+            if (aborted) {
+                // timed out before the event loop got to it
+                return;
+            }
+            try {
+                String path = url.getFile().length() > 0 ? url.getFile() : "/";
+                clientRequest = eventLoop.getClient(url).request(httpMethodProxyRequest.getName(), path, new Handler<HttpClientResponse>() {
+                    @Override
+                    public void handle(HttpClientResponse response) {
+                        handleResponse(response);
+                    }
+                });
+                clientRequest.exceptionHandler(new Handler<Throwable>() {
+                    @Override
+                    public void handle(Throwable e) {
+                        handleFailure(e);
+                    }
+                });
+                for (Header header : httpMethodProxyRequest.getRequestHeaders()) {
+                    if (header.getValue() != null) {
+                        clientRequest.headers().add(header.getName(), header.getValue());
+                    }
+                }
+                if (entity == null) {
+                    clientRequest.end();
+                } else {
+                    if (entity.getContentType() != null && !clientRequest.headers().contains(STRING_CONTENT_TYPE_HEADER_NAME)) {
+                        clientRequest.headers().set(STRING_CONTENT_TYPE_HEADER_NAME, entity.getContentType());
+                    }
+                    if (entity.getContentLength() >= 0) {
+                        clientRequest.headers().set(STRING_CONTENT_LENGTH_HEADER_NAME, Long.toString(entity.getContentLength()));
+                    } else {
+                        clientRequest.setChunked(true);
+                    }
+                }
+            } catch (RuntimeException e) {
+                handleFailure(e);
+            }
+        }
+
+        private void writeRequestBody(Buffer chunk) {
+            if (clientRequest == null || aborted) {
+                return;
+            }
+            clientRequest.write(chunk);
+            if (clientRequest.writeQueueFull()) {
+                // stop reading the body from the client until the proxied service has caught up
+                setWritable(false);
+                clientRequest.drainHandler(new Handler<Void>() {
+                    @Override
+                    public void handle(Void event) {
+                        setWritable(true);
+                    }
+                });
+            }
+        }
+
+        private void handleResponse(HttpClientResponse response) {
+            clientResponse = response;
+            int status = response.statusCode();
+            proxyDetails.requestCompleted(System.nanoTime() - start, status < HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            if (aborted) {
+                closeBackEnd();
+                return;
+            }
+            response.exceptionHandler(new Handler<Throwable>() {
+                @Override
+                public void handle(Throwable e) {
+                    handleFailure(e);
+                }
+            });
+            synchronized (this) {
+                if (completed) {
+                    closeBackEnd();
+                    return;
+                }
+                HttpServletResponse httpServletResponse = (HttpServletResponse) asyncContext.getResponse();
+                try {
+                    if (status >= HttpServletResponse.SC_MULTIPLE_CHOICES && status < HttpServletResponse.SC_NOT_MODIFIED) {
+                        String location = response.headers().get(STRING_LOCATION_HEADER);
+                        if (location == null) {
+                            fail(HttpServletResponse.SC_BAD_GATEWAY, "Received status code: " + status
+                                    + " but no " + STRING_LOCATION_HEADER + " header was found in the response");
+                        } else {
+                            httpServletResponse.sendRedirect(getRedirectLocation(proxyDetails, (HttpServletRequest) asyncContext.getRequest(), location));
+                            complete();
+                        }
+                        return;
+                    } else if (status == HttpServletResponse.SC_NOT_MODIFIED) {
+                        httpServletResponse.setIntHeader(STRING_CONTENT_LENGTH_HEADER_NAME, 0);
+                        httpServletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                        complete();
+                        return;
+                    }
+                    httpServletResponse.setStatus(status);
+                    for (String name : response.headers().names()) {
+                        setProxyResponseHeader(proxyDetails, httpServletResponse, name, response.headers().getAll(name));
+                    }
+                } catch (IOException e) {
+                    clientFailed(e);
+                    return;
+                }
+            }
+            response.dataHandler(new Handler<Buffer>() {
+                @Override
+                public void handle(Buffer data) {
+                    writeResponseBody(data);
+                }
+            });
+            response.endHandler(new Handler<Void>() {
+                @Override
+                public void handle(Void event) {
+                    ended = true;
+                    complete();
+                }
+            });
+        }
+
+        private synchronized void writeResponseBody(Buffer data) {
+            if (completed) {
+                closeBackEnd();
+                return;
+            }
+            try {
+                OutputStream out = asyncContext.getResponse().getOutputStream();
+                out.write(data.getBytes());
+                // pass the data on as it arrives, so that streamed responses are not held back
+                out.flush();
+            } catch (IOException e) {
+                clientFailed(e);
+            }
+        }
+
+        private void handleFailure(Throwable e) {
+            aborted = true;
+            proxyDetails.requestCompleted(System.nanoTime() - start, false);
+            if (isCompleted()) {
+                LOG.debug("Failed to proxy request to " + proxyDetails.getStringProxyURL() + " after it completed. " + e);
+            } else {
+                LOG.warn("Failed to proxy request to " + proxyDetails.getStringProxyURL() + ". " + e);
+                fail(HttpServletResponse.SC_BAD_GATEWAY, "Failed to proxy request: " + e);
+            }
+        }
+
+        /**
+         * The client went away while the response was sent, so there is no point reading the rest of it
+         */
+        private void clientFailed(IOException e) {
+            LOG.debug("Failed to send the response of " + proxyDetails.getStringProxyURL() + " to the client. " + e);
+            complete();
+            closeBackEnd();
+        }
+
+        /**
+         * Stops the call to the proxied service; must be called on the event loop
+         */
+        private void closeBackEnd() {
+            aborted = true;
+            if (clientResponse != null && !ended) {
+                // vertx can not abort a request, so take the connection over and close it rather than reuse it
+                clientResponse.netSocket().close();
+                ended = true;
+            }
+        }
+
+        private void abort() {
+            eventLoop.execute(new Handler<Void>() {
+                @Override
+                public void handle(Void event) {
+                    closeBackEnd();
+                }
+            });
+        }
+
+        void fail(int status, String message) {
+            synchronized (this) {
+                if (finish()) {
+                    try {
+                        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                        if (!response.isCommitted()) {
+                            response.sendError(status, message);
+                        }
+                    } catch (Exception e) {
+                        LOG.debug("Failed to send error response: " + e, e);
+                    } finally {
+                        asyncContext.complete();
+                    }
+                }
+            }
+        }
+
+        private synchronized void complete() {
+            if (finish()) {
+                asyncContext.complete();
+            }
+        }
+
+        /**
+         * Returns true if the caller is the one to complete the request
+         */
+        private synchronized boolean finish() {
+            if (completed) {
+                return false;
+            }
+            completed = true;
+            asyncRequests.decrementAndGet();
+            // wakes up the container thread if it is waiting to send more of the request body
+            notifyAll();
+            return true;
+        }
+
+        private synchronized boolean isCompleted() {
+            return completed;
+        }
+
+        private synchronized void setWritable(boolean writable) {
+            this.writable = writable;
+            notifyAll();
+        }
+
+        private synchronized void awaitWritable() throws IOException {
+            try {
+                while (!writable && !completed) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted sending the request body");
+            }
+            if (completed) {
+                throw new IOException("The request has already completed");
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            proxyDetails.requestCompleted(System.nanoTime() - start, false);
+            fail(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Timed out waiting for " + proxyDetails.getStringProxyURL());
+            abort();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            proxyDetails.requestCancelled();
+            complete();
+            abort();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            // stops the callbacks writing to the response if the container completed the request itself
+            finish();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+
+        /**
+         * Hands the request body read on the container thread to the event loop
+         */
+        private class RequestBodyStream extends OutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                awaitWritable();
+                final Buffer chunk = new Buffer(Arrays.copyOfRange(b, off, off + len));
+                eventLoop.execute(new Handler<Void>() {
+                    @Override
+                    public void handle(Void event) {
+                        writeRequestBody(chunk);
+                    }
+                });
             }
         }
     }
@@ -480,6 +1066,10 @@ public abstract class ProxyServlet extends HttpServlet {
         return resolver;
     }
 
+    public HttpClientConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
     /**
      * Retrieves all of the headers from the servlet request and sets them on
      * the proxy request
@@ -520,6 +1110,49 @@ public abstract class ProxyServlet extends HttpServlet {
     }
 
 
+    public int getStreamBufferSize() {
+        return streamBufferSize;
+    }
+
+    /**
+     * Sets the size in bytes of the buffer used to stream request and response bodies
+     */
+    public void setStreamBufferSize(int streamBufferSize) {
+        this.streamBufferSize = streamBufferSize;
+    }
+
+    public boolean isAsyncEnabled() {
+        return asyncEnabled;
+    }
+
+    public void setAsyncEnabled(boolean asyncEnabled) {
+        this.asyncEnabled = asyncEnabled;
+    }
+
+    public int getAsyncMaxRequests() {
+        return asyncMaxRequests;
+    }
+
+    public void setAsyncMaxRequests(int asyncMaxRequests) {
+        this.asyncMaxRequests = asyncMaxRequests;
+    }
+
+    public int getAsyncEventLoops() {
+        return asyncEventLoops;
+    }
+
+    public void setAsyncEventLoops(int asyncEventLoops) {
+        this.asyncEventLoops = asyncEventLoops;
+    }
+
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    public void setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
+
     private int getMaxFileUploadSize() {
         return this.intMaxFileUploadSize;
     }
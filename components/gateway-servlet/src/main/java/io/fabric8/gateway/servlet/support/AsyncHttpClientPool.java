@@ -0,0 +1,185 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.servlet.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.http.HttpClient;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The non blocking vertx HTTP clients used by the {@link io.fabric8.gateway.servlet.ProxyServlet} in async mode,
+ * so that no thread waits while a proxied service is called.
+ * <p/>
+ * Requests are spread across a number of event loops. Each event loop keeps its own keep alive client for every
+ * back end, which is only ever used from that event loop's thread; so all the work for a proxied request has to be
+ * handed to its event loop with {@link EventLoop#execute(Handler)}.
+ */
+public class AsyncHttpClientPool {
+    private static final transient Logger LOG = LoggerFactory.getLogger(AsyncHttpClientPool.class);
+
+    public static final int DEFAULT_EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
+
+    private int eventLoops = DEFAULT_EVENT_LOOPS;
+    private int maxConnectionsPerHost = HttpClientConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private int connectionTimeout = HttpClientConnectionPool.DEFAULT_CONNECTION_TIMEOUT;
+    private final AtomicInteger next = new AtomicInteger();
+    private Vertx vertx;
+    private EventLoop[] loops;
+
+    @Override
+    public String toString() {
+        return "AsyncHttpClientPool{" +
+                "eventLoops=" + eventLoops +
+                ", maxConnectionsPerHost=" + maxConnectionsPerHost +
+                ", connectionTimeout=" + connectionTimeout +
+                '}';
+    }
+
+    /**
+     * Starts vertx and picks the event loops the clients are used from
+     */
+    public synchronized void start() throws InterruptedException {
+        if (vertx != null) {
+            return;
+        }
+        vertx = VertxFactory.newVertx();
+        final EventLoop[] answer = new EventLoop[Math.max(1, eventLoops)];
+        // the connections to each back end are shared out between the event loops
+        final int maxPoolSize = Math.max(1, maxConnectionsPerHost / answer.length);
+        final CountDownLatch started = new CountDownLatch(answer.length);
+        for (int i = 0; i < answer.length; i++) {
+            final int index = i;
+            // each task run from outside of vertx gets a new context, bound to the next event loop
+            vertx.runOnContext(new Handler<Void>() {
+                @Override
+                public void handle(Void event) {
+                    answer[index] = new EventLoop(vertx.currentContext(), maxPoolSize);
+                    started.countDown();
+                }
+            });
+        }
+        if (!started.await(30, TimeUnit.SECONDS)) {
+            vertx.stop();
+            vertx = null;
+            throw new IllegalStateException("Timed out starting the vertx event loops");
+        }
+        loops = answer;
+    }
+
+    /**
+     * Stops vertx, which closes all the connections of the clients
+     */
+    public synchronized void stop() {
+        if (vertx != null) {
+            vertx.stop();
+            vertx = null;
+            loops = null;
+        }
+    }
+
+    /**
+     * Returns the event loop to use for the next proxied request
+     */
+    public EventLoop nextEventLoop() {
+        EventLoop[] answer = loops;
+        if (answer == null) {
+            throw new IllegalStateException("The pool has not been started");
+        }
+        return answer[(next.getAndIncrement() & Integer.MAX_VALUE) % answer.length];
+    }
+
+    /**
+     * An event loop with its own clients to the back ends
+     */
+    public class EventLoop {
+        private final Context context;
+        private final int maxPoolSize;
+        private final Map<String, HttpClient> clients = new HashMap<String, HttpClient>();
+
+        EventLoop(Context context, int maxPoolSize) {
+            this.context = context;
+            this.maxPoolSize = maxPoolSize;
+        }
+
+        /**
+         * Runs the task on this event loop; tasks are run in the order they were handed over
+         */
+        public void execute(Handler<Void> task) {
+            context.runOnContext(task);
+        }
+
+        /**
+         * Returns the client for the protocol, host and port of the given URL;
+         * must only be called from a task run by {@link #execute(Handler)}
+         */
+        public HttpClient getClient(URL url) {
+            boolean ssl = "https".equalsIgnoreCase(url.getProtocol());
+            int port = url.getPort() > 0 ? url.getPort() : (ssl ? 443 : 80);
+            String key = url.getProtocol() + "://" + url.getHost() + ":" + port;
+            HttpClient client = clients.get(key);
+            if (client == null) {
+                client = vertx.createHttpClient()
+                        .setHost(url.getHost())
+                        .setPort(port)
+                        .setSSL(ssl)
+                        .setKeepAlive(true)
+                        .setConnectTimeout(connectionTimeout)
+                        .setMaxPoolSize(maxPoolSize);
+                clients.put(key, client);
+                LOG.debug("Created client for " + key);
+            }
+            return client;
+        }
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public void setEventLoops(int eventLoops) {
+        this.eventLoops = eventLoops;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(int connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.servlet.support;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * A shared pool of connections to the proxied services used by the {@link io.fabric8.gateway.servlet.ProxyServlet}
+ * so that connections to a back end are reused across requests rather than opened for every request.
+ * <p/>
+ * Idle connections are closed by a background thread once {@link #start()} has been called.
+ */
+public class HttpClientConnectionPool implements HttpClientConnectionPoolMBean {
+    private static final transient Logger LOG = LoggerFactory.getLogger(HttpClientConnectionPool.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 200;
+    public static final int DEFAULT_CONNECTION_TIMEOUT = 10000;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 60000;
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 60000;
+
+    private final MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+    private final HttpClient httpClient = new HttpClient(connectionManager);
+    private IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+    private long idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+    private ObjectName objectName;
+
+    public HttpClientConnectionPool() {
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        params.setMaxTotalConnections(DEFAULT_MAX_TOTAL_CONNECTIONS);
+        params.setConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT);
+        params.setSoTimeout(DEFAULT_SOCKET_TIMEOUT);
+        params.setStaleCheckingEnabled(true);
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClientConnectionPool{" +
+                "maxConnectionsPerHost=" + getMaxConnectionsPerHost() +
+                ", maxTotalConnections=" + getMaxTotalConnections() +
+                ", connectionTimeout=" + getConnectionTimeout() +
+                ", socketTimeout=" + getSocketTimeout() +
+                ", staleCheckingEnabled=" + isStaleCheckingEnabled() +
+                ", idleConnectionTimeout=" + idleConnectionTimeout +
+                '}';
+    }
+
+    /**
+     * Returns the client to use for proxied requests; it is thread safe and shared by all requests.
+     * The connection of each executed method must be released via {@link org.apache.commons.httpclient.HttpMethod#releaseConnection()}
+     * once the response has been processed.
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Starts the background thread which closes idle connections
+     */
+    public synchronized void start() {
+        if (idleConnectionTimeoutThread == null && idleConnectionTimeout > 0) {
+            idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+            idleConnectionTimeoutThread.setName("fabric8-gateway-idle-connection-closer");
+            idleConnectionTimeoutThread.setConnectionTimeout(idleConnectionTimeout);
+            idleConnectionTimeoutThread.setTimeoutInterval(Math.max(1000, idleConnectionTimeout / 2));
+            idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+            idleConnectionTimeoutThread.start();
+        }
+    }
+
+    /**
+     * Stops the idle connection thread and closes all the pooled connections
+     */
+    public synchronized void stop() {
+        if (idleConnectionTimeoutThread != null) {
+            idleConnectionTimeoutThread.shutdown();
+            idleConnectionTimeoutThread = null;
+        }
+        connectionManager.shutdown();
+    }
+
+    @Override
+    public void closeIdleConnections() {
+        connectionManager.closeIdleConnections(idleConnectionTimeout > 0 ? idleConnectionTimeout : 0);
+    }
+
+    // JMX
+    //-------------------------------------------------------------------------
+
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        if (objectName == null) {
+            objectName = new ObjectName("io.fabric8.gateway-servlet:service=HttpClientConnectionPool");
+        }
+        return objectName;
+    }
+
+    public void setObjectName(ObjectName objectName) {
+        this.objectName = objectName;
+    }
+
+    public void registerMBeanServer(MBeanServer mbeanServer) {
+        try {
+            ObjectName name = getObjectName();
+            if (!mbeanServer.isRegistered(name)) {
+                StandardMBean mbean = new StandardMBean(this, HttpClientConnectionPoolMBean.class);
+                mbeanServer.registerMBean(mbean, name);
+            }
+        } catch (Exception e) {
+            LOG.warn("An error occurred during mbean server registration: " + e, e);
+        }
+    }
+
+    public void unregisterMBeanServer(MBeanServer mbeanServer) {
+        if (mbeanServer != null) {
+            try {
+                ObjectName name = getObjectName();
+                if (mbeanServer.isRegistered(name)) {
+                    mbeanServer.unregisterMBean(name);
+                }
+            } catch (Exception e) {
+                LOG.warn("An error occurred during mbean server unregistration: " + e, e);
+            }
+        }
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    @Override
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    @Override
+    public int getMaxConnectionsPerHost() {
+        return connectionManager.getParams().getDefaultMaxConnectionsPerHost();
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+    }
+
+    @Override
+    public int getMaxTotalConnections() {
+        return connectionManager.getParams().getMaxTotalConnections();
+    }
+
+    public void setMaxTotalConnections(int maxTotalConnections) {
+        connectionManager.getParams().setMaxTotalConnections(maxTotalConnections);
+    }
+
+    @Override
+    public int getConnectionTimeout() {
+        return connectionManager.getParams().getConnectionTimeout();
+    }
+
+    /**
+     * Sets the timeout in milliseconds for establishing a connection to a back end service
+     */
+    public void setConnectionTimeout(int connectionTimeout) {
+        connectionManager.getParams().setConnectionTimeout(connectionTimeout);
+    }
+
+    @Override
+    public int getSocketTimeout() {
+        return connectionManager.getParams().getSoTimeout();
+    }
+
+    /**
+     * Sets the timeout in milliseconds when waiting for data from a back end service
+     */
+    public void setSocketTimeout(int socketTimeout) {
+        connectionManager.getParams().setSoTimeout(socketTimeout);
+    }
+
+    @Override
+    public boolean isStaleCheckingEnabled() {
+        return connectionManager.getParams().isStaleCheckingEnabled();
+    }
+
+    public void setStaleCheckingEnabled(boolean staleCheckingEnabled) {
+        connectionManager.getParams().setStaleCheckingEnabled(staleCheckingEnabled);
+    }
+
+    @Override
+    public long getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds after which an unused pooled connection is closed;
+     * a value of zero or less disables the closing of idle connections.
+     */
+    public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+}
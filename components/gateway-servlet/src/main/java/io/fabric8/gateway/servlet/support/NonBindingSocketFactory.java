@@ -17,6 +17,7 @@ package io.fabric8.gateway.servlet.support;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 
 import org.apache.commons.httpclient.HttpConnection;
@@ -51,7 +52,19 @@ public class NonBindingSocketFactory implements ProtocolSocketFactory {
 
     @Override
     public Socket createSocket(String host, int port, InetAddress localAddress, int localPort, HttpConnectionParams params) throws IOException {
-        return createNonBindingSocket(host, port);
+        int timeout = params != null ? params.getConnectionTimeout() : 0;
+        if (timeout <= 0) {
+            return createNonBindingSocket(host, port);
+        }
+        // connect without binding but honour the connection timeout
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeout);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
     }
 
     @Override
@@ -18,6 +18,9 @@ package io.fabric8.gateway.servlet.support;
 import org.apache.commons.httpclient.Header;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,7 +30,9 @@ import java.util.regex.Pattern;
 public final class ProxySupport {
 
     public static final String JSESSIONID = "JSESSIONID";
+    public static final int DEFAULT_STREAM_BUFFER_SIZE = 64 * 1024;
     private static final Pattern PATH_AND_DOMAIN_PATTERN = Pattern.compile("(?:;\\s*([pP]ath|[dD]omain)=([^;\\s]+))");
+    private static final ThreadLocal<byte[]> STREAM_BUFFER = new ThreadLocal<byte[]>();
 
     private ProxySupport() {
     }
@@ -87,6 +92,46 @@ public final class ProxySupport {
      * @return {@code true} if the header is a 'Set-Cookie' header, false otherwise.
      */
     public static boolean isSetCookieHeader(final Header header) {
-        return header.getName().equalsIgnoreCase("Set-Cookie");
+        return isSetCookieHeader(header.getName());
+    }
+
+    /**
+     * Determines whether the passed-in header name is 'Set-Cookie'.
+     *
+     * @param headerName the name of the header to check
+     * @return {@code true} if the header is a 'Set-Cookie' header, false otherwise.
+     */
+    public static boolean isSetCookieHeader(final String headerName) {
+        return headerName.equalsIgnoreCase("Set-Cookie");
+    }
+
+    /**
+     * Copies the input stream to the output stream using a buffer of the given size, so that
+     * bodies are streamed through the proxy rather than loaded into memory. The buffer is kept
+     * per thread and reused by later copies of the same size on the same container thread.
+     *
+     * @param in the stream to read from
+     * @param out the stream to write to
+     * @param bufferSize the size of the copy buffer in bytes
+     * @return the number of bytes copied
+     */
+    public static long copy(final InputStream in, final OutputStream out, final int bufferSize) throws IOException {
+        final byte[] buffer = getStreamBuffer(bufferSize > 0 ? bufferSize : DEFAULT_STREAM_BUFFER_SIZE);
+        long count = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+            count += n;
+        }
+        return count;
+    }
+
+    private static byte[] getStreamBuffer(final int size) {
+        byte[] buffer = STREAM_BUFFER.get();
+        if (buffer == null || buffer.length != size) {
+            buffer = new byte[size];
+            STREAM_BUFFER.set(buffer);
+        }
+        return buffer;
     }
 }
@@ -0,0 +1,67 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.servlet.support;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link RequestEntity} which streams the body of the client request to the proxied
+ * service as it is sent, rather than reading the whole body into memory first.
+ * <p/>
+ * The entity can only be written once so it is not repeatable; if the content length is
+ * unknown (negative) the request is sent using chunked transfer encoding.
+ */
+public class StreamingRequestEntity implements RequestEntity {
+
+    private final InputStream content;
+    private final long contentLength;
+    private final String contentType;
+    private final int bufferSize;
+
+    public StreamingRequestEntity(InputStream content, long contentLength, String contentType, int bufferSize) {
+        if (content == null) {
+            throw new IllegalArgumentException("The content cannot be null");
+        }
+        this.content = content;
+        this.contentLength = contentLength;
+        this.contentType = contentType;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public void writeRequest(OutputStream out) throws IOException {
+        ProxySupport.copy(content, out, bufferSize);
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+}
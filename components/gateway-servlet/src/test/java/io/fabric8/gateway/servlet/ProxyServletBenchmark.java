@@ -0,0 +1,219 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.servlet;
+
+import io.fabric8.gateway.model.HttpProxyRuleBase;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the throughput and the container threads used by the blocking and the async
+ * proxying modes of the {@link ProxyServlet} when the proxied service is slow.
+ * <p/>
+ * This is not run as part of the regular build; run it explicitly with
+ * <code>mvn test -Dtest=ProxyServletBenchmark</code>
+ */
+public class ProxyServletBenchmark {
+    private static final transient Logger LOG = LoggerFactory.getLogger(ProxyServletBenchmark.class);
+
+    static final int CONTAINER_THREADS = 32;
+    static final int CLIENTS = 400;
+    static final int REQUESTS_PER_CLIENT = 5;
+    static final long BACKEND_DELAY = 200;
+
+    private final List<Server> servers = new ArrayList<Server>();
+
+    @After
+    public void stopServers() throws Exception {
+        for (Server server : servers) {
+            server.stop();
+        }
+        servers.clear();
+    }
+
+    @Test
+    public void compareBlockingAndAsyncProxying() throws Exception {
+        int backendPort = startServer(new SlowServlet(), 500, false);
+
+        Result blocking = run("blocking", backendPort, false);
+        Result async = run("async", backendPort, true);
+
+        LOG.info(blocking.toString());
+        LOG.info(async.toString());
+        assertEquals(CLIENTS * REQUESTS_PER_CLIENT, blocking.successes);
+        assertEquals(CLIENTS * REQUESTS_PER_CLIENT, async.successes);
+    }
+
+    protected Result run(String name, int backendPort, boolean async) throws Exception {
+        BenchmarkProxyServlet servlet = new BenchmarkProxyServlet(backendPort);
+        ServletHolder holder = new ServletHolder(servlet);
+        holder.setInitParameter(ProxyServlet.ASYNC_ENABLED_PARAMETER, Boolean.toString(async));
+        holder.setInitParameter("maxConnectionsPerHost", Integer.toString(CLIENTS));
+        holder.setInitParameter("maxTotalConnections", Integer.toString(CLIENTS));
+        QueuedThreadPool threadPool = new QueuedThreadPool(CONTAINER_THREADS);
+        int proxyPort = startServer(holder, threadPool, async);
+
+        final URL url = new URL("http://localhost:" + proxyPort + "/slow/hello");
+        // warm up
+        request(url);
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        long start = System.nanoTime();
+        for (int i = 0; i < CLIENTS; i++) {
+            futures.add(clients.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int successes = 0;
+                    for (int j = 0; j < REQUESTS_PER_CLIENT; j++) {
+                        if (request(url)) {
+                            successes++;
+                        }
+                    }
+                    return successes;
+                }
+            }));
+        }
+        int maxBusyThreads = 0;
+        while (!allDone(futures)) {
+            maxBusyThreads = Math.max(maxBusyThreads, threadPool.getThreads() - threadPool.getIdleThreads());
+            Thread.sleep(10);
+        }
+        long elapsed = System.nanoTime() - start;
+        clients.shutdown();
+
+        Result result = new Result();
+        result.name = name;
+        for (Future<Integer> future : futures) {
+            result.successes += future.get();
+        }
+        result.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+        result.maxBusyContainerThreads = maxBusyThreads;
+        return result;
+    }
+
+    protected boolean request(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            InputStream in = connection.getInputStream();
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // drain the response so the connection can be reused
+            }
+            in.close();
+            return connection.getResponseCode() == 200;
+        } catch (IOException e) {
+            LOG.debug("Request failed: " + e);
+            return false;
+        }
+    }
+
+    protected static boolean allDone(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected int startServer(HttpServlet servlet, int threads, boolean async) throws Exception {
+        return startServer(new ServletHolder(servlet), new QueuedThreadPool(threads), async);
+    }
+
+    protected int startServer(ServletHolder holder, QueuedThreadPool threadPool, boolean async) throws Exception {
+        Server server = new Server();
+        server.setThreadPool(threadPool);
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort(0);
+        connector.setAcceptQueueSize(CLIENTS * 2);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        holder.setAsyncSupported(async);
+        context.addServlet(holder, "/*");
+        server.setHandler(context);
+        server.start();
+        servers.add(server);
+        return connector.getLocalPort();
+    }
+
+    static class Result {
+        String name;
+        int successes;
+        long elapsedMillis;
+        int maxBusyContainerThreads;
+
+        @Override
+        public String toString() {
+            double throughput = elapsedMillis > 0 ? successes * 1000.0 / elapsedMillis : 0;
+            return String.format("%s proxying: %d requests in %d ms (%.1f req/s) using at most %d of %d container threads",
+                    name, successes, elapsedMillis, throughput, maxBusyContainerThreads, CONTAINER_THREADS);
+        }
+    }
+
+    static class BenchmarkProxyServlet extends ProxyServlet {
+        private final int backendPort;
+
+        BenchmarkProxyServlet(int backendPort) {
+            this.backendPort = backendPort;
+        }
+
+        @Override
+        protected void loadRuleBase(ServletConfig config, HttpProxyRuleBase ruleBase) throws ServletException {
+            ruleBase.rule("/slow/{path}").to("http://localhost:" + backendPort + "/{path}");
+        }
+    }
+
+    static class SlowServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            try {
+                Thread.sleep(BACKEND_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().write("Hello");
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.servlet;
+
+import io.fabric8.gateway.model.HttpProxyRuleBase;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProxyServletTest {
+    private final List<Server> servers = new ArrayList<Server>();
+
+    @After
+    public void stopServers() throws Exception {
+        for (Server server : servers) {
+            server.stop();
+        }
+        servers.clear();
+    }
+
+    @Test
+    public void cookiesAreNotSharedBetweenUsers() throws Exception {
+        assertCookiesNotShared(false);
+    }
+
+    @Test
+    public void cookiesAreNotSharedBetweenUsersWhenAsync() throws Exception {
+        assertCookiesNotShared(true);
+    }
+
+    @Test
+    public void asyncTimeoutRespondsWithGatewayTimeout() throws Exception {
+        int backendPort = startServer(new ServletHolder(new SessionServlet()), false);
+        ServletHolder holder = new ServletHolder(new TestProxyServlet(backendPort));
+        holder.setInitParameter(ProxyServlet.ASYNC_ENABLED_PARAMETER, "true");
+        holder.setInitParameter("asyncTimeout", "200");
+        int proxyPort = startServer(holder, true);
+
+        HttpURLConnection connection = open("http://localhost:" + proxyPort + "/backend/slow", null);
+        long start = System.currentTimeMillis();
+        assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, connection.getResponseCode());
+        // the timeout does not wait for the proxied service to respond
+        assertTrue(System.currentTimeMillis() - start < SessionServlet.SLOW_RESPONSE_MILLIS);
+    }
+
+    @Test
+    public void requestBodyIsProxied() throws Exception {
+        assertRequestBodyProxied(false);
+    }
+
+    @Test
+    public void requestBodyIsProxiedWhenAsync() throws Exception {
+        assertRequestBodyProxied(true);
+    }
+
+    @Test
+    public void unreachableServiceRespondsWithBadGatewayWhenAsync() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int unusedPort = socket.getLocalPort();
+        socket.close();
+        ServletHolder holder = new ServletHolder(new TestProxyServlet(unusedPort));
+        holder.setInitParameter(ProxyServlet.ASYNC_ENABLED_PARAMETER, "true");
+        int proxyPort = startServer(holder, true);
+
+        HttpURLConnection connection = open("http://localhost:" + proxyPort + "/backend/whoami", null);
+        assertEquals(HttpServletResponse.SC_BAD_GATEWAY, connection.getResponseCode());
+    }
+
+    protected void assertRequestBodyProxied(boolean async) throws Exception {
+        int backendPort = startServer(new ServletHolder(new SessionServlet()), false);
+        ServletHolder holder = new ServletHolder(new TestProxyServlet(backendPort));
+        holder.setInitParameter(ProxyServlet.ASYNC_ENABLED_PARAMETER, Boolean.toString(async));
+        holder.setInitParameter(ProxyServlet.STREAM_BUFFER_SIZE_PARAMETER, "1024");
+        int proxyPort = startServer(holder, async);
+        String proxyUrl = "http://localhost:" + proxyPort + "/backend/echo?x=1";
+
+        // a body many times the size of the stream buffer
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 100000) {
+            body.append("{\"value\": ").append(body.length()).append("}\n");
+        }
+        assertEquals("application/json:" + body, post(proxyUrl, "application/json", body.toString()));
+        assertEquals("application/x-www-form-urlencoded:name=a+b", post(proxyUrl, "application/x-www-form-urlencoded", "name=a+b"));
+    }
+
+    protected String post(String url, String contentType, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", contentType);
+        OutputStream out = connection.getOutputStream();
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+        assertEquals(200, connection.getResponseCode());
+        return read(connection);
+    }
+
+    protected void assertCookiesNotShared(boolean async) throws Exception {
+        int backendPort = startServer(new ServletHolder(new SessionServlet()), false);
+        ServletHolder holder = new ServletHolder(new TestProxyServlet(backendPort));
+        holder.setInitParameter(ProxyServlet.ASYNC_ENABLED_PARAMETER, Boolean.toString(async));
+        int proxyPort = startServer(holder, async);
+        String proxyUrl = "http://localhost:" + proxyPort + "/backend/";
+
+        // alice logs in and is given her session cookie
+        HttpURLConnection alice = open(proxyUrl + "login/alice", null);
+        assertEquals(200, alice.getResponseCode());
+        String setCookie = alice.getHeaderField("Set-Cookie");
+        assertNotNull("Set-Cookie should be passed back to the client", setCookie);
+        assertTrue(setCookie, setCookie.startsWith("session=alice"));
+        read(alice);
+
+        // bob has no cookies so the back end must not see alice's session
+        HttpURLConnection bob = open(proxyUrl + "whoami", null);
+        assertEquals(200, bob.getResponseCode());
+        assertEquals("anonymous", read(bob));
+
+        // alice's own cookie is still passed on
+        HttpURLConnection aliceAgain = open(proxyUrl + "whoami", "session=alice");
+        assertEquals(200, aliceAgain.getResponseCode());
+        assertEquals("session=alice", read(aliceAgain));
+    }
+
+    protected HttpURLConnection open(String url, String cookie) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (cookie != null) {
+            connection.setRequestProperty("Cookie", cookie);
+        }
+        return connection;
+    }
+
+    protected String read(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    protected int startServer(ServletHolder holder, boolean async) throws Exception {
+        Server server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        holder.setAsyncSupported(async);
+        context.addServlet(holder, "/*");
+        server.setHandler(context);
+        server.start();
+        servers.add(server);
+        return connector.getLocalPort();
+    }
+
+    static class TestProxyServlet extends ProxyServlet {
+        private final int backendPort;
+
+        TestProxyServlet(int backendPort) {
+            this.backendPort = backendPort;
+        }
+
+        @Override
+        protected void loadRuleBase(ServletConfig config, HttpProxyRuleBase ruleBase) throws ServletException {
+            ruleBase.rule("/backend/{path}").to("http://localhost:" + backendPort + "/{path}");
+        }
+    }
+
+    /**
+     * Hands out a session cookie on <code>/login/{user}</code>, responds slowly on <code>/slow</code>
+     * and echoes the cookies it is sent otherwise; a post is answered with its content type and body
+     */
+    static class SessionServlet extends HttpServlet {
+        static final long SLOW_RESPONSE_MILLIS = 2000;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            String path = req.getPathInfo() != null ? req.getPathInfo() : req.getServletPath();
+            resp.setContentType("text/plain");
+            if (path.equals("/slow")) {
+                try {
+                    Thread.sleep(SLOW_RESPONSE_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                resp.getWriter().write("too late");
+            } else if (path.startsWith("/login/")) {
+                resp.setHeader("Set-Cookie", "session=" + path.substring("/login/".length()) + "; Path=/");
+                resp.getWriter().write("welcome");
+            } else {
+                String cookie = req.getHeader("Cookie");
+                resp.getWriter().write(cookie != null ? cookie : "anonymous");
+            }
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            String contentType = req.getContentType();
+            String body;
+            if (contentType.startsWith("application/x-www-form-urlencoded")) {
+                body = "name=" + URLEncoder.encode(req.getParameter("name"), "UTF-8");
+            } else {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int n;
+                while ((n = req.getInputStream().read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                body = out.toString("UTF-8");
+            }
+            resp.getWriter().write(contentType + ":" + body);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.servlet.support;
+
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HttpClientConnectionPoolTest {
+    private final HttpClientConnectionPool pool = new HttpClientConnectionPool();
+    private Server server;
+
+    @After
+    public void stop() throws Exception {
+        pool.stop();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void defaults() throws Exception {
+        assertEquals(HttpClientConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST, pool.getMaxConnectionsPerHost());
+        assertEquals(HttpClientConnectionPool.DEFAULT_MAX_TOTAL_CONNECTIONS, pool.getMaxTotalConnections());
+        assertEquals(HttpClientConnectionPool.DEFAULT_CONNECTION_TIMEOUT, pool.getConnectionTimeout());
+        assertEquals(HttpClientConnectionPool.DEFAULT_SOCKET_TIMEOUT, pool.getSocketTimeout());
+        assertEquals(HttpClientConnectionPool.DEFAULT_IDLE_CONNECTION_TIMEOUT, pool.getIdleConnectionTimeout());
+        assertTrue(pool.isStaleCheckingEnabled());
+        assertEquals(0, pool.getConnectionsInPool());
+    }
+
+    @Test
+    public void settingsApplyToConnectionManager() throws Exception {
+        pool.setMaxConnectionsPerHost(5);
+        pool.setMaxTotalConnections(50);
+        pool.setConnectionTimeout(1000);
+        pool.setSocketTimeout(2000);
+        pool.setStaleCheckingEnabled(false);
+        pool.setIdleConnectionTimeout(3000);
+
+        assertEquals(5, pool.getMaxConnectionsPerHost());
+        assertEquals(50, pool.getMaxTotalConnections());
+        assertEquals(1000, pool.getConnectionTimeout());
+        assertEquals(2000, pool.getSocketTimeout());
+        assertFalse(pool.isStaleCheckingEnabled());
+        assertEquals(3000, pool.getIdleConnectionTimeout());
+    }
+
+    @Test
+    public void connectionsAreReusedAcrossRequests() throws Exception {
+        CountingServlet servlet = new CountingServlet();
+        String url = "http://localhost:" + startServer(servlet) + "/hello";
+
+        for (int i = 0; i < 5; i++) {
+            GetMethod method = new GetMethod(url);
+            try {
+                assertEquals(200, pool.getHttpClient().executeMethod(method));
+                assertEquals("Hello", method.getResponseBodyAsString());
+            } finally {
+                method.releaseConnection();
+            }
+        }
+        assertEquals(5, servlet.requests.get());
+        assertEquals("one connection should have been pooled and reused", 1, pool.getConnectionsInPool());
+    }
+
+    @Test
+    public void idleConnectionThreadStartsAndStops() throws Exception {
+        pool.start();
+        assertTrue(isIdleConnectionThreadAlive());
+
+        pool.stop();
+        for (int i = 0; i < 50 && isIdleConnectionThreadAlive(); i++) {
+            Thread.sleep(100);
+        }
+        assertFalse(isIdleConnectionThreadAlive());
+    }
+
+    @Test
+    public void idleConnectionThreadNotStartedWhenDisabled() throws Exception {
+        pool.setIdleConnectionTimeout(0);
+        pool.start();
+        assertFalse(isIdleConnectionThreadAlive());
+    }
+
+    @Test
+    public void registersWithMBeanServer() throws Exception {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        pool.setObjectName(new ObjectName("io.fabric8.gateway-servlet:service=HttpClientConnectionPool,name=test"));
+        pool.registerMBeanServer(mbeanServer);
+        try {
+            assertTrue(mbeanServer.isRegistered(pool.getObjectName()));
+            assertEquals(HttpClientConnectionPool.DEFAULT_MAX_TOTAL_CONNECTIONS,
+                    mbeanServer.getAttribute(pool.getObjectName(), "MaxTotalConnections"));
+        } finally {
+            pool.unregisterMBeanServer(mbeanServer);
+        }
+        assertFalse(mbeanServer.isRegistered(pool.getObjectName()));
+    }
+
+    protected static boolean isIdleConnectionThreadAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("fabric8-gateway-idle-connection-closer".equals(thread.getName()) && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected int startServer(HttpServlet servlet) throws Exception {
+        server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(servlet), "/*");
+        server.setHandler(context);
+        server.start();
+        return connector.getLocalPort();
+    }
+
+    static class CountingServlet extends HttpServlet {
+        final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            requests.incrementAndGet();
+            resp.setContentType("text/plain");
+            resp.getWriter().write("Hello");
+        }
+    }
+}
@@ -17,8 +17,15 @@ package io.fabric8.gateway.servlet.support;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 public class ProxySupportTest {
@@ -113,4 +120,37 @@ public class ProxySupportTest {
         assertThat(rewritten, equalTo("JSESSIONID=Y-9KtnLehgsF3yaDa80cqoaf.dhcp-208-183"));
     }
 
+
+    @Test
+    public void copyStreamsAllBytes() throws Exception {
+        final byte[] data = new byte[200 * 1024 + 17];
+        new Random(42).nextBytes(data);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(ProxySupport.copy(new ByteArrayInputStream(data), out, 4096), is((long) data.length));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void copyReusesBufferOnSameThread() throws Exception {
+        final RecordingInputStream first = new RecordingInputStream(new byte[100]);
+        final RecordingInputStream second = new RecordingInputStream(new byte[100]);
+        ProxySupport.copy(first, new ByteArrayOutputStream(), 4096);
+        ProxySupport.copy(second, new ByteArrayOutputStream(), 4096);
+        assertThat(first.buffer.length, is(4096));
+        assertSame(first.buffer, second.buffer);
+    }
+
+    private static class RecordingInputStream extends ByteArrayInputStream {
+        private byte[] buffer;
+
+        RecordingInputStream(final byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public int read(final byte[] b) throws IOException {
+            buffer = b;
+            return super.read(b);
+        }
+    }
 }